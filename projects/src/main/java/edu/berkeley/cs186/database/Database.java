@@ -1,16 +1,29 @@
 package edu.berkeley.cs186.database;
 
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.*;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 import edu.berkeley.cs186.database.concurrency.*;
 import edu.berkeley.cs186.database.index.BPlusTree;
+import edu.berkeley.cs186.database.index.LeafEntry;
+import edu.berkeley.cs186.database.io.BufferPool;
+import edu.berkeley.cs186.database.io.MetricsRegistry;
 import edu.berkeley.cs186.database.io.Page;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.List;
 import java.util.Iterator;
 
@@ -19,13 +32,31 @@ import java.util.ArrayList;
 import java.util.Set;
 import java.util.HashSet;
 
+/**
+ * A database of tables and indices stored in one directory.
+ *
+ * Opening a Database only lists the files in its directory. Each table and index on disk is opened
+ * the first time it is used, so startup does not depend on the size of the catalog, and openAll
+ * opens every one of them at once on a bounded fork-join pool.
+ *
+ * Properties:
+ * `tableLookup`: the tables of this database by name, opened or not
+ * `indexLookup`: the indices of this database by "table,column", opened or not
+ * `metrics`: the I/O metrics of every opened table and index
+ * `bufferPool`: the buffer pool caching the pages of every table and index of this database
+ */
 public class Database {
-  private Map<String, Table> tableLookup;
-  private Map<String, BPlusTree> indexLookup;
+  public static final int MAX_OPEN_THREADS = 8;
+  public static final int BULK_LOAD_BATCH_SIZE = 4096;
+
+  private Map<String, LazyEntry<Table>> tableLookup;
+  private Map<String, LazyEntry<BPlusTree>> indexLookup;
   private long numTransactions;
   private String fileDir;
   private LockManager lockMan;
   private int numMemoryPages;
+  private MetricsRegistry metrics;
+  private BufferPool bufferPool;
 
   /**
    * Creates a new database.
@@ -47,14 +78,32 @@ public class Database {
    * @throws DatabaseException
    */
   public Database(String fileDir, int numMemoryPages) throws DatabaseException {
+    this(fileDir, numMemoryPages, Math.max(numMemoryPages, BufferPool.DEFAULT_NUM_FRAMES));
+  }
+
+  /**
+   * Creates a new database whose tables and indices are cached in a buffer pool of its own.
+   *
+   * @param fileDir the directory to put the table files in
+   * @param numMemoryPages the number of pages of memory Database Operations should use when executing Queries
+   * @param numBufferFrames the number of pages the buffer pool of this database holds; at least
+   *        numMemoryPages, so that queries can pin as many pages as they are allowed to use
+   * @throws DatabaseException if numBufferFrames is smaller than numMemoryPages
+   */
+  public Database(String fileDir, int numMemoryPages, int numBufferFrames) throws DatabaseException {
+    if (numBufferFrames < numMemoryPages) {
+      throw new DatabaseException("The buffer pool must hold at least " + numMemoryPages + " pages");
+    }
     this.numMemoryPages = numMemoryPages;
+    this.bufferPool = new BufferPool(numBufferFrames);
     this.fileDir = fileDir;
     numTransactions = 0;
-    tableLookup = new ConcurrentHashMap<String, Table>();
-    indexLookup = new ConcurrentHashMap<String, BPlusTree>();
+    tableLookup = new ConcurrentHashMap<String, LazyEntry<Table>>();
+    indexLookup = new ConcurrentHashMap<String, LazyEntry<BPlusTree>>();
 
     File dir = new File(fileDir);
     lockMan = new LockManager();
+    metrics = new MetricsRegistry();
 
     if (!dir.exists()) {
       dir.mkdirs();
@@ -66,12 +115,24 @@ public class Database {
       String fName = f.getName();
       if (fName.endsWith(Table.FILENAME_EXTENSION)) {
         int lastIndex = fName.lastIndexOf(Table.FILENAME_EXTENSION);
-        String tableName = fName.substring(0, lastIndex);
-        tableLookup.put(tableName, new Table(tableName, this.fileDir));
+        final String tableName = fName.substring(0, lastIndex);
+        tableLookup.put(tableName, new LazyEntry<Table>() {
+          Table open() {
+            Table table = new Table(tableName, Database.this.fileDir, Database.this.bufferPool);
+            Database.this.metrics.register(tableMetricsName(tableName), table.getMetrics());
+            return table;
+          }
+        });
       } else if (fName.endsWith(BPlusTree.FILENAME_EXTENSION)) {
         int lastIndex = fName.lastIndexOf(BPlusTree.FILENAME_EXTENSION);
-        String indexName = fName.substring(0, lastIndex);
-        indexLookup.put(indexName, new BPlusTree(indexName, this.fileDir));
+        final String indexName = fName.substring(0, lastIndex);
+        indexLookup.put(indexName, new LazyEntry<BPlusTree>() {
+          BPlusTree open() {
+            BPlusTree index = new BPlusTree(indexName, Database.this.fileDir, Database.this.bufferPool);
+            Database.this.metrics.register(indexMetricsName(indexName), index.getMetrics());
+            return index;
+          }
+        });
       }
     }
   }
@@ -85,22 +146,63 @@ public class Database {
    * @throws DatabaseException
    */
   public synchronized void createTable(Schema s, String tableName) throws DatabaseException {
+    createTable(s, tableName, PageFormat.FIXED);
+  }
+
+  /**
+   * Create a new table in this database whose data pages have the given format.
+   *
+   * @param s the table schema
+   * @param tableName the name of the table
+   * @param format the layout of the table's data pages
+   * @throws DatabaseException
+   */
+  public synchronized void createTable(Schema s, String tableName, PageFormat format) throws DatabaseException {
     if (this.tableLookup.containsKey(tableName)) {
       throw new DatabaseException("Table name already exists");
     }
 
-    this.tableLookup.put(tableName, new Table(s, tableName, this.fileDir));
+    Table table = newTable(s, tableName, format);
+    this.tableLookup.put(tableName, LazyEntry.of(table));
+    this.metrics.register(tableMetricsName(tableName), table.getMetrics());
+  }
+
+  /**
+   * Creates the files of a new table.
+   *
+   * @throws DatabaseException if the records of the schema do not fit on a page of the format
+   */
+  private Table newTable(Schema s, String tableName, PageFormat format) throws DatabaseException {
+    try {
+      return new Table(s, tableName, this.fileDir, format, this.bufferPool);
+    } catch (IllegalArgumentException e) {
+      throw new DatabaseException(e.getMessage());
+    }
   }
 
   /**
    * Create a new table in this database with an index on each of the given column names.
-   * NOTE: YOU CAN NOT DELETE/UPDATE FROM THIS TABLE IF YOU CHOOSE TO BUILD INDICES!!
    * @param s the table schema
    * @param tableName the name of the table
    * @param indexColumns the list of unique columnNames on the maintain an index on
    * @throws DatabaseException
    */
   public synchronized void createTableWithIndices(Schema s, String tableName, List<String> indexColumns) throws DatabaseException {
+    createTableWithIndices(s, tableName, indexColumns, PageFormat.FIXED);
+  }
+
+  /**
+   * Create a new table in this database whose data pages have the given format, with an index on
+   * each of the given column names.
+   *
+   * @param s the table schema
+   * @param tableName the name of the table
+   * @param indexColumns the list of unique columnNames on the maintain an index on
+   * @param format the layout of the table's data pages
+   * @throws DatabaseException
+   */
+  public synchronized void createTableWithIndices(Schema s, String tableName, List<String> indexColumns,
+                                                  PageFormat format) throws DatabaseException {
     if (this.tableLookup.containsKey(tableName)) {
       throw new DatabaseException("Table name already exists");
     }
@@ -122,12 +224,16 @@ public class Database {
       schemaColIndex.add(schemaColNames.indexOf(col));
     }
 
-    this.tableLookup.put(tableName, new Table(s, tableName, this.fileDir));
+    Table table = newTable(s, tableName, format);
+    this.tableLookup.put(tableName, LazyEntry.of(table));
+    this.metrics.register(tableMetricsName(tableName), table.getMetrics());
     for (int i : schemaColIndex) {
       String colName = schemaColNames.get(i);
       DataBox colType = schemaColType.get(i);
       String indexName = tableName + "," + colName;
-      this.indexLookup.put(indexName, new BPlusTree(colType, indexName, this.fileDir));
+      BPlusTree index = new BPlusTree(colType, indexName, this.fileDir, this.bufferPool);
+      this.indexLookup.put(indexName, LazyEntry.of(index));
+      this.metrics.register(indexMetricsName(indexName), index.getMetrics());
     }
   }
 
@@ -142,11 +248,15 @@ public class Database {
       return false;
     }
 
-    this.tableLookup.get(tableName).close();
-    this.tableLookup.remove(tableName);
+    Table table = this.tableLookup.remove(tableName).getIfOpen();
+    if (table != null) {
+      table.close();
+    }
+    this.metrics.unregister(tableMetricsName(tableName));
 
     File f = new File(fileDir + tableName + Table.FILENAME_EXTENSION);
     f.delete();
+    new File(fileDir + tableName + Table.METADATA_EXTENSION).delete();
 
     return true;
   }
@@ -166,11 +276,128 @@ public class Database {
    * Close this database.
    */
   public synchronized void close() {
-    for (Table t : this.tableLookup.values()) {
-      t.close();
+    for (LazyEntry<Table> entry : this.tableLookup.values()) {
+      Table t = entry.getIfOpen();
+      if (t != null) {
+        t.close();
+      }
     }
 
     this.tableLookup.clear();
+    this.metrics.clear();
+  }
+
+  /**
+   * Open every table and index of this database that has not been opened yet, several at a time on
+   * a fork-join pool of at most MAX_OPEN_THREADS threads.
+   *
+   * @throws DatabaseException if a table or index could not be opened
+   */
+  public void openAll() throws DatabaseException {
+    List<LazyEntry<?>> entries = new ArrayList<LazyEntry<?>>();
+    entries.addAll(this.tableLookup.values());
+    entries.addAll(this.indexLookup.values());
+
+    int parallelism = Math.min(MAX_OPEN_THREADS, Runtime.getRuntime().availableProcessors());
+    ForkJoinPool pool = new ForkJoinPool(Math.max(1, parallelism));
+    try {
+      List<Future<?>> opens = new ArrayList<Future<?>>();
+      for (final LazyEntry<?> entry : entries) {
+        opens.add(pool.submit(new Runnable() {
+          public void run() {
+            entry.get();
+          }
+        }));
+      }
+      for (Future<?> open : opens) {
+        open.get();
+      }
+    } catch (ExecutionException e) {
+      throw new DatabaseException("Could not open table or index: " + e.getCause().getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DatabaseException("Interrupted while opening tables");
+    } finally {
+      pool.shutdown();
+    }
+  }
+
+  /**
+   * @param tableName the name of a table
+   * @return whether the table exists and has been opened
+   */
+  public boolean isTableOpen(String tableName) {
+    LazyEntry<Table> entry = this.tableLookup.get(tableName);
+    return entry != null && entry.getIfOpen() != null;
+  }
+
+  /**
+   * Get the registry holding the I/O metrics of every table and index in this database. Tables
+   * are registered as "table:<name>" and indices as "index:<table>,<column>". Call exposeViaJmx on
+   * the registry to publish them as MBeans.
+   *
+   * @return the metrics registry of this database
+   */
+  public MetricsRegistry getMetricsRegistry() {
+    return this.metrics;
+  }
+
+  /**
+   * @return the buffer pool caching the pages of every table and index in this database
+   */
+  public BufferPool getBufferPool() {
+    return this.bufferPool;
+  }
+
+  private static String tableMetricsName(String tableName) {
+    return "table:" + tableName;
+  }
+
+  private static String indexMetricsName(String indexName) {
+    return "index:" + indexName;
+  }
+
+  /**
+   * Compacts a table a few pages at a time, each step in a transaction of its own, so that the
+   * table is only locked for one step at a time. See Table#compact.
+   *
+   * @param tableName the name of the table
+   * @param pagesPerStep the most pages to free per step
+   * @return the number of pages freed
+   * @throws DatabaseException if the table does not exist
+   */
+  public int compactTable(String tableName, int pagesPerStep) throws DatabaseException {
+    int numFreed = 0;
+    while (true) {
+      Transaction t = beginTransaction();
+      int stepFreed;
+      try {
+        stepFreed = t.compactTable(tableName, pagesPerStep);
+      } finally {
+        t.end();
+      }
+      if (stepFreed == 0) {
+        return numFreed;
+      }
+      numFreed += stepFreed;
+    }
+  }
+
+  /**
+   * Builds an index on a column of an existing table, in a transaction of its own. See
+   * Transaction#createIndex.
+   *
+   * @param tableName the name of the table
+   * @param columnName the name of the column to index
+   * @throws DatabaseException if the table or column does not exist, or the index already does
+   */
+  public void createIndex(String tableName, String columnName) throws DatabaseException {
+    Transaction t = beginTransaction();
+    try {
+      t.createIndex(tableName, columnName);
+    } finally {
+      t.end();
+    }
   }
 
   /**
@@ -270,7 +497,8 @@ public class Database {
         f.mkdirs();
       }
 
-      this.tempTables.put(tempTableName, new Table(schema, tempTableName, Database.this.fileDir + "temp/"));
+      this.tempTables.put(tempTableName, new Table(schema, tempTableName, Database.this.fileDir + "temp/",
+          PageFormat.FIXED, Database.this.bufferPool));
       this.locksHeld.put(tempTableName, LockManager.LockType.EXCLUSIVE);
     }
 
@@ -302,6 +530,24 @@ public class Database {
       return new RecordIterator(tab, index.sortedScanFrom(startValue));
     }
 
+    /**
+     * Scans the records of a table whose values of a column are at least startValue and less than
+     * endValue, in order of that column, using the index on it.
+     *
+     * @param tableName the name of the table
+     * @param columnName the name of the indexed column
+     * @param startValue the smallest value to include, or null to start from the smallest value
+     * @param endValue the value to stop at, or null to scan to the largest value
+     * @return an iterator over the records in the range
+     * @throws DatabaseException if the table or the index does not exist
+     */
+    public Iterator<Record> sortedScanRange(String tableName, String columnName, DataBox startValue,
+                                            DataBox endValue) throws DatabaseException {
+      Table tab = getTable(tableName);
+      BPlusTree index = resolveIndexFromName(tableName, columnName);
+      return new RecordIterator(tab, index.sortedScanRange(startValue, endValue));
+    }
+
     public Iterator<Record> lookupKey(String tableName, String columnName, DataBox key) throws DatabaseException {
       Table tab = getTable(tableName);
       BPlusTree index = resolveIndexFromName(tableName, columnName);
@@ -315,11 +561,26 @@ public class Database {
     }
 
     public RecordID addRecord(String tableName, List<DataBox> values) throws DatabaseException {
+      return addRecord(tableName, values, null);
+    }
+
+    /**
+     * Adds a record to a table, as close as possible to another record of the table, and inserts
+     * its keys into the table's indices.
+     *
+     * @param tableName the name of the table
+     * @param values the values of the record
+     * @param near the RecordID of a record to store the new record close to, or null
+     * @return the RecordID of the added record
+     * @throws DatabaseException if the table does not exist or the values do not correspond to its
+     *         schema
+     */
+    public RecordID addRecord(String tableName, List<DataBox> values, RecordID near) throws DatabaseException {
       assert(this.active);
 
       checkAndGrabExclusiveLock(tableName);
       Table tab = getTable(tableName);
-      RecordID rid = tab.addRecord(values);
+      RecordID rid = tab.addRecord(values, near);
       Schema s = tab.getSchema();
       List<String> colNames = s.getFieldNames();
 
@@ -333,6 +594,154 @@ public class Database {
       return rid;
     }
 
+    /**
+     * Add many records to a table at once. Records are written a page at a time through
+     * Table#addRecords, and the keys of each batch of BULK_LOAD_BATCH_SIZE records are inserted
+     * into the table's indices in sorted order.
+     *
+     * Every row is checked against the schema before its batch is written, so if some values are
+     * invalid, the batches before them are loaded and nothing of their own batch is.
+     *
+     * @param tableName the name of the table
+     * @param rows the values of the records to add
+     * @return the number of records added
+     * @throws DatabaseException if the table does not exist or some values do not correspond to
+     *         its schema
+     */
+    public long bulkLoad(String tableName, Iterator<List<DataBox>> rows) throws DatabaseException {
+      assert(this.active);
+
+      checkAndGrabExclusiveLock(tableName);
+      Table tab = getTable(tableName);
+      Schema s = tab.getSchema();
+      List<String> colNames = s.getFieldNames();
+
+      List<Integer> indexColumns = new ArrayList<Integer>();
+      List<BPlusTree> indices = new ArrayList<BPlusTree>();
+      for (int i = 0; i < colNames.size(); i++) {
+        String col = colNames.get(i);
+        if (indexExists(tableName, col)) {
+          indexColumns.add(i);
+          indices.add(resolveIndexFromName(tableName, col));
+        }
+      }
+
+      long numLoaded = 0;
+      List<Record> batch = new ArrayList<Record>();
+      while (rows.hasNext()) {
+        batch.clear();
+        while (rows.hasNext() && batch.size() < BULK_LOAD_BATCH_SIZE) {
+          try {
+            batch.add(s.verify(rows.next()));
+          } catch (SchemaException se) {
+            throw new DatabaseException(se.getMessage());
+          }
+        }
+
+        List<RecordID> rids = tab.addVerifiedRecords(batch);
+        for (int i = 0; i < indices.size(); i++) {
+          insertSorted(indices.get(i), indexColumns.get(i), batch, rids);
+        }
+        numLoaded += batch.size();
+      }
+
+      return numLoaded;
+    }
+
+    /**
+     * Insert the keys of a batch of records into an index in sorted order, so that consecutive
+     * inserts land on the same leaves.
+     */
+    private void insertSorted(BPlusTree index, final int column, final List<Record> batch,
+                              List<RecordID> rids) {
+      Integer[] order = new Integer[batch.size()];
+      for (int i = 0; i < order.length; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, new Comparator<Integer>() {
+        public int compare(Integer i, Integer j) {
+          return batch.get(i).getValue(column).compareTo(batch.get(j).getValue(column));
+        }
+      });
+
+      for (int i : order) {
+        index.insertKey(batch.get(i).getValue(column), rids.get(i));
+      }
+    }
+
+    /**
+     * Builds an index on a column of an existing table from the records already in it. The
+     * (key, RecordID) pairs of the records are sorted externally: runs of as many pairs as fit in
+     * getNumMemoryPages() pages are sorted in memory and written to temporary tables, and the runs
+     * are then merged into BPlusTree#bulkLoad, which builds the index bottom up.
+     *
+     * @param tableName the name of the table
+     * @param columnName the name of the column to index
+     * @throws DatabaseException if the table or column does not exist, or the index already does
+     */
+    public void createIndex(String tableName, String columnName) throws DatabaseException {
+      assert(this.active);
+
+      if (!Database.this.tableLookup.containsKey(tableName)) {
+        throw new DatabaseException("Table: " + tableName + " does not exist");
+      }
+      checkAndGrabExclusiveLock(tableName);
+      Table tab = getTable(tableName);
+      Schema s = tab.getSchema();
+      int column = s.getFieldNames().indexOf(columnName);
+      if (column == -1) {
+        throw new DatabaseException("Column desired for index does not exist");
+      }
+      String indexName = tableName + "," + columnName;
+      if (Database.this.indexLookup.containsKey(indexName)) {
+        throw new DatabaseException("Index already exists");
+      }
+
+      DataBox keyType = s.getFieldTypes().get(column);
+      List<Table> runs = writeSortedRuns(tab, column, keyType, indexName);
+      List<Iterator<Record>> runIterators = new ArrayList<Iterator<Record>>();
+      for (Table run : runs) {
+        runIterators.add(run.iterator());
+      }
+
+      BPlusTree index = new BPlusTree(keyType, indexName, Database.this.fileDir, Database.this.bufferPool);
+      index.bulkLoad(new SortedRunMerger(runIterators));
+      Database.this.indexLookup.put(indexName, LazyEntry.of(index));
+      Database.this.metrics.register(indexMetricsName(indexName), index.getMetrics());
+    }
+
+    /**
+     * Write the (key, page number, entry number) rows of the records of a table to temporary
+     * tables, each sorted and holding at most getNumMemoryPages() pages of rows. The table is
+     * scanned once, a page at a time.
+     *
+     * @return the temporary tables
+     */
+    private List<Table> writeSortedRuns(Table tab, int column, DataBox keyType, String indexName)
+        throws DatabaseException {
+      List<String> fieldNames = Arrays.asList("key", "pageNum", "entryNum");
+      List<DataBox> fieldTypes = Arrays.asList(keyType, new IntDataBox(), new IntDataBox());
+      Schema runSchema = new Schema(fieldNames, fieldTypes);
+
+      List<Table> runs = new ArrayList<Table>();
+      Iterator<List<DataBox>> rows = tab.keyIterator(column);
+      while (rows.hasNext()) {
+        String runName = indexName + ",run" + runs.size();
+        createTempTable(runSchema, runName);
+        Table runTable = this.tempTables.get(runName);
+        int runSize = Database.this.numMemoryPages * runTable.getNumEntriesPerPage();
+
+        List<List<DataBox>> run = new ArrayList<List<DataBox>>();
+        while (rows.hasNext() && run.size() < runSize) {
+          run.add(rows.next());
+        }
+        Collections.sort(run, RUN_ROW_COMPARATOR);
+        runTable.addRecords(run.iterator());
+        runs.add(runTable);
+      }
+      return runs;
+    }
+
     public int getNumMemoryPages() throws DatabaseException {
       assert(this.active);
 
@@ -340,6 +749,13 @@ public class Database {
 
     }
 
+    /**
+     * Deletes a record from a table, and deletes its keys from the table's indices.
+     *
+     * @param tableName the name of the table
+     * @param rid the RecordID of the record
+     * @throws DatabaseException if the table does not exist or rid is not a valid record of it
+     */
     public void deleteRecord(String tableName, RecordID rid) throws DatabaseException {
       assert(active);
 
@@ -353,9 +769,56 @@ public class Database {
       for (int i = 0; i < colNames.size(); i++) {
         String col = colNames.get(i);
         if (indexExists(tableName, col)) {
-          resolveIndexFromName(tableName, col).deleteKey(values.get(i), rid);
+          deleteIndexEntry(tableName, col, values.get(i), rid);
+        }
+      }
+    }
+
+    /**
+     * Deletes the entry of a record from an index. Every record has an entry in each index of its
+     * table, so a missing entry means the index no longer matches the table.
+     *
+     * @throws DatabaseException if the index has no entry for the record
+     */
+    private void deleteIndexEntry(String tableName, String col, DataBox key, RecordID rid)
+        throws DatabaseException {
+      if (!resolveIndexFromName(tableName, col).deleteKey(key, rid)) {
+        throw new DatabaseException("Index on column " + col + " of table " + tableName
+            + " has no entry for record " + rid);
+      }
+    }
+
+    /**
+     * Runs one step of the compaction of a table, and points the entries of the table's indices
+     * at the new RecordIDs of the records that were moved. See Table#compact.
+     *
+     * @param tableName the name of the table
+     * @param maxPages the most pages to free
+     * @return the number of pages freed, which is 0 once there is nothing left to compact
+     * @throws DatabaseException if the table does not exist
+     */
+    public int compactTable(String tableName, int maxPages) throws DatabaseException {
+      assert(active);
+
+      checkAndGrabExclusiveLock(tableName);
+      Table tab = getTable(tableName);
+      Map<RecordID, RecordID> moved = new HashMap<RecordID, RecordID>();
+      int numFreed = tab.compact(maxPages, moved);
+
+      List<String> colNames = tab.getSchema().getFieldNames();
+      for (int i = 0; i < colNames.size(); i++) {
+        String col = colNames.get(i);
+        if (!indexExists(tableName, col)) {
+          continue;
+        }
+        BPlusTree index = resolveIndexFromName(tableName, col);
+        for (Map.Entry<RecordID, RecordID> entry : moved.entrySet()) {
+          DataBox key = tab.getRecord(entry.getValue()).getValue(i);
+          index.updateRecordID(key, entry.getKey(), entry.getValue());
         }
       }
+
+      return numFreed;
     }
 
     public Record getRecord(String tableName, RecordID rid) throws DatabaseException {
@@ -372,6 +835,20 @@ public class Database {
       return getTable(tableName).iterator();
     }
 
+    /**
+     * @param tableName the table to scan
+     * @param columns the indices of the columns to decode
+     * @return an iterator over the records of the table, in which only the given columns are
+     * decoded and the values of the others are null
+     * @throws DatabaseException
+     */
+    public Iterator<Record> getRecordIterator(String tableName, Collection<Integer> columns) throws DatabaseException {
+      assert(this.active);
+
+      checkAndGrabSharedLock(tableName);
+      return getTable(tableName).iterator(columns);
+    }
+
     public Iterator<Page> getPageIterator(String tableName) throws DatabaseException {
       assert(this.active);
 
@@ -379,6 +856,15 @@ public class Database {
       return getTable(tableName).pageIterator();
     }
 
+    /**
+     * Updates a record of a table, and moves its entries in the table's indices whose keys changed.
+     *
+     * @param tableName the name of the table
+     * @param values the new values of the record
+     * @param rid the RecordID of the record
+     * @throws DatabaseException if the table does not exist, rid is not a valid record of it, or
+     *         the values do not correspond to its schema
+     */
     public void updateRecord(String tableName, List<DataBox> values, RecordID rid) throws DatabaseException {
       assert(this.active);
       checkAndGrabExclusiveLock(tableName);
@@ -392,10 +878,9 @@ public class Database {
 
       for (int i = 0; i < colNames.size(); i++) {
         String col = colNames.get(i);
-        if (indexExists(tableName, col)) {
-          BPlusTree tree = resolveIndexFromName(tableName, col);
-          tree.deleteKey(oldValues.get(i), rid);
-          tree.insertKey(values.get(i), rid);
+        if (indexExists(tableName, col) && !oldValues.get(i).equals(values.get(i))) {
+          deleteIndexEntry(tableName, col, oldValues.get(i), rid);
+          resolveIndexFromName(tableName, col).insertKey(values.get(i), rid);
         }
       }
     }
@@ -414,6 +899,13 @@ public class Database {
       return getTable(tableName).getNumDataPages();
     }
 
+    public PageFormat getPageFormat(String tableName) throws DatabaseException {
+      assert(this.active);
+
+      checkAndGrabSharedLock(tableName);
+      return getTable(tableName).getPageFormat();
+    }
+
     public int getNumEntriesPerPage(String tableName) throws DatabaseException {
       assert(this.active);
 
@@ -495,7 +987,7 @@ public class Database {
       }
       String indexName = tableName + "," + columnName;
       if (Database.this.indexLookup.containsKey(indexName)) {
-        return Database.this.indexLookup.get(indexName);
+        return Database.this.indexLookup.get(indexName).get();
       }
       throw new DatabaseException("Index does not exist");
     }
@@ -513,7 +1005,7 @@ public class Database {
         throw new DatabaseException("Table: " + tableName + "does not exist");
       }
       checkAndGrabSharedLock(tableName);
-      return Database.this.tableLookup.get(tableName);
+      return Database.this.tableLookup.get(tableName).get();
     }
 
     private void checkAndGrabSharedLock(String tableName) throws DatabaseException{
@@ -579,6 +1071,7 @@ public class Database {
 
       File f = new File(Database.this.fileDir + "temp/" + tempTableName + Table.FILENAME_EXTENSION);
       f.delete();
+      new File(Database.this.fileDir + "temp/" + tempTableName + Table.METADATA_EXTENSION).delete();
     }
 
     private void deleteAllTempTables() {
@@ -589,4 +1082,120 @@ public class Database {
       }
     }
   }
+
+  /**
+   * Orders the (key, page number, entry number) rows of the sorted runs of Transaction#createIndex
+   * by key, then by RecordID.
+   */
+  private static final Comparator<List<DataBox>> RUN_ROW_COMPARATOR = new Comparator<List<DataBox>>() {
+    public int compare(List<DataBox> left, List<DataBox> right) {
+      for (int i = 0; i < 3; i++) {
+        int cmp = left.get(i).compareTo(right.get(i));
+        if (cmp != 0) {
+          return cmp;
+        }
+      }
+      return 0;
+    }
+  };
+
+  /**
+   * Merges sorted runs of (key, page number, entry number) records into one sorted sequence of
+   * LeafEntries, reading one record of each run at a time.
+   *
+   * Properties:
+   * `heads`: the next record of each run that has one, with the rest of the run
+   */
+  private static class SortedRunMerger implements Iterator<LeafEntry> {
+    private PriorityQueue<RunHead> heads;
+
+    SortedRunMerger(List<Iterator<Record>> runs) {
+      this.heads = new PriorityQueue<RunHead>(Math.max(1, runs.size()), new Comparator<RunHead>() {
+        public int compare(RunHead left, RunHead right) {
+          return RUN_ROW_COMPARATOR.compare(left.record.getValues(), right.record.getValues());
+        }
+      });
+      for (Iterator<Record> run : runs) {
+        if (run.hasNext()) {
+          this.heads.add(new RunHead(run.next(), run));
+        }
+      }
+    }
+
+    public boolean hasNext() {
+      return !this.heads.isEmpty();
+    }
+
+    public LeafEntry next() {
+      RunHead head = this.heads.poll();
+      if (head == null) {
+        throw new NoSuchElementException();
+      }
+      List<DataBox> values = head.record.getValues();
+      LeafEntry entry = new LeafEntry(values.get(0), new RecordID(values.get(1).getInt(), values.get(2).getInt()));
+      if (head.run.hasNext()) {
+        this.heads.add(new RunHead(head.run.next(), head.run));
+      }
+      return entry;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    private static class RunHead {
+      private Record record;
+      private Iterator<Record> run;
+
+      RunHead(Record record, Iterator<Record> run) {
+        this.record = record;
+        this.run = run;
+      }
+    }
+  }
+
+  /**
+   * A table or index that is opened the first time it is asked for, by whichever thread asks first.
+   *
+   * @param <T> the type of object opened
+   */
+  private abstract static class LazyEntry<T> {
+    private volatile T value;
+
+    static <T> LazyEntry<T> of(final T value) {
+      LazyEntry<T> entry = new LazyEntry<T>() {
+        T open() {
+          return value;
+        }
+      };
+      entry.value = value;
+      return entry;
+    }
+
+    /**
+     * @return the object, opening it if this is the first time it is needed
+     */
+    T get() {
+      T result = this.value;
+      if (result == null) {
+        synchronized (this) {
+          result = this.value;
+          if (result == null) {
+            result = open();
+            this.value = result;
+          }
+        }
+      }
+      return result;
+    }
+
+    /**
+     * @return the object if it has been opened, or null otherwise
+     */
+    T getIfOpen() {
+      return this.value;
+    }
+
+    abstract T open();
+  }
 }
@@ -4,30 +4,38 @@ import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.table.RecordID;
 
-import java.util.Collections;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.ArrayList;
 
 /**
- * A B+ tree node. A node is represented as a page with a page header, entry
- * bitmap, and entries. The type of page header and entry are determined by the
- * subclasses InnerNode and LeafNode.
+ * A B+ tree node. A node is represented as a page with a page header, the
+ * number of entries of the node, and its entries. The type of page header and
+ * entry are determined by the subclasses InnerNode and LeafNode.
+ *
+ * The entries of a node are kept sorted and packed at the start of the entry
+ * area, so that entry i is always the i-th smallest. Lookups binary search
+ * over the raw key bytes of the page, and only decode the entries they return.
+ * Inserts shift the entries after the new one in place. Entries with equal keys
+ * are ordered by RecordID in leaves. In inner nodes they are kept in the order
+ * of their children, which is the order of the leaf links, so a separator is
+ * always inserted right after the entry of the child that split.
  *
  * Properties:
  * keySchema: DataBox for this index's search key
  * entrySize: physical size (in bytes) of the page entry of this node
  * numEntries: number of entries this node can hold
- * bitMapSize: physical size (in bytes) of a page header entry bitmap
  * headerSize: physical size (in bytes) of the rest of the page header
  * tree`: BPlusTree containing this node
  * pageNum`: page number corresponding to this node
  */
 public abstract class BPlusNode {
+    private static final int COUNT_SIZE = 4;
+
     private DataBox keySchema;
 
     private int entrySize;
     protected int numEntries;
-    private int bitMapSize;
     private int headerSize;
     private BPlusTree tree;
     private int pageNum;
@@ -52,8 +60,7 @@ public abstract class BPlusNode {
             this.entrySize = keySchema.getSize() + 4;
         }
 
-        this.bitMapSize = (8 * (Page.pageSize - 5) / (1 + 8 * this.entrySize)) / 8;
-        this.numEntries = bitMapSize * 8;
+        this.numEntries = (Page.pageSize - this.headerSize - COUNT_SIZE) / this.entrySize;
     }
 
     /**
@@ -75,7 +82,7 @@ public abstract class BPlusNode {
      * @return BPlusNode object that exists on this Page
      */
     public static BPlusNode getBPlusNode(BPlusTree tree, int pageNum) {
-        if (tree.allocator.fetchPage(pageNum).readByte(0) == (byte) 0) {
+        if (tree.allocator.fetchPage(pageNum).getByte(0) == (byte) 0) {
             return new InnerNode(tree, pageNum);
         }
         return new LeafNode(tree, pageNum);
@@ -95,7 +102,14 @@ public abstract class BPlusNode {
     }
 
     public boolean hasSpace() {
-        return findFreeEntry() > -1;
+        return getNumValidEntries() < this.numEntries;
+    }
+
+    /**
+     * @return the number of entries stored in this node
+     */
+    public int getNumValidEntries() {
+        return getPage().getInt(headerSize);
     }
 
     /**
@@ -118,113 +132,264 @@ public abstract class BPlusNode {
         throw new BPlusTreeException("Not Implemented");
     }
 
-    private byte[] getBitMap() {
-        return getPage().readBytes(headerSize, bitMapSize);
+    /**
+     * @param entryNum the position of an entry
+     * @return starting byte of entry indicated by entryNum
+     */
+    private int getOffset(int entryNum) {
+        return entryNum*entrySize + this.headerSize + COUNT_SIZE;
     }
 
-    private void setBitMap(byte[] bitMap) {
-        getPage().writeBytes(headerSize, bitMapSize, bitMap);
+    /**
+     * Read a BEntry from the entryNum specified.
+     *
+     * @param entryNum the entry number to read from
+     * @return the BEntry corresponding to the entryNum
+     */
+    protected BEntry readEntry(Page page, int entryNum) {
+        if (isLeaf()) {
+            return new LeafEntry(this.keySchema, page.readBytes(getOffset(entryNum), entrySize));
+        } else {
+            return new InnerEntry(this.keySchema, page.readBytes(getOffset(entryNum), entrySize));
+        }
     }
 
     /**
-     * @param entryNum position of bit on bitmap
-     * @return starting byte of entry indicated by entryNum
+     * Read the RecordID of a leaf entry without decoding its key.
+     *
+     * @param entryNum the entry number to read from
+     * @return the RecordID of the entry
      */
+    protected RecordID readRecordID(Page page, int entryNum) {
+        int offset = getOffset(entryNum) + keySchema.getSize();
+        short entryNumber = (short) ((page.getByte(offset + 4) << 8) | (page.getByte(offset + 5) & 0xFF));
+        return new RecordID(page.getInt(offset), entryNumber);
+    }
 
-    private int getOffset(int entryNum) {
-        return entryNum*entrySize + this.headerSize + this.bitMapSize;
+    /**
+     * Read the child page number of an inner entry without decoding its key.
+     *
+     * @param entryNum the entry number to read from
+     * @return the page number of the entry
+     */
+    protected int readPageNum(Page page, int entryNum) {
+        return page.getInt(getOffset(entryNum) + keySchema.getSize());
     }
 
     /**
-     * Write a BEentry into the entryNum specified.
+     * Compare the key of an entry, as stored in the page, with a key.
      *
-     * @param entryNum the entry number to fill
-     * @param ent the BEntry to write
+     * @param entryNum the entry whose key to compare
+     * @param key the key to compare with
+     * @param keyBytes the bytes of key if it is a STRING, otherwise null
+     * @return a negative number, zero or a positive number as the key of the
+     * entry is less than, equal to or greater than key
      */
-    private void writeEntry(int entryNum, BEntry ent) {
-        int byteOffset = entryNum/8;
-        int bitOffset = 7 - (entryNum % 8);
-        byte mask = (byte) (1 << bitOffset);
+    private int compareKey(Page page, int entryNum, DataBox key, byte[] keyBytes) {
+        int offset = getOffset(entryNum);
+        switch (keySchema.type()) {
+            case INT:
+                return Integer.compare(page.getInt(offset), key.getInt());
+            case FLOAT:
+                return Float.compare(page.getFloat(offset), key.getFloat());
+            case BOOL:
+                return Boolean.compare(page.getByte(offset) != 0, key.getBool());
+            default:
+                int size = keySchema.getSize();
+                for (int i = 0; i < Math.min(size, keyBytes.length); i++) {
+                    int cmp = (page.getByte(offset + i) & 0xFF) - (keyBytes[i] & 0xFF);
+                    if (cmp != 0) {
+                        return cmp;
+                    }
+                }
+                return Integer.compare(size, keyBytes.length);
+        }
+    }
 
-        byte[] bitMap = getBitMap();
-        bitMap[byteOffset] = (byte) (bitMap[byteOffset] | mask);
-        setBitMap(bitMap);
-        int entryOffset = getOffset(entryNum);
-        getPage().writeBytes(entryOffset, entrySize, ent.toBytes());
+    /**
+     * Binary search for the first entry whose key is greater than or equal to
+     * key, or strictly greater if inclusive is false.
+     *
+     * @param key the key to search for
+     * @param inclusive whether entries equal to key are included
+     * @return the position of that entry, or the number of entries if there
+     * is none
+     */
+    private int search(Page page, DataBox key, boolean inclusive) {
+        byte[] keyBytes = keySchema.type() == DataBox.Types.STRING ? key.getBytes() : null;
+        int low = 0;
+        int high = page.getInt(headerSize);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareKey(page, mid, key, keyBytes);
+            if (cmp < 0 || (cmp == 0 && !inclusive)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
     }
 
     /**
-     * Read a BEntry from the entryNum specified.
+     * @param key the key to search for
+     * @return the position of the first entry whose key is greater than or
+     * equal to key, or the number of entries if there is none
+     */
+    protected int lowerBound(Page page, DataBox key) {
+        return search(page, key, true);
+    }
+
+    /**
+     * @param key the key to search for
+     * @return the position of the first entry whose key is greater than key,
+     * or the number of entries if there is none
+     */
+    protected int upperBound(Page page, DataBox key) {
+        return search(page, key, false);
+    }
+
+    /**
+     * Compare the RecordID of a leaf entry, as stored in the page, with that
+     * of another leaf entry. Entries with equal keys are ordered by it.
+     */
+    private int compareTiebreak(Page page, int entryNum, BEntry ent) {
+        int offset = getOffset(entryNum) + keySchema.getSize();
+        RecordID rid = ent.getRecordID();
+        int cmp = Integer.compare(page.getInt(offset), rid.getPageNum());
+        if (cmp != 0) {
+            return cmp;
+        }
+        short entryNumber = (short) ((page.getByte(offset + 4) << 8) | (page.getByte(offset + 5) & 0xFF));
+        return Integer.compare(entryNumber, rid.getEntryNumber());
+    }
+
+    /**
+     * Binary search for the sorted position of an entry. Inner entries are
+     * not ordered among the entries with an equal key, so their position is
+     * after all of them.
      *
-     * @param entryNum the entry number to read from
-     * @return the BEntry corresponding to the entryNum
+     * @param ent the entry to search for
+     * @return the position of the first entry greater than or equal to ent
      */
-    private BEntry readEntry(int entryNum) {
-        if (isLeaf()) {
-            return new LeafEntry(this.keySchema, getPage().readBytes(getOffset(entryNum), entrySize));
-        } else {
-            return new InnerEntry(this.keySchema, getPage().readBytes(getOffset(entryNum), entrySize));
+    private int findPosition(Page page, BEntry ent) {
+        int high = upperBound(page, ent.getKey());
+        if (!isLeaf()) {
+            return high;
         }
+        int low = lowerBound(page, ent.getKey());
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareTiebreak(page, mid, ent) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
     }
 
     /**
-     * Return the entry number of the first free entry of this node.
+     * Insert an entry at its sorted position, shifting the entries after it
+     * one place to the right. The node must have space for it.
      *
-     * @return the first free entry number, otherwise -1 if none exists
+     * @param ent the entry to insert
      */
-    private int findFreeEntry() {
-        byte[] bitMap = this.getBitMap();
+    protected void insertSorted(BEntry ent) {
+        insertAt(findPosition(getPage(), ent), ent);
+    }
 
-        for (int i = 0; i < this.numEntries; i++) {
-            int byteOffset = i/8;
-            int bitOffset = 7 - (i % 8);
-            byte mask = (byte) (1 << bitOffset);
-            byte value = (byte) (bitMap[byteOffset] & mask);
-            if (value == 0) {
-                return i;
-            }
+    /**
+     * Insert an entry at the given position, shifting the entries after it
+     * one place to the right. The node must have space for it, and the entry
+     * must keep the keys of the node sorted.
+     *
+     * @param low the position of the new entry
+     * @param ent the entry to insert
+     */
+    protected void insertAt(int low, BEntry ent) {
+        Page page = getPage();
+        int count = page.getInt(headerSize);
+
+        byte[] bytes = new byte[(count - low + 1) * entrySize];
+        System.arraycopy(ent.toBytes(), 0, bytes, 0, entrySize);
+        page.getBytes(getOffset(low), bytes, entrySize, (count - low) * entrySize);
+        page.putBytes(getOffset(low), bytes, 0, bytes.length);
+        page.putInt(headerSize, count + 1);
+    }
+
+    /**
+     * Remove an entry, shifting the entries after it one place to the left.
+     *
+     * @param ent the entry to remove
+     * @return true if this node held the entry, false otherwise
+     */
+    protected boolean removeSorted(BEntry ent) {
+        Page page = getPage();
+        int count = page.getInt(headerSize);
+        int position = findPosition(page, ent);
+        if (position == count || compareTiebreak(page, position, ent) != 0
+                || upperBound(page, ent.getKey()) <= position) {
+            return false;
         }
-        return -1;
+
+        byte[] bytes = page.readBytes(getOffset(position + 1), (count - position - 1) * entrySize);
+        page.putBytes(getOffset(position), bytes, 0, bytes.length);
+        page.putInt(headerSize, count - 1);
+        return true;
     }
 
     /**
-     * Return a list of valid, existing entries of this node.
+     * Checks whether this node holds fewer than half as many entries as it can,
+     * in which case it should be merged with a sibling or take entries from it.
      *
-     * @return a list of entries that have the valid bit set
+     * @return true if this node is less than half full, false otherwise
      */
-    protected List<BEntry> getAllValidEntries() {
-        byte[] bitMap = this.getBitMap();
-        List<BEntry> entries = new ArrayList<BEntry>();
-        for (int i = 0; i < this.numEntries; i++) {
-            int byteOffset = i/8;
-            int bitOffset = 7 - (i % 8);
-            byte mask = (byte) (1 << bitOffset);
+    public boolean isUnderflowing() {
+        return getNumValidEntries() < this.numEntries / 2;
+    }
 
-            byte value = (byte) (bitMap[byteOffset] & mask);
+    /**
+     * Free the page of this node, once it is no longer part of the tree.
+     */
+    protected void free() {
+        tree.allocator.freePage(this.pageNum);
+        tree.decrementNumNodes();
+    }
 
-            if (value != 0) {
-                entries.add(readEntry(i));
-            }
+    /**
+     * Return a list of the entries of this node, in order.
+     *
+     * @return a list of every entry of this node
+     */
+    protected List<BEntry> getAllValidEntries() {
+        Page page = getPage();
+        int count = page.getInt(headerSize);
+        List<BEntry> entries = new ArrayList<BEntry>(count);
+        for (int i = 0; i < count; i++) {
+            entries.add(readEntry(page, i));
         }
         return entries;
     }
 
     /**
      * Clear all the entries of this node, and write all the given entries into
-     * the node, starting from the first entry number.
+     * the node, starting from the first entry number. The entries must be
+     * sorted.
      *
      * @param entries the list of entries to write
      */
     protected void overwriteBNodeEntries(List<BEntry> entries) {
-        byte[] zeros = new byte[bitMapSize];
-        setBitMap(zeros);
         if (entries.size() > numEntries) {
             throw new BPlusTreeException("too many BEntry given to fit on page");
         }
 
-        for (int i = 0; i < entries.size(); i++) {
-            writeEntry(i, entries.get(i));
+        ByteBuffer buf = ByteBuffer.allocate(COUNT_SIZE + entries.size() * entrySize);
+        buf.putInt(entries.size());
+        for (BEntry entry : entries) {
+            buf.put(entry.toBytes(), 0, entrySize);
         }
+        getPage().writeBytes(headerSize, buf.capacity(), buf.array());
     }
 
     /**
@@ -235,4 +400,14 @@ public abstract class BPlusNode {
     public InnerEntry insertBEntry(LeafEntry ent) {
         throw new BPlusTreeException("Not Implemented");
     }
+
+    /**
+     * Delete an entry from this node.
+     *
+     * @param ent the entry to delete
+     * @return true if the entry was found, false otherwise
+     */
+    public boolean deleteBEntry(LeafEntry ent) {
+        throw new BPlusTreeException("Not Implemented");
+    }
 }
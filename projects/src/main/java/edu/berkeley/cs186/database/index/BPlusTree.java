@@ -1,5 +1,7 @@
 package edu.berkeley.cs186.database.index;
 
+import edu.berkeley.cs186.database.io.BufferPool;
+import edu.berkeley.cs186.database.io.IOMetrics;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.io.PageAllocator;
 import edu.berkeley.cs186.database.table.RecordID;
@@ -26,6 +28,7 @@ import java.nio.file.Paths;
 public class BPlusTree {
     public static final String FILENAME_PREFIX = "db";
     public static final String FILENAME_EXTENSION = ".index";
+    public static final float DEFAULT_FILL_FACTOR = 0.9f;
 
     protected PageAllocator allocator;
     protected DataBox keySchema;
@@ -44,8 +47,21 @@ public class BPlusTree {
     }
 
     public BPlusTree(DataBox keySchema, String fName, String filePrefix) {
+        this(keySchema, fName, filePrefix, BufferPool.getDefault());
+    }
+
+    /**
+     * This constructor is used for creating an empty BPlusTree whose pages
+     * are cached in the given buffer pool.
+     *
+     * @param keySchema the schema of the index key
+     * @param fName the filename of select the index will be built
+     * @param filePrefix the directory of the index file
+     * @param bufferPool the buffer pool to cache the pages of the index in
+     */
+    public BPlusTree(DataBox keySchema, String fName, String filePrefix, BufferPool bufferPool) {
         String pathname = Paths.get(filePrefix, fName + FILENAME_EXTENSION).toString();
-        this.allocator = new PageAllocator(pathname, true);
+        this.allocator = new PageAllocator(pathname, true, true, bufferPool);
         this.keySchema = keySchema;
         int headerPageNum = this.allocator.allocPage();
         assert(headerPageNum == 0);
@@ -66,8 +82,20 @@ public class BPlusTree {
     }
 
     public BPlusTree(String fName, String filePrefix) {
+        this(fName, filePrefix, BufferPool.getDefault());
+    }
+
+    /**
+     * This constructor is used for loading a BPlusTree from a file, caching
+     * its pages in the given buffer pool.
+     *
+     * @param fName the filename of a preexisting BPlusTree
+     * @param filePrefix the directory of the index file
+     * @param bufferPool the buffer pool to cache the pages of the index in
+     */
+    public BPlusTree(String fName, String filePrefix, BufferPool bufferPool) {
         String pathname = Paths.get(filePrefix, fName + FILENAME_EXTENSION).toString();
-        this.allocator = new PageAllocator(pathname, false);
+        this.allocator = new PageAllocator(pathname, false, true, bufferPool);
         this.readHeader();
     }
 
@@ -91,8 +119,7 @@ public class BPlusTree {
      * @return Iterator of all RecordIDs in sorted order
      */
     public Iterator<RecordID> sortedScan() {
-        BPlusNode rootNode = BPlusNode.getBPlusNode(this, rootPageNum);
-        return new BPlusIterator(rootNode);
+        return new BPlusIterator(null, null, false);
     }
 
     /**
@@ -105,8 +132,65 @@ public class BPlusTree {
      * in sorted order
      */
     public Iterator<RecordID> sortedScanFrom(DataBox keyStart) {
-        BPlusNode root = BPlusNode.getBPlusNode(this, rootPageNum);
-        return new BPlusIterator(root, keyStart, true);
+        return new BPlusIterator(keyStart, null, false);
+    }
+
+    /**
+     * Perform a range search over the keys from keyStart (inclusive) to keyEnd
+     * (exclusive). The scan stops at the first key that is not less than
+     * keyEnd, without reading any further leaves.
+     *
+     * @param keyStart the key to start iterating from, or null to start from
+     * the beginning of the index
+     * @param keyEnd the key to stop iterating at, or null to iterate to the
+     * end of the index
+     * @return Iterator of RecordIDs that are equal to or greater than keyStart
+     * and less than keyEnd in sorted order
+     */
+    public Iterator<RecordID> sortedScanRange(DataBox keyStart, DataBox keyEnd) {
+        return new BPlusIterator(keyStart, keyEnd, false);
+    }
+
+    /**
+     * Point the entry with the matching key and RecordID at another RecordID, for when the record
+     * it refers to has been moved within its table.
+     *
+     * @param key the key of the entry
+     * @param oldRid the RecordID the entry refers to
+     * @param newRid the RecordID the entry should refer to
+     * @return true if the entry was found, false otherwise
+     */
+    public boolean updateRecordID(DataBox key, RecordID oldRid, RecordID newRid) {
+        LeafNode leaf = findFirstLeaf(key);
+        while (true) {
+            if (leaf.updateRecordID(key, oldRid, newRid)) {
+                return true;
+            }
+            Page page = leaf.getPage();
+            if (leaf.upperBound(page, key) < leaf.getNumValidEntries() || leaf.getNextLeaf() == -1) {
+                return false;
+            }
+            leaf = new LeafNode(this, leaf.getNextLeaf());
+        }
+    }
+
+    /**
+     * Find the first leaf that may hold a key. Leaves are split by count, so
+     * entries equal to a separator key may be in the children on either side
+     * of it, and the leftmost of them is chosen.
+     *
+     * @param key the key to search for
+     * @return the first leaf holding keys greater than or equal to key, or the
+     * leaf such keys would be inserted into
+     */
+    private LeafNode findFirstLeaf(DataBox key) {
+        BPlusNode node = BPlusNode.getBPlusNode(this, rootPageNum);
+        while (!node.isLeaf()) {
+            InnerNode innerNode = (InnerNode) node;
+            int childPageNum = innerNode.getChild(innerNode.lowerBound(innerNode.getPage(), key) - 1);
+            node = BPlusNode.getBPlusNode(this, childPageNum);
+        }
+        return (LeafNode) node;
     }
 
     /**
@@ -117,8 +201,7 @@ public class BPlusTree {
      * @return Iterator of RecordIDs that match the given key
      */
     public Iterator<RecordID> lookupKey(DataBox key) {
-        BPlusNode root = BPlusNode.getBPlusNode(this, rootPageNum);
-        return new BPlusIterator(root, key, false);
+        return new BPlusIterator(key, key, true);
     }
 
     /**
@@ -145,14 +228,114 @@ public class BPlusTree {
     }
 
     /**
-     * Delete an entry with the matching key and RecordID.
+     * Build this tree from sorted entries, bottom up. The leaves are filled
+     * left to right with fillFactor of their capacity each, leaving room for
+     * later inserts, and the inner levels are then built over them, each
+     * spreading its children evenly over as few nodes as the fill factor
+     * allows. No node is ever split or read back.
+     *
+     * @param data the entries to load, in increasing order of key and
+     * RecordID
+     * @param fillFactor the fraction of each node to fill, greater than 0 and
+     * at most 1
+     * @throws BPlusTreeException if this tree is not empty, fillFactor is out
+     * of range, or data is not sorted
+     */
+    public void bulkLoad(Iterator<LeafEntry> data, float fillFactor) {
+        if (fillFactor <= 0 || fillFactor > 1) {
+            throw new BPlusTreeException("Fill factor must be greater than 0 and at most 1");
+        }
+        BPlusNode root = BPlusNode.getBPlusNode(this, rootPageNum);
+        if (!root.isLeaf() || root.getNumValidEntries() > 0) {
+            throw new BPlusTreeException("Only an empty BPlusTree can be bulk loaded");
+        }
+
+        // The separator keys of the level being built, with the node to the
+        // right of each
+        List<InnerEntry> separators = new ArrayList<InnerEntry>();
+        LeafNode leaf = (LeafNode) root;
+        int leafSize = Math.max(1, (int) (leaf.numEntries * fillFactor));
+        List<BEntry> entries = new ArrayList<BEntry>(leafSize);
+        LeafEntry previous = null;
+        while (data.hasNext()) {
+            LeafEntry entry = data.next();
+            if (previous != null && previous.compareTo(entry) > 0) {
+                throw new BPlusTreeException("Bulk loaded entries are not sorted");
+            }
+            previous = entry;
+
+            if (entries.size() == leafSize) {
+                leaf.overwriteBNodeEntries(entries);
+                LeafNode nextLeaf = new LeafNode(this);
+                leaf.setNextLeaf(nextLeaf.getPageNum());
+                nextLeaf.setPrevLeaf(leaf.getPageNum());
+                separators.add(new InnerEntry(entry.getKey(), nextLeaf.getPageNum()));
+                leaf = nextLeaf;
+                entries.clear();
+            }
+            entries.add(entry);
+        }
+        leaf.overwriteBNodeEntries(entries);
+
+        int firstChild = rootPageNum;
+        while (!separators.isEmpty()) {
+            InnerNode node = new InnerNode(this);
+            int innerSize = Math.max(1, (int) (node.numEntries * fillFactor));
+            int numChildren = separators.size() + 1;
+            int numNodes = (numChildren + innerSize) / (innerSize + 1);
+
+            List<InnerEntry> parentSeparators = new ArrayList<InnerEntry>();
+            for (int i = 0; i < numNodes; i++) {
+                // Children start to end - 1 of this node; child j > 0 is to
+                // the right of separator j - 1
+                int start = (int) ((long) i * numChildren / numNodes);
+                int end = (int) ((long) (i + 1) * numChildren / numNodes);
+                if (i > 0) {
+                    node = new InnerNode(this);
+                    parentSeparators.add(new InnerEntry(separators.get(start - 1).getKey(), node.getPageNum()));
+                }
+                node.setFirstChild(start == 0 ? firstChild : separators.get(start - 1).getPageNum());
+                node.overwriteBNodeEntries(new ArrayList<BEntry>(separators.subList(start, end - 1)));
+                if (i == 0) {
+                    firstChild = node.getPageNum();
+                }
+            }
+            separators = parentSeparators;
+        }
+        updateRoot(firstChild);
+    }
+
+    /**
+     * Build this tree from sorted entries, filling each node to
+     * DEFAULT_FILL_FACTOR of its capacity. See bulkLoad(Iterator, float).
+     *
+     * @param data the entries to load, in increasing order of key and
+     * RecordID
+     */
+    public void bulkLoad(Iterator<LeafEntry> data) {
+        bulkLoad(data, DEFAULT_FILL_FACTOR);
+    }
+
+    /**
+     * Delete an entry with the matching key and RecordID. Nodes left less than
+     * half full are merged with a sibling, or take entries from it, and the
+     * root is replaced by its only child once it has no entries left.
      *
      * @param key the key to be deleted
      * @param rid the RecordID of the key to be deleted
+     * @return true if the entry was found, false otherwise
      */
     public boolean deleteKey(DataBox key, RecordID rid) {
-        /* You will not have to implement this in this project. */
-        throw new BPlusTreeException("BPlusTree#DeleteKey Not Implemented!");
+        BPlusNode rootNode = BPlusNode.getBPlusNode(this, rootPageNum);
+        if (!rootNode.deleteBEntry(new LeafEntry(key, rid))) {
+            return false;
+        }
+
+        if (!rootNode.isLeaf() && rootNode.getNumValidEntries() == 0) {
+            updateRoot(((InnerNode) rootNode).getFirstChild());
+            rootNode.free();
+        }
+        return true;
     }
 
     /**
@@ -174,6 +357,15 @@ public class BPlusTree {
         return this.allocator.getNumPages();
     }
 
+    /**
+     * Return the I/O and cache metrics of this index's page allocator.
+     *
+     * @return the metrics of this index
+     */
+    public IOMetrics getMetrics() {
+        return this.allocator.getMetrics();
+    }
+
     /**
      * Update the root page.
      *
@@ -188,17 +380,17 @@ public class BPlusTree {
         Page headerPage = allocator.fetchPage(0);
         int bytesWritten = 0;
 
-        headerPage.writeInt(bytesWritten, this.rootPageNum);
+        headerPage.putInt(bytesWritten, this.rootPageNum);
         bytesWritten += 4;
 
-        headerPage.writeInt(bytesWritten, this.firstLeafPageNum);
+        headerPage.putInt(bytesWritten, this.firstLeafPageNum);
         bytesWritten += 4;
 
-        headerPage.writeInt(bytesWritten, keySchema.type().ordinal());
+        headerPage.putInt(bytesWritten, keySchema.type().ordinal());
         bytesWritten += 4;
 
         if (this.keySchema.type().equals(DataBox.Types.STRING)) {
-            headerPage.writeInt(bytesWritten, this.keySchema.getSize());
+            headerPage.putInt(bytesWritten, this.keySchema.getSize());
             bytesWritten += 4;
         }
         headerPage.flush();
@@ -209,13 +401,13 @@ public class BPlusTree {
 
         int bytesRead = 0;
 
-        this.rootPageNum = headerPage.readInt(bytesRead);
+        this.rootPageNum = headerPage.getInt(bytesRead);
         bytesRead += 4;
 
-        this.firstLeafPageNum = headerPage.readInt(bytesRead);
+        this.firstLeafPageNum = headerPage.getInt(bytesRead);
         bytesRead += 4;
 
-        int keyOrd = headerPage.readInt(bytesRead);
+        int keyOrd = headerPage.getInt(bytesRead);
         bytesRead += 4;
         DataBox.Types type = DataBox.Types.values()[keyOrd];
 
@@ -224,7 +416,7 @@ public class BPlusTree {
                 this.keySchema = new IntDataBox();
                 break;
             case STRING:
-                int len = headerPage.readInt(bytesRead);
+                int len = headerPage.getInt(bytesRead);
                 this.keySchema = new StringDataBox(len);
                 break;
             case BOOL:
@@ -236,100 +428,70 @@ public class BPlusTree {
         }
     }
 
-    private enum TypeOfScan {SORTED_SCAN, SORTED_SCAN_FROM, LOOKUP_KEY};
-
     /**
-     * A BPlusIterator provides several ways of iterating over RecordIDs stored
-     * in a BPlusTree.
+     * A BPlusIterator iterates over the RecordIDs of a range of keys. It walks
+     * down the tree once, to the first leaf that may hold a key of the range,
+     * and then follows the links between leaves, reading each leaf only when
+     * the previous one is exhausted. It stops at the first key past the end of
+     * the range.
+     *
+     * Properties:
+     * `keyEnd`: the key to stop at, or null to iterate to the end of the index
+     * `endInclusive`: whether keys equal to keyEnd are in the range
+     * `leaf`: the leaf being read
+     * `page`: the page of leaf
+     * `entryNum`: the next entry of leaf to yield
+     * `endEntryNum`: the entry of leaf to stop before
+     * `lastLeaf`: whether the range ends within leaf
      */
     private class BPlusIterator implements Iterator<RecordID> {
-
-        private TypeOfScan typeOfScan;
-        private BPlusNode rootNode;
-        private DataBox searchKey;
-        private Stack<BPlusNode> nodeStack = new Stack<BPlusNode>();
-        private BPlusNode currentNode;
-        private Iterator<RecordID> currLeafIterator;
+        private DataBox keyEnd;
+        private boolean endInclusive;
+        private LeafNode leaf;
+        private Page page;
+        private int entryNum;
+        private int endEntryNum;
+        private boolean lastLeaf;
 
         /**
-         * Construct an iterator that performs a sorted scan on this BPlusTree
-         * tree.
-         * The iterator should return all RecordIDs, starting from the
-         * beginning to the end of the index.
+         * Construct an iterator over the keys from keyStart to keyEnd.
          *
-         * @param root the root node of this BPlusTree
+         * @param keyStart the key to start from, or null to start from the
+         * beginning of the index
+         * @param keyEnd the key to stop at, or null to iterate to the end of
+         * the index
+         * @param endInclusive whether keys equal to keyEnd are included
          */
-        public BPlusIterator(BPlusNode root) {
-            typeOfScan = TypeOfScan.SORTED_SCAN;
-            rootNode = root;
-            currentNode = root;
-            while (!currentNode.isLeaf()) {
-                List<BEntry> validEntries = currentNode.getAllValidEntries();
-                Collections.reverse(validEntries);
-                for (BEntry entry : validEntries) {
-                    int childPageNum = entry.getPageNum();
-                    BPlusNode childNode = BPlusNode.getBPlusNode(this.rootNode.getTree(), childPageNum);
-                    nodeStack.add(childNode);
-                }
-                int firstChildPageNum = ((InnerNode) currentNode).getFirstChild();
-                BPlusNode firstChildNode = BPlusNode.getBPlusNode(this.rootNode.getTree(), firstChildPageNum);
-                currentNode = firstChildNode;
+        public BPlusIterator(DataBox keyStart, DataBox keyEnd, boolean endInclusive) {
+            this.keyEnd = keyEnd;
+            this.endInclusive = endInclusive;
+            if (keyStart == null) {
+                startLeaf(new LeafNode(BPlusTree.this, firstLeafPageNum), null);
+            } else {
+                startLeaf(findFirstLeaf(keyStart), keyStart);
             }
-            currLeafIterator = ((LeafNode) currentNode).scan();
         }
 
         /**
-         * Construct an iterator that performs either an equality or range
-         * search with a specified key.
-         * If @param scan is true, the iterator should return all RecordIDs,
-         * starting from the specified key to the end of the index.
-         * If @param scan is false, the iterator should return all RecordIDs
-         * that match the specified key.
+         * Start reading a leaf.
          *
-         * @param root the root node of this BPlusTree
-         * @param key the specified key value
-         * @param scan if true, do a range search; else, equality search
+         * @param leaf the leaf to read
+         * @param keyStart the key to start from, or null to read the leaf from
+         * its first entry
          */
-        public BPlusIterator(BPlusNode root, DataBox key, boolean scan) {
-            searchKey = key;
-            rootNode = root;
-            currentNode = root;
-            if (scan) {
-                typeOfScan = TypeOfScan.SORTED_SCAN_FROM;
+        private void startLeaf(LeafNode leaf, DataBox keyStart) {
+            this.leaf = leaf;
+            this.page = leaf.getPage();
+            int numEntries = leaf.getNumValidEntries();
+            this.entryNum = keyStart == null ? 0 : leaf.lowerBound(page, keyStart);
+            if (keyEnd == null) {
+                this.endEntryNum = numEntries;
+            } else if (endInclusive) {
+                this.endEntryNum = leaf.upperBound(page, keyEnd);
             } else {
-                typeOfScan = TypeOfScan.LOOKUP_KEY;
-            }
-            while (!currentNode.isLeaf()) {
-                List<BEntry> validEntries = currentNode.getAllValidEntries();
-                Collections.reverse(validEntries);
-                boolean addFirstChild = true;
-                for (BEntry entry : validEntries) {
-                    if (typeOfScan == TypeOfScan.LOOKUP_KEY && entry.getKey().compareTo(searchKey) > 0) {
-                        continue;
-                    }
-                    int childPageNum = entry.getPageNum();
-                    BPlusNode childNode = BPlusNode.getBPlusNode(this.rootNode.getTree(), childPageNum);
-                    nodeStack.add(childNode);
-                    if (entry.getKey().compareTo(searchKey) < 0) {
-                        addFirstChild = false;
-                        break;
-                    }
-                }
-                if (addFirstChild) {
-                    int firstChildPageNum = ((InnerNode) currentNode).getFirstChild();
-                    BPlusNode firstChildNode = BPlusNode.getBPlusNode(this.rootNode.getTree(), firstChildPageNum);
-                    nodeStack.add(firstChildNode);
-                }
-                currentNode = nodeStack.pop();
-            }
-            switch (typeOfScan) {
-                case SORTED_SCAN_FROM:
-                    currLeafIterator = ((LeafNode) currentNode).scanFrom(searchKey);
-                    break;
-                case LOOKUP_KEY:
-                    currLeafIterator = ((LeafNode) currentNode).scanForKey(searchKey);
-                    break;
+                this.endEntryNum = leaf.lowerBound(page, keyEnd);
             }
+            this.lastLeaf = endEntryNum < numEntries || leaf.getNextLeaf() == -1;
         }
 
         /**
@@ -339,53 +501,13 @@ public class BPlusTree {
          * otherwise
          */
         public boolean hasNext() {
-            if (currLeafIterator.hasNext()) {
-                return true;
-            } else if (nodeStack.isEmpty()) {
-                return false;
-            } else {
-                currentNode = nodeStack.pop();
-                while (!currentNode.isLeaf()) {
-                    List<BEntry> validEntries = currentNode.getAllValidEntries();
-                    Collections.reverse(validEntries);
-                    boolean addFirstChild = true;
-                    for (BEntry entry : validEntries) {
-                        if (typeOfScan == TypeOfScan.LOOKUP_KEY && entry.getKey().compareTo(searchKey) > 0) {
-                            continue;
-                        }
-                        int childPageNum = entry.getPageNum();
-                        BPlusNode childNode = BPlusNode.getBPlusNode(this.rootNode.getTree(), childPageNum);
-                        nodeStack.add(childNode);
-                        if ((typeOfScan == TypeOfScan.SORTED_SCAN_FROM || typeOfScan == TypeOfScan.LOOKUP_KEY)
-                                && entry.getKey().compareTo(searchKey) < 0) {
-                            addFirstChild = false;
-                            break;
-                        }
-                    }
-                    if (addFirstChild) {
-                        int firstChildPageNum = ((InnerNode) currentNode).getFirstChild();
-                        BPlusNode firstChildNode = BPlusNode.getBPlusNode(this.rootNode.getTree(), firstChildPageNum);
-                        nodeStack.add(firstChildNode);
-                    }
-                    currentNode = nodeStack.pop();
-                }
-                switch (typeOfScan) {
-                    case SORTED_SCAN:
-                        currLeafIterator = ((LeafNode) currentNode).scan();
-                        break;
-                    case SORTED_SCAN_FROM:
-                        currLeafIterator = ((LeafNode) currentNode).scanFrom(searchKey);
-                        break;
-                    case LOOKUP_KEY:
-                        currLeafIterator = ((LeafNode) currentNode).scanForKey(searchKey);
-                        break;
-                }
-                if (currLeafIterator.hasNext()) {
-                    return true;
-                } else {
+            while (entryNum >= endEntryNum) {
+                if (lastLeaf) {
                     return false;
                 }
+                startLeaf(new LeafNode(BPlusTree.this, leaf.getNextLeaf()), null);
             }
+            return true;
         }
 
         /**
@@ -397,7 +519,7 @@ public class BPlusTree {
          */
         public RecordID next() {
             if (hasNext()) {
-                return currLeafIterator.next();
+                return leaf.readRecordID(page, entryNum++);
             } else {
                 throw new NoSuchElementException("No more valid Records.");
             }
@@ -4,7 +4,6 @@ import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.table.RecordID;
 
-import java.util.Collections;
 import java.util.List;
 
 /**
@@ -20,13 +19,13 @@ public class InnerNode extends BPlusNode {
     public InnerNode(BPlusTree tree) {
         super(tree, false);
         tree.incrementNumNodes();
-        getPage().writeByte(0, (byte) 0);   // isLeaf = 0
+        getPage().putByte(0, (byte) 0);   // isLeaf = 0
         setFirstChild(-1);
     }
 
     public InnerNode(BPlusTree tree, int pageNum) {
         super(tree, pageNum, false);
-        if (getPage().readByte(0) != (byte) 0) {
+        if (getPage().getByte(0) != (byte) 0) {
             throw new BPlusTreeException("Page is not Inner Node!");
         }
     }
@@ -37,11 +36,11 @@ public class InnerNode extends BPlusNode {
     }
 
     public int getFirstChild() {
-        return getPage().readInt(1);
+        return getPage().getInt(1);
     }
 
     public void setFirstChild(int val) {
-        getPage().writeInt(1, val);
+        getPage().putInt(1, val);
     }
 
     /**
@@ -53,16 +52,16 @@ public class InnerNode extends BPlusNode {
      * contains the given key
      */
     public int findChildFromKey(DataBox key) {
-        int childToTraverse = getFirstChild();
-        List<BEntry> validEntries = getAllValidEntries();
-        for (BEntry entry : validEntries) {
-            if (key.compareTo(entry.getKey()) < 0) {
-                break;
-            } else {
-                childToTraverse = entry.getPageNum();
-            }
-        }
-        return childToTraverse;
+        return getChild(upperBound(getPage(), key) - 1);
+    }
+
+    /**
+     * @param entryNum the position of an entry, or -1 for the first child
+     * @return the page number of the child to the right of that entry
+     */
+    public int getChild(int entryNum) {
+        Page page = getPage();
+        return entryNum == -1 ? page.getInt(1) : readPageNum(page, entryNum);
     }
 
     /**
@@ -73,40 +72,125 @@ public class InnerNode extends BPlusNode {
      * as a result of this InnerNode being split, null otherwise
      */
     public InnerEntry insertBEntry(LeafEntry ent) {
-        int childPageNum = findChildFromKey(ent.getKey());
-        BPlusNode childNode = getBPlusNode(getTree(), childPageNum);
+        int entryNum = upperBound(getPage(), ent.getKey()) - 1;
+        BPlusNode childNode = getBPlusNode(getTree(), getChild(entryNum));
         InnerEntry pushedEntry = childNode.insertBEntry(ent);
 
         if (pushedEntry != null) {
             if (hasSpace()) {
-                List<BEntry> validEntries = getAllValidEntries();
-                validEntries.add(pushedEntry);
-                Collections.sort(validEntries);
-                overwriteBNodeEntries(validEntries);
+                insertAt(entryNum + 1, pushedEntry);
                 return null;
             } else {
-                return splitNode(pushedEntry);
+                return splitNode(entryNum + 1, pushedEntry);
             }
         } else {
             return null;
         }
     }
 
+    /**
+     * Deletes a LeafEntry from the corresponding LeafNode in this subtree, and
+     * rebalances the child it was deleted through if that child is left less
+     * than half full, by merging it with a sibling or moving entries over from
+     * the sibling. Entries equal to a key may be in the children on either
+     * side of it, so every child that may hold the entry is searched in turn.
+     *
+     * @param ent the LeafEntry to be deleted
+     * @return true if the entry was found, false otherwise
+     */
+    @Override
+    public boolean deleteBEntry(LeafEntry ent) {
+        Page page = getPage();
+        int last = upperBound(page, ent.getKey()) - 1;
+        for (int i = lowerBound(page, ent.getKey()) - 1; i <= last; i++) {
+            BPlusNode child = getBPlusNode(getTree(), getChild(i));
+            if (child.deleteBEntry(ent)) {
+                if (child.isUnderflowing()) {
+                    rebalanceChild(i);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rebalances a child with its next sibling, or its previous one if it is
+     * the last child.
+     *
+     * @param entryNum the position of the entry of the child, or -1 for the
+     * first child
+     */
+    private void rebalanceChild(int entryNum) {
+        List<BEntry> validEntries = getAllValidEntries();
+        if (validEntries.isEmpty()) {
+            return;
+        }
+        int leftNum = entryNum < validEntries.size() - 1 ? entryNum : entryNum - 1;
+        int rightNum = leftNum + 1;
+        BPlusNode left = getBPlusNode(getTree(), getChild(leftNum));
+        BPlusNode right = getBPlusNode(getTree(), getChild(rightNum));
+
+        InnerEntry separator;
+        if (left.isLeaf()) {
+            separator = ((LeafNode) left).rebalanceWith((LeafNode) right);
+        } else {
+            separator = ((InnerNode) left).rebalanceWith((InnerNode) right, validEntries.get(rightNum).getKey());
+        }
+        if (separator == null) {
+            validEntries.remove(rightNum);
+        } else {
+            validEntries.set(rightNum, separator);
+        }
+        overwriteBNodeEntries(validEntries);
+    }
+
+    /**
+     * Merges the next InnerNode into this one if their entries, and the key
+     * separating them, fit in one node, and otherwise splits them evenly
+     * between the two nodes. The separating key is pulled down between the
+     * entries of the two nodes, and the key in the middle is pushed back up.
+     *
+     * @param right the next InnerNode, which has the same parent
+     * @param separatorKey the key separating this InnerNode from right in
+     * their parent
+     * @return null if right was merged into this InnerNode and freed,
+     * otherwise the new InnerEntry separating this InnerNode from right in
+     * their parent
+     */
+    public InnerEntry rebalanceWith(InnerNode right, DataBox separatorKey) {
+        List<BEntry> entries = getAllValidEntries();
+        entries.add(new InnerEntry(separatorKey, right.getFirstChild()));
+        entries.addAll(right.getAllValidEntries());
+        if (entries.size() <= numEntries) {
+            overwriteBNodeEntries(entries);
+            right.free();
+            return null;
+        }
+
+        int middle = entries.size() / 2;
+        BEntry middleEntry = entries.get(middle);
+        overwriteBNodeEntries(entries.subList(0, middle));
+        right.setFirstChild(middleEntry.getPageNum());
+        right.overwriteBNodeEntries(entries.subList(middle + 1, entries.size()));
+        return new InnerEntry(middleEntry.getKey(), right.getPageNum());
+    }
+
     /**
      * Splits this InnerNode and returns the resulting InnerEntry to be
      * pushed/copied up to this InnerNode's parent as a result of the split.
      * The left node should contain d entries and the right node should contain
      * d entries.
      *
+     * @param entryNum the position of the new entry, right after the entry of
+     * the child that split
      * @param newEntry the BEntry that is being added to this InnerNode
      * @return the resulting InnerEntry to be pushed/copied up to this
      * InnerNode's parent as a result of this InnerNode being split
      */
-    @Override
-    public InnerEntry splitNode(BEntry newEntry) {
+    public InnerEntry splitNode(int entryNum, BEntry newEntry) {
         List<BEntry> validEntries = getAllValidEntries();
-        validEntries.add(newEntry);
-        Collections.sort(validEntries);
+        validEntries.add(entryNum, newEntry);
 
         List<BEntry> leftNodeEntries = validEntries.subList(0, validEntries.size()/2);
         BEntry middleEntry = validEntries.get(validEntries.size()/2);
@@ -11,23 +11,28 @@ import java.util.ArrayList;
 
 /**
  * A leaf node of a B+ tree. A LeafNode header contains an `isLeaf` flag set
- * to 1. A LeafNode contains LeafEntries.
+ * to 1, followed by the page numbers of the previous and next leaf nodes (or
+ * -1 if there is none), which link the leaves in key order so that scans can
+ * move from one leaf to the next without going back through the inner nodes.
+ * A LeafNode contains LeafEntries.
  *
  * Inherits all the properties of a BPlusNode.
  */
 public class LeafNode extends BPlusNode {
 
-    public static int headerSize = 1;       // isLeaf
+    public static int headerSize = 9;       // isLeaf + pageNums of previous and next leaves
 
     public LeafNode(BPlusTree tree) {
         super(tree, true);
         tree.incrementNumNodes();
-        getPage().writeByte(0, (byte) 1);   // isLeaf = 1
+        getPage().putByte(0, (byte) 1);   // isLeaf = 1
+        setPrevLeaf(-1);
+        setNextLeaf(-1);
     }
 
     public LeafNode(BPlusTree tree, int pageNum) {
         super(tree, pageNum, true);
-        if (getPage().readByte(0) != (byte) 1) {
+        if (getPage().getByte(0) != (byte) 1) {
             throw new BPlusTreeException("Page is not Leaf Node!");
         }
     }
@@ -37,6 +42,22 @@ public class LeafNode extends BPlusNode {
         return true;
     }
 
+    public int getPrevLeaf() {
+        return getPage().getInt(1);
+    }
+
+    public void setPrevLeaf(int val) {
+        getPage().putInt(1, val);
+    }
+
+    public int getNextLeaf() {
+        return getPage().getInt(5);
+    }
+
+    public void setNextLeaf(int val) {
+        getPage().putInt(5, val);
+    }
+
     /**
      * Inserts a LeafEntry into this LeafNode.
      *
@@ -47,10 +68,7 @@ public class LeafNode extends BPlusNode {
     @Override
     public InnerEntry insertBEntry(LeafEntry ent) {
         if (hasSpace()) {
-            List<BEntry> validEntries = getAllValidEntries();
-            validEntries.add(ent);
-            Collections.sort(validEntries);
-            overwriteBNodeEntries(validEntries);
+            insertSorted(ent);
             return null;
         } else {
             return splitNode(ent);
@@ -61,7 +79,7 @@ public class LeafNode extends BPlusNode {
      * Splits this LeafNode and returns the resulting InnerEntry to be
      * pushed/copied up to this LeafNode's parent as a result of the split.
      * The left node should contain d entries and the right node should contain
-     * d+1 entries.
+     * d+1 entries. The right node is linked in after this one.
      *
      * @param newEntry the BEntry that is being added to this LeafNode
      * @return the resulting InnerEntry to be pushed/copied up to this
@@ -82,6 +100,14 @@ public class LeafNode extends BPlusNode {
         LeafNode rightNode = new LeafNode(getTree());
         rightNode.overwriteBNodeEntries(rightNodeEntries);
 
+        int nextLeaf = getNextLeaf();
+        rightNode.setPrevLeaf(getPageNum());
+        rightNode.setNextLeaf(nextLeaf);
+        setNextLeaf(rightNode.getPageNum());
+        if (nextLeaf != -1) {
+            new LeafNode(getTree(), nextLeaf).setPrevLeaf(rightNode.getPageNum());
+        }
+
         InnerEntry newMiddleEntry = new InnerEntry(middleEntry.getKey(), rightNode.getPageNum());
 
         return newMiddleEntry;
@@ -89,19 +115,56 @@ public class LeafNode extends BPlusNode {
 
 
     /**
-     * Creates an iterator of RecordIDs for all entries in this node.
+     * Deletes a LeafEntry from this LeafNode. The parent of this LeafNode
+     * rebalances it if it is left less than half full.
      *
-     * @return an iterator of RecordIDs
+     * @param ent the LeafEntry to be deleted
+     * @return true if this LeafNode held the entry, false otherwise
      */
-    public Iterator<RecordID> scan() {
-        List<BEntry> validEntries = getAllValidEntries();
-        List<RecordID> rids = new ArrayList<RecordID>();
+    @Override
+    public boolean deleteBEntry(LeafEntry ent) {
+        return removeSorted(ent);
+    }
 
-        for (BEntry le : validEntries) {
-            rids.add(le.getRecordID());
+    /**
+     * Merges the next LeafNode into this one if their entries fit in one
+     * node, and otherwise splits their entries evenly between them. Entries
+     * with equal keys are not in RecordID order across the two leaves, so
+     * their entries are sorted again.
+     *
+     * @param right the next LeafNode, which has the same parent
+     * @return null if right was merged into this LeafNode and freed, otherwise
+     * the new InnerEntry separating this LeafNode from right in their parent
+     */
+    public InnerEntry rebalanceWith(LeafNode right) {
+        List<BEntry> entries = getAllValidEntries();
+        entries.addAll(right.getAllValidEntries());
+        Collections.sort(entries);
+        if (entries.size() <= numEntries) {
+            overwriteBNodeEntries(entries);
+            int nextLeaf = right.getNextLeaf();
+            setNextLeaf(nextLeaf);
+            if (nextLeaf != -1) {
+                new LeafNode(getTree(), nextLeaf).setPrevLeaf(getPageNum());
+            }
+            right.free();
+            return null;
         }
 
-        return rids.iterator();
+        int middle = entries.size() / 2;
+        overwriteBNodeEntries(entries.subList(0, middle));
+        right.overwriteBNodeEntries(entries.subList(middle, entries.size()));
+        return new InnerEntry(entries.get(middle).getKey(), right.getPageNum());
+    }
+
+    /**
+     * Creates an iterator of RecordIDs for all entries in this node.
+     *
+     * @return an iterator of RecordIDs
+     */
+    public Iterator<RecordID> scan() {
+        Page page = getPage();
+        return readRecordIDs(page, 0, getNumValidEntries());
     }
 
     /**
@@ -112,15 +175,8 @@ public class LeafNode extends BPlusNode {
      * @return an iterator of RecordIDs
      */
     public Iterator<RecordID> scanFrom(DataBox startValue) {
-        List<BEntry> validEntries = getAllValidEntries();
-        List<RecordID> rids = new ArrayList<RecordID>();
-
-        for (BEntry le : validEntries) {
-            if (startValue.compareTo(le.getKey()) < 1) {
-                rids.add(le.getRecordID());
-            }
-        }
-        return rids.iterator();
+        Page page = getPage();
+        return readRecordIDs(page, lowerBound(page, startValue), getNumValidEntries());
     }
 
     /**
@@ -131,26 +187,42 @@ public class LeafNode extends BPlusNode {
      * @return an iterator of RecordIDs
      */
     public Iterator<RecordID> scanForKey(DataBox key) {
-        List<BEntry> validEntries = getAllValidEntries();
-        List<RecordID> rids = new ArrayList<RecordID>();
+        Page page = getPage();
+        return readRecordIDs(page, lowerBound(page, key), upperBound(page, key));
+    }
 
-        for (BEntry le : validEntries) {
-            if (key.compareTo(le.getKey()) == 0) {
-                rids.add(le.getRecordID());
-            }
+    /**
+     * @return an iterator of the RecordIDs of the entries from position start
+     * (inclusive) to position end (exclusive)
+     */
+    private Iterator<RecordID> readRecordIDs(Page page, int start, int end) {
+        List<RecordID> rids = new ArrayList<RecordID>(Math.max(0, end - start));
+        for (int i = start; i < end; i++) {
+            rids.add(readRecordID(page, i));
         }
         return rids.iterator();
     }
 
-    public boolean containsKey(DataBox key) {
-        List<BEntry> validEntries = getAllValidEntries();
-
-        for (BEntry le : validEntries) {
-            if (key.compareTo(le.getKey()) == 0) {
-                return true;
-            }
+    /**
+     * Replaces the RecordID of the entry with the given key and RecordID. The
+     * entry is found by binary search and moved to its new sorted position
+     * among the entries with an equal key, without decoding the others.
+     *
+     * @param key the key of the entry
+     * @param oldRid the RecordID of the entry
+     * @param newRid the new RecordID of the entry
+     * @return true if this node has such an entry, false otherwise
+     */
+    public boolean updateRecordID(DataBox key, RecordID oldRid, RecordID newRid) {
+        if (!removeSorted(new LeafEntry(key, oldRid))) {
+            return false;
         }
-        return false;
+        insertSorted(new LeafEntry(key, newRid));
+        return true;
+    }
 
+    public boolean containsKey(DataBox key) {
+        Page page = getPage();
+        return lowerBound(page, key) < upperBound(page, key);
     }
 }
@@ -0,0 +1,386 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A buffer pool of a fixed number of page frames shared by one or more PageAllocators. Each frame
+ * caches a single Page, keyed by the virtual page number of its allocator. A frame can be pinned any
+ * number of times; pinned frames are never chosen for eviction. Unpinned frames are replaced
+ * according to the pool's ReplacementPolicy, and dirty pages are flushed before their frame is
+ * reused.
+ *
+ * Every method synchronizes on the pool itself, so allocators that use different pools never
+ * contend with each other. Each Database has a pool of its own; the default pool is only used by
+ * allocators created outside of one. Dirty victims are flushed outside of the pool's lock: the
+ * frame is pinned and marked in transit while its page is written, so other lookups go on, and the
+ * frame is only emptied once the write is done if its page was not pinned or dirtied again since.
+ *
+ * Properties:
+ * `frames`: the frames of this pool
+ * `pinCounts`: the pin count of every frame
+ * `pageTable`: maps a virtual page number to the frame holding that page
+ * `freeFrames`: frames that do not currently hold a page
+ * `policy`: decides which unpinned frame to evict when there is no free frame
+ * `pageBuffers`: the direct buffers that PositionalPageStores used with this pool read pages into
+ * `numHits`: number of lookups that found their page in this pool
+ * `numMisses`: number of lookups that did not
+ */
+public class BufferPool {
+  public static final int DEFAULT_NUM_FRAMES = 1024;
+  public static final int MIN_PAGE_BUFFERS = 256;
+
+  private static final BufferPool defaultPool = new BufferPool(DEFAULT_NUM_FRAMES);
+
+  private Frame[] frames;
+  private int[] pinCounts;
+  private Map<Long, Frame> pageTable;
+  private Deque<Frame> freeFrames;
+  private ReplacementPolicy policy;
+  private PageBuffers pageBuffers;
+  private long numHits;
+  private long numMisses;
+
+  /**
+   * Create a new BufferPool with numFrames frames that uses the clock replacement policy.
+   *
+   * @param numFrames the number of pages this pool can hold
+   */
+  public BufferPool(int numFrames) {
+    this(numFrames, new ClockPolicy());
+  }
+
+  /**
+   * Create a new BufferPool with numFrames frames.
+   *
+   * @param numFrames the number of pages this pool can hold
+   * @param policy the replacement policy of this pool; must not be shared with another pool
+   */
+  public BufferPool(int numFrames, ReplacementPolicy policy) {
+    this(numFrames, policy, Math.max(2 * numFrames, MIN_PAGE_BUFFERS));
+  }
+
+  /**
+   * Create a new BufferPool with numFrames frames and numPageBuffers page buffers. The buffers hold
+   * the pages of PositionalPageStores, both those cached in this pool and those still referenced
+   * after their eviction, so there should be comfortably more of them than frames.
+   *
+   * @param numFrames the number of pages this pool can hold
+   * @param policy the replacement policy of this pool; must not be shared with another pool
+   * @param numPageBuffers the number of direct page buffers of this pool
+   */
+  public BufferPool(int numFrames, ReplacementPolicy policy, int numPageBuffers) {
+    if (numFrames < 1) {
+      throw new IllegalArgumentException("A buffer pool needs at least one frame");
+    }
+    if (numPageBuffers < 1) {
+      throw new IllegalArgumentException("A buffer pool needs at least one page buffer");
+    }
+
+    this.frames = new Frame[numFrames];
+    this.pinCounts = new int[numFrames];
+    this.pageTable = new HashMap<Long, Frame>();
+    this.freeFrames = new ArrayDeque<Frame>();
+    this.policy = policy;
+    this.policy.init(numFrames);
+    this.pageBuffers = new PageBuffers(numPageBuffers);
+
+    for (int i = 0; i < numFrames; i++) {
+      this.frames[i] = new Frame(i);
+      this.freeFrames.add(this.frames[i]);
+    }
+  }
+
+  /**
+   * @return the pool used by PageAllocators that are not given one explicitly
+   */
+  public static BufferPool getDefault() {
+    return BufferPool.defaultPool;
+  }
+
+  /**
+   * @return the number of frames in this pool
+   */
+  public int getNumFrames() {
+    return this.frames.length;
+  }
+
+  /**
+   * @return the direct page buffers of this pool
+   */
+  PageBuffers getPageBuffers() {
+    return this.pageBuffers;
+  }
+
+  /**
+   * @return the replacement policy of this pool
+   */
+  public ReplacementPolicy getPolicy() {
+    return this.policy;
+  }
+
+  /**
+   * @return the number of frames currently holding a page
+   */
+  public synchronized int getNumCachedPages() {
+    return this.pageTable.size();
+  }
+
+  /**
+   * @return the number of frames that are currently pinned
+   */
+  public synchronized int getNumPinnedFrames() {
+    int count = 0;
+    for (int pinCount : this.pinCounts) {
+      if (pinCount > 0) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @return the number of page lookups that were served from this pool
+   */
+  public synchronized long getNumHits() {
+    return this.numHits;
+  }
+
+  /**
+   * @return the number of page lookups that had to load the page
+   */
+  public synchronized long getNumMisses() {
+    return this.numMisses;
+  }
+
+  /**
+   * @return the fraction of page lookups that were served from this pool
+   */
+  public synchronized float getHitRatio() {
+    long lookups = this.numHits + this.numMisses;
+    return lookups == 0 ? 0 : (float) this.numHits / lookups;
+  }
+
+  /**
+   * Reset the hit and miss counters of this pool.
+   */
+  public synchronized void resetStats() {
+    this.numHits = 0;
+    this.numMisses = 0;
+  }
+
+  /**
+   * Look up a cached page, pinning it if requested.
+   *
+   * @param vPageNum the virtual page number of the page
+   * @param pin whether to pin the frame holding the page
+   * @return the cached Page, or null if the page is not in this pool
+   */
+  synchronized Page get(long vPageNum, boolean pin) {
+    Frame frame = this.pageTable.get(vPageNum);
+    if (frame == null) {
+      this.numMisses++;
+      return null;
+    }
+
+    this.numHits++;
+    this.recordAccess(frame, pin);
+    return frame.page;
+  }
+
+  /**
+   * Check whether a page is cached without counting a hit or miss or touching the replacement policy.
+   *
+   * @param vPageNum the virtual page number of the page
+   * @return whether the page is in this pool
+   */
+  synchronized boolean contains(long vPageNum) {
+    return this.pageTable.containsKey(vPageNum);
+  }
+
+  /**
+   * Place a freshly loaded page into this pool. If another caller installed the same page first,
+   * that page is returned instead and the given one is discarded. If every frame is pinned, an
+   * unpinned request returns the page without caching it, while a pin request fails.
+   *
+   * @param owner the allocator the page belongs to
+   * @param vPageNum the virtual page number of the page
+   * @param page the page that was loaded
+   * @param pin whether to pin the frame holding the page
+   * @return the cached Page for vPageNum
+   */
+  Page put(PageAllocator owner, long vPageNum, Page page, boolean pin) {
+    while (true) {
+      Frame victim;
+      synchronized (this) {
+        Frame frame = this.pageTable.get(vPageNum);
+        if (frame != null) {
+          this.recordAccess(frame, pin);
+          return frame.page;
+        }
+
+        frame = this.freeFrames.poll();
+        victim = null;
+        if (frame == null) {
+          victim = this.chooseVictim();
+          if (victim != null && !victim.page.isDirty()) {
+            this.evict(victim);
+            frame = this.freeFrames.poll();
+            victim = null;
+          }
+        }
+
+        if (victim == null) {
+          return this.install(frame, owner, vPageNum, page, pin);
+        }
+        this.pinCounts[victim.index]++;
+        victim.inTransit = true;
+      }
+
+      Page flushed = victim.page;
+      flushed.flush();
+
+      synchronized (this) {
+        if (victim.page == flushed) {
+          victim.inTransit = false;
+          this.pinCounts[victim.index]--;
+          if (this.pinCounts[victim.index] == 0 && !flushed.isDirty()) {
+            this.evict(victim);
+          } else {
+            this.policy.recordLoad(victim.index, victim.vPageNum);
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Fill a frame with a page, or return the page uncached if there is no frame for it.
+   */
+  private Page install(Frame frame, PageAllocator owner, long vPageNum, Page page, boolean pin) {
+    if (frame == null) {
+      if (pin) {
+        throw new PageException("No unpinned frames left in buffer pool of " + this.frames.length + " pages");
+      }
+      page.setResident(false);
+      return page;
+    }
+
+    frame.owner = owner;
+    frame.vPageNum = vPageNum;
+    frame.page = page;
+    this.pinCounts[frame.index] = pin ? 1 : 0;
+    this.pageTable.put(vPageNum, frame);
+    this.policy.recordLoad(frame.index, vPageNum);
+    page.setResident(true);
+    return page;
+  }
+
+  /**
+   * Release one pin on a cached page.
+   *
+   * @param vPageNum the virtual page number of the page
+   * @return false if the page is not cached or not pinned, true otherwise
+   */
+  synchronized boolean unpin(long vPageNum) {
+    Frame frame = this.pageTable.get(vPageNum);
+    if (frame == null || this.pinCounts[frame.index] == 0) {
+      return false;
+    }
+
+    this.pinCounts[frame.index]--;
+    return true;
+  }
+
+  /**
+   * Drop a page from this pool without flushing it, regardless of its pin count. Used when the page
+   * is freed by its allocator.
+   *
+   * @param vPageNum the virtual page number of the page
+   */
+  synchronized void remove(long vPageNum) {
+    Frame frame = this.pageTable.remove(vPageNum);
+    if (frame != null) {
+      this.policy.recordRemoval(frame.index);
+      clear(frame);
+    }
+  }
+
+  /**
+   * Drop every page of an allocator from this pool, regardless of pin counts.
+   *
+   * @param owner the allocator whose pages should be dropped
+   * @return the pages that were dropped, so the caller can flush them
+   */
+  synchronized List<Page> removeAll(PageAllocator owner) {
+    List<Page> removed = new ArrayList<Page>();
+
+    for (Frame frame : this.frames) {
+      if (frame.owner == owner) {
+        removed.add(frame.page);
+        this.pageTable.remove(frame.vPageNum);
+        this.policy.recordRemoval(frame.index);
+        clear(frame);
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Record an access to a cached page. Frames in transit have been handed out by the replacement
+   * policy already, so their accesses are not recorded with it.
+   */
+  private void recordAccess(Frame frame, boolean pin) {
+    if (!frame.inTransit) {
+      this.policy.recordAccess(frame.index);
+    }
+    if (pin) {
+      this.pinCounts[frame.index]++;
+    }
+  }
+
+  /**
+   * @return an unpinned frame chosen by the replacement policy, or null if every frame is pinned
+   */
+  private Frame chooseVictim() {
+    int victim = this.policy.chooseVictim(this.pinCounts);
+    return victim == -1 ? null : this.frames[victim];
+  }
+
+  /**
+   * Empty a frame chosen by the replacement policy, whose page is clean.
+   */
+  private void evict(Frame frame) {
+    frame.owner.getMetrics().recordEviction();
+    this.pageTable.remove(frame.vPageNum);
+    clear(frame);
+  }
+
+  private void clear(Frame frame) {
+    frame.page.setResident(false);
+    frame.page.release();
+    frame.inTransit = false;
+    frame.owner = null;
+    frame.vPageNum = -1;
+    frame.page = null;
+    this.pinCounts[frame.index] = 0;
+    this.freeFrames.add(frame);
+  }
+
+  private static class Frame {
+    private int index;
+    private PageAllocator owner;
+    private long vPageNum;
+    private Page page;
+    private boolean inTransit;
+
+    private Frame(int index) {
+      this.index = index;
+      this.vPageNum = -1;
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package edu.berkeley.cs186.database.io;
+
+/**
+ * The clock (second chance) replacement policy. Every frame has a reference bit that is set when its
+ * page is loaded or accessed. The clock hand sweeps over the frames, clearing set bits and evicting
+ * the first unpinned frame whose bit is already clear.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+  private boolean[] filled;
+  private boolean[] referenced;
+  private int clockHand;
+
+  public void init(int numFrames) {
+    this.filled = new boolean[numFrames];
+    this.referenced = new boolean[numFrames];
+    this.clockHand = 0;
+  }
+
+  public void recordLoad(int frame, long vPageNum) {
+    this.filled[frame] = true;
+    this.referenced[frame] = true;
+  }
+
+  public void recordAccess(int frame) {
+    this.referenced[frame] = true;
+  }
+
+  public void recordRemoval(int frame) {
+    this.filled[frame] = false;
+    this.referenced[frame] = false;
+  }
+
+  public int chooseVictim(int[] pinCounts) {
+    for (int i = 0; i < 2 * this.filled.length; i++) {
+      int frame = this.clockHand;
+      this.clockHand = (this.clockHand + 1) % this.filled.length;
+
+      if (!this.filled[frame] || pinCounts[frame] > 0) {
+        continue;
+      }
+      if (this.referenced[frame]) {
+        this.referenced[frame] = false;
+        continue;
+      }
+
+      this.filled[frame] = false;
+      return frame;
+    }
+    return -1;
+  }
+}
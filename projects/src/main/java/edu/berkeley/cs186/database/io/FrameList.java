@@ -0,0 +1,81 @@
+package edu.berkeley.cs186.database.io;
+
+/**
+ * A doubly linked list of frame indices backed by arrays, used by replacement policies to keep
+ * frames in recency or arrival order without allocating on every access. Frames are appended at the
+ * tail, so the head is always the oldest entry. A frame can be on at most one list that shares the
+ * same link arrays.
+ */
+class FrameList {
+  private int[] prev;
+  private int[] next;
+  private int head;
+  private int tail;
+  private int size;
+
+  FrameList(int[] prev, int[] next) {
+    this.prev = prev;
+    this.next = next;
+    this.head = -1;
+    this.tail = -1;
+    this.size = 0;
+  }
+
+  int size() {
+    return this.size;
+  }
+
+  int head() {
+    return this.head;
+  }
+
+  int next(int frame) {
+    return this.next[frame];
+  }
+
+  void addLast(int frame) {
+    this.prev[frame] = this.tail;
+    this.next[frame] = -1;
+    if (this.tail == -1) {
+      this.head = frame;
+    } else {
+      this.next[this.tail] = frame;
+    }
+    this.tail = frame;
+    this.size++;
+  }
+
+  void remove(int frame) {
+    if (this.prev[frame] == -1) {
+      this.head = this.next[frame];
+    } else {
+      this.next[this.prev[frame]] = this.next[frame];
+    }
+    if (this.next[frame] == -1) {
+      this.tail = this.prev[frame];
+    } else {
+      this.prev[this.next[frame]] = this.prev[frame];
+    }
+    this.prev[frame] = -1;
+    this.next[frame] = -1;
+    this.size--;
+  }
+
+  void moveToLast(int frame) {
+    remove(frame);
+    addLast(frame);
+  }
+
+  /**
+   * @param pinCounts the pin count of every frame
+   * @return the oldest frame on this list that is not pinned, or -1 if there is none
+   */
+  int firstUnpinned(int[] pinCounts) {
+    for (int frame = this.head; frame != -1; frame = this.next[frame]) {
+      if (pinCounts[frame] == 0) {
+        return frame;
+      }
+    }
+    return -1;
+  }
+}
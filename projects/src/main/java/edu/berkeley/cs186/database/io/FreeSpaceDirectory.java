@@ -0,0 +1,217 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * An in-memory copy of a PageAllocator's master page and header pages, used to find free pages
+ * without rereading and scanning them. Each header page's valid bytes are kept as a bitset that is
+ * loaded the first time the header is needed, and a summary bitset records which headers still have
+ * room, so finding a free page only looks at a couple of machine words in the common case. Only
+ * the header pages up to the last one in use are tracked, and the arrays grow as pages are allocated
+ * under new header pages, so that an allocator with a handful of pages stays small.
+ *
+ * The directory does not write anything itself; the PageAllocator keeps the pages on disk in sync
+ * with every change it records here.
+ *
+ * Properties:
+ * `numHeaderPages`: the number of header pages the allocator can use
+ * `pageCounts`: the number of allocated pages under each tracked header page, as stored in the
+ * master page; header pages past the end of the array have no allocated pages
+ * `allocated`: the allocated pages under each tracked header page, or null if that header is not
+ * loaded yet
+ * `headersWithSpace`: the tracked header pages that have at least one free page
+ */
+class FreeSpaceDirectory {
+  private int numHeaderPages;
+  private int[] pageCounts;
+  private BitSet[] allocated;
+  private BitSet headersWithSpace;
+
+  /**
+   * Create a new FreeSpaceDirectory from the page counts in the master page.
+   *
+   * @param pageCounts the number of allocated pages under each header page
+   */
+  FreeSpaceDirectory(int[] pageCounts) {
+    this.numHeaderPages = pageCounts.length;
+
+    int numTracked = 0;
+    for (int i = 0; i < pageCounts.length; i++) {
+      if (pageCounts[i] > 0) {
+        numTracked = i + 1;
+      }
+    }
+
+    this.pageCounts = Arrays.copyOf(pageCounts, Math.max(numTracked, 1));
+    this.allocated = new BitSet[this.pageCounts.length];
+    this.headersWithSpace = new BitSet();
+
+    for (int i = 0; i < this.pageCounts.length; i++) {
+      if (this.pageCounts[i] < Page.pageSize) {
+        this.headersWithSpace.set(i);
+      }
+    }
+  }
+
+  /**
+   * @return the total number of allocated pages
+   */
+  int getNumPages() {
+    int numPages = 0;
+    for (int count : this.pageCounts) {
+      numPages += count;
+    }
+    return numPages;
+  }
+
+  /**
+   * @param headIndex the index of a header page
+   * @return the number of allocated pages under that header page
+   */
+  int getCount(int headIndex) {
+    return headIndex < this.pageCounts.length ? this.pageCounts[headIndex] : 0;
+  }
+
+  /**
+   * @return the number of header pages tracked; every header page after them has no allocated pages
+   */
+  int getNumTrackedHeaders() {
+    return this.pageCounts.length;
+  }
+
+  /**
+   * @return the index of the first header page with a free page, or -1 if every header page is full
+   */
+  int findHeaderWithSpace() {
+    int headIndex = this.headersWithSpace.nextSetBit(0);
+    if (headIndex == -1) {
+      headIndex = this.pageCounts.length;
+    }
+    return headIndex < this.numHeaderPages ? headIndex : -1;
+  }
+
+  /**
+   * @param headIndex the index of a header page
+   * @return whether the valid bytes of that header page have been loaded
+   */
+  boolean isLoaded(int headIndex) {
+    return headIndex < this.allocated.length && this.allocated[headIndex] != null;
+  }
+
+  /**
+   * Load the valid bytes of a header page. Header pages with no allocated pages can be loaded
+   * without reading them by passing null.
+   *
+   * @param headIndex the index of the header page
+   * @param headerPage the header page, or null if it has no allocated pages
+   * @return the number of allocated pages in headerPage
+   */
+  int load(int headIndex, Page headerPage) {
+    BitSet bits = new BitSet(Page.pageSize);
+    if (headerPage != null) {
+      // Read eight valid bytes at a time, since most of them are usually all set or all clear
+      for (int i = 0; i < Page.pageSize; i += 8) {
+        long word = headerPage.getLong(i);
+        if (word == 0) {
+          continue;
+        }
+        for (int j = 0; j < 8; j++) {
+          if (((word >>> (56 - 8 * j)) & 0xFF) != 0) {
+            bits.set(i + j);
+          }
+        }
+      }
+    }
+    ensureTracked(headIndex);
+    this.allocated[headIndex] = bits;
+    return bits.cardinality();
+  }
+
+  /**
+   * Overwrite the number of allocated pages under a header page, used when the count stored in the
+   * master page does not match the header page after a crash.
+   *
+   * @param headIndex the index of the header page
+   * @param count the number of allocated pages under that header page
+   */
+  void setCount(int headIndex, int count) {
+    ensureTracked(headIndex);
+    this.pageCounts[headIndex] = count;
+    if (count < Page.pageSize) {
+      this.headersWithSpace.set(headIndex);
+    } else {
+      this.headersWithSpace.clear(headIndex);
+    }
+  }
+
+  /**
+   * @param headIndex the index of a loaded header page
+   * @return the index of the first free page under that header page, or -1 if it is full
+   */
+  int findFreeIndex(int headIndex) {
+    int pageIndex = this.allocated[headIndex].nextClearBit(0);
+    return pageIndex < Page.pageSize ? pageIndex : -1;
+  }
+
+  /**
+   * @param headIndex the index of a loaded header page
+   * @param fromIndex the index under that header page to start searching from
+   * @return the index of the first allocated page at or after fromIndex, or -1 if there is none
+   */
+  int nextAllocatedIndex(int headIndex, int fromIndex) {
+    int pageIndex = this.allocated[headIndex].nextSetBit(fromIndex);
+    return pageIndex < Page.pageSize ? pageIndex : -1;
+  }
+
+  /**
+   * @param headIndex the index of a loaded header page
+   * @param pageIndex the index of a page under that header page
+   * @return whether that page is allocated
+   */
+  boolean isAllocated(int headIndex, int pageIndex) {
+    return this.allocated[headIndex].get(pageIndex);
+  }
+
+  /**
+   * Record that a page has been allocated.
+   *
+   * @param headIndex the index of a loaded header page
+   * @param pageIndex the index of the page under that header page
+   * @return the new number of allocated pages under the header page
+   */
+  int markAllocated(int headIndex, int pageIndex) {
+    this.allocated[headIndex].set(pageIndex);
+    int count = ++this.pageCounts[headIndex];
+    if (count >= Page.pageSize) {
+      this.headersWithSpace.clear(headIndex);
+    }
+    return count;
+  }
+
+  /**
+   * Record that a page has been freed.
+   *
+   * @param headIndex the index of a loaded header page
+   * @param pageIndex the index of the page under that header page
+   * @return the new number of allocated pages under the header page
+   */
+  int markFreed(int headIndex, int pageIndex) {
+    this.allocated[headIndex].clear(pageIndex);
+    int count = --this.pageCounts[headIndex];
+    this.headersWithSpace.set(headIndex);
+    return count;
+  }
+
+  private void ensureTracked(int headIndex) {
+    if (headIndex < this.pageCounts.length) {
+      return;
+    }
+
+    int oldLength = this.pageCounts.length;
+    int newLength = Math.min(Math.max(headIndex + 1, 2 * oldLength), this.numHeaderPages);
+    this.pageCounts = Arrays.copyOf(this.pageCounts, newLength);
+    this.allocated = Arrays.copyOf(this.allocated, newLength);
+    this.headersWithSpace.set(oldLength, newLength);
+  }
+}
@@ -0,0 +1,182 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The I/O and cache metrics of one PageAllocator, and so of the table or index it stores. Every
+ * counter can be bumped from any thread without contention, and none of them is shared with another
+ * allocator, so the metrics of one file are never mixed with those of the rest of the JVM.
+ *
+ * Properties:
+ * `logicalReads`: the number of fetchPage and pinPage calls
+ * `hits`: the number of logical reads served from the buffer pool
+ * `physicalReads`: the number of pages loaded from the file, including read-ahead and metadata pages
+ * `evictions`: the number of pages of this allocator evicted from the buffer pool
+ * `writebacks`: the number of page writes, either flushes of single pages or pages in a batch
+ * `syncs`: the number of times the file was forced to disk
+ * `allocs`: the number of pages allocated
+ * `frees`: the number of pages freed
+ * `fetchLatency`: the latency of logical reads
+ * `readLatency`: the latency of physical reads
+ * `writeLatency`: the latency of writebacks, per flush or batch
+ * `syncLatency`: the latency of forcing the file to disk
+ */
+public class IOMetrics implements IOMetricsMXBean {
+  private LongAdder logicalReads = new LongAdder();
+  private LongAdder hits = new LongAdder();
+  private LongAdder physicalReads = new LongAdder();
+  private LongAdder evictions = new LongAdder();
+  private LongAdder writebacks = new LongAdder();
+  private LongAdder syncs = new LongAdder();
+  private LongAdder allocs = new LongAdder();
+  private LongAdder frees = new LongAdder();
+  private LatencyHistogram fetchLatency = new LatencyHistogram();
+  private LatencyHistogram readLatency = new LatencyHistogram();
+  private LatencyHistogram writeLatency = new LatencyHistogram();
+  private LatencyHistogram syncLatency = new LatencyHistogram();
+
+  void recordFetch(boolean hit, long nanos) {
+    this.logicalReads.increment();
+    if (hit) {
+      this.hits.increment();
+    }
+    this.fetchLatency.record(nanos);
+  }
+
+  void recordRead(long nanos) {
+    this.physicalReads.increment();
+    this.readLatency.record(nanos);
+  }
+
+  void recordWrite(int numPages, long nanos) {
+    this.writebacks.add(numPages);
+    this.writeLatency.record(nanos);
+  }
+
+  void recordSync(long nanos) {
+    this.syncs.increment();
+    this.syncLatency.record(nanos);
+  }
+
+  void recordEviction() {
+    this.evictions.increment();
+  }
+
+  void recordAlloc() {
+    this.allocs.increment();
+  }
+
+  void recordFree() {
+    this.frees.increment();
+  }
+
+  public long getLogicalReads() {
+    return this.logicalReads.sum();
+  }
+
+  public long getHits() {
+    return this.hits.sum();
+  }
+
+  public long getMisses() {
+    return getLogicalReads() - getHits();
+  }
+
+  /**
+   * @return the fraction of logical reads served from the buffer pool, or 0 if there were none
+   */
+  public float getHitRatio() {
+    long logicalReads = getLogicalReads();
+    return logicalReads == 0 ? 0 : (float) getHits() / logicalReads;
+  }
+
+  public long getPhysicalReads() {
+    return this.physicalReads.sum();
+  }
+
+  public long getEvictions() {
+    return this.evictions.sum();
+  }
+
+  public long getWritebacks() {
+    return this.writebacks.sum();
+  }
+
+  public long getSyncs() {
+    return this.syncs.sum();
+  }
+
+  public long getAllocs() {
+    return this.allocs.sum();
+  }
+
+  public long getFrees() {
+    return this.frees.sum();
+  }
+
+  public LatencyHistogram getFetchLatency() {
+    return this.fetchLatency;
+  }
+
+  public LatencyHistogram getReadLatency() {
+    return this.readLatency;
+  }
+
+  public LatencyHistogram getWriteLatency() {
+    return this.writeLatency;
+  }
+
+  public LatencyHistogram getSyncLatency() {
+    return this.syncLatency;
+  }
+
+  public long getFetchLatencyMeanNanos() {
+    return this.fetchLatency.getMeanNanos();
+  }
+
+  public long getFetchLatencyP99Nanos() {
+    return this.fetchLatency.getPercentileNanos(99);
+  }
+
+  public long getReadLatencyMeanNanos() {
+    return this.readLatency.getMeanNanos();
+  }
+
+  public long getReadLatencyP99Nanos() {
+    return this.readLatency.getPercentileNanos(99);
+  }
+
+  public long getWriteLatencyMeanNanos() {
+    return this.writeLatency.getMeanNanos();
+  }
+
+  public long getWriteLatencyP99Nanos() {
+    return this.writeLatency.getPercentileNanos(99);
+  }
+
+  public long getSyncLatencyMeanNanos() {
+    return this.syncLatency.getMeanNanos();
+  }
+
+  public long getSyncLatencyP99Nanos() {
+    return this.syncLatency.getPercentileNanos(99);
+  }
+
+  /**
+   * Reset every counter and histogram to zero.
+   */
+  public void reset() {
+    this.logicalReads.reset();
+    this.hits.reset();
+    this.physicalReads.reset();
+    this.evictions.reset();
+    this.writebacks.reset();
+    this.syncs.reset();
+    this.allocs.reset();
+    this.frees.reset();
+    this.fetchLatency.reset();
+    this.readLatency.reset();
+    this.writeLatency.reset();
+    this.syncLatency.reset();
+  }
+}
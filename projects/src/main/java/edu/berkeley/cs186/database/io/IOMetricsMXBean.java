@@ -0,0 +1,45 @@
+package edu.berkeley.cs186.database.io;
+
+/**
+ * The attributes of an IOMetrics as exposed through JMX by a MetricsRegistry. Latencies are in
+ * nanoseconds.
+ */
+public interface IOMetricsMXBean {
+  long getLogicalReads();
+
+  long getHits();
+
+  long getMisses();
+
+  float getHitRatio();
+
+  long getPhysicalReads();
+
+  long getEvictions();
+
+  long getWritebacks();
+
+  long getSyncs();
+
+  long getAllocs();
+
+  long getFrees();
+
+  long getFetchLatencyMeanNanos();
+
+  long getFetchLatencyP99Nanos();
+
+  long getReadLatencyMeanNanos();
+
+  long getReadLatencyP99Nanos();
+
+  long getWriteLatencyMeanNanos();
+
+  long getWriteLatencyP99Nanos();
+
+  long getSyncLatencyMeanNanos();
+
+  long getSyncLatencyP99Nanos();
+
+  void reset();
+}
@@ -0,0 +1,47 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Arrays;
+
+/**
+ * The least-recently used replacement policy. Evicts the unpinned frame whose page was accessed
+ * longest ago. Simple and effective for point lookups, but a single sequential scan larger than the
+ * pool flushes every other page out of it.
+ */
+public class LRUPolicy implements ReplacementPolicy {
+  private boolean[] filled;
+  private FrameList recency;
+
+  public void init(int numFrames) {
+    int[] prev = new int[numFrames];
+    int[] next = new int[numFrames];
+    Arrays.fill(prev, -1);
+    Arrays.fill(next, -1);
+
+    this.filled = new boolean[numFrames];
+    this.recency = new FrameList(prev, next);
+  }
+
+  public void recordLoad(int frame, long vPageNum) {
+    this.filled[frame] = true;
+    this.recency.addLast(frame);
+  }
+
+  public void recordAccess(int frame) {
+    this.recency.moveToLast(frame);
+  }
+
+  public void recordRemoval(int frame) {
+    if (this.filled[frame]) {
+      this.filled[frame] = false;
+      this.recency.remove(frame);
+    }
+  }
+
+  public int chooseVictim(int[] pinCounts) {
+    int frame = this.recency.firstUnpinned(pinCounts);
+    if (frame != -1) {
+      recordRemoval(frame);
+    }
+    return frame;
+  }
+}
@@ -0,0 +1,108 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of latencies in nanoseconds with one bucket per power of two, so that recording a
+ * latency is a couple of atomic adds and percentiles are accurate to within a factor of two. Bucket
+ * i holds the latencies in [2^(i-1), 2^i), and the last bucket everything from about two seconds up.
+ *
+ * Properties:
+ * `buckets`: the number of latencies recorded in each bucket
+ * `totalNanos`: the sum of every latency recorded
+ */
+public class LatencyHistogram {
+  private static final int numBuckets = 32;
+
+  private AtomicLongArray buckets;
+  private LongAdder totalNanos;
+
+  public LatencyHistogram() {
+    this.buckets = new AtomicLongArray(numBuckets);
+    this.totalNanos = new LongAdder();
+  }
+
+  /**
+   * Record one latency.
+   *
+   * @param nanos the latency in nanoseconds
+   */
+  public void record(long nanos) {
+    if (nanos < 0) {
+      nanos = 0;
+    }
+    int bucket = Math.min(64 - Long.numberOfLeadingZeros(nanos), numBuckets - 1);
+    this.buckets.incrementAndGet(bucket);
+    this.totalNanos.add(nanos);
+  }
+
+  /**
+   * @return the number of latencies recorded
+   */
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < numBuckets; i++) {
+      count += this.buckets.get(i);
+    }
+    return count;
+  }
+
+  /**
+   * @return the sum of every latency recorded, in nanoseconds
+   */
+  public long getTotalNanos() {
+    return this.totalNanos.sum();
+  }
+
+  /**
+   * @return the mean latency in nanoseconds, or 0 if nothing has been recorded
+   */
+  public long getMeanNanos() {
+    long count = getCount();
+    return count == 0 ? 0 : getTotalNanos() / count;
+  }
+
+  /**
+   * Estimate a percentile of the recorded latencies.
+   *
+   * @param percentile the percentile to estimate, between 0 and 100
+   * @return an upper bound on that percentile in nanoseconds, within a factor of two, or 0 if
+   * nothing has been recorded; percentiles in the last bucket are reported as about two seconds
+   */
+  public long getPercentileNanos(double percentile) {
+    if (percentile < 0 || percentile > 100) {
+      throw new IllegalArgumentException("Percentile must be between 0 and 100");
+    }
+
+    long[] counts = new long[numBuckets];
+    long count = 0;
+    for (int i = 0; i < numBuckets; i++) {
+      counts[i] = this.buckets.get(i);
+      count += counts[i];
+    }
+    if (count == 0) {
+      return 0;
+    }
+
+    long rank = Math.max(1, (long) Math.ceil(count * percentile / 100));
+    long seen = 0;
+    for (int i = 0; i < numBuckets; i++) {
+      seen += counts[i];
+      if (seen >= rank) {
+        return i == 0 ? 0 : (1L << i) - 1;
+      }
+    }
+    return Long.MAX_VALUE;
+  }
+
+  /**
+   * Forget every latency recorded so far.
+   */
+  public void reset() {
+    for (int i = 0; i < numBuckets; i++) {
+      this.buckets.set(i, 0);
+    }
+    this.totalNanos.reset();
+  }
+}
@@ -0,0 +1,44 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A PageStore that maps every page on its own the first time it is loaded. Mapping a page extends
+ * the file to the end of that page.
+ */
+public class MappedPageStore extends PageStore {
+  /**
+   * Create a new MappedPageStore over the file named fName.
+   *
+   * @param fName the name of the file backing this store
+   */
+  public MappedPageStore(String fName) {
+    super(fName);
+  }
+
+  Page load(int blockNum, int pageNum, boolean durable) {
+    MappedByteBuffer mapping;
+    long start = System.nanoTime();
+    try {
+      mapping = this.fc.map(FileChannel.MapMode.READ_WRITE, ((long) blockNum)*Page.pageSize, Page.pageSize);
+    } catch (IOException e) {
+      throw new PageException("Can't mmap page: " + pageNum + "at block: " + blockNum + " ; " + e.getMessage());
+    }
+    getMetrics().recordRead(System.nanoTime() - start);
+    return new Page(mapping, mapping, this, blockNum, pageNum, durable);
+  }
+
+  void flush(Page page) {
+    if (page.isDurable()) {
+      long start = System.nanoTime();
+      page.getMapping().force();
+      getMetrics().recordSync(System.nanoTime() - start);
+    }
+  }
+
+  boolean needsWriteBack() {
+    return false;
+  }
+}
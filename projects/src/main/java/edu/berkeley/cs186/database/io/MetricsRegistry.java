@@ -0,0 +1,145 @@
+package edu.berkeley.cs186.database.io;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * A named collection of IOMetrics, such as those of every table and index of a Database. Once
+ * exposeViaJmx has been called, every metrics object in the registry, and every one registered
+ * later, is also registered with the platform MBean server, under
+ * `edu.berkeley.cs186.database:type=IOMetrics,registry=<id>,name=<name>`.
+ *
+ * Properties:
+ * `metrics`: the registered metrics by name
+ * `id`: distinguishes the MBeans of this registry from those of other registries in the JVM
+ * `mBeanServer`: the server metrics are exposed through, or null if they are not exposed
+ */
+public class MetricsRegistry {
+  public static final String JMX_DOMAIN = "edu.berkeley.cs186.database";
+
+  private static AtomicInteger registryCounter = new AtomicInteger(0);
+
+  private Map<String, IOMetrics> metrics;
+  private int id;
+  private MBeanServer mBeanServer;
+
+  public MetricsRegistry() {
+    this.metrics = new TreeMap<String, IOMetrics>();
+    this.id = registryCounter.getAndIncrement();
+  }
+
+  /**
+   * Add metrics to the registry, replacing any registered under the same name.
+   *
+   * @param name the name of the metrics, such as the name of their table
+   * @param ioMetrics the metrics to add
+   */
+  public synchronized void register(String name, IOMetrics ioMetrics) {
+    unregister(name);
+    this.metrics.put(name, ioMetrics);
+    if (this.mBeanServer != null) {
+      registerMBean(name, ioMetrics);
+    }
+  }
+
+  /**
+   * Remove the metrics registered under a name.
+   *
+   * @param name the name of the metrics
+   * @return whether there were metrics registered under that name
+   */
+  public synchronized boolean unregister(String name) {
+    if (this.metrics.remove(name) == null) {
+      return false;
+    }
+    if (this.mBeanServer != null) {
+      unregisterMBean(name);
+    }
+    return true;
+  }
+
+  /**
+   * Remove every metrics object from the registry.
+   */
+  public synchronized void clear() {
+    for (String name : getNames()) {
+      unregister(name);
+    }
+  }
+
+  /**
+   * @param name the name of some metrics
+   * @return the metrics registered under that name, or null if there are none
+   */
+  public synchronized IOMetrics get(String name) {
+    return this.metrics.get(name);
+  }
+
+  /**
+   * @return the names of every registered metrics object, in order
+   */
+  public synchronized Set<String> getNames() {
+    return Collections.unmodifiableSet(new TreeSet<String>(this.metrics.keySet()));
+  }
+
+  /**
+   * @return a copy of the registered metrics by name, in order of name
+   */
+  public synchronized Map<String, IOMetrics> getAll() {
+    return Collections.unmodifiableMap(new TreeMap<String, IOMetrics>(this.metrics));
+  }
+
+  /**
+   * Register every metrics object in this registry, and every one added later, with the platform
+   * MBean server.
+   */
+  public synchronized void exposeViaJmx() {
+    if (this.mBeanServer != null) {
+      return;
+    }
+    this.mBeanServer = ManagementFactory.getPlatformMBeanServer();
+    for (Map.Entry<String, IOMetrics> entry : this.metrics.entrySet()) {
+      registerMBean(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * @param name the name of some metrics
+   * @return the JMX object name the metrics are exposed under
+   */
+  public ObjectName getObjectName(String name) {
+    try {
+      return new ObjectName(JMX_DOMAIN + ":type=IOMetrics,registry=" + this.id + ",name="
+          + ObjectName.quote(name));
+    } catch (JMException e) {
+      throw new PageException("Invalid metrics name: " + name + " ; " + e.getMessage());
+    }
+  }
+
+  private void registerMBean(String name, IOMetrics ioMetrics) {
+    try {
+      this.mBeanServer.registerMBean(ioMetrics, getObjectName(name));
+    } catch (JMException e) {
+      throw new PageException("Could not expose metrics " + name + " ; " + e.getMessage());
+    }
+  }
+
+  private void unregisterMBean(String name) {
+    try {
+      ObjectName objectName = getObjectName(name);
+      if (this.mBeanServer.isRegistered(objectName)) {
+        this.mBeanServer.unregisterMBean(objectName);
+      }
+    } catch (JMException e) {
+      throw new PageException("Could not unexpose metrics " + name + " ; " + e.getMessage());
+    }
+  }
+}
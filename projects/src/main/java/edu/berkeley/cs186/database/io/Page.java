@@ -4,18 +4,36 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * General-purpose wrapper for interacting with the memory-mapped bytes on a page.
+ * General-purpose wrapper for interacting with the bytes on a page. The bytes are either mapped from
+ * the file or, for pages of a PositionalPageStore, held in a buffer that is written back to the file
+ * when the page is flushed. Such a page that is no longer in the buffer pool writes through on every
+ * change, so that callers holding on to it after eviction never lose a write.
+ *
+ * No method reads or moves the position of the shared buffer, so any number of threads can read the
+ * same page at once. Threads that also write to a page coordinate through its latch: readers hold it
+ * shared and writers hold it exclusive. The latch belongs to the Page object, so it only protects a
+ * page while it is pinned in the buffer pool; an unpinned page can be evicted and loaded again as a
+ * different object.
  *
  * YOU SHOULD NOT NEED TO CHANGE ANY OF THE CODE IN THIS PACKAGE.
  */
 public class Page {
   public static final int pageSize = 4096;
 
-  private MappedByteBuffer pageData;
+  private static final byte[] zeros = new byte[Page.pageSize];
+
+  private volatile ByteBuffer pageData;
+  private MappedByteBuffer mapping;
+  private PageStore store;
+  private int blockNum;
   private int pageNum;
   private boolean durable;
+  private volatile boolean dirty;
+  private volatile boolean resident;
+  private final ReentrantReadWriteLock latch = new ReentrantReadWriteLock();
 
   /**
    * Create a new page using fc with at offset blockNum with virtual page number pageNum
@@ -29,14 +47,38 @@ public class Page {
   }
 
   public Page(FileChannel fc, int blockNum, int pageNum, boolean durable) {
+    this.blockNum = blockNum;
     this.pageNum = pageNum;
     this.durable = durable;
     PageAllocator.incrementCacheMisses();
     try {
-      this.pageData = fc.map(FileChannel.MapMode.READ_WRITE, blockNum*Page.pageSize, Page.pageSize);
+      this.mapping = fc.map(FileChannel.MapMode.READ_WRITE, blockNum*Page.pageSize, Page.pageSize);
     } catch (IOException e) {
       throw new PageException("Can't mmap page: " + pageNum + "at block: " + blockNum + " ; " + e.getMessage());
     }
+    this.pageData = this.mapping;
+    this.resident = true;
+  }
+
+  /**
+   * Create a new page of a PageStore.
+   *
+   * @param pageData the bytes of this page
+   * @param mapping the mapped region that contains pageData, or null if pageData is not mapped
+   * @param store the store that created this page and flushes it
+   * @param blockNum the block in the file for this page
+   * @param pageNum the virtual page number
+   * @param durable whether flushing the page forces it to disk
+   */
+  Page(ByteBuffer pageData, MappedByteBuffer mapping, PageStore store, int blockNum, int pageNum, boolean durable) {
+    this.pageData = pageData;
+    this.mapping = mapping;
+    this.store = store;
+    this.blockNum = blockNum;
+    this.pageNum = pageNum;
+    this.durable = durable;
+    this.resident = true;
+    PageAllocator.incrementCacheMisses();
   }
 
   /**
@@ -53,8 +95,7 @@ public class Page {
     if (buf.length < num) {
       throw new PageException("num bytes to read is longer than buffer");
     }
-    pageData.position(position);
-    pageData.get(buf, 0, num);
+    getBytes(position, buf, 0, num);
   }
 
   /**
@@ -115,8 +156,7 @@ public class Page {
       throw new PageException("writeBytes would go out of bounds");
     }
 
-    pageData.position(position);
-    pageData.put(buf, 0, num);
+    putBytes(position, buf, 0, num);
   }
 
   /**
@@ -130,6 +170,7 @@ public class Page {
       throw new PageException("readByte is out of bounds of page");
     }
     pageData.put(position, b);
+    written();
   }
 
   /**
@@ -139,7 +180,7 @@ public class Page {
    * @param value the value to write
    */
   public void writeInt(int startPos, int value) {
-    this.writeBytes(startPos, 4, ByteBuffer.allocate(4).putInt(value).array());
+    this.putInt(startPos, value);
   }
 
   /**
@@ -149,15 +190,140 @@ public class Page {
    * @return the 4-byte integer at startPos
    */
   public int readInt(int startPos) {
-    return ByteBuffer.wrap(this.readBytes(startPos, 4)).getInt();
+    return this.getInt(startPos);
+  }
+
+  /**
+   * Read the byte at offset position. Like the other get and put methods, this reads the page
+   * directly without allocating.
+   *
+   * @param position the offset in the page to read from
+   * @return the byte at offset position
+   */
+  public byte getByte(int position) {
+    checkBounds(position, 1);
+    return pageData.get(position);
+  }
+
+  /**
+   * Write a byte at offset position.
+   *
+   * @param position the offset in the page to write to
+   * @param value the value to write
+   */
+  public void putByte(int position, byte value) {
+    checkBounds(position, 1);
+    pageData.put(position, value);
+    written();
+  }
+
+  /**
+   * Read the big-endian 4-byte integer at offset position.
+   *
+   * @param position the offset in the page to read from
+   * @return the integer at offset position
+   */
+  public int getInt(int position) {
+    checkBounds(position, 4);
+    return pageData.getInt(position);
+  }
+
+  /**
+   * Write a big-endian 4-byte integer at offset position.
+   *
+   * @param position the offset in the page to write to
+   * @param value the value to write
+   */
+  public void putInt(int position, int value) {
+    checkBounds(position, 4);
+    pageData.putInt(position, value);
+    written();
+  }
+
+  /**
+   * Read the big-endian 8-byte integer at offset position.
+   *
+   * @param position the offset in the page to read from
+   * @return the long at offset position
+   */
+  public long getLong(int position) {
+    checkBounds(position, 8);
+    return pageData.getLong(position);
+  }
+
+  /**
+   * Write a big-endian 8-byte integer at offset position.
+   *
+   * @param position the offset in the page to write to
+   * @param value the value to write
+   */
+  public void putLong(int position, long value) {
+    checkBounds(position, 8);
+    pageData.putLong(position, value);
+    written();
+  }
+
+  /**
+   * Read the big-endian 4-byte float at offset position.
+   *
+   * @param position the offset in the page to read from
+   * @return the float at offset position
+   */
+  public float getFloat(int position) {
+    checkBounds(position, 4);
+    return pageData.getFloat(position);
+  }
+
+  /**
+   * Write a big-endian 4-byte float at offset position.
+   *
+   * @param position the offset in the page to write to
+   * @param value the value to write
+   */
+  public void putFloat(int position, float value) {
+    checkBounds(position, 4);
+    pageData.putFloat(position, value);
+    written();
+  }
+
+  /**
+   * Copy length bytes starting at offset position into dst, starting at dstOffset.
+   *
+   * @param position the offset in the page to read from
+   * @param dst the array to copy into
+   * @param dstOffset the offset in dst to copy to
+   * @param length the number of bytes to copy
+   */
+  public void getBytes(int position, byte[] dst, int dstOffset, int length) {
+    checkBounds(position, length);
+    if (dstOffset < 0 || dst.length < dstOffset + length) {
+      throw new PageException("getBytes is out of bounds of destination");
+    }
+    view(position).get(dst, dstOffset, length);
+  }
+
+  /**
+   * Copy length bytes of src, starting at srcOffset, into the page at offset position.
+   *
+   * @param position the offset in the page to write to
+   * @param src the array to copy from
+   * @param srcOffset the offset in src to copy from
+   * @param length the number of bytes to copy
+   */
+  public void putBytes(int position, byte[] src, int srcOffset, int length) {
+    checkBounds(position, length);
+    if (srcOffset < 0 || src.length < srcOffset + length) {
+      throw new PageException("putBytes is out of bounds of source");
+    }
+    view(position).put(src, srcOffset, length);
+    written();
   }
 
   /**
    * Completely wipe (zero out) the page.
    */
   public void wipe() {
-    byte[] zeros = new byte[Page.pageSize];
-    this.writeBytes(0, Page.pageSize, zeros);
+    this.putBytes(0, Page.zeros, 0, Page.pageSize);
   }
 
   /**
@@ -166,7 +332,155 @@ public class Page {
   public void flush() {
     if (this.durable) {
       PageAllocator.incrementCacheMisses();
-      this.pageData.force();
+    }
+    if (this.store == null) {
+      if (this.durable) {
+        this.mapping.force();
+      }
+      this.dirty = false;
+      return;
+    }
+
+    boolean wasDirty = this.dirty;
+    long start = System.nanoTime();
+    this.store.flush(this);
+    this.dirty = false;
+    if (wasDirty) {
+      this.store.getMetrics().recordWrite(1, System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Acquire the latch of this page in shared mode, waiting while another thread holds it exclusive.
+   * Any number of threads can hold the latch shared at once.
+   */
+  public void latchShared() {
+    this.latch.readLock().lock();
+  }
+
+  /**
+   * Acquire the latch of this page in shared mode if no other thread holds it exclusive.
+   *
+   * @return whether the latch was acquired
+   */
+  public boolean tryLatchShared() {
+    return this.latch.readLock().tryLock();
+  }
+
+  /**
+   * Release a shared hold on the latch of this page.
+   */
+  public void unlatchShared() {
+    this.latch.readLock().unlock();
+  }
+
+  /**
+   * Acquire the latch of this page in exclusive mode, waiting until no other thread holds it. A
+   * thread holding the latch exclusive can also acquire it shared, but not the other way around.
+   */
+  public void latchExclusive() {
+    this.latch.writeLock().lock();
+  }
+
+  /**
+   * Acquire the latch of this page in exclusive mode if no other thread holds it.
+   *
+   * @return whether the latch was acquired
+   */
+  public boolean tryLatchExclusive() {
+    return this.latch.writeLock().tryLock();
+  }
+
+  /**
+   * Release an exclusive hold on the latch of this page.
+   */
+  public void unlatchExclusive() {
+    this.latch.writeLock().unlock();
+  }
+
+  /**
+   * @return whether some thread holds the latch of this page exclusive
+   */
+  public boolean isLatchedExclusive() {
+    return this.latch.isWriteLocked();
+  }
+
+  /**
+   * @return whether this page has been written to since it was loaded or last flushed
+   */
+  public boolean isDirty() {
+    return this.dirty;
+  }
+
+  /**
+   * Record whether this page is held by the buffer pool. A page of a store that needs write-back is
+   * written through while it is not.
+   *
+   * @param resident whether the page is in the buffer pool
+   */
+  void setResident(boolean resident) {
+    this.resident = resident;
+  }
+
+  void markClean() {
+    this.dirty = false;
+  }
+
+  boolean isDurable() {
+    return this.durable;
+  }
+
+  int getBlockNum() {
+    return this.blockNum;
+  }
+
+  ByteBuffer getData() {
+    return this.pageData;
+  }
+
+  /**
+   * Move this page onto other bytes holding the same contents.
+   *
+   * @param pageData the new bytes of this page
+   */
+  void setData(ByteBuffer pageData) {
+    this.pageData = pageData;
+  }
+
+  /**
+   * Let the store of this page reclaim whatever it holds for the page. Called once the page has left
+   * the buffer pool; the page stays usable.
+   */
+  void release() {
+    if (this.store != null) {
+      this.store.release(this);
+    }
+  }
+
+  MappedByteBuffer getMapping() {
+    return this.mapping;
+  }
+
+  /**
+   * Bulk transfers need a buffer position, so they go through a view of their own rather than the
+   * position of pageData, which every thread reading this page shares.
+   */
+  private ByteBuffer view(int position) {
+    ByteBuffer view = this.pageData.duplicate();
+    view.position(position);
+    return view;
+  }
+
+  private void checkBounds(int position, int length) {
+    if (position < 0 || length < 0 || Page.pageSize < position + length) {
+      throw new PageException("access of " + length + " bytes at " + position + " is out of bounds of page");
+    }
+  }
+
+  private void written() {
+    this.dirty = true;
+    if (!this.resident && this.store != null && this.store.needsWriteBack()) {
+      this.flush();
     }
   }
 
@@ -1,11 +1,5 @@
 package edu.berkeley.cs186.database.io;
 
-import java.io.RandomAccessFile;
-import java.nio.channels.FileChannel;
-import java.nio.ByteBuffer;
-import java.nio.IntBuffer;
-import java.nio.ByteOrder;
-import java.util.LinkedHashMap;
 import java.lang.IllegalArgumentException;
 import java.util.Arrays;
 import java.io.IOException;
@@ -13,32 +7,84 @@ import java.util.Collection;
 import java.util.NoSuchElementException;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.HashMap;
 import java.util.ArrayList;
-import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.io.Closeable;
 /**
  * A PageAllocation system for an OS paging system. Provides memory-mapped paging from the OS, an
- * interface to individual pages with the Page objects, an LRU cache for pages, 16GB worth of paging,
+ * interface to individual pages with the Page objects, a buffer pool for pages, 16GB worth of paging,
  * and virtual page translation.
  *
+ * Pages returned by fetchPage are cached but may be evicted at any time. Callers that need a page to
+ * stay resident, such as the inner block of a join, should use pinPage and release it with unpinPage.
+ *
+ * Pages are read and written through a PageStore. By default every page is mapped on its own when it
+ * is loaded. A SegmentedPageStore instead maps the file in large segments and hands out pages that are
+ * slices of them, which avoids an mmap call per page load at the cost of growing the file a segment at
+ * a time. A PositionalPageStore reads pages into direct buffers and writes them back when the buffer
+ * pool evicts them or the allocator is closed, so that the buffer pool rather than the OS decides
+ * when I/O happens.
+ *
+ * The master page and header pages are mirrored in memory by a FreeSpaceDirectory, so allocPage and
+ * fetchPage do not need to reread or scan them.
+ *
+ * The iterator skips unallocated pages using the header pages, and once it has returned a couple of
+ * pages in a row it reads ahead: the next few allocated pages are loaded into the buffer pool on a
+ * background thread, so that a sequential scan does not stall on every cold page. The read-ahead
+ * window can be changed, or read-ahead turned off, with setReadAhead.
+ *
+ * A durable allocator forces its master and header pages to disk after every allocPage and freePage
+ * by default. setCommitWindow lets it batch those forces across many changes instead, and sync forces
+ * any outstanding changes right away. Header pages are always forced before the master page, and the
+ * header pages are the source of truth: when a file is opened, the page counts in the master page are
+ * recomputed from the header pages, so a crash between forces can lose the most recent allocations
+ * and frees but never leaves the two disagreeing.
+ *
+ * Each allocator keeps IOMetrics of its own, shared with its PageStore: logical and physical reads,
+ * buffer pool hits and evictions, writebacks, forces, allocations and frees, and latency histograms.
+ * The static getNumIOs and getNumCacheMisses counters are totals over every allocator in the JVM.
+ *
+ * Several threads can fetch and read pages of the same allocator at once. Allocation, freeing and the
+ * lookups of the free space directory are serialized on the allocator, and the buffer pool does its
+ * own locking; threads that write to a shared page coordinate through the page's latch.
+ *
  * YOU SHOULD NOT NEED TO CHANGE ANY OF THE CODE IN THIS PACKAGE.
  */
 public class PageAllocator implements Iterable<Page>, Closeable {
   private static final int numHeaderPages = 1024;
-  private static final int cacheSize = 1024;
+
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+  public static final int DEFAULT_READ_AHEAD = 8;
+
+  private static final int readAheadTrigger = 2;
+  private static final int numPrefetchThreads = 2;
+  private static ExecutorService prefetchExecutor;
 
   private static AtomicInteger pACounter = new AtomicInteger(0);
-  private static LRUCache<Long, Page> pageLRU = new LRUCache<Long, Page>(cacheSize);
   private static AtomicLong numIOs = new AtomicLong(0);
   private static AtomicLong cacheMisses = new AtomicLong(0);
 
   private Page masterPage;
-  private FileChannel fc;
+  private Map<Integer, Page> headerPages;
+  private PageStore store;
+  private FreeSpaceDirectory freeSpace;
+  private int maxPendingChanges;
+  private long maxPendingMillis;
+  private int numPendingChanges;
+  private long firstPendingTime;
+  private int readAhead;
+  private final Object prefetchLock = new Object();
   private int numPages;
   private int allocID;
   private boolean durable;
+  private BufferPool bufferPool;
   /**
    * Create a new PageAllocator that writes its bytes into a file named fName. If wipe is true, the
    * data in the page is completely removed.
@@ -51,44 +97,151 @@ public class PageAllocator implements Iterable<Page>, Closeable {
   }
 
   public PageAllocator(String fName, boolean wipe, boolean durable) {
-    this.durable = durable;
-    try {
-      this.fc = new RandomAccessFile(fName, "rw").getChannel();
-    } catch (IOException e) {
-      throw new PageException("Could not open File: " + e.getMessage());
-    }
+    this(fName, wipe, durable, BufferPool.getDefault());
+  }
+
+  /**
+   * Create a new PageAllocator whose pages are cached in the given buffer pool.
+   *
+   * @param fName the name of the file for this PageAllocator
+   * @param wipe a boolean specifying whether to wipe the file
+   * @param durable a boolean specifying whether pages are forced to disk when flushed
+   * @param bufferPool the buffer pool to cache pages in
+   */
+  public PageAllocator(String fName, boolean wipe, boolean durable, BufferPool bufferPool) {
+    this(fName, wipe, durable, bufferPool, 0);
+  }
+
+  /**
+   * Create a new PageAllocator that maps its file in segments of segmentSize bytes. A segmentSize of
+   * 0 maps every page on its own.
+   *
+   * @param fName the name of the file for this PageAllocator
+   * @param wipe a boolean specifying whether to wipe the file
+   * @param durable a boolean specifying whether pages are forced to disk when flushed
+   * @param bufferPool the buffer pool to cache pages in
+   * @param segmentSize the number of bytes mapped at a time, a multiple of Page.pageSize, or 0
+   */
+  public PageAllocator(String fName, boolean wipe, boolean durable, BufferPool bufferPool, int segmentSize) {
+    this(segmentSize == 0 ? new MappedPageStore(fName) : new SegmentedPageStore(fName, segmentSize),
+         wipe, durable, bufferPool);
+  }
 
-    this.masterPage = new Page(this.fc, 0, -1);
+  /**
+   * Create a new PageAllocator over the file of store. The allocator takes ownership of the store
+   * and closes it when the allocator is closed.
+   *
+   * @param store the storage backend holding the pages of this PageAllocator
+   * @param wipe a boolean specifying whether to wipe the file
+   * @param durable a boolean specifying whether pages are forced to disk when flushed
+   * @param bufferPool the buffer pool to cache pages in
+   */
+  public PageAllocator(PageStore store, boolean wipe, boolean durable, BufferPool bufferPool) {
+    this.durable = durable;
+    this.bufferPool = bufferPool;
+    this.store = store;
+    this.store.setBufferPool(bufferPool);
+    this.headerPages = new HashMap<Integer, Page>();
+    this.masterPage = newPage(0, -1, true);
     this.allocID = pACounter.getAndIncrement();
+    this.maxPendingChanges = 1;
+    this.maxPendingMillis = 0;
+    this.readAhead = DEFAULT_READ_AHEAD;
+
+    int numStoredHeaders = getNumStoredHeaderPages();
 
     if (wipe) {
       // Nukes masterPage and headerPages
-      byte[] masterBytes = this.masterPage.readBytes();
-      IntBuffer ib = ByteBuffer.wrap(masterBytes).asIntBuffer();
+      for (int i = 0; i < numStoredHeaders; i++) {
+        getHeadPage(i).wipe();
+      }
 
-      int[] pageCounts = new int[ib.capacity()];
-      ib.get(pageCounts);
+      this.masterPage.wipe();
+    }
 
-      this.numPages = 0;
+    int[] pageCounts = new int[numHeaderPages];
+    for (int i = 0; i < numHeaderPages; i++) {
+      pageCounts[i] = this.masterPage.getInt(i*4);
+    }
 
-      for (int i = 0; i < numHeaderPages; i++) {
-        if (pageCounts[i] > 0) {
-          getHeadPage(i).wipe();
+    this.freeSpace = new FreeSpaceDirectory(pageCounts);
+
+    if (!wipe) {
+      // The header pages are authoritative; repair any count that was not forced before a crash
+      boolean repaired = false;
+      for (int i = 0; i < numStoredHeaders; i++) {
+        int count = this.freeSpace.load(i, getHeadPage(i));
+        if (count != this.freeSpace.getCount(i)) {
+          this.freeSpace.setCount(i, count);
+          this.masterPage.putInt(i*4, count);
+          repaired = true;
         }
       }
+      if (repaired && this.durable) {
+        this.masterPage.flush();
+        this.store.sync();
+      }
+    }
 
-      this.masterPage.wipe();
+    this.numPages = this.freeSpace.getNumPages();
+  }
+
+  /**
+   * Batch the forces of the master and header pages of a durable allocator. Changes are forced once
+   * maxPendingChanges allocations and frees have accumulated, or at the first change made at least
+   * maxPendingMillis after the oldest unforced one. Changes that are still pending are forced by
+   * sync and close. The default of 1 change forces after every allocPage and freePage.
+   *
+   * @param maxPendingChanges the number of changes to accumulate before forcing them; at least 1
+   * @param maxPendingMillis the maximum age of a pending change before forcing, or 0 for no limit
+   */
+  public synchronized void setCommitWindow(int maxPendingChanges, long maxPendingMillis) {
+    if (maxPendingChanges < 1 || maxPendingMillis < 0) {
+      throw new IllegalArgumentException("Invalid commit window");
+    }
+    this.maxPendingChanges = maxPendingChanges;
+    this.maxPendingMillis = maxPendingMillis;
+    if (this.numPendingChanges >= maxPendingChanges) {
+      sync();
     }
+  }
 
-    byte[] masterBytes = masterPage.readBytes();
-    IntBuffer ib = ByteBuffer.wrap(masterBytes).asIntBuffer();
-    int[] pageCounts = new int[ib.capacity()];
-    ib.get(pageCounts);
+  /**
+   * Force every pending allocation and free of a durable allocator to disk: first the header pages,
+   * then the master page. Does nothing for an allocator that is not durable.
+   */
+  public synchronized void sync() {
+    if (!this.durable || this.masterPage == null) {
+      return;
+    }
+    flushMetadata();
+    this.numPendingChanges = 0;
+  }
 
-    this.numPages = 0;
-    for (int i = 0; i < numHeaderPages; i++) {
-      this.numPages += pageCounts[i];
+  /**
+   * Set how many pages ahead of a sequential iterator are loaded in the background.
+   *
+   * @param numPages the number of pages to read ahead, or 0 to turn read-ahead off
+   */
+  public void setReadAhead(int numPages) {
+    if (numPages < 0) {
+      throw new IllegalArgumentException("Read-ahead can't be negative");
     }
+    this.readAhead = numPages;
+  }
+
+  /**
+   * @return the number of pages read ahead of a sequential iterator
+   */
+  public int getReadAhead() {
+    return this.readAhead;
+  }
+
+  /**
+   * @return the number of allocations and frees that have not been forced to disk yet
+   */
+  public synchronized int getNumPendingChanges() {
+    return this.numPendingChanges;
   }
 
   /**
@@ -96,54 +249,28 @@ public class PageAllocator implements Iterable<Page>, Closeable {
    *
    * @return the virtual page number of the page
    */
-  public int allocPage() {
-    byte[] masterBytes = this.masterPage.readBytes();
-    IntBuffer ib = ByteBuffer.wrap(masterBytes).asIntBuffer();
-    int[] pageCounts = new int[ib.capacity()];
-    ib.get(pageCounts);
-
-    Page headerPage = null;
-    int headerIndex = -1;
-    for (int i = 0; i < numHeaderPages; i++) {
-      if (pageCounts[i] < Page.pageSize) {
-        // Found header page with space
-        headerPage = getHeadPage(i);
-        headerIndex = i;
-        break;
-      }
-    }
-
-    if (headerPage == null) {
+  public synchronized int allocPage() {
+    int headerIndex = this.freeSpace.findHeaderWithSpace();
+    if (headerIndex == -1) {
       throw new PageException("No free Pages Available");
     }
 
-    byte[] headerBytes = headerPage.readBytes();
-    int pageIndex = -1;
-
-    for (int i = 0; i < Page.pageSize; i++) {
-      if (headerBytes[i] == 0) {
-        pageIndex = i;
-        break;
-      }
-    }
+    Page headerPage = getLoadedHeadPage(headerIndex);
+    int pageIndex = this.freeSpace.findFreeIndex(headerIndex);
 
     if (pageIndex == -1) {
      throw new PageException("Header page should have free page but doesnt");
     }
 
-    int newCount = pageCounts[headerIndex] + 1;
-    byte[] newCountBytes = ByteBuffer.allocate(4).putInt(newCount).array();
-    this.masterPage.writeBytes(headerIndex*4, 4, newCountBytes);
-    headerPage.writeByte(pageIndex, (byte) 1);
-
-    if (this.durable) {
-      this.masterPage.flush();
-      headerPage.flush();
-    }
+    int newCount = this.freeSpace.markAllocated(headerIndex, pageIndex);
+    this.masterPage.putInt(headerIndex*4, newCount);
+    headerPage.putByte(pageIndex, (byte) 1);
+    metadataChanged();
 
     int pageNum = headerIndex * Page.pageSize + pageIndex;
     fetchPage(pageNum).wipe();
     this.numPages += 1;
+    getMetrics().recordAlloc();
     return pageNum;
   }
 
@@ -154,17 +281,47 @@ public class PageAllocator implements Iterable<Page>, Closeable {
    * @return a Page object wrapping the page corresponding to pageNum
    */
   public Page fetchPage(int pageNum) {
+    return fetchPage(pageNum, false);
+  }
+
+  /**
+   * Fetches the page corresponding to virtual page number pageNum and pins it in the buffer pool.
+   * The page will not be evicted until every pin on it is released with unpinPage.
+   *
+   * @param pageNum the virtual page number
+   * @return a Page object wrapping the page corresponding to pageNum
+   */
+  public Page pinPage(int pageNum) {
+    return fetchPage(pageNum, true);
+  }
+
+  /**
+   * Releases one pin on a page previously returned by pinPage.
+   *
+   * @param p the page to unpin
+   * @return false if the page was not pinned, true otherwise
+   */
+  public boolean unpinPage(Page p) {
+    return unpinPage(p.getPageNum());
+  }
+
+  /**
+   * Releases one pin on the page with virtual page number pageNum.
+   *
+   * @param pageNum the virtual page number
+   * @return false if the page was not pinned, true otherwise
+   */
+  public boolean unpinPage(int pageNum) {
+    return this.bufferPool.unpin(translatePageNum(pageNum));
+  }
+
+  private Page fetchPage(int pageNum, boolean pin) {
     if (pageNum < 0) {
       throw new PageException("invalid page number -- out of bounds");
     }
 
     numIOs.getAndIncrement();
-
-    synchronized(PageAllocator.class) {
-      if (pageLRU.containsKey(translatePageNum(pageNum))) {
-        return pageLRU.get(translatePageNum(pageNum));
-      }
-    }
+    long start = System.nanoTime();
 
     int headPageIndex = pageNum/Page.pageSize;
 
@@ -172,31 +329,33 @@ public class PageAllocator implements Iterable<Page>, Closeable {
       throw new PageException("invalid page number -- out of bounds");
     }
 
-    byte[] headCountBytes = this.masterPage.readBytes(headPageIndex*4, 4);
-    int headCount = ByteBuffer.wrap(headCountBytes).getInt();
-
-    if (headCount < 1) {
-      throw new PageException("invalid page number -- page not allocated");
-    }
+    int dataPageIndex = pageNum % Page.pageSize;
 
-    Page headPage = getHeadPage(headPageIndex);
+    synchronized (this) {
+      if (this.freeSpace.getCount(headPageIndex) < 1) {
+        throw new PageException("invalid page number -- page not allocated");
+      }
 
-    int dataPageIndex = pageNum % Page.pageSize;
+      getLoadedHeadPage(headPageIndex);
 
-    byte validByte = headPage.readByte(dataPageIndex);
+      if (!this.freeSpace.isAllocated(headPageIndex, dataPageIndex)) {
+        throw new PageException("invalid page number -- page not allocated");
+      }
+    }
 
-    if (validByte == 0) {
-      throw new PageException("invalid page number -- page not allocated");
+    // Checked against the directory first, since read-ahead may have cached a page freed meanwhile
+    Page cached = this.bufferPool.get(translatePageNum(pageNum), pin);
+    if (cached != null) {
+      getMetrics().recordFetch(true, System.nanoTime() - start);
+      return cached;
     }
 
     int dataBlockID = 2 + headPageIndex*(Page.pageSize + 1) + dataPageIndex;
-    Page dataPage = new Page(this.fc, dataBlockID, pageNum, this.durable);
-
-    synchronized(PageAllocator.class) {
-      pageLRU.put(translatePageNum(pageNum), dataPage);
-    }
+    Page dataPage = newPage(dataBlockID, pageNum, this.durable);
 
-    return dataPage;
+    Page page = this.bufferPool.put(this, translatePageNum(pageNum), dataPage, pin);
+    getMetrics().recordFetch(false, System.nanoTime() - start);
+    return page;
   }
 
   /**
@@ -206,7 +365,7 @@ public class PageAllocator implements Iterable<Page>, Closeable {
    * @param p the page to free
    * @return whether or not the page was freed
    */
-  public boolean freePage(Page p) {
+  public synchronized boolean freePage(Page p) {
     if (this.durable) {
       p.flush();
     }
@@ -214,33 +373,21 @@ public class PageAllocator implements Iterable<Page>, Closeable {
     int headPageIndex = pageNum/Page.pageSize;
     int dataPageIndex = pageNum % Page.pageSize;
 
-    Page headPage = getHeadPage(headPageIndex);
+    Page headPage = getLoadedHeadPage(headPageIndex);
 
-    if (headPage.readByte(dataPageIndex) == 0) {
+    if (!this.freeSpace.isAllocated(headPageIndex, dataPageIndex)) {
       return false;
     }
 
-    headPage.writeByte(dataPageIndex, (byte) 0);
-    if (this.durable) {
-      headPage.flush();
-    }
-    byte[] countBytes = masterPage.readBytes(4*headPageIndex,4);
-    int oldCount = ByteBuffer.wrap(countBytes).getInt();
+    headPage.putByte(dataPageIndex, (byte) 0);
+    int newCount = this.freeSpace.markFreed(headPageIndex, dataPageIndex);
+    masterPage.putInt(headPageIndex*4, newCount);
+    metadataChanged();
 
-    int newCount = oldCount - 1;
-    byte[] newCountBytes = ByteBuffer.allocate(4).putInt(newCount).array();
-    masterPage.writeBytes(headPageIndex*4, 4, newCountBytes);
-    if (this.durable) {
-      masterPage.flush();
-    }
-
-    synchronized(PageAllocator.class) {
-      if (pageLRU.containsKey(translatePageNum(pageNum))) {
-        pageLRU.remove(translatePageNum(pageNum));
-      }
-    }
+    this.bufferPool.remove(translatePageNum(pageNum));
 
     this.numPages -= 1;
+    getMetrics().recordFree();
     return true;
   }
 
@@ -265,56 +412,216 @@ public class PageAllocator implements Iterable<Page>, Closeable {
    * Close this PageAllocator.
    */
   public void close() {
+    synchronized (this.prefetchLock) {
+      synchronized (this) {
+        closeAllocator();
+      }
+    }
+  }
+
+  private void closeAllocator() {
     if (this.masterPage == null) {
       return;
     }
-    if (this.durable) {
-      this.masterPage.flush();
-    }
-    List<Long> toRemove = new ArrayList<Long>();
-    Set<Long> vPageNums = null;
     List<Page> toFlush = new ArrayList<Page>();
-
-    synchronized(PageAllocator.class) {
-      vPageNums = pageLRU.keySet();
+    for (Page p : this.bufferPool.removeAll(this)) {
+      if (p.isDirty()) {
+        toFlush.add(p);
+      }
     }
+    this.store.flushAll(toFlush);
+    flushMetadata();
+    this.numPendingChanges = 0;
 
-    for (Long l : vPageNums) {
-      if (translateAllocator(l) == this.allocID) {
-        toRemove.add(l);
+    this.masterPage = null;
+    this.headerPages = null;
+    this.store.close();
+  }
+
+  /**
+   * Flush the dirty header pages, then the master page if it is dirty, and force whatever the store
+   * left unforced.
+   */
+  private void flushMetadata() {
+    List<Page> dirtyHeaders = new ArrayList<Page>();
+    for (Page headPage : this.headerPages.values()) {
+      if (headPage.isDirty()) {
+        dirtyHeaders.add(headPage);
       }
     }
+    this.store.flushAll(dirtyHeaders);
+    if (this.masterPage.isDirty()) {
+      this.masterPage.flush();
+    }
+    this.store.sync();
+  }
+
+  /**
+   * Returns the virtual page number of the first allocated page at or after pageNum.
+   *
+   * @param pageNum the virtual page number to start searching from
+   * @return the virtual page number of the next allocated page, or -1 if there is none
+   */
+  private synchronized int nextAllocatedPage(int pageNum) {
+    int headIndex = pageNum / Page.pageSize;
+    int dataPageIndex = pageNum % Page.pageSize;
 
-    synchronized(PageAllocator.class) {
-      for (Long vPageNum : toRemove) {
-        if (pageLRU.containsKey(vPageNum)) {
-          toFlush.add(pageLRU.get(vPageNum));
-          pageLRU.remove(vPageNum);
+    while (headIndex < this.freeSpace.getNumTrackedHeaders()) {
+      if (this.freeSpace.getCount(headIndex) > 0) {
+        getLoadedHeadPage(headIndex);
+        int nextIndex = this.freeSpace.nextAllocatedIndex(headIndex, dataPageIndex);
+        if (nextIndex != -1) {
+          return headIndex * Page.pageSize + nextIndex;
         }
       }
+      headIndex++;
+      dataPageIndex = 0;
     }
-    if (this.durable) {
-      for (Page p : toFlush) {
-        p.flush();
+    return -1;
+  }
+
+  /**
+   * Loads allocated pages into the buffer pool ahead of time. Runs on a prefetch thread, so it only
+   * touches the buffer pool and the page mapping, which are thread safe, and never the free space
+   * directory or the header pages. Pages that are already cached are skipped, and it gives up
+   * quietly if the allocator is closed or a page can't be mapped.
+   *
+   * @param pageNums the virtual page numbers of allocated pages to load
+   */
+  private void prefetch(int[] pageNums) {
+    for (int pageNum : pageNums) {
+      synchronized (this.prefetchLock) {
+        long vPageNum = translatePageNum(pageNum);
+        if (this.masterPage == null || this.bufferPool.contains(vPageNum)) {
+          continue;
+        }
+
+        int headPageIndex = pageNum / Page.pageSize;
+        int dataPageIndex = pageNum % Page.pageSize;
+        int dataBlockID = 2 + headPageIndex*(Page.pageSize + 1) + dataPageIndex;
+        try {
+          Page dataPage = this.bufferPool.put(this, vPageNum, newPage(dataBlockID, pageNum, this.durable), false);
+          // Fault the page in now rather than when the iterator reaches it
+          dataPage.getByte(0);
+        } catch (PageException e) {
+          return;
+        }
       }
     }
-    this.masterPage = null;
-    try {
-      this.fc.close();
-    } catch (IOException e) {
-      throw new PageException("Could not close Page Alloc " + e.getMessage());
+  }
+
+  private static synchronized ExecutorService getPrefetchExecutor() {
+    if (prefetchExecutor == null) {
+      prefetchExecutor = Executors.newFixedThreadPool(numPrefetchThreads, new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, "page-prefetch");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
     }
+    return prefetchExecutor;
+  }
+
+  private void metadataChanged() {
+    if (!this.durable) {
+      return;
+    }
+
+    long now = System.currentTimeMillis();
+    if (this.numPendingChanges == 0) {
+      this.firstPendingTime = now;
+    }
+    this.numPendingChanges++;
+
+    if (this.numPendingChanges >= this.maxPendingChanges
+        || (this.maxPendingMillis > 0 && now - this.firstPendingTime >= this.maxPendingMillis)) {
+      sync();
+    }
+  }
+
+  /**
+   * @return the number of header pages whose block lies within the file
+   */
+  private int getNumStoredHeaderPages() {
+    long numBlocks = this.store.size() / Page.pageSize;
+
+    int numHeaders = 0;
+    while (numHeaders < numHeaderPages && 1 + ((long) numHeaders)*(Page.pageSize + 1) < numBlocks) {
+      numHeaders++;
+    }
+    return numHeaders;
   }
 
   private Page getHeadPage(int headIndex) {
-    int headBlockID = 1 + headIndex*(Page.pageSize + 1);
-    return new Page(this.fc, headBlockID, -1);
+    Page headPage = this.headerPages.get(headIndex);
+    if (headPage == null) {
+      int headBlockID = 1 + headIndex*(Page.pageSize + 1);
+      headPage = newPage(headBlockID, -1, true);
+      this.headerPages.put(headIndex, headPage);
+    }
+    return headPage;
+  }
+
+  /**
+   * Returns header page headIndex, first loading its valid bytes into the free space directory if
+   * this is the first time it is needed.
+   */
+  private Page getLoadedHeadPage(int headIndex) {
+    Page headPage = getHeadPage(headIndex);
+    if (!this.freeSpace.isLoaded(headIndex)) {
+      if (this.freeSpace.getCount(headIndex) == 0) {
+        this.freeSpace.load(headIndex, null);
+      } else {
+        this.freeSpace.load(headIndex, headPage);
+      }
+    }
+    return headPage;
   }
 
-  public int getNumPages() {
+  private Page newPage(int blockNum, int pageNum, boolean durable) {
+    return this.store.load(blockNum, pageNum, durable);
+  }
+
+  public synchronized int getNumPages() {
     return this.numPages;
   }
 
+  /**
+   * @return the number of bytes this PageAllocator maps at a time, or 0 if it maps every page on its own
+   */
+  public int getSegmentSize() {
+    if (this.store instanceof SegmentedPageStore) {
+      return ((SegmentedPageStore) this.store).getSegmentSize();
+    }
+    return 0;
+  }
+
+  /**
+   * @return the storage backend of this PageAllocator
+   */
+  public PageStore getPageStore() {
+    return this.store;
+  }
+
+  /**
+   * @return the buffer pool this PageAllocator caches its pages in
+   */
+  public BufferPool getBufferPool() {
+    return this.bufferPool;
+  }
+
+  /**
+   * @return the I/O and cache metrics of this PageAllocator
+   */
+  public IOMetrics getMetrics() {
+    return this.store.getMetrics();
+  }
+
+  /**
+   * @return the number of fetchPage and pinPage calls, hits included, over every PageAllocator in
+   * the JVM; see getMetrics for the metrics of a single allocator
+   */
   public static long getNumIOs() {
     return PageAllocator.numIOs.get();
   }
@@ -327,6 +634,10 @@ public class PageAllocator implements Iterable<Page>, Closeable {
     PageAllocator.cacheMisses.getAndIncrement();
   }
 
+  /**
+   * @return the number of pages loaded plus the number of durable flushes, over every PageAllocator
+   * in the JVM; see getMetrics for the metrics of a single allocator
+   */
   public static long getNumCacheMisses() {
     return PageAllocator.cacheMisses.get();
   }
@@ -335,10 +646,6 @@ public class PageAllocator implements Iterable<Page>, Closeable {
     return (((long) this.allocID) << 32) | (((long) pageNum) & 0xFFFFFFFFL);
   }
 
-  static private int translateAllocator(long vPageNum) {
-    return (int) ((vPageNum & 0xFFFFFFFF00000000L) >> 32);
-  }
-
   /**
    * @return an iterator of the valid pages managed by this PageAllocator.
    */
@@ -347,37 +654,81 @@ public class PageAllocator implements Iterable<Page>, Closeable {
   }
 
   private class PageIterator implements Iterator<Page> {
-    private int pageNum;
-    private int cursor;
+    private int nextPageNum;
+    private int numReturned;
+    private int prefetchedUpTo;
 
     public PageIterator() {
-      this.pageNum = 0;
-      this.cursor = 0;
+      this.nextPageNum = PageAllocator.this.nextAllocatedPage(0);
+      this.numReturned = 0;
+      this.prefetchedUpTo = -1;
     }
 
     public boolean hasNext() {
-      return this.pageNum < PageAllocator.this.numPages;
+      if (this.nextPageNum != -1) {
+        // The page may have been freed since it was found
+        this.nextPageNum = PageAllocator.this.nextAllocatedPage(this.nextPageNum);
+      }
+      return this.nextPageNum != -1;
     }
 
     public Page next() {
-      if (this.hasNext()) {
-        while (true) {
-          Page p;
-          try {
-            p = PageAllocator.this.fetchPage(cursor);
-            cursor++;
-            pageNum++;
-            return p;
-          } catch (PageException e) {
-            cursor++;
-          }
-        }
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+
+      Page p = PageAllocator.this.fetchPage(this.nextPageNum);
+      this.numReturned++;
+      this.nextPageNum = PageAllocator.this.nextAllocatedPage(this.nextPageNum + 1);
+
+      if (this.numReturned >= readAheadTrigger) {
+        readAhead();
       }
-      throw new NoSuchElementException();
+      return p;
     }
 
     public void remove() {
       throw new UnsupportedOperationException();
     }
+
+    /**
+     * Schedule the next allocated pages for prefetching once less than half of the read-ahead window
+     * is already in flight.
+     */
+    private void readAhead() {
+      int window = PageAllocator.this.readAhead;
+      if (window == 0 || this.nextPageNum == -1) {
+        return;
+      }
+
+      int inFlight = 0;
+      int pageNum = this.nextPageNum;
+      while (pageNum != -1 && pageNum <= this.prefetchedUpTo && inFlight < window) {
+        inFlight++;
+        pageNum = PageAllocator.this.nextAllocatedPage(pageNum + 1);
+      }
+      if (inFlight > window / 2 || pageNum == -1) {
+        return;
+      }
+
+      final int[] toPrefetch = new int[window - inFlight];
+      int count = 0;
+      while (pageNum != -1 && count < toPrefetch.length) {
+        toPrefetch[count++] = pageNum;
+        this.prefetchedUpTo = pageNum;
+        pageNum = PageAllocator.this.nextAllocatedPage(pageNum + 1);
+      }
+
+      final int[] batch = Arrays.copyOf(toPrefetch, count);
+      try {
+        getPrefetchExecutor().execute(new Runnable() {
+          public void run() {
+            PageAllocator.this.prefetch(batch);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        // Read-ahead is only a hint
+      }
+    }
   }
 }
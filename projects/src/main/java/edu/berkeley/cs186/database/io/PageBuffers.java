@@ -0,0 +1,158 @@
+package edu.berkeley.cs186.database.io;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * A fixed number of page-sized direct buffers, owned by a BufferPool and shared by the
+ * PositionalPageStores of its allocators. Buffers are carved out of larger direct chunks the first
+ * time they are needed, and never more than the capacity of the pool is allocated.
+ *
+ * A buffer is lent to a Page until its store gives it back, usually when the page leaves the buffer
+ * pool, or until the page is garbage collected. When every buffer is lent out, take waits up to a
+ * timeout for one to be given back, and fails if none is.
+ *
+ * Properties:
+ * `capacity`: the most buffers this pool holds
+ * `numAllocated`: the number of buffers allocated so far
+ * `freeBuffers`: buffers ready to be lent out
+ * `collected`: receives the references of pages that have been garbage collected
+ */
+class PageBuffers {
+  private static final int buffersPerChunk = 16;
+
+  private int capacity;
+  private int numAllocated;
+  private Deque<ByteBuffer> freeBuffers;
+  private ReferenceQueue<Page> collected;
+
+  /**
+   * @param capacity the most buffers this pool holds
+   */
+  PageBuffers(int capacity) {
+    this.capacity = capacity;
+    this.numAllocated = 0;
+    this.freeBuffers = new ArrayDeque<ByteBuffer>();
+    this.collected = new ReferenceQueue<Page>();
+  }
+
+  /**
+   * @return the most buffers this pool holds
+   */
+  int getCapacity() {
+    return this.capacity;
+  }
+
+  /**
+   * @return the number of buffers currently lent out
+   */
+  synchronized int getNumLent() {
+    reclaim();
+    return this.numAllocated - this.freeBuffers.size();
+  }
+
+  /**
+   * Take a free buffer, waiting for a page to be collected if every buffer is lent out.
+   *
+   * @param timeoutMillis how long to wait for a buffer
+   * @return a page-sized buffer, cleared
+   * @throws PageException if no buffer became free within timeoutMillis
+   */
+  ByteBuffer take(long timeoutMillis) {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    while (true) {
+      synchronized (this) {
+        reclaim();
+        ByteBuffer buffer = this.freeBuffers.poll();
+        if (buffer == null && this.numAllocated < this.capacity) {
+          allocateChunk();
+          buffer = this.freeBuffers.poll();
+        }
+        if (buffer != null) {
+          buffer.clear();
+          return buffer;
+        }
+      }
+
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        throw new PageException("All " + this.capacity + " page buffers are in use");
+      }
+      try {
+        Reference<? extends Page> ref = this.collected.remove(remaining);
+        if (ref != null) {
+          giveBack(ref);
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new PageException("Interrupted while waiting for a page buffer");
+      }
+    }
+  }
+
+  /**
+   * Lend a buffer to a page, so that it returns to this pool when giveBack is called with the
+   * returned reference or once the page is collected.
+   *
+   * @param page the page using buffer
+   * @param buffer a buffer taken from this pool
+   * @return a weak reference to page
+   */
+  WeakReference<Page> lend(Page page, ByteBuffer buffer) {
+    return new PageReference(page, buffer, this.collected);
+  }
+
+  /**
+   * Return a buffer that was taken but never lent to a page.
+   *
+   * @param buffer a buffer taken from this pool
+   */
+  synchronized void release(ByteBuffer buffer) {
+    this.freeBuffers.add(buffer);
+  }
+
+  /**
+   * Return the buffer lent with ref to this pool. The page must no longer use it. Does nothing if the
+   * buffer was given back already.
+   *
+   * @param ref a reference returned by lend
+   */
+  synchronized void giveBack(Reference<? extends Page> ref) {
+    PageReference pageRef = (PageReference) ref;
+    if (pageRef.buffer != null) {
+      this.freeBuffers.add(pageRef.buffer);
+      pageRef.buffer = null;
+    }
+  }
+
+  private void allocateChunk() {
+    int numBuffers = Math.min(buffersPerChunk, this.capacity - this.numAllocated);
+    ByteBuffer chunk = ByteBuffer.allocateDirect(Page.pageSize * numBuffers);
+    for (int i = 0; i < numBuffers; i++) {
+      chunk.limit((i + 1) * Page.pageSize);
+      chunk.position(i * Page.pageSize);
+      this.freeBuffers.add(chunk.slice());
+    }
+    this.numAllocated += numBuffers;
+  }
+
+  private void reclaim() {
+    Reference<? extends Page> ref;
+    while ((ref = this.collected.poll()) != null) {
+      giveBack(ref);
+    }
+  }
+
+  private static class PageReference extends WeakReference<Page> {
+    private ByteBuffer buffer;
+
+    private PageReference(Page page, ByteBuffer buffer, ReferenceQueue<Page> queue) {
+      super(page, queue);
+      this.buffer = buffer;
+    }
+  }
+}
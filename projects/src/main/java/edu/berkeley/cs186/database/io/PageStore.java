@@ -0,0 +1,124 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * The storage backend of a PageAllocator: owns the allocator's file and turns blocks of it into Page
+ * objects. MappedPageStore maps every page on its own, SegmentedPageStore maps the file in large
+ * segments, and PositionalPageStore reads pages into pooled direct buffers and writes them back
+ * explicitly.
+ *
+ * Properties:
+ * `fc`: the file channel of the file backing this store
+ * `metrics`: the I/O metrics of this store and the allocator using it
+ */
+public abstract class PageStore {
+  protected FileChannel fc;
+  private IOMetrics metrics;
+
+  /**
+   * Open the file named fName, creating it if it does not exist.
+   *
+   * @param fName the name of the file backing this store
+   */
+  protected PageStore(String fName) {
+    try {
+      this.fc = new RandomAccessFile(fName, "rw").getChannel();
+    } catch (IOException e) {
+      throw new PageException("Could not open File: " + e.getMessage());
+    }
+    this.metrics = new IOMetrics();
+  }
+
+  /**
+   * @return the I/O metrics of this store, shared with the PageAllocator using it
+   */
+  public IOMetrics getMetrics() {
+    return this.metrics;
+  }
+
+  /**
+   * Create a Page over block blockNum of the file.
+   *
+   * @param blockNum the block in the file for the page
+   * @param pageNum the virtual page number
+   * @param durable whether flushing the page forces it to disk
+   * @return a Page holding the contents of the block
+   */
+  abstract Page load(int blockNum, int pageNum, boolean durable);
+
+  /**
+   * Make the contents of page visible in the file, and force them to disk if the page is durable.
+   * A store may defer the force of a durable page to the next flushAll or sync.
+   *
+   * @param page a page created by this store
+   */
+  abstract void flush(Page page);
+
+  /**
+   * Flush several pages at once. Stores that write pages back explicitly can batch the writes.
+   *
+   * @param pages pages created by this store
+   */
+  void flushAll(List<Page> pages) {
+    for (Page page : pages) {
+      page.flush();
+    }
+  }
+
+  /**
+   * Force the durable pages whose force was deferred by flush. Stores that force every durable page
+   * as it is flushed do nothing.
+   */
+  void sync() {
+  }
+
+  /**
+   * Reclaim what this store holds for a page that has left the buffer pool. The page must stay
+   * usable by callers that still hold it.
+   *
+   * @param page a page created by this store
+   */
+  void release(Page page) {
+  }
+
+  /**
+   * Use the buffers of bufferPool for the pages of this store, for stores that allocate page buffers
+   * themselves. Called once, before the first page is loaded.
+   *
+   * @param bufferPool the buffer pool this store is used with
+   */
+  void setBufferPool(BufferPool bufferPool) {
+  }
+
+  /**
+   * @return whether writes to a page only reach the file when the page is flushed, so that pages
+   * outside the buffer pool have to write through
+   */
+  abstract boolean needsWriteBack();
+
+  /**
+   * @return the size of the backing file in bytes
+   */
+  long size() {
+    try {
+      return this.fc.size();
+    } catch (IOException e) {
+      throw new PageException("Could not read file size: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Close the backing file.
+   */
+  void close() {
+    try {
+      this.fc.close();
+    } catch (IOException e) {
+      throw new PageException("Could not close Page Alloc " + e.getMessage());
+    }
+  }
+}
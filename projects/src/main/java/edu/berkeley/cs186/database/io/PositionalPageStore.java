@@ -0,0 +1,267 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A PageStore that reads pages into direct buffers with positional FileChannel reads and writes them
+ * back with positional or gathering writes, instead of mapping the file. Nothing reaches the file
+ * until a page is flushed, so the buffer pool decides when write-back happens, and touching a page
+ * never stalls on a page fault.
+ *
+ * Buffers come from the fixed set of PageBuffers of the buffer pool the store is used with. When a
+ * page leaves the buffer pool its contents move to a heap buffer and its direct buffer goes back to
+ * the pool; pages that never entered the pool give theirs back once they are garbage collected or the
+ * store is closed. Loading a page waits for a buffer when all of them are in use, and fails if none
+ * is given back in time. At most one Page exists per block at a time: loading a block whose Page is
+ * still referenced returns that same Page, so a caller holding on to an evicted page and the buffer
+ * pool always see the same bytes.
+ *
+ * Flushing a durable page only writes it; the file is forced once by the next flushAll or sync, so a
+ * batch of durable pages pays for a single force.
+ *
+ * Properties:
+ * `buffers`: the buffers pages of this store are read into
+ * `livePages`: the pages of this store that may still be referenced, by block number
+ * `needsForce`: whether a durable page was written since the file was last forced
+ * `writeLock`: guards the channel position used by gathering writes
+ * `numReads`: number of pages read from the file
+ * `numWrites`: number of pages written to the file
+ */
+public class PositionalPageStore extends PageStore {
+  private static final long bufferTimeoutMillis = 1000;
+
+  private PageBuffers buffers;
+  private Map<Integer, WeakReference<Page>> livePages;
+  private boolean needsForce;
+  private final Object writeLock = new Object();
+  private long numReads;
+  private long numWrites;
+
+  /**
+   * Create a new PositionalPageStore over the file named fName.
+   *
+   * @param fName the name of the file backing this store
+   */
+  public PositionalPageStore(String fName) {
+    super(fName);
+    this.buffers = BufferPool.getDefault().getPageBuffers();
+    this.livePages = new HashMap<Integer, WeakReference<Page>>();
+  }
+
+  /**
+   * Take page buffers from bufferPool instead of from the default pool.
+   *
+   * @param bufferPool the buffer pool this store is used with
+   */
+  synchronized void setBufferPool(BufferPool bufferPool) {
+    this.buffers = bufferPool.getPageBuffers();
+  }
+
+  /**
+   * @return the number of pages read from the file
+   */
+  public synchronized long getNumReads() {
+    return this.numReads;
+  }
+
+  /**
+   * @return the number of pages written to the file
+   */
+  public synchronized long getNumWrites() {
+    return this.numWrites;
+  }
+
+  synchronized Page load(int blockNum, int pageNum, boolean durable) {
+    WeakReference<Page> ref = this.livePages.get(blockNum);
+    if (ref != null) {
+      Page page = ref.get();
+      if (page != null) {
+        return page;
+      }
+    }
+
+    ByteBuffer buffer = this.buffers.take(bufferTimeoutMillis);
+    long position = ((long) blockNum) * Page.pageSize;
+    long start = System.nanoTime();
+    try {
+      while (buffer.hasRemaining()) {
+        if (this.fc.read(buffer, position + buffer.position()) < 0) {
+          break;
+        }
+      }
+    } catch (IOException e) {
+      this.buffers.release(buffer);
+      throw new PageException("Can't read page: " + pageNum + " at block: " + blockNum + " ; " + e.getMessage());
+    }
+    // Blocks past the end of the file read as zeros
+    while (buffer.hasRemaining()) {
+      buffer.put((byte) 0);
+    }
+    buffer.clear();
+    this.numReads++;
+    getMetrics().recordRead(System.nanoTime() - start);
+
+    Page page = new Page(buffer, null, this, blockNum, pageNum, durable);
+    this.livePages.put(blockNum, this.buffers.lend(page, buffer));
+    return page;
+  }
+
+  /**
+   * Write page back to the file. A durable page is only forced by the next flushAll or sync.
+   *
+   * @param page a page created by this store
+   */
+  void flush(Page page) {
+    ByteBuffer data = page.getData().duplicate();
+    data.clear();
+    long position = ((long) page.getBlockNum()) * Page.pageSize;
+    try {
+      while (data.hasRemaining()) {
+        this.fc.write(data, position + data.position());
+      }
+    } catch (IOException e) {
+      throw new PageException("Can't write page: " + page.getPageNum() + " ; " + e.getMessage());
+    }
+    synchronized (this) {
+      this.needsForce |= page.isDurable();
+      this.numWrites++;
+    }
+  }
+
+  /**
+   * Write the pages back in runs of consecutive blocks, each with a single gathering write, and
+   * force the file once at the end if any of them, or any page flushed before, is durable.
+   *
+   * @param pages pages created by this store
+   */
+  void flushAll(List<Page> pages) {
+    List<Page> sorted = new ArrayList<Page>(pages);
+    Collections.sort(sorted, new Comparator<Page>() {
+      public int compare(Page p1, Page p2) {
+        return Integer.compare(p1.getBlockNum(), p2.getBlockNum());
+      }
+    });
+
+    long start = System.nanoTime();
+    boolean force = false;
+    int runStart = 0;
+    try {
+      while (runStart < sorted.size()) {
+        int runEnd = runStart + 1;
+        while (runEnd < sorted.size()
+            && sorted.get(runEnd).getBlockNum() == sorted.get(runEnd - 1).getBlockNum() + 1) {
+          runEnd++;
+        }
+
+        ByteBuffer[] buffers = new ByteBuffer[runEnd - runStart];
+        for (int i = runStart; i < runEnd; i++) {
+          buffers[i - runStart] = sorted.get(i).getData().duplicate();
+          buffers[i - runStart].clear();
+          force |= sorted.get(i).isDurable();
+        }
+
+        long remaining = ((long) buffers.length) * Page.pageSize;
+        synchronized (this.writeLock) {
+          this.fc.position(((long) sorted.get(runStart).getBlockNum()) * Page.pageSize);
+          while (remaining > 0) {
+            remaining -= this.fc.write(buffers);
+          }
+        }
+        runStart = runEnd;
+      }
+
+      if (force) {
+        synchronized (this) {
+          this.needsForce = true;
+        }
+      }
+      sync();
+    } catch (IOException e) {
+      throw new PageException("Can't write pages ; " + e.getMessage());
+    }
+
+    for (Page page : sorted) {
+      page.markClean();
+    }
+    if (!sorted.isEmpty()) {
+      getMetrics().recordWrite(sorted.size(), System.nanoTime() - start);
+    }
+    synchronized (this) {
+      this.numWrites += sorted.size();
+    }
+  }
+
+  /**
+   * Force the file if a durable page was written since it was last forced.
+   */
+  void sync() {
+    synchronized (this) {
+      if (!this.needsForce) {
+        return;
+      }
+      this.needsForce = false;
+    }
+    long start = System.nanoTime();
+    try {
+      this.fc.force(false);
+    } catch (IOException e) {
+      synchronized (this) {
+        this.needsForce = true;
+      }
+      throw new PageException("Can't force file ; " + e.getMessage());
+    }
+    getMetrics().recordSync(System.nanoTime() - start);
+  }
+
+  /**
+   * Copy page to the heap and give its direct buffer back to the buffer pool. A page whose latch is
+   * held keeps its buffer until it is collected.
+   *
+   * @param page a page that has left the buffer pool
+   */
+  synchronized void release(Page page) {
+    WeakReference<Page> ref = this.livePages.get(page.getBlockNum());
+    if (ref == null || ref.get() != page || !page.getData().isDirect() || !page.tryLatchExclusive()) {
+      return;
+    }
+    try {
+      ByteBuffer data = page.getData().duplicate();
+      data.clear();
+      ByteBuffer copy = ByteBuffer.allocate(Page.pageSize);
+      copy.put(data);
+      copy.clear();
+      page.setData(copy);
+    } finally {
+      page.unlatchExclusive();
+    }
+    this.buffers.giveBack(ref);
+  }
+
+  boolean needsWriteBack() {
+    return true;
+  }
+
+  /**
+   * Force any pending durable writes, give every buffer back and close the file. Pages that are still
+   * referenced keep their contents on the heap.
+   */
+  synchronized void close() {
+    sync();
+    for (WeakReference<Page> ref : new ArrayList<WeakReference<Page>>(this.livePages.values())) {
+      Page page = ref.get();
+      if (page != null) {
+        release(page);
+      }
+    }
+    this.livePages.clear();
+    super.close();
+  }
+}
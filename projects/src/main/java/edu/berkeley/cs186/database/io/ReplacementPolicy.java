@@ -0,0 +1,48 @@
+package edu.berkeley.cs186.database.io;
+
+/**
+ * Decides which frame of a BufferPool to reuse when a page has to be loaded into a full pool.
+ * Frames are identified by their index in the pool. The pool calls back into its policy whenever a
+ * frame is filled, accessed, or emptied, and asks it for a victim when it runs out of free frames.
+ *
+ * A policy instance belongs to exactly one BufferPool, and the pool serializes every call to it.
+ */
+public interface ReplacementPolicy {
+  /**
+   * Called once by the owning pool before any other method.
+   *
+   * @param numFrames the number of frames in the pool
+   */
+  void init(int numFrames);
+
+  /**
+   * The page with virtual page number vPageNum was loaded into frame.
+   *
+   * @param frame the index of the frame
+   * @param vPageNum the virtual page number of the loaded page
+   */
+  void recordLoad(int frame, long vPageNum);
+
+  /**
+   * The page held by frame was requested again while cached.
+   *
+   * @param frame the index of the frame
+   */
+  void recordAccess(int frame);
+
+  /**
+   * The page held by frame was dropped by its allocator, for instance because it was freed.
+   *
+   * @param frame the index of the frame
+   */
+  void recordRemoval(int frame);
+
+  /**
+   * Choose a frame to evict and forget about it. Frames whose pin count is nonzero must never be
+   * chosen.
+   *
+   * @param pinCounts the pin count of every frame in the pool
+   * @return the index of the frame to evict, or -1 if every filled frame is pinned
+   */
+  int chooseVictim(int[] pinCounts);
+}
@@ -0,0 +1,121 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A PageStore that maps its file in large, fixed-size segments and hands out Page-sized slices of
+ * them, so that a PageAllocator does not need one mmap call and one MappedByteBuffer per page it
+ * loads. Segments are mapped lazily the first time one of their blocks is requested and stay mapped
+ * until the store is closed. Mapping a segment extends the file to the end of that segment.
+ *
+ * Properties:
+ * `segmentSize`: the number of bytes in each segment; a multiple of Page.pageSize
+ * `segments`: the segments mapped so far, indexed by segment number; unmapped segments are null
+ */
+public class SegmentedPageStore extends PageStore {
+  private int segmentSize;
+  private List<MappedByteBuffer> segments;
+
+  /**
+   * Create a new SegmentedPageStore over the file named fName.
+   *
+   * @param fName the name of the file backing this store
+   * @param segmentSize the number of bytes in each segment; must be a positive multiple of Page.pageSize
+   */
+  public SegmentedPageStore(String fName, int segmentSize) {
+    super(fName);
+    if (segmentSize <= 0 || segmentSize % Page.pageSize != 0) {
+      super.close();
+      throw new IllegalArgumentException("Segment size must be a positive multiple of " + Page.pageSize);
+    }
+    this.segmentSize = segmentSize;
+    this.segments = new ArrayList<MappedByteBuffer>();
+  }
+
+  /**
+   * @return the number of bytes in each segment
+   */
+  public int getSegmentSize() {
+    return this.segmentSize;
+  }
+
+  /**
+   * @return the number of segments that have been mapped so far
+   */
+  public synchronized int getNumMappedSegments() {
+    int count = 0;
+    for (MappedByteBuffer segment : this.segments) {
+      if (segment != null) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Create a Page over block blockNum of the file, backed by a slice of the segment containing it.
+   * Flushing the page forces the whole segment.
+   *
+   * @param blockNum the block in the file for the page
+   * @param pageNum the virtual page number
+   * @param durable whether flushing the page forces it to disk
+   * @return a Page whose bytes are shared with the segment
+   */
+  Page load(int blockNum, int pageNum, boolean durable) {
+    long start = System.nanoTime();
+    long position = ((long) blockNum) * Page.pageSize;
+    int segmentIndex = (int) (position / this.segmentSize);
+    int offset = (int) (position % this.segmentSize);
+
+    MappedByteBuffer segment = getSegment(segmentIndex);
+    ByteBuffer slice = segment.duplicate();
+    slice.position(offset);
+    slice.limit(offset + Page.pageSize);
+    getMetrics().recordRead(System.nanoTime() - start);
+    return new Page(slice.slice(), segment, this, blockNum, pageNum, durable);
+  }
+
+  void flush(Page page) {
+    if (page.isDurable()) {
+      long start = System.nanoTime();
+      page.getMapping().force();
+      getMetrics().recordSync(System.nanoTime() - start);
+    }
+  }
+
+  boolean needsWriteBack() {
+    return false;
+  }
+
+  /**
+   * Drop every mapped segment and close the file. The mappings themselves are released once their
+   * pages are garbage collected.
+   */
+  synchronized void close() {
+    this.segments.clear();
+    super.close();
+  }
+
+  private synchronized MappedByteBuffer getSegment(int segmentIndex) {
+    while (this.segments.size() <= segmentIndex) {
+      this.segments.add(null);
+    }
+
+    MappedByteBuffer segment = this.segments.get(segmentIndex);
+    if (segment == null) {
+      long position = ((long) segmentIndex) * this.segmentSize;
+      try {
+        segment = this.fc.map(FileChannel.MapMode.READ_WRITE, position, this.segmentSize);
+      } catch (IOException e) {
+        throw new PageException("Can't mmap segment: " + segmentIndex + " ; " + e.getMessage());
+      }
+      this.segments.set(segmentIndex, segment);
+    }
+    return segment;
+  }
+}
@@ -0,0 +1,128 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * The scan-resistant 2Q replacement policy (Johnson and Shasha, VLDB 1994). A page that is loaded for
+ * the first time goes into a small FIFO queue, A1in. Pages evicted from A1in are remembered, without
+ * their data, in a ghost queue A1out. Only a page that is loaded again while remembered in A1out is
+ * promoted to the main LRU queue, Am. A sequential scan therefore only cycles through A1in and never
+ * displaces the hot pages in Am, such as B+ tree inner nodes.
+ *
+ * Properties:
+ * `maxIn`: target number of frames in A1in before it is preferred for eviction
+ * `maxOut`: number of page numbers remembered in A1out
+ * `in`: the A1in FIFO queue of frames
+ * `main`: the Am LRU queue of frames
+ * `out`: the A1out FIFO queue of virtual page numbers
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+  public static final float DEFAULT_IN_FRACTION = 0.25f;
+  public static final float DEFAULT_OUT_FRACTION = 0.5f;
+
+  private static final byte NONE = 0;
+  private static final byte IN = 1;
+  private static final byte MAIN = 2;
+
+  private float inFraction;
+  private float outFraction;
+  private int maxIn;
+  private int maxOut;
+
+  private byte[] queueOf;
+  private long[] pageOf;
+  private FrameList in;
+  private FrameList main;
+  private LinkedHashSet<Long> out;
+
+  public TwoQueuePolicy() {
+    this(DEFAULT_IN_FRACTION, DEFAULT_OUT_FRACTION);
+  }
+
+  /**
+   * @param inFraction the fraction of the pool reserved for A1in
+   * @param outFraction the number of ghost entries in A1out, as a fraction of the pool size
+   */
+  public TwoQueuePolicy(float inFraction, float outFraction) {
+    if (inFraction <= 0 || inFraction >= 1 || outFraction <= 0) {
+      throw new IllegalArgumentException("Invalid 2Q queue sizes: " + inFraction + ", " + outFraction);
+    }
+    this.inFraction = inFraction;
+    this.outFraction = outFraction;
+  }
+
+  public void init(int numFrames) {
+    int[] prev = new int[numFrames];
+    int[] next = new int[numFrames];
+    Arrays.fill(prev, -1);
+    Arrays.fill(next, -1);
+
+    this.maxIn = Math.max(1, (int) (numFrames * this.inFraction));
+    this.maxOut = Math.max(1, (int) (numFrames * this.outFraction));
+    this.queueOf = new byte[numFrames];
+    this.pageOf = new long[numFrames];
+    this.in = new FrameList(prev, next);
+    this.main = new FrameList(prev, next);
+    this.out = new LinkedHashSet<Long>();
+  }
+
+  public void recordLoad(int frame, long vPageNum) {
+    this.pageOf[frame] = vPageNum;
+    if (this.out.remove(vPageNum)) {
+      this.queueOf[frame] = MAIN;
+      this.main.addLast(frame);
+    } else {
+      this.queueOf[frame] = IN;
+      this.in.addLast(frame);
+    }
+  }
+
+  public void recordAccess(int frame) {
+    // Accesses to a page in A1in are correlated references, so they do not promote it.
+    if (this.queueOf[frame] == MAIN) {
+      this.main.moveToLast(frame);
+    }
+  }
+
+  public void recordRemoval(int frame) {
+    if (this.queueOf[frame] == IN) {
+      this.in.remove(frame);
+    } else if (this.queueOf[frame] == MAIN) {
+      this.main.remove(frame);
+    }
+    this.queueOf[frame] = NONE;
+  }
+
+  public int chooseVictim(int[] pinCounts) {
+    int frame = -1;
+    if (this.in.size() > this.maxIn || this.main.size() == 0) {
+      frame = this.in.firstUnpinned(pinCounts);
+    }
+    if (frame == -1) {
+      frame = this.main.firstUnpinned(pinCounts);
+    }
+    if (frame == -1) {
+      frame = this.in.firstUnpinned(pinCounts);
+    }
+    if (frame == -1) {
+      return -1;
+    }
+
+    if (this.queueOf[frame] == IN) {
+      remember(this.pageOf[frame]);
+    }
+    recordRemoval(frame);
+    return frame;
+  }
+
+  private void remember(long vPageNum) {
+    this.out.add(vPageNum);
+    if (this.out.size() > this.maxOut) {
+      Iterator<Long> oldest = this.out.iterator();
+      oldest.next();
+      oldest.remove();
+    }
+  }
+}
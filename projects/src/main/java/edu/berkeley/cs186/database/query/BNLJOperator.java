@@ -65,7 +65,7 @@ public class BNLJOperator extends JoinOperator {
     private int numPagesInBlock;
 
     public BNLJIterator() throws QueryPlanException, DatabaseException {
-      if (BNLJOperator.this.getLeftSource().isSequentialScan()) {
+      if (BNLJOperator.this.canReadPagesOf(BNLJOperator.this.getLeftSource())) {
         this.leftTableName = ((SequentialScanOperator)BNLJOperator.this.getLeftSource()).getTableName();
       } else {
         this.leftTableName = "Temp" + BNLJOperator.this.getJoinType().toString() + "Operator" + BNLJOperator.this.getLeftColumnName() + "Left";
@@ -75,7 +75,7 @@ public class BNLJOperator extends JoinOperator {
           BNLJOperator.this.addRecord(leftTableName, leftIter.next().getValues());
         }
       }
-      if (BNLJOperator.this.getRightSource().isSequentialScan()) {
+      if (BNLJOperator.this.canReadPagesOf(BNLJOperator.this.getRightSource())) {
         this.rightTableName = ((SequentialScanOperator)BNLJOperator.this.getRightSource()).getTableName();
       } else {
         this.rightTableName = "Temp" + BNLJOperator.this.getJoinType().toString() + "Operator" + BNLJOperator.this.getRightColumnName() + "Right";
@@ -181,9 +181,8 @@ public class BNLJOperator extends JoinOperator {
             this.rightRecord = getNextRightRecordInPage();
           }
         }
-        DataBox leftJoinValue = this.leftRecord.getValues().get(BNLJOperator.this.getLeftColumnIndex());
-        DataBox rightJoinValue = rightRecord.getValues().get(BNLJOperator.this.getRightColumnIndex());
-        if (leftJoinValue.equals(rightJoinValue)) {
+        if (BNLJOperator.this.getJoinComparator().equal(this.leftRecord,
+            BNLJOperator.this.getLeftColumnIndex(), rightRecord, BNLJOperator.this.getRightColumnIndex())) {
           List<DataBox> leftValues = new ArrayList<DataBox>(this.leftRecord.getValues());
           List<DataBox> rightValues = new ArrayList<DataBox>(rightRecord.getValues());
           leftValues.addAll(rightValues);
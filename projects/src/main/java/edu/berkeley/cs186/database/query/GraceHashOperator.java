@@ -107,7 +107,7 @@ public class GraceHashOperator extends JoinOperator {
       if (this.rightIterator.hasNext()) {
         this.rightRecord = this.rightIterator.next();
         this.rightRecordVals = this.rightRecord.getValues();
-        this.currList = this.inMemoryHashTable.get(this.rightRecord.getValues().get(GraceHashOperator.this.getRightColumnIndex()));
+        this.currList = this.inMemoryHashTable.get(this.rightRecord.getValue(GraceHashOperator.this.getRightColumnIndex()));
       }
 
     }
@@ -126,7 +126,7 @@ public class GraceHashOperator extends JoinOperator {
           this.rightRecord = this.rightIterator.next();
           this.rightRecordVals = this.rightRecord.getValues();
           this.currIndexInList = 0;
-          this.currList = this.inMemoryHashTable.get(this.rightRecord.getValues().get(GraceHashOperator.this.getRightColumnIndex()));
+          this.currList = this.inMemoryHashTable.get(this.rightRecord.getValue(GraceHashOperator.this.getRightColumnIndex()));
         }
         if (this.currList != null) {
           if (this.currIndexInList < this.currList.size()) {
@@ -142,8 +142,13 @@ public class IndexScanOperator extends QueryOperator {
                 IndexScanOperator.this.tableName,
                 IndexScanOperator.this.columnName,
                 IndexScanOperator.this.value);
-      } else if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN ||
-              IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN_EQUALS) {
+      } else if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN) {
+        this.sourceIterator = IndexScanOperator.this.transaction.sortedScanRange(
+                IndexScanOperator.this.tableName,
+                IndexScanOperator.this.columnName,
+                null,
+                IndexScanOperator.this.value);
+      } else if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN_EQUALS) {
         this.sourceIterator = IndexScanOperator.this.transaction.sortedScan(
                 IndexScanOperator.this.tableName,
                 IndexScanOperator.this.columnName);
@@ -155,7 +160,7 @@ public class IndexScanOperator extends QueryOperator {
         while (this.sourceIterator.hasNext()) {
           Record r = this.sourceIterator.next();
 
-          if (r.getValues().get(IndexScanOperator.this.columnIndex)
+          if (r.getValue(IndexScanOperator.this.columnIndex)
                   .compareTo(IndexScanOperator.this.value) > 0) {
             this.nextRecord = r;
             break;
@@ -178,21 +183,10 @@ public class IndexScanOperator extends QueryOperator {
       if (this.nextRecord != null) {
         return true;
       }
-      if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN) {
-        if (this.sourceIterator.hasNext()) {
-          Record r = this.sourceIterator.next();
-          if (r.getValues().get(IndexScanOperator.this.columnIndex)
-                  .compareTo(IndexScanOperator.this.value) >= 0) {
-            return false;
-          }
-          this.nextRecord = r;
-          return true;
-        }
-        return false;
-      } else if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN_EQUALS) {
+      if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN_EQUALS) {
         if (this.sourceIterator.hasNext()) {
           Record r = this.sourceIterator.next();
-          if (r.getValues().get(IndexScanOperator.this.columnIndex)
+          if (r.getValue(IndexScanOperator.this.columnIndex)
                   .compareTo(IndexScanOperator.this.value) > 0) {
             return false;
           }
@@ -7,6 +7,8 @@ import java.util.List;
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.table.ColumnComparator;
+import edu.berkeley.cs186.database.table.PageFormat;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordID;
 import edu.berkeley.cs186.database.table.Schema;
@@ -30,6 +32,7 @@ public abstract class JoinOperator extends QueryOperator {
   private int rightColumnIndex;
   private String leftColumnName;
   private String rightColumnName;
+  private ColumnComparator joinComparator;
   private Database.Transaction transaction;
 
   /**
@@ -98,6 +101,7 @@ public abstract class JoinOperator extends QueryOperator {
       throw new QueryPlanException("Mismatched types of columns " + leftColumnName + " and "
           + rightColumnName + ".");
     }
+    this.joinComparator = ColumnComparator.forType(leftSchemaTypes.get(this.leftColumnIndex).type());
     leftSchemaNames.addAll(rightSchemaNames);
     leftSchemaTypes.addAll(rightSchemaTypes);
     return new Schema(leftSchemaNames, leftSchemaTypes);
@@ -144,6 +148,19 @@ public abstract class JoinOperator extends QueryOperator {
     return this.transaction.getSchema(tableName);
   }
 
+  /**
+   * Checks whether the records of a source can be read straight from the pages of its table, which
+   * the page-oriented joins can only do for sequential scans of FIXED tables. Any other source has
+   * to be copied into a temporary table first.
+   *
+   * @param source the left or right source of this join
+   * @return true if the join can read the pages of the table scanned by source
+   */
+  public boolean canReadPagesOf(QueryOperator source) throws DatabaseException {
+    return source.isSequentialScan() && this.transaction.getPageFormat(
+        ((SequentialScanOperator) source).getTableName()) == PageFormat.FIXED;
+  }
+
   public Iterator<Page> getPageIterator(String tableName) throws DatabaseException {
     return this.transaction.getPageIterator(tableName);
   }
@@ -184,6 +201,13 @@ public abstract class JoinOperator extends QueryOperator {
     return this.rightColumnIndex;
   }
 
+  /**
+   * @return the comparator for the values of the join columns
+   */
+  public ColumnComparator getJoinComparator() {
+    return this.joinComparator;
+  }
+
   public Iterator<Record> getTableIterator(String tableName) throws DatabaseException {
     return this.transaction.getRecordIterator(tableName);
   }
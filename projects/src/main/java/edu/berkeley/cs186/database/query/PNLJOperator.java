@@ -58,7 +58,7 @@ public class PNLJOperator extends JoinOperator {
     private int rightEntryNum;
 
     public PNLJIterator() throws QueryPlanException, DatabaseException {
-      if (PNLJOperator.this.getLeftSource().isSequentialScan()) {
+      if (PNLJOperator.this.canReadPagesOf(PNLJOperator.this.getLeftSource())) {
         this.leftTableName = ((SequentialScanOperator) PNLJOperator.this.getLeftSource()).getTableName();
       } else {
         this.leftTableName = "Temp" + PNLJOperator.this.getJoinType().toString() + "Operator" + PNLJOperator.this.getLeftColumnName() + "Left";
@@ -68,7 +68,7 @@ public class PNLJOperator extends JoinOperator {
           PNLJOperator.this.addRecord(leftTableName, leftIter.next().getValues());
         }
       }
-      if (PNLJOperator.this.getRightSource().isSequentialScan()) {
+      if (PNLJOperator.this.canReadPagesOf(PNLJOperator.this.getRightSource())) {
         this.rightTableName = ((SequentialScanOperator) PNLJOperator.this.getRightSource()).getTableName();
       } else {
         this.rightTableName = "Temp" + PNLJOperator.this.getJoinType().toString() + "Operator" + PNLJOperator.this.getRightColumnName() + "Right";
@@ -148,9 +148,8 @@ public class PNLJOperator extends JoinOperator {
             this.rightRecord = getNextRightRecordInPage();
           }
         }
-        DataBox leftJoinValue = this.leftRecord.getValues().get(PNLJOperator.this.getLeftColumnIndex());
-        DataBox rightJoinValue = rightRecord.getValues().get(PNLJOperator.this.getRightColumnIndex());
-        if (leftJoinValue.equals(rightJoinValue)) {
+        if (PNLJOperator.this.getJoinComparator().equal(this.leftRecord,
+            PNLJOperator.this.getLeftColumnIndex(), rightRecord, PNLJOperator.this.getRightColumnIndex())) {
           List<DataBox> leftValues = new ArrayList<DataBox>(this.leftRecord.getValues());
           List<DataBox> rightValues = new ArrayList<DataBox>(rightRecord.getValues());
           leftValues.addAll(rightValues);
@@ -2,6 +2,7 @@ package edu.berkeley.cs186.database.query;
 
 import java.util.Iterator;
 import java.util.List;
+import java.util.Set;
 
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.table.Record;
@@ -101,6 +102,16 @@ public abstract class QueryOperator {
 
   public abstract Iterator<Record> iterator() throws QueryPlanException, DatabaseException;
 
+  /**
+   * Tells this operator that its destination only reads some columns of the records it yields, so
+   * that the operator may leave the other columns undecoded. Operators that pass their source's
+   * records through pass the hint on; the rest ignore it.
+   *
+   * @param columns the indices of the columns the destination reads, in the output schema
+   */
+  public void setRequiredColumns(Set<Integer> columns) throws QueryPlanException {
+  }
+
   /**
    * Utility method that checks to see if a column is found in a schema using dot notation.
    *
@@ -99,9 +99,8 @@ public class SNLJOperator extends JoinOperator {
         }
         while (this.rightIterator.hasNext()) {
           Record rightRecord = this.rightIterator.next();
-          DataBox leftJoinValue = this.leftRecord.getValues().get(SNLJOperator.this.getLeftColumnIndex());
-          DataBox rightJoinValue = rightRecord.getValues().get(SNLJOperator.this.getRightColumnIndex());
-          if (leftJoinValue.equals(rightJoinValue)) {
+          if (SNLJOperator.this.getJoinComparator().equal(this.leftRecord,
+              SNLJOperator.this.getLeftColumnIndex(), rightRecord, SNLJOperator.this.getRightColumnIndex())) {
             List<DataBox> leftValues = new ArrayList<DataBox>(this.leftRecord.getValues());
             List<DataBox> rightValues = new ArrayList<DataBox>(rightRecord.getValues());
             leftValues.addAll(rightValues);
@@ -1,12 +1,15 @@
 package edu.berkeley.cs186.database.query;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.table.ColumnComparator;
 import edu.berkeley.cs186.database.table.MarkerRecord;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
@@ -17,6 +20,7 @@ public class SelectOperator extends QueryOperator {
   private String columnName;
   private QueryPlan.PredicateOperator operator;
   private DataBox value;
+  private ColumnComparator comparator;
 
   /**
    * Creates a new SelectOperator that pulls from source and only returns tuples for which the
@@ -38,6 +42,12 @@ public class SelectOperator extends QueryOperator {
 
     this.columnName = this.checkSchemaForColumn(source.getOutputSchema(), columnName);
     this.columnIndex = this.getOutputSchema().getFieldNames().indexOf(this.columnName);
+    DataBox.Types columnType = this.getOutputSchema().getFieldTypes().get(this.columnIndex).type();
+    if (value.type() == columnType) {
+      this.comparator = ColumnComparator.forType(columnType);
+    } else {
+      this.comparator = ColumnComparator.forDataBoxes();
+    }
 
     this.stats = this.estimateStats();
     this.cost = this.estimateIOCost();
@@ -73,6 +83,39 @@ public class SelectOperator extends QueryOperator {
 
   public Iterator<Record> iterator() throws QueryPlanException, DatabaseException { return new SelectIterator(); }
 
+  /**
+   * Passes the hint on to the source, adding the column of the predicate.
+   */
+  @Override
+  public void setRequiredColumns(Set<Integer> columns) throws QueryPlanException {
+    Set<Integer> sourceColumns = new HashSet<Integer>(columns);
+    sourceColumns.add(this.columnIndex);
+    this.getSource().setRequiredColumns(sourceColumns);
+  }
+
+  /**
+   * @param record a record of the source
+   * @return whether the record satisfies the predicate
+   */
+  private boolean matches(Record record) {
+    switch (this.operator) {
+      case EQUALS:
+        return this.comparator.equal(record, this.columnIndex, this.value);
+      case NOT_EQUALS:
+        return !this.comparator.equal(record, this.columnIndex, this.value);
+      case LESS_THAN:
+        return this.comparator.compare(record, this.columnIndex, this.value) < 0;
+      case LESS_THAN_EQUALS:
+        return this.comparator.compare(record, this.columnIndex, this.value) <= 0;
+      case GREATER_THAN:
+        return this.comparator.compare(record, this.columnIndex, this.value) > 0;
+      case GREATER_THAN_EQUALS:
+        return this.comparator.compare(record, this.columnIndex, this.value) >= 0;
+      default:
+        return false;
+    }
+  }
+
   /**
    * An implementation of Iterator that provides an iterator interface for this operator.
    */
@@ -102,51 +145,9 @@ public class SelectOperator extends QueryOperator {
           this.nextRecord = r;
           return true;
         }
-        switch (SelectOperator.this.operator) {
-          case EQUALS:
-            if (r.getValues().get(SelectOperator.this.columnIndex).equals(value)) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case NOT_EQUALS:
-            if (!r.getValues().get(SelectOperator.this.columnIndex).equals(value)) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case LESS_THAN:
-            if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == -1) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case LESS_THAN_EQUALS:
-            if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == -1) {
-              this.nextRecord = r;
-              return true;
-            } else if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 0) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case GREATER_THAN:
-            if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 1) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case GREATER_THAN_EQUALS:
-            if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 1) {
-              this.nextRecord = r;
-              return true;
-            } else if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 0) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          default:
-            break;
+        if (SelectOperator.this.matches(r)) {
+          this.nextRecord = r;
+          return true;
         }
       }
       return false;
@@ -1,6 +1,8 @@
 package edu.berkeley.cs186.database.query;
 
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Set;
 
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.DatabaseException;
@@ -11,6 +13,7 @@ import edu.berkeley.cs186.database.table.stats.TableStats;
 public class SequentialScanOperator extends QueryOperator {
   private Database.Transaction transaction;
   private String tableName;
+  private Set<Integer> requiredColumns;
 
   /**
    * Creates a new SequentialScanOperator that provides an iterator on all tuples in a table.
@@ -38,9 +41,20 @@ public class SequentialScanOperator extends QueryOperator {
   }
 
   public Iterator<Record> iterator() throws DatabaseException {
+    if (this.requiredColumns != null) {
+      return this.transaction.getRecordIterator(tableName, this.requiredColumns);
+    }
     return this.transaction.getRecordIterator(tableName);
   }
 
+  /**
+   * Only decode the given columns of the records of the table from now on.
+   */
+  @Override
+  public void setRequiredColumns(Set<Integer> columns) {
+    this.requiredColumns = new HashSet<Integer>(columns);
+  }
+
   public Schema computeSchema() throws QueryPlanException {
     try {
       return this.transaction.getFullyQualifiedSchema(this.tableName);
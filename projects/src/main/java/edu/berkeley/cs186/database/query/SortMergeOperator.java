@@ -55,7 +55,7 @@ public class SortMergeOperator extends JoinOperator {
     private boolean marked;
 
     public SortMergeIterator() throws QueryPlanException, DatabaseException {
-      if (SortMergeOperator.this.getLeftSource().isSequentialScan()) {
+      if (SortMergeOperator.this.canReadPagesOf(SortMergeOperator.this.getLeftSource())) {
         this.leftTableName = ((SequentialScanOperator)SortMergeOperator.this.getLeftSource()).getTableName();
       } else {
         this.leftTableName = "Temp" + SortMergeOperator.this.getJoinType().toString() + "Operator" + SortMergeOperator.this.getLeftColumnName() + "Left";
@@ -65,7 +65,7 @@ public class SortMergeOperator extends JoinOperator {
           SortMergeOperator.this.addRecord(leftTableName, leftIter.next().getValues());
         }
       }
-      if (SortMergeOperator.this.getRightSource().isSequentialScan()) {
+      if (SortMergeOperator.this.canReadPagesOf(SortMergeOperator.this.getRightSource())) {
         this.rightTableName = ((SequentialScanOperator)SortMergeOperator.this.getRightSource()).getTableName();
       } else {
         this.rightTableName = "Temp" + SortMergeOperator.this.getJoinType().toString() + "Operator" + SortMergeOperator.this.getRightColumnName() + "Right";
@@ -116,21 +116,17 @@ public class SortMergeOperator extends JoinOperator {
       }
       while (true) {
         if (this.rightRecord != null) {
-          DataBox leftJoinValue = this.leftRecord.getValues().get(SortMergeOperator.this.getLeftColumnIndex());
-          DataBox rightJoinValue = this.rightRecord.getValues().get(SortMergeOperator.this.getRightColumnIndex());
-          while (leftJoinValue.compareTo(rightJoinValue) < 0) {
+          while (this.compareJoinValues() < 0) {
             if (marked) {
               this.rightEntryNum = this.rightEntryMark;
               advanceRightTable();
-              rightJoinValue = this.rightRecord.getValues().get(SortMergeOperator.this.getRightColumnIndex());
             }
             marked = false;
             if (!advanceLeftTable()) {
               return false;
             }
-            leftJoinValue = this.leftRecord.getValues().get(SortMergeOperator.this.getLeftColumnIndex());
           }
-          while (leftJoinValue.compareTo(rightJoinValue) > 0) {
+          while (this.compareJoinValues() > 0) {
             if (marked) {
               this.rightEntryNum = this.rightEntryMark;
               advanceRightTable();
@@ -139,13 +135,12 @@ public class SortMergeOperator extends JoinOperator {
             if (!advanceRightTable()) {
               return false;
             }
-            rightJoinValue = rightRecord.getValues().get(SortMergeOperator.this.getRightColumnIndex());
           }
-          if (leftJoinValue.compareTo(rightJoinValue) == 0 && !marked) {
+          if (this.compareJoinValues() == 0 && !marked) {
             marked = true;
             this.rightEntryMark = this.rightEntryNum-1;
           }
-          while (leftJoinValue.compareTo(rightJoinValue) == 0) {
+          while (this.compareJoinValues() == 0) {
             List<DataBox> leftValues = new ArrayList<DataBox>(this.leftRecord.getValues());
             List<DataBox> rightValues = new ArrayList<DataBox>(rightRecord.getValues());
             leftValues.addAll(rightValues);
@@ -293,17 +288,23 @@ public class SortMergeOperator extends JoinOperator {
     }
 
 
+    private int compareJoinValues() {
+      return SortMergeOperator.this.getJoinComparator().compare(
+              this.leftRecord, SortMergeOperator.this.getLeftColumnIndex(),
+              this.rightRecord, SortMergeOperator.this.getRightColumnIndex());
+    }
+
     private class LeftRecordComparator implements Comparator<Record> {
       public int compare(Record o1, Record o2) {
-        return o1.getValues().get(SortMergeOperator.this.getLeftColumnIndex()).compareTo(
-                o2.getValues().get(SortMergeOperator.this.getLeftColumnIndex()));
+        int column = SortMergeOperator.this.getLeftColumnIndex();
+        return SortMergeOperator.this.getJoinComparator().compare(o1, column, o2, column);
       }
     }
 
     private class RightRecordComparator implements Comparator<Record> {
       public int compare(Record o1, Record o2) {
-        return o1.getValues().get(SortMergeOperator.this.getRightColumnIndex()).compareTo(
-                o2.getValues().get(SortMergeOperator.this.getRightColumnIndex()));
+        int column = SortMergeOperator.this.getRightColumnIndex();
+        return SortMergeOperator.this.getJoinComparator().compare(o1, column, o2, column);
       }
     }
   }
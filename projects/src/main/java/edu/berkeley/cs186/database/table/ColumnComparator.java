@@ -0,0 +1,138 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+
+/**
+ * Compares the values of a column of one type across records. The comparators for INT, FLOAT and
+ * BOOL columns read the values with the primitive accessors of Record, so comparing the columns of
+ * records read from a page creates no DataBox; STRING columns are compared as DataBoxes. Every
+ * comparator orders values as DataBox.compareTo does and matches values as DataBox.equals does.
+ */
+public abstract class ColumnComparator {
+  private static final ColumnComparator INT = new IntComparator();
+  private static final ColumnComparator FLOAT = new FloatComparator();
+  private static final ColumnComparator BOOL = new BoolComparator();
+  private static final ColumnComparator DATABOX = new DataBoxComparator();
+
+  /**
+   * @param type the type of the columns to compare
+   * @return a comparator for columns of that type
+   */
+  public static ColumnComparator forType(DataBox.Types type) {
+    switch (type) {
+      case INT:
+        return INT;
+      case FLOAT:
+        return FLOAT;
+      case BOOL:
+        return BOOL;
+      default:
+        return DATABOX;
+    }
+  }
+
+  /**
+   * @return a comparator that compares columns of any type as DataBoxes, for when the values
+   * compared may not be of the same type
+   */
+  public static ColumnComparator forDataBoxes() {
+    return DATABOX;
+  }
+
+  /**
+   * @param left a record
+   * @param leftColumn the column of left to compare
+   * @param right another record
+   * @param rightColumn the column of right to compare
+   * @return a negative number, zero or a positive number as the value of the left column is less
+   * than, equal to or greater than the value of the right column
+   */
+  public abstract int compare(Record left, int leftColumn, Record right, int rightColumn);
+
+  /**
+   * @param record a record
+   * @param column the column of the record to compare
+   * @param value a value of the type of the column
+   * @return a negative number, zero or a positive number as the value of the column is less than,
+   * equal to or greater than value
+   */
+  public abstract int compare(Record record, int column, DataBox value);
+
+  /**
+   * @return whether the value of the left column equals the value of the right column
+   */
+  public boolean equal(Record left, int leftColumn, Record right, int rightColumn) {
+    return this.compare(left, leftColumn, right, rightColumn) == 0;
+  }
+
+  /**
+   * @return whether the value of the column equals value
+   */
+  public boolean equal(Record record, int column, DataBox value) {
+    return this.compare(record, column, value) == 0;
+  }
+
+  private static class IntComparator extends ColumnComparator {
+    public int compare(Record left, int leftColumn, Record right, int rightColumn) {
+      return Integer.compare(left.getInt(leftColumn), right.getInt(rightColumn));
+    }
+
+    public int compare(Record record, int column, DataBox value) {
+      return Integer.compare(record.getInt(column), value.getInt());
+    }
+  }
+
+  /**
+   * Orders floats as Float.compare does, but, like FloatDataBox.equals, treats 0.0 and -0.0 as
+   * equal and NaN as unequal to itself.
+   */
+  private static class FloatComparator extends ColumnComparator {
+    public int compare(Record left, int leftColumn, Record right, int rightColumn) {
+      return Float.compare(left.getFloat(leftColumn), right.getFloat(rightColumn));
+    }
+
+    public int compare(Record record, int column, DataBox value) {
+      return Float.compare(record.getFloat(column), value.getFloat());
+    }
+
+    @Override
+    public boolean equal(Record left, int leftColumn, Record right, int rightColumn) {
+      return left.getFloat(leftColumn) == right.getFloat(rightColumn);
+    }
+
+    @Override
+    public boolean equal(Record record, int column, DataBox value) {
+      return record.getFloat(column) == value.getFloat();
+    }
+  }
+
+  private static class BoolComparator extends ColumnComparator {
+    public int compare(Record left, int leftColumn, Record right, int rightColumn) {
+      return Boolean.compare(left.getBool(leftColumn), right.getBool(rightColumn));
+    }
+
+    public int compare(Record record, int column, DataBox value) {
+      return Boolean.compare(record.getBool(column), value.getBool());
+    }
+  }
+
+  private static class DataBoxComparator extends ColumnComparator {
+    public int compare(Record left, int leftColumn, Record right, int rightColumn) {
+      return left.getValue(leftColumn).compareTo(right.getValue(rightColumn));
+    }
+
+    public int compare(Record record, int column, DataBox value) {
+      return record.getValue(column).compareTo(value);
+    }
+
+    @Override
+    public boolean equal(Record left, int leftColumn, Record right, int rightColumn) {
+      return left.getValue(leftColumn).equals(right.getValue(rightColumn));
+    }
+
+    @Override
+    public boolean equal(Record record, int column, DataBox value) {
+      return record.getValue(column).equals(value);
+    }
+  }
+}
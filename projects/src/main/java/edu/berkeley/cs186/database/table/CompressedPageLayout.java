@@ -0,0 +1,601 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.databox.BoolDataBox;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.io.Page;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The layout of COMPRESSED pages. A page starts with its number of entries and the number of bytes
+ * it uses, followed by a bitmap of its deleted entries, the offset of each column's section, and
+ * the sections themselves. Each section holds the values of one column for every entry, encoded
+ * according to the column's type:
+ *
+ * - INT: the smallest value, then the difference of every value from it, bit-packed with as many
+ *   bits as the largest difference needs (frame of reference)
+ * - STRING: a dictionary of the distinct values without their padding, then the dictionary index
+ *   of every value, bit-packed with as many bits as the largest index needs
+ * - BOOL: the first value and the lengths of the runs of equal values (run-length encoding)
+ * - FLOAT: every value as is
+ *
+ * Deleting an entry only sets its bit in the bitmap. Every other change decodes the whole page,
+ * changes the decoded values and encodes them again, failing if they no longer fit; the values of
+ * deleted entries are then replaced by those of the entry before them, so that they take no
+ * dictionary entries and lengthen no runs. Records cannot be moved off their page, so an update
+ * that no longer fits fails.
+ *
+ * Pages are decoded as a whole: a scan decodes each page once, from the copy it takes of the page,
+ * and then reads its records from the decoded values.
+ *
+ * Properties:
+ * `types`: the type of each column
+ * `stringSizes`: the size (in bytes) of each STRING column
+ * `maxEntrySize`: the size (in bytes) of a page holding one record of the largest size, less the
+ *   page header: a bitmap byte, the column offsets, and every section at its widest
+ * `lastDecoded`: the page copy decoded last, which scans read every record of in turn
+ */
+class CompressedPageLayout extends PageLayout {
+  static final int MAX_ENTRIES = 4096;
+  private static final int HEADER_SIZE = 8;
+  private static final Charset DICTIONARY_CHARSET = Charset.forName("ISO-8859-1");
+
+  private DataBox.Types[] types;
+  private int[] stringSizes;
+  private int maxEntrySize;
+  private volatile DecodedPage lastDecoded;
+
+  CompressedPageLayout(Schema schema) {
+    super(schema);
+    List<DataBox> fieldTypes = schema.getFieldTypes();
+    this.types = new DataBox.Types[fieldTypes.size()];
+    this.stringSizes = new int[fieldTypes.size()];
+    for (int i = 0; i < fieldTypes.size(); i++) {
+      this.types[i] = fieldTypes.get(i).type();
+      this.stringSizes[i] = fieldTypes.get(i).getSize();
+    }
+
+    this.maxEntrySize = 1 + 4 * this.types.length;
+    for (int i = 0; i < this.types.length; i++) {
+      switch (this.types[i]) {
+        case INT:
+          this.maxEntrySize += 4 + 1 + 4;
+          break;
+        case FLOAT:
+          this.maxEntrySize += 4;
+          break;
+        case BOOL:
+          this.maxEntrySize += 2 + 1 + 2;
+          break;
+        default:
+          this.maxEntrySize += 2 + 2 + this.stringSizes[i] + 1;
+          break;
+      }
+    }
+  }
+
+  int getNumEntriesPerPage() {
+    return MAX_ENTRIES;
+  }
+
+  int getHeaderSize() {
+    return HEADER_SIZE;
+  }
+
+  boolean isValid(Page page, int entryNum) {
+    return entryNum < this.getNumEntries(page) && !this.isDeleted(page, entryNum);
+  }
+
+  int nextStoredEntry(Page page, int fromEntry) {
+    int numEntries = this.getNumEntries(page);
+    for (int entryNum = fromEntry; entryNum < numEntries; entryNum++) {
+      if (!this.isDeleted(page, entryNum)) {
+        return entryNum;
+      }
+    }
+    return -1;
+  }
+
+  int getNumStoredEntries(Page page) {
+    int numEntries = this.getNumEntries(page);
+    int count = numEntries;
+    for (int i = 0; i < (numEntries + 7) / 8; i++) {
+      count -= Integer.bitCount(page.getByte(HEADER_SIZE + i) & 0xFF);
+    }
+    return count;
+  }
+
+  Record read(Page page, int entryNum, boolean[] columns) {
+    return this.decode(page.readBytes()).getRecord(entryNum, columns);
+  }
+
+  Record read(byte[] image, int entryNum, boolean[] columns) {
+    DecodedPage decoded = this.lastDecoded;
+    if (decoded == null || decoded.image != image) {
+      decoded = this.decode(image);
+      this.lastDecoded = decoded;
+    }
+    return decoded.getRecord(entryNum, columns);
+  }
+
+  int insert(Page page, Record record) {
+    List<Integer> entries = this.insertAll(page, Collections.singletonList(record));
+    return entries.isEmpty() ? -1 : entries.get(0);
+  }
+
+  /**
+   * Stores records in the deleted entries of a page first, then in new entries. The number of
+   * records that fit is found by a binary search over the encoded size of the page.
+   */
+  @Override
+  List<Integer> insertAll(Page page, List<Record> records) {
+    DecodedPage decoded = this.decode(page.readBytes());
+    List<Integer> freeEntries = new ArrayList<Integer>();
+    for (int entryNum = 0; entryNum < decoded.numEntries && freeEntries.size() < records.size(); entryNum++) {
+      if (decoded.deleted[entryNum]) {
+        freeEntries.add(entryNum);
+      }
+    }
+    for (int entryNum = decoded.numEntries; entryNum < MAX_ENTRIES && freeEntries.size() < records.size(); entryNum++) {
+      freeEntries.add(entryNum);
+    }
+
+    byte[] bytes = null;
+    int low = 0;
+    int high = freeEntries.size();
+    while (low < high) {
+      int count = (low + high + 1) / 2;
+      byte[] encoded = this.encode(decoded.with(freeEntries.subList(0, count), records.subList(0, count)));
+      if (encoded == null) {
+        high = count - 1;
+      } else {
+        low = count;
+        bytes = encoded;
+      }
+    }
+
+    if (bytes == null) {
+      return new ArrayList<Integer>();
+    }
+    page.writeBytes(0, bytes.length, bytes);
+    return new ArrayList<Integer>(freeEntries.subList(0, low));
+  }
+
+  boolean update(Page page, int entryNum, Record record) {
+    DecodedPage decoded = this.decode(page.readBytes());
+    byte[] bytes = this.encode(decoded.with(Collections.singletonList(entryNum),
+        Collections.singletonList(record)));
+    if (bytes == null) {
+      return false;
+    }
+    page.writeBytes(0, bytes.length, bytes);
+    return true;
+  }
+
+  void delete(Page page, int entryNum) {
+    int position = HEADER_SIZE + entryNum / 8;
+    page.putByte(position, (byte) (page.getByte(position) | (1 << (entryNum % 8))));
+  }
+
+  boolean hasSpace(Page page) {
+    int numEntries = this.getNumEntries(page);
+    if (numEntries == MAX_ENTRIES && this.getNumStoredEntries(page) == MAX_ENTRIES) {
+      return false;
+    }
+    return Page.pageSize - this.getUsedBytes(page) >= this.maxEntrySize;
+  }
+
+  boolean fitsOnEmptyPage() {
+    return HEADER_SIZE + this.maxEntrySize <= Page.pageSize;
+  }
+
+  float getFreeFraction(Page page) {
+    return (float) (Page.pageSize - this.getUsedBytes(page)) / (Page.pageSize - HEADER_SIZE);
+  }
+
+  private int getNumEntries(Page page) {
+    return page.getInt(0);
+  }
+
+  private int getUsedBytes(Page page) {
+    return Math.max(page.getInt(4), HEADER_SIZE);
+  }
+
+  private boolean isDeleted(Page page, int entryNum) {
+    return (page.getByte(HEADER_SIZE + entryNum / 8) & (1 << (entryNum % 8))) != 0;
+  }
+
+  /**
+   * Decodes every entry of a copy of a page.
+   */
+  private DecodedPage decode(byte[] image) {
+    ByteBuffer buf = ByteBuffer.wrap(image);
+    int numEntries = buf.getInt(0);
+    DecodedPage decoded = new DecodedPage(image, this.types.length, numEntries);
+    for (int i = 0; i < numEntries; i++) {
+      decoded.deleted[i] = (image[HEADER_SIZE + i / 8] & (1 << (i % 8))) != 0;
+    }
+    if (numEntries == 0) {
+      return decoded;
+    }
+
+    int offsetsStart = HEADER_SIZE + (numEntries + 7) / 8;
+    for (int column = 0; column < this.types.length; column++) {
+      buf.position(buf.getInt(offsetsStart + 4 * column));
+      switch (this.types[column]) {
+        case INT:
+          decoded.values[column] = readFrameOfReference(buf, numEntries);
+          break;
+        case FLOAT:
+          decoded.values[column] = new int[numEntries];
+          for (int i = 0; i < numEntries; i++) {
+            decoded.values[column][i] = buf.getInt();
+          }
+          break;
+        case BOOL:
+          decoded.values[column] = readRuns(buf, numEntries);
+          break;
+        case STRING:
+          decoded.strings[column] = readDictionary(buf, numEntries);
+          break;
+        default:
+          break;
+      }
+    }
+    return decoded;
+  }
+
+  /**
+   * Encodes the entries of a decoded page.
+   *
+   * @return the encoded page, or null if it does not fit in a page
+   */
+  private byte[] encode(DecodedPage decoded) {
+    decoded.fillDeleted();
+    int numEntries = decoded.numEntries;
+
+    ByteArrayOutputStream sections = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(sections);
+    int offsetsStart = HEADER_SIZE + (numEntries + 7) / 8;
+    int sectionsStart = offsetsStart + 4 * this.types.length;
+    int[] offsets = new int[this.types.length];
+    try {
+      for (int column = 0; column < this.types.length && numEntries > 0; column++) {
+        offsets[column] = sectionsStart + out.size();
+        switch (this.types[column]) {
+          case INT:
+            writeFrameOfReference(out, decoded.values[column], numEntries);
+            break;
+          case FLOAT:
+            for (int i = 0; i < numEntries; i++) {
+              out.writeInt(decoded.values[column][i]);
+            }
+            break;
+          case BOOL:
+            writeRuns(out, decoded.values[column], numEntries);
+            break;
+          case STRING:
+            writeDictionary(out, decoded.strings[column], numEntries);
+            break;
+          default:
+            break;
+        }
+        if (sectionsStart + out.size() > Page.pageSize) {
+          return null;
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+
+    int usedBytes = numEntries == 0 ? HEADER_SIZE : sectionsStart + out.size();
+    ByteBuffer page = ByteBuffer.allocate(usedBytes);
+    page.putInt(numEntries);
+    page.putInt(usedBytes);
+    for (int i = 0; i < numEntries; i++) {
+      if (decoded.deleted[i]) {
+        int position = HEADER_SIZE + i / 8;
+        page.put(position, (byte) (page.get(position) | (1 << (i % 8))));
+      }
+    }
+    if (numEntries > 0) {
+      page.position(offsetsStart);
+      for (int offset : offsets) {
+        page.putInt(offset);
+      }
+      page.put(sections.toByteArray());
+    }
+    return page.array();
+  }
+
+  private static void writeFrameOfReference(DataOutputStream out, int[] values, int numEntries)
+      throws IOException {
+    int min = values[0];
+    int max = values[0];
+    for (int i = 1; i < numEntries; i++) {
+      min = Math.min(min, values[i]);
+      max = Math.max(max, values[i]);
+    }
+    int width = getWidth((long) max - min);
+    out.writeInt(min);
+    out.writeByte(width);
+    int[] deltas = new int[numEntries];
+    for (int i = 0; i < numEntries; i++) {
+      deltas[i] = values[i] - min;
+    }
+    writePacked(out, deltas, numEntries, width);
+  }
+
+  private static int[] readFrameOfReference(ByteBuffer buf, int numEntries) {
+    int min = buf.getInt();
+    int width = buf.get();
+    int[] values = readPacked(buf, numEntries, width);
+    for (int i = 0; i < numEntries; i++) {
+      values[i] += min;
+    }
+    return values;
+  }
+
+  private static void writeRuns(DataOutputStream out, int[] values, int numEntries) throws IOException {
+    List<Integer> runs = new ArrayList<Integer>();
+    int runLength = 1;
+    for (int i = 1; i < numEntries; i++) {
+      if (values[i] == values[i - 1]) {
+        runLength++;
+      } else {
+        runs.add(runLength);
+        runLength = 1;
+      }
+    }
+    runs.add(runLength);
+
+    out.writeShort(runs.size());
+    out.writeByte(values[0]);
+    for (int run : runs) {
+      out.writeShort(run);
+    }
+  }
+
+  private static int[] readRuns(ByteBuffer buf, int numEntries) {
+    int numRuns = buf.getShort() & 0xFFFF;
+    int value = buf.get();
+    int[] values = new int[numEntries];
+    int position = 0;
+    for (int run = 0; run < numRuns; run++) {
+      int runLength = buf.getShort() & 0xFFFF;
+      Arrays.fill(values, position, position + runLength, value);
+      position += runLength;
+      value = 1 - value;
+    }
+    return values;
+  }
+
+  private static void writeDictionary(DataOutputStream out, byte[][] values, int numEntries)
+      throws IOException {
+    Map<String, Integer> dictionary = new LinkedHashMap<String, Integer>();
+    int[] codes = new int[numEntries];
+    for (int i = 0; i < numEntries; i++) {
+      String key = new String(values[i], DICTIONARY_CHARSET);
+      Integer code = dictionary.get(key);
+      if (code == null) {
+        code = dictionary.size();
+        dictionary.put(key, code);
+      }
+      codes[i] = code;
+    }
+
+    out.writeShort(dictionary.size());
+    for (String key : dictionary.keySet()) {
+      out.writeShort(key.length());
+      out.writeBytes(key);
+    }
+    int width = getWidth(dictionary.size() - 1);
+    out.writeByte(width);
+    writePacked(out, codes, numEntries, width);
+  }
+
+  private static byte[][] readDictionary(ByteBuffer buf, int numEntries) {
+    byte[][] dictionary = new byte[buf.getShort() & 0xFFFF][];
+    for (int i = 0; i < dictionary.length; i++) {
+      dictionary[i] = new byte[buf.getShort() & 0xFFFF];
+      buf.get(dictionary[i]);
+    }
+    int width = buf.get();
+    int[] codes = readPacked(buf, numEntries, width);
+    byte[][] values = new byte[numEntries][];
+    for (int i = 0; i < numEntries; i++) {
+      values[i] = dictionary[codes[i]];
+    }
+    return values;
+  }
+
+  /**
+   * @return the number of bits needed to store every value from 0 to max
+   */
+  private static int getWidth(long max) {
+    return 64 - Long.numberOfLeadingZeros(max);
+  }
+
+  /**
+   * Writes the lowest width bits of each value, packed together from the lowest bit of each byte.
+   */
+  private static void writePacked(DataOutputStream out, int[] values, int numEntries, int width)
+      throws IOException {
+    long mask = (1L << width) - 1;
+    long pending = 0;
+    int numPendingBits = 0;
+    for (int i = 0; i < numEntries; i++) {
+      pending |= (values[i] & mask) << numPendingBits;
+      numPendingBits += width;
+      while (numPendingBits >= 8) {
+        out.writeByte((int) pending);
+        pending >>>= 8;
+        numPendingBits -= 8;
+      }
+    }
+    if (numPendingBits > 0) {
+      out.writeByte((int) pending);
+    }
+  }
+
+  private static int[] readPacked(ByteBuffer buf, int numEntries, int width) {
+    long mask = (1L << width) - 1;
+    int[] values = new int[numEntries];
+    long pending = 0;
+    int numPendingBits = 0;
+    for (int i = 0; i < numEntries; i++) {
+      while (numPendingBits < width) {
+        pending |= (buf.get() & 0xFFL) << numPendingBits;
+        numPendingBits += 8;
+      }
+      values[i] = (int) (pending & mask);
+      pending >>>= width;
+      numPendingBits -= width;
+    }
+    return values;
+  }
+
+  /**
+   * The values of every entry of a page. INT, FLOAT and BOOL values are kept as ints, floats as
+   * their bits and bools as 0 or 1, and STRING values as their bytes without padding.
+   *
+   * Properties:
+   * `image`: the page copy the values were decoded from
+   * `numEntries`: the number of entries of the page
+   * `deleted`: whether each entry is deleted
+   * `values`: the values of each INT, FLOAT and BOOL column, by entry
+   * `strings`: the values of each STRING column, by entry
+   */
+  private class DecodedPage {
+    private byte[] image;
+    private int numEntries;
+    private boolean[] deleted;
+    private int[][] values;
+    private byte[][][] strings;
+
+    private DecodedPage(byte[] image, int numColumns, int numEntries) {
+      this.image = image;
+      this.numEntries = numEntries;
+      this.deleted = new boolean[numEntries];
+      this.values = new int[numColumns][];
+      this.strings = new byte[numColumns][][];
+    }
+
+    private Record getRecord(int entryNum, boolean[] columns) {
+      List<DataBox> record = new ArrayList<DataBox>(types.length);
+      for (int column = 0; column < types.length; column++) {
+        if (columns != null && !columns[column]) {
+          record.add(null);
+          continue;
+        }
+        switch (types[column]) {
+          case INT:
+            record.add(new IntDataBox(this.values[column][entryNum]));
+            break;
+          case FLOAT:
+            record.add(new FloatDataBox(Float.intBitsToFloat(this.values[column][entryNum])));
+            break;
+          case BOOL:
+            record.add(new BoolDataBox(this.values[column][entryNum] != 0));
+            break;
+          default:
+            byte[] bytes = Arrays.copyOf(this.strings[column][entryNum], stringSizes[column]);
+            Arrays.fill(bytes, this.strings[column][entryNum].length, bytes.length, (byte) ' ');
+            record.add(new StringDataBox(bytes));
+            break;
+        }
+      }
+      return new Record(record);
+    }
+
+    /**
+     * @return a copy of this page with records stored in the given entries, which may be past the
+     * last entry of this page
+     */
+    private DecodedPage with(List<Integer> entries, List<Record> records) {
+      int numEntries = this.numEntries;
+      for (int entryNum : entries) {
+        numEntries = Math.max(numEntries, entryNum + 1);
+      }
+
+      DecodedPage copy = new DecodedPage(this.image, types.length, numEntries);
+      System.arraycopy(this.deleted, 0, copy.deleted, 0, this.numEntries);
+      Arrays.fill(copy.deleted, this.numEntries, numEntries, true);
+      for (int column = 0; column < types.length; column++) {
+        if (types[column] == DataBox.Types.STRING) {
+          copy.strings[column] = Arrays.copyOf(this.strings[column] == null ? new byte[0][] : this.strings[column], numEntries);
+        } else {
+          copy.values[column] = Arrays.copyOf(this.values[column] == null ? new int[0] : this.values[column], numEntries);
+        }
+      }
+
+      for (int i = 0; i < entries.size(); i++) {
+        int entryNum = entries.get(i);
+        Record record = records.get(i);
+        copy.deleted[entryNum] = false;
+        for (int column = 0; column < types.length; column++) {
+          switch (types[column]) {
+            case INT:
+              copy.values[column][entryNum] = record.getInt(column);
+              break;
+            case FLOAT:
+              copy.values[column][entryNum] = Float.floatToRawIntBits(record.getFloat(column));
+              break;
+            case BOOL:
+              copy.values[column][entryNum] = record.getBool(column) ? 1 : 0;
+              break;
+            default:
+              byte[] bytes = record.getValue(column).getBytes();
+              int length = bytes.length;
+              while (length > 0 && bytes[length - 1] == ' ') {
+                length--;
+              }
+              copy.strings[column][entryNum] = Arrays.copyOf(bytes, length);
+              break;
+          }
+        }
+      }
+      return copy;
+    }
+
+    /**
+     * Drops the deleted entries at the end of the page, and gives every other deleted entry the
+     * values of the entry before it, or of the first stored entry if there is none.
+     */
+    private void fillDeleted() {
+      while (this.numEntries > 0 && this.deleted[this.numEntries - 1]) {
+        this.numEntries--;
+      }
+      int first = 0;
+      while (first < this.numEntries && this.deleted[first]) {
+        first++;
+      }
+      for (int i = 0; i < this.numEntries; i++) {
+        if (!this.deleted[i]) {
+          continue;
+        }
+        int source = i == 0 || i < first ? first : i - 1;
+        for (int column = 0; column < types.length; column++) {
+          if (types[column] == DataBox.Types.STRING) {
+            this.strings[column][i] = this.strings[column][source];
+          } else {
+            this.values[column][i] = this.values[column][source];
+          }
+        }
+      }
+    }
+  }
+}
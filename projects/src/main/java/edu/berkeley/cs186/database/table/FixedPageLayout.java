@@ -0,0 +1,241 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.io.Page;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The layout of FIXED pages. A page starts with a slot bitmap, in which bit i is set if entry i
+ * holds a record, followed by one slot per entry of exactly schema.getEntrySize() bytes.
+ *
+ * Properties:
+ * `numEntriesPerPage`: number of records a page can hold
+ * `pageHeaderSize`: physical size (in bytes) of the slot bitmap
+ * `columnBases`: the position of the value of each column of entry 0
+ * `columnStrides`: the distance between the values of each column of consecutive entries
+ */
+class FixedPageLayout extends PageLayout {
+  private int numEntriesPerPage;
+  private int pageHeaderSize;
+  protected int[] columnBases;
+  protected int[] columnStrides;
+
+  /**
+   * Based on the schema, calculates the number of record entries a data page can hold and the
+   * size (in bytes) of the page header. The page header only contains the slot bitmap and takes
+   * up no other space. For ease of calculations and to prevent header byte splitting,
+   * `numEntriesPerPage` is a multiple of 8 (this may waste some space).
+   *
+   * @param schema the schema of the records to lay out
+   */
+  FixedPageLayout(Schema schema) {
+    super(schema);
+    this.pageHeaderSize = ((Page.pageSize * 8) / (1 + 8 * schema.getEntrySize())) / 8;
+    this.numEntriesPerPage = this.pageHeaderSize * 8;
+
+    int numColumns = schema.getFieldTypes().size();
+    this.columnBases = new int[numColumns];
+    this.columnStrides = new int[numColumns];
+    for (int i = 0; i < numColumns; i++) {
+      this.columnBases[i] = this.pageHeaderSize + schema.getFieldOffset(i);
+      this.columnStrides[i] = schema.getEntrySize();
+    }
+  }
+
+  int getNumEntriesPerPage() {
+    return this.numEntriesPerPage;
+  }
+
+  int getHeaderSize() {
+    return this.pageHeaderSize;
+  }
+
+  boolean isValid(Page page, int entryNum) {
+    int byteOffset = entryNum / 8;
+    int bitOffset = 7 - (entryNum % 8);
+    byte mask = (byte) (1 << bitOffset);
+
+    return (page.getByte(byteOffset) & mask) != 0;
+  }
+
+  int nextStoredEntry(Page page, int fromEntry) {
+    int entryNum = fromEntry;
+    while (entryNum < this.numEntriesPerPage) {
+      byte b = page.getByte(entryNum / 8);
+      if (b == 0) {
+        entryNum = (entryNum / 8 + 1) * 8;
+        continue;
+      }
+      if ((b & (1 << (7 - (entryNum % 8)))) != 0) {
+        return entryNum;
+      }
+      entryNum++;
+    }
+    return -1;
+  }
+
+  int getNumStoredEntries(Page page) {
+    int count = 0;
+
+    for (int i = 0; i < this.pageHeaderSize; i++) {
+      count += Integer.bitCount(page.getByte(i) & 0xFF);
+    }
+
+    return count;
+  }
+
+  Record read(Page page, int entryNum, boolean[] columns) {
+    int entrySize = this.schema.getEntrySize();
+    int offset = this.pageHeaderSize + (entrySize * entryNum);
+
+    return this.schema.decode(page.readBytes(offset, entrySize), columns);
+  }
+
+  /**
+   * Returns a LazyRecord over the copy of the page.
+   */
+  Record read(byte[] image, int entryNum, boolean[] columns) {
+    return new LazyRecord(this.schema, image, this.columnBases, this.columnStrides, entryNum);
+  }
+
+  int insert(Page page, Record record) {
+    int entryNum = this.nextFreeEntry(page.readBytes(0, this.pageHeaderSize), 0);
+    if (entryNum == -1) {
+      return -1;
+    }
+
+    this.writeBitToHeader(page, entryNum, (byte) 1);
+    this.writeRecord(page, entryNum, record);
+
+    return entryNum;
+  }
+
+  /**
+   * Fills the page in memory, and then writes its header and the new records back with a single
+   * write.
+   */
+  @Override
+  List<Integer> insertAll(Page page, List<Record> records) {
+    List<Integer> entries = new ArrayList<Integer>();
+    byte[] image = page.readBytes();
+    int end = 0;
+    int entryNum = this.nextFreeEntry(image, 0);
+
+    for (Record record : records) {
+      if (entryNum == -1) {
+        break;
+      }
+
+      image[entryNum / 8] |= (byte) (1 << (7 - (entryNum % 8)));
+      end = Math.max(end, this.writeRecord(image, entryNum, record));
+
+      entries.add(entryNum);
+      entryNum = this.nextFreeEntry(image, entryNum + 1);
+    }
+
+    if (end > 0) {
+      page.putBytes(0, image, 0, end);
+    }
+    return entries;
+  }
+
+  boolean update(Page page, int entryNum, Record record) {
+    this.writeRecord(page, entryNum, record);
+    return true;
+  }
+
+  void delete(Page page, int entryNum) {
+    this.writeBitToHeader(page, entryNum, (byte) 0);
+  }
+
+  boolean hasSpace(Page page) {
+    for (int i = 0; i < this.pageHeaderSize; i++) {
+      if (page.getByte(i) != (byte) 0xFF) {
+        return true;
+      }
+    }
+
+    return false;
+  }
+
+  float getFreeFraction(Page page) {
+    return 1 - (float) this.getNumStoredEntries(page) / this.numEntriesPerPage;
+  }
+
+  /**
+   * Writes a record into the slot of an entry.
+   *
+   * @param page the page to write to
+   * @param entryNum the entry to write
+   * @param record the record to write
+   */
+  protected void writeRecord(Page page, int entryNum, Record record) {
+    int offset = this.pageHeaderSize + (entryNum * this.schema.getEntrySize());
+    byte[] bytes = this.schema.encode(record);
+    page.writeBytes(offset, bytes.length, bytes);
+  }
+
+  /**
+   * Writes a record into the slot of an entry in an in-memory image of a page.
+   *
+   * @param image the contents of the page
+   * @param entryNum the entry to write
+   * @param record the record to write
+   * @return the position just past the last byte written
+   */
+  protected int writeRecord(byte[] image, int entryNum, Record record) {
+    int offset = this.pageHeaderSize + (entryNum * this.schema.getEntrySize());
+    byte[] bytes = this.schema.encode(record);
+    System.arraycopy(bytes, 0, image, offset, bytes.length);
+    return offset + bytes.length;
+  }
+
+  /**
+   * Finds the first free slot at or after fromEntry in a page's slot bitmap, skipping full bytes.
+   *
+   * @param header the slot bitmap of the page
+   * @param fromEntry the slot to start searching from
+   * @return the first free slot, or -1 if every slot from fromEntry on is taken
+   */
+  private int nextFreeEntry(byte[] header, int fromEntry) {
+    int entryNum = fromEntry;
+    while (entryNum < this.numEntriesPerPage) {
+      byte b = header[entryNum / 8];
+      if (b == (byte) 0xFF) {
+        entryNum = (entryNum / 8 + 1) * 8;
+        continue;
+      }
+      if ((b & (1 << (7 - (entryNum % 8)))) == 0) {
+        return entryNum;
+      }
+      entryNum++;
+    }
+    return -1;
+  }
+
+  /**
+   * Utility method to write a particular bit into the header of a particular page.
+   *
+   * @param page the page to modify
+   * @param entryNum the header slot to modify
+   * @param value the value of the bit to write (should either be 0 or 1)
+   */
+  private void writeBitToHeader(Page page, int entryNum, byte value) {
+    int byteOffset = entryNum / 8;
+    int bitOffset = 7 - (entryNum % 8);
+    byte b = page.getByte(byteOffset);
+
+    if (value == 0) {
+      byte mask = (byte) ~((1 << bitOffset));
+
+      b = (byte) (b & mask);
+    } else {
+      byte mask = (byte) (1 << bitOffset);
+
+      b = (byte) (b | mask);
+    }
+
+    page.putByte(byteOffset, b);
+  }
+}
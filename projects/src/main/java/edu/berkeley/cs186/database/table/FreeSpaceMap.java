@@ -0,0 +1,177 @@
+package edu.berkeley.cs186.database.table;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Tracks the data pages of a table that have room for a record of any size, grouped into buckets
+ * by how much of the page is free. Bucket 0 holds the fullest pages and bucket NUM_BUCKETS - 1 the
+ * emptiest. The buckets are only updated when a page changes, so they are approximate until then.
+ *
+ * Records are stored best fit: findPage returns a page of the fullest non-empty bucket, so the page
+ * being filled keeps being chosen until it is full, and the space freed on nearly full pages is
+ * reused before emptier pages are touched, instead of alternating between them. Within a bucket,
+ * the page with the lowest number is chosen. findPageNear instead returns the tracked page closest
+ * to a given page, so that related records can be kept together.
+ *
+ * Properties:
+ * `buckets`: the page numbers in each bucket
+ * `bucketOf`: the bucket each tracked page is in
+ * `pages`: every tracked page number, in order
+ */
+class FreeSpaceMap {
+  static final int NUM_BUCKETS = 8;
+
+  private List<TreeSet<Integer>> buckets;
+  private Map<Integer, Integer> bucketOf;
+  private TreeSet<Integer> pages;
+
+  FreeSpaceMap() {
+    this.buckets = new ArrayList<TreeSet<Integer>>(NUM_BUCKETS);
+    for (int i = 0; i < NUM_BUCKETS; i++) {
+      this.buckets.add(new TreeSet<Integer>());
+    }
+    this.bucketOf = new HashMap<Integer, Integer>();
+    this.pages = new TreeSet<Integer>();
+  }
+
+  /**
+   * @param freeFraction the fraction of a page that is free, between 0 and 1
+   * @return the bucket of a page with that much free space
+   */
+  static int getBucketFor(float freeFraction) {
+    int bucket = (int) (freeFraction * NUM_BUCKETS);
+    return Math.max(0, Math.min(NUM_BUCKETS - 1, bucket));
+  }
+
+  /**
+   * Starts tracking a page, or moves it to another bucket.
+   *
+   * @param pageNum the number of the page
+   * @param bucket the bucket of the page
+   */
+  void put(int pageNum, int bucket) {
+    Integer oldBucket = this.bucketOf.put(pageNum, bucket);
+    if (oldBucket != null) {
+      if (oldBucket == bucket) {
+        return;
+      }
+      this.buckets.get(oldBucket).remove(pageNum);
+    }
+    this.buckets.get(bucket).add(pageNum);
+    this.pages.add(pageNum);
+  }
+
+  /**
+   * Stops tracking a page.
+   *
+   * @param pageNum the number of the page
+   */
+  void remove(int pageNum) {
+    Integer bucket = this.bucketOf.remove(pageNum);
+    if (bucket != null) {
+      this.buckets.get(bucket).remove(pageNum);
+      this.pages.remove(pageNum);
+    }
+  }
+
+  /**
+   * @param pageNum the number of a page
+   * @return the bucket of the page, or -1 if it is not tracked
+   */
+  int getBucket(int pageNum) {
+    Integer bucket = this.bucketOf.get(pageNum);
+    return bucket == null ? -1 : bucket;
+  }
+
+  /**
+   * @return a page of the fullest non-empty bucket, or -1 if no page is tracked
+   */
+  int findPage() {
+    for (TreeSet<Integer> bucket : this.buckets) {
+      if (!bucket.isEmpty()) {
+        return bucket.first();
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @param pageNum the number of a page
+   * @return the tracked page closest to pageNum, preferring the later page on a tie, or -1 if no
+   * page is tracked
+   */
+  int findPageNear(int pageNum) {
+    Integer after = this.pages.ceiling(pageNum);
+    Integer before = this.pages.lower(pageNum);
+    if (after == null) {
+      return before == null ? -1 : before;
+    }
+    if (before == null || after - pageNum <= pageNum - before) {
+      return after;
+    }
+    return before;
+  }
+
+  /**
+   * @param minBucket the fullest bucket to include
+   * @return the tracked pages in minBucket or an emptier bucket, from the highest page number down
+   */
+  List<Integer> getPagesFrom(int minBucket) {
+    List<Integer> pages = new ArrayList<Integer>();
+    for (int pageNum : this.pages.descendingSet()) {
+      if (this.bucketOf.get(pageNum) >= minBucket) {
+        pages.add(pageNum);
+      }
+    }
+    return pages;
+  }
+
+  /**
+   * @return the number of tracked pages
+   */
+  int size() {
+    return this.pages.size();
+  }
+
+  /**
+   * Serializes the tracked pages and their buckets.
+   *
+   * @param out the output to write to
+   * @throws IOException if out cannot be written to
+   */
+  void writeTo(DataOutput out) throws IOException {
+    out.writeInt(this.pages.size());
+    for (int pageNum : this.pages) {
+      out.writeInt(pageNum);
+      out.writeByte(this.bucketOf.get(pageNum));
+    }
+  }
+
+  /**
+   * Deserializes pages and buckets written by writeTo.
+   *
+   * @param in the input to read from
+   * @return the deserialized map
+   * @throws IOException if in cannot be read from, or holds an invalid bucket
+   */
+  static FreeSpaceMap readFrom(DataInput in) throws IOException {
+    FreeSpaceMap map = new FreeSpaceMap();
+    int numPages = in.readInt();
+    for (int i = 0; i < numPages; i++) {
+      int pageNum = in.readInt();
+      int bucket = in.readByte();
+      if (bucket < 0 || bucket >= NUM_BUCKETS) {
+        throw new IOException("Invalid free space bucket " + bucket);
+      }
+      map.put(pageNum, bucket);
+    }
+    return map;
+  }
+}
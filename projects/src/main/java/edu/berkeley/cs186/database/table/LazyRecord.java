@@ -0,0 +1,116 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.DataBoxException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A record read from a page in which every field sits at a fixed position, decoding each field
+ * only when it is first read. The record refers to a copy of its page taken when the page was
+ * read, which the records of the same page share, so it stays valid after the page is changed or
+ * evicted. Only getValues decodes the whole record, once, and getInt, getFloat and getBool read
+ * primitive columns straight from the page copy without creating a DataBox at all.
+ *
+ * The value of column i is stored at columnBases[i] + columnStrides[i] * entryNum, which covers
+ * both FIXED pages, where every column's stride is the size of a record, and PAX pages, where it
+ * is the size of the column.
+ *
+ * Properties:
+ * `schema`: the schema of the record
+ * `bytes`: the copy of the page the record is stored in
+ * `columnBases`: the position of the value of each column in entry 0
+ * `columnStrides`: the distance between the values of each column in consecutive entries
+ * `entryNum`: the entry the record is stored in
+ * `decoded`: the values decoded so far, or null if none has been
+ * `values`: every value of the record, once getValues has been called
+ */
+public class LazyRecord extends Record {
+  private Schema schema;
+  private byte[] bytes;
+  private int[] columnBases;
+  private int[] columnStrides;
+  private int entryNum;
+  private DataBox[] decoded;
+  private List<DataBox> values;
+
+  LazyRecord(Schema schema, byte[] bytes, int[] columnBases, int[] columnStrides, int entryNum) {
+    super(null);
+    this.schema = schema;
+    this.bytes = bytes;
+    this.columnBases = columnBases;
+    this.columnStrides = columnStrides;
+    this.entryNum = entryNum;
+  }
+
+  @Override
+  public DataBox getValue(int column) {
+    if (this.values != null) {
+      return this.values.get(column);
+    }
+    if (this.decoded == null) {
+      this.decoded = new DataBox[this.columnBases.length];
+    }
+    if (this.decoded[column] == null) {
+      this.decoded[column] = this.schema.decodeField(column, this.bytes, this.getOffset(column));
+    }
+    return this.decoded[column];
+  }
+
+  @Override
+  public int getInt(int column) {
+    if (this.bytes == null || (this.decoded != null && this.decoded[column] != null)) {
+      return super.getInt(column);
+    }
+    this.checkType(column, DataBox.Types.INT);
+    return this.readInt(this.getOffset(column));
+  }
+
+  @Override
+  public float getFloat(int column) {
+    if (this.bytes == null || (this.decoded != null && this.decoded[column] != null)) {
+      return super.getFloat(column);
+    }
+    this.checkType(column, DataBox.Types.FLOAT);
+    return Float.intBitsToFloat(this.readInt(this.getOffset(column)));
+  }
+
+  @Override
+  public boolean getBool(int column) {
+    if (this.bytes == null || (this.decoded != null && this.decoded[column] != null)) {
+      return super.getBool(column);
+    }
+    this.checkType(column, DataBox.Types.BOOL);
+    return this.bytes[this.getOffset(column)] != 0;
+  }
+
+  @Override
+  public List<DataBox> getValues() {
+    if (this.values == null) {
+      List<DataBox> values = new ArrayList<DataBox>(this.columnBases.length);
+      for (int i = 0; i < this.columnBases.length; i++) {
+        values.add(this.getValue(i));
+      }
+      this.values = values;
+      this.decoded = null;
+      this.bytes = null;
+    }
+    return this.values;
+  }
+
+  private int getOffset(int column) {
+    return this.columnBases[column] + this.columnStrides[column] * this.entryNum;
+  }
+
+  private int readInt(int offset) {
+    return ((this.bytes[offset] & 0xFF) << 24) | ((this.bytes[offset + 1] & 0xFF) << 16)
+        | ((this.bytes[offset + 2] & 0xFF) << 8) | (this.bytes[offset + 3] & 0xFF);
+  }
+
+  private void checkType(int column, DataBox.Types type) {
+    if (this.schema.getFieldTypes().get(column).type() != type) {
+      throw new DataBoxException("Column " + column + " is not of type " + type);
+    }
+  }
+}
@@ -0,0 +1,34 @@
+package edu.berkeley.cs186.database.table;
+
+/**
+ * The ways a table can lay out the records in its data pages. The format of a table is chosen when
+ * it is created and saved in its header page.
+ */
+public enum PageFormat {
+  /**
+   * A slot bitmap followed by fixed-size records, each taking the full size of its schema.
+   */
+  FIXED,
+
+  /**
+   * A slot directory at the start of the page and variable-length records packed at its end.
+   * Strings are stored without their padding, so tables with wide, mostly short string columns
+   * take far fewer pages.
+   */
+  SLOTTED,
+
+  /**
+   * The slot bitmap and capacity of FIXED pages, with the values of each column stored together in
+   * a minipage rather than record by record, so that scans reading a few columns touch only those
+   * columns' bytes.
+   */
+  PAX,
+
+  /**
+   * The values of each column stored together and compressed: strings dictionary-encoded, ints
+   * bit-packed as offsets from the smallest value of the page, and bools run-length encoded. Meant
+   * for cold tables that are mostly scanned: changes other than deletes re-encode the whole page,
+   * and an update fails if the record no longer fits on its page.
+   */
+  COMPRESSED
+}
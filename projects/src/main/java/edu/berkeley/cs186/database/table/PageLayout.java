@@ -0,0 +1,230 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.io.Page;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads and writes the records of a table within its data pages, following one of the
+ * PageFormats. A data page holds a number of entries, numbered from 0, and the entry number of a
+ * RecordID is the entry the record is stored in.
+ *
+ * A layout may support moving a record off its page when an update makes it too large for it. The
+ * record's entry then holds a forward to the entry the record was moved to, so that its RecordID
+ * stays the same, and the moved record is only ever reached through that forward.
+ *
+ * Properties:
+ * `schema`: the schema of the records in the pages
+ */
+abstract class PageLayout {
+  protected Schema schema;
+
+  PageLayout(Schema schema) {
+    this.schema = schema;
+  }
+
+  /**
+   * @param format a page format
+   * @param schema the schema of the records to lay out
+   * @return the layout of pages of the given format
+   */
+  static PageLayout forFormat(PageFormat format, Schema schema) {
+    switch (format) {
+      case SLOTTED:
+        return new SlottedPageLayout(schema);
+      case PAX:
+        return new PaxPageLayout(schema);
+      case COMPRESSED:
+        return new CompressedPageLayout(schema);
+      default:
+        return new FixedPageLayout(schema);
+    }
+  }
+
+  /**
+   * @return the largest number of entries a page can have
+   */
+  abstract int getNumEntriesPerPage();
+
+  /**
+   * @return the size (in bytes) of the header at the start of each page
+   */
+  abstract int getHeaderSize();
+
+  /**
+   * Checks whether an entry of a page holds a record, or a forward to one, that can be referenced
+   * by a RecordID.
+   *
+   * @param page the page to check
+   * @param entryNum the entry to check
+   * @return true if the entry is valid, otherwise false
+   */
+  abstract boolean isValid(Page page, int entryNum);
+
+  /**
+   * Finds the next entry of a page that stores a record, either its own or one moved there.
+   * Forwards are skipped, so that scanning every page yields every record exactly once.
+   *
+   * @param page the page to search
+   * @param fromEntry the entry to start searching from
+   * @return the first such entry at or after fromEntry, or -1 if there is none
+   */
+  abstract int nextStoredEntry(Page page, int fromEntry);
+
+  /**
+   * @param page the page to read from
+   * @return the number of entries of the page that store a record
+   */
+  abstract int getNumStoredEntries(Page page);
+
+  /**
+   * Reads the record stored in an entry.
+   *
+   * @param page the page to read from
+   * @param entryNum an entry that stores a record
+   * @return the decoded record
+   */
+  Record read(Page page, int entryNum) {
+    return this.read(page, entryNum, null);
+  }
+
+  /**
+   * Reads some of the columns of the record stored in an entry, leaving the values of the other
+   * columns null.
+   *
+   * @param page the page to read from
+   * @param entryNum an entry that stores a record
+   * @param columns which columns to decode, or null to decode every column
+   * @return the decoded record
+   */
+  abstract Record read(Page page, int entryNum, boolean[] columns);
+
+  /**
+   * Reads the record stored in an entry of a copy of a page, which scans take once per page. The
+   * record may keep a reference to the copy and decode its fields on demand, in which case the
+   * values of columns not in columns are decoded when read rather than left null.
+   *
+   * @param image the contents of the page
+   * @param entryNum an entry that stores a record
+   * @param columns which columns to decode, or null to decode every column
+   * @return the record
+   */
+  abstract Record read(byte[] image, int entryNum, boolean[] columns);
+
+  /**
+   * Stores a record in a free entry of a page.
+   *
+   * @param page the page to write to
+   * @param record the record to store
+   * @return the entry the record was stored in, or -1 if it does not fit on the page
+   */
+  abstract int insert(Page page, Record record);
+
+  /**
+   * Stores as many records as fit in the free entries of a page, in order.
+   *
+   * @param page the page to write to
+   * @param records the records to store
+   * @return the entries of the records that were stored, which are the first ones of records
+   */
+  List<Integer> insertAll(Page page, List<Record> records) {
+    List<Integer> entries = new ArrayList<Integer>();
+    for (Record record : records) {
+      int entryNum = this.insert(page, record);
+      if (entryNum == -1) {
+        break;
+      }
+      entries.add(entryNum);
+    }
+    return entries;
+  }
+
+  /**
+   * Replaces the record stored in an entry, or the forward it holds, with a new record.
+   *
+   * @param page the page to write to
+   * @param entryNum an entry that stores a record or holds a forward
+   * @param record the new record
+   * @return false if the new record does not fit on the page, in which case nothing is changed
+   */
+  abstract boolean update(Page page, int entryNum, Record record);
+
+  /**
+   * Frees an entry.
+   *
+   * @param page the page to write to
+   * @param entryNum the entry to free
+   */
+  abstract void delete(Page page, int entryNum);
+
+  /**
+   * Checks whether a record of any size conforming to the schema can be stored on a page.
+   *
+   * @param page the page to check
+   * @return true if there is room for such a record, otherwise false
+   */
+  abstract boolean hasSpace(Page page);
+
+  /**
+   * Checks whether a record of the largest size the schema allows can be stored on an empty page,
+   * so that a table of this layout can hold every record of its schema.
+   *
+   * @return true if such a record fits on an empty page, otherwise false
+   */
+  boolean fitsOnEmptyPage() {
+    return true;
+  }
+
+  /**
+   * @param page the page to check
+   * @return the fraction of the record space of the page that is free, between 0 and 1
+   */
+  abstract float getFreeFraction(Page page);
+
+  /**
+   * @return whether records can be moved off their page, leaving a forward in their place
+   */
+  boolean supportsForwards() {
+    return false;
+  }
+
+  /**
+   * @param page the page to read from
+   * @param entryNum a valid entry
+   * @return the entry the record of entryNum was moved to, or null if it is stored in entryNum
+   */
+  RecordID getForward(Page page, int entryNum) {
+    return null;
+  }
+
+  /**
+   * Stores a record moved off another page, which is only reachable through a forward.
+   *
+   * @param page the page to write to
+   * @param record the record to store
+   * @return the entry the record was stored in, or -1 if it does not fit on the page
+   */
+  int insertMoved(Page page, Record record) {
+    throw new UnsupportedOperationException("Records cannot be moved in this page format");
+  }
+
+  /**
+   * Replaces the record stored in an entry with a forward to the entry it was moved to.
+   *
+   * @param page the page to write to
+   * @param entryNum an entry that stores a record or holds a forward
+   * @param target the entry the record was moved to
+   */
+  void setForward(Page page, int entryNum, RecordID target) {
+    throw new UnsupportedOperationException("Records cannot be moved in this page format");
+  }
+
+  /**
+   * @param page the page to check
+   * @return whether the page stores records moved there from other pages
+   */
+  boolean hasMovedRecords(Page page) {
+    return false;
+  }
+}
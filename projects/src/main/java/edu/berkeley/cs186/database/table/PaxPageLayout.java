@@ -0,0 +1,72 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.io.Page;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The layout of PAX pages. A page has the same slot bitmap and holds the same number of entries as
+ * a FIXED page, but instead of storing each record in one slot, it stores the values of each column
+ * together in a minipage, one after the other. Reading a few columns of every record of a page
+ * then only touches the minipages of those columns.
+ *
+ * Properties:
+ * `minipageOffsets`: the position of the minipage of each column within a page
+ */
+class PaxPageLayout extends FixedPageLayout {
+  private int[] minipageOffsets;
+
+  PaxPageLayout(Schema schema) {
+    super(schema);
+
+    List<DataBox> fieldTypes = schema.getFieldTypes();
+    this.minipageOffsets = new int[fieldTypes.size()];
+    int offset = this.getHeaderSize();
+    for (int i = 0; i < fieldTypes.size(); i++) {
+      this.minipageOffsets[i] = offset;
+      this.columnBases[i] = offset;
+      this.columnStrides[i] = fieldTypes.get(i).getSize();
+      offset += fieldTypes.get(i).getSize() * this.getNumEntriesPerPage();
+    }
+  }
+
+  @Override
+  Record read(Page page, int entryNum, boolean[] columns) {
+    List<DataBox> fieldTypes = this.schema.getFieldTypes();
+    List<DataBox> values = new ArrayList<DataBox>();
+    for (int i = 0; i < fieldTypes.size(); i++) {
+      if (columns == null || columns[i]) {
+        int size = fieldTypes.get(i).getSize();
+        byte[] bytes = page.readBytes(this.minipageOffsets[i] + size * entryNum, size);
+        values.add(this.schema.decodeField(i, bytes, 0));
+      } else {
+        values.add(null);
+      }
+    }
+    return new Record(values);
+  }
+
+  @Override
+  protected void writeRecord(Page page, int entryNum, Record record) {
+    List<DataBox> values = record.getValues();
+    for (int i = 0; i < values.size(); i++) {
+      byte[] bytes = values.get(i).getBytes();
+      page.writeBytes(this.minipageOffsets[i] + bytes.length * entryNum, bytes.length, bytes);
+    }
+  }
+
+  @Override
+  protected int writeRecord(byte[] image, int entryNum, Record record) {
+    List<DataBox> values = record.getValues();
+    int end = 0;
+    for (int i = 0; i < values.size(); i++) {
+      byte[] bytes = values.get(i).getBytes();
+      int offset = this.minipageOffsets[i] + bytes.length * entryNum;
+      System.arraycopy(bytes, 0, image, offset, bytes.length);
+      end = offset + bytes.length;
+    }
+    return end;
+  }
+}
@@ -7,6 +7,8 @@ import java.lang.StringBuilder;
 
 /**
  * A wrapper class for an individual record. Simply stores a list of DataBoxes.
+ * Subclasses may decode their values lazily, so code that reads a few columns
+ * of a record should use getValue rather than getValues.
  */
 public class Record {
   private List<DataBox> values;
@@ -19,20 +21,59 @@ public class Record {
     return this.values;
   }
 
+  /**
+   * @param column the index of a column
+   * @return the value of the column in this record
+   */
+  public DataBox getValue(int column) {
+    return this.getValues().get(column);
+  }
+
+  /**
+   * Reads an INT column. Subclasses may read the value without creating a DataBox.
+   *
+   * @param column the index of an INT column
+   * @return the value of the column in this record
+   */
+  public int getInt(int column) {
+    return this.getValue(column).getInt();
+  }
+
+  /**
+   * Reads a FLOAT column. Subclasses may read the value without creating a DataBox.
+   *
+   * @param column the index of a FLOAT column
+   * @return the value of the column in this record
+   */
+  public float getFloat(int column) {
+    return this.getValue(column).getFloat();
+  }
+
+  /**
+   * Reads a BOOL column. Subclasses may read the value without creating a DataBox.
+   *
+   * @param column the index of a BOOL column
+   * @return the value of the column in this record
+   */
+  public boolean getBool(int column) {
+    return this.getValue(column).getBool();
+  }
+
   @Override
   public boolean equals(Object other) {
     if (!(other instanceof Record)) {
       return false;
     }
 
-    Record otherRecord = (Record) other;
+    List<DataBox> values = this.getValues();
+    List<DataBox> otherValues = ((Record) other).getValues();
 
-    if (values.size() != otherRecord.values.size()) {
+    if (values.size() != otherValues.size()) {
       return false;
     }
 
     for (int i = 0; i < values.size(); i++) {
-      if (!(values.get(i).equals(otherRecord.values.get(i)))) {
+      if (!(values.get(i).equals(otherValues.get(i)))) {
         return false;
       }
     }
@@ -43,7 +84,7 @@ public class Record {
   @Override
   public String toString() {
     StringBuilder s = new StringBuilder();
-    for (DataBox d : values) {
+    for (DataBox d : this.getValues()) {
       s.append(d.toString().trim());
       s.append(", ");
     }
@@ -14,11 +14,16 @@ import java.util.List;
  * `fields`: an ordered list of column names
  * `fieldTypes`: an ordered list of data types corresponding to the columns
  * `size`: physical size (in bytes) of a record conforming to this schema
+ * `fieldOffsets`: the position of each column's value in a record encoded with encode
+ * `maxCompactSize`: the largest size (in bytes) of a record conforming to this schema once
+ * encoded with encodeCompact
  */
 public class Schema {
   private List<String> fields;
   private List<DataBox> fieldTypes;
   private int size;
+  private int[] fieldOffsets;
+  private int maxCompactSize;
 
   public Schema(List<String> fields, List<DataBox> fieldTypes) {
     assert(fields.size() == fieldTypes.size());
@@ -26,9 +31,17 @@ public class Schema {
     this.fields = fields;
     this.fieldTypes = fieldTypes;
     this.size = 0;
+    this.fieldOffsets = new int[fieldTypes.size()];
+    this.maxCompactSize = 0;
 
-    for (DataBox dt : fieldTypes) {
+    for (int i = 0; i < fieldTypes.size(); i++) {
+      DataBox dt = fieldTypes.get(i);
+      this.fieldOffsets[i] = this.size;
       this.size += dt.getSize();
+      this.maxCompactSize += dt.getSize();
+      if (dt.type().equals(DataBox.Types.STRING)) {
+        this.maxCompactSize += 2;
+      }
     }
   }
 
@@ -90,32 +103,151 @@ public class Schema {
    * @return the decoded Record
    */
   public Record decode(byte[] input) {
+    return this.decode(input, null);
+  }
+
+  /**
+   * Takes a byte[] and decodes some of its columns into a Record. The values of
+   * the other columns are left null, so the record is only fit for reading the
+   * decoded columns.
+   *
+   * @param input the byte array to decode
+   * @param columns which columns to decode, or null to decode every column
+   * @return the decoded Record
+   */
+  public Record decode(byte[] input, boolean[] columns) {
     int offset = 0;
 
     List<DataBox> values = new ArrayList<DataBox>();
-    for (DataBox field : fieldTypes) {
-      byte[] fieldBytes = Arrays.copyOfRange(input, offset, offset + field.getSize());
-      offset += field.getSize();
+    for (int i = 0; i < this.fieldTypes.size(); i++) {
+      if (columns == null || columns[i]) {
+        values.add(this.decodeField(i, input, offset));
+      } else {
+        values.add(null);
+      }
+      offset += this.fieldTypes.get(i).getSize();
+    }
+
+    return new Record(values);
+  }
 
-      switch (field.type()) {
-        case STRING:
+  /**
+   * Decodes the value of a single column.
+   *
+   * @param column the index of the column
+   * @param input the byte array to decode from
+   * @param offset the position of the value in input
+   * @return the decoded DataBox
+   */
+  public DataBox decodeField(int column, byte[] input, int offset) {
+    DataBox field = this.fieldTypes.get(column);
+    byte[] fieldBytes = Arrays.copyOfRange(input, offset, offset + field.getSize());
+
+    switch (field.type()) {
+      case STRING:
+        return new StringDataBox(fieldBytes);
+      case INT:
+        return new IntDataBox(fieldBytes);
+      case FLOAT:
+        return new FloatDataBox(fieldBytes);
+      default:
+        return new BoolDataBox(fieldBytes);
+    }
+  }
+
+  /**
+   * Serializes the provided record into a byte[] whose length depends on its values. Strings are
+   * stored without their trailing padding, preceded by their length in two bytes, and every other
+   * DataBox is serialized as in encode. This method assumes that the input record corresponds to
+   * this schema.
+   *
+   * @param record the record to encode
+   * @return the encoded record as a byte[] of at most getMaxCompactSize() bytes
+   */
+  public byte[] encodeCompact(Record record) {
+    ByteBuffer byteBuffer = ByteBuffer.allocate(this.maxCompactSize);
+
+    for (DataBox value : record.getValues()) {
+      byte[] bytes = value.getBytes();
+      if (value.type().equals(DataBox.Types.STRING)) {
+        int length = bytes.length;
+        while (length > 0 && bytes[length - 1] == ' ') {
+          length--;
+        }
+        byteBuffer.putShort((short) length);
+        byteBuffer.put(bytes, 0, length);
+      } else {
+        byteBuffer.put(bytes);
+      }
+    }
+
+    return Arrays.copyOf(byteBuffer.array(), byteBuffer.position());
+  }
+
+  /**
+   * Decodes a record encoded with encodeCompact. Strings are padded back to the size of their
+   * column, so the decoded record equals the one that was encoded.
+   *
+   * @param input the byte array to decode from
+   * @param offset the position of the encoded record in input
+   * @return the decoded Record
+   */
+  public Record decodeCompact(byte[] input, int offset) {
+    return this.decodeCompact(input, offset, null);
+  }
+
+  /**
+   * Decodes some of the columns of a record encoded with encodeCompact, leaving the values of the
+   * other columns null.
+   *
+   * @param input the byte array to decode from
+   * @param offset the position of the encoded record in input
+   * @param columns which columns to decode, or null to decode every column
+   * @return the decoded Record
+   */
+  public Record decodeCompact(byte[] input, int offset, boolean[] columns) {
+    ByteBuffer byteBuffer = ByteBuffer.wrap(input);
+    byteBuffer.position(offset);
+
+    List<DataBox> values = new ArrayList<DataBox>();
+    for (int i = 0; i < this.fieldTypes.size(); i++) {
+      DataBox field = this.fieldTypes.get(i);
+      boolean decoded = columns == null || columns[i];
+      int position = byteBuffer.position();
+
+      if (field.type().equals(DataBox.Types.STRING)) {
+        int length = byteBuffer.getShort();
+        if (decoded) {
+          byte[] fieldBytes = new byte[field.getSize()];
+          byteBuffer.get(fieldBytes, 0, length);
+          Arrays.fill(fieldBytes, length, fieldBytes.length, (byte) ' ');
           values.add(new StringDataBox(fieldBytes));
-          break;
-        case INT:
-          values.add(new IntDataBox(fieldBytes));
-          break;
-        case FLOAT:
-          values.add(new FloatDataBox(fieldBytes));
-          break;
-        case BOOL:
-          values.add(new BoolDataBox(fieldBytes));
-          break;
+        } else {
+          byteBuffer.position(position + 2 + length);
+          values.add(null);
+        }
+        continue;
       }
+
+      values.add(decoded ? this.decodeField(i, input, position) : null);
+      byteBuffer.position(position + field.getSize());
     }
 
     return new Record(values);
   }
 
+  /**
+   * @param column the index of a column
+   * @return the position of the column's value in a record encoded with encode
+   */
+  public int getFieldOffset(int column) {
+    return this.fieldOffsets[column];
+  }
+
+  public int getMaxCompactSize() {
+    return this.maxCompactSize;
+  }
+
   public int getEntrySize() {
     return this.size;
   }
@@ -0,0 +1,264 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.io.Page;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The layout of SLOTTED pages. A page starts with the number of slots in its slot directory and
+ * the offset of the end of its free space, followed by the slot directory itself. Records are
+ * encoded with Schema.encodeCompact and packed from the end of the page towards the directory.
+ *
+ * Each slot is an int holding the offset of its record in the upper 16 bits, and its length and
+ * flags in the lower 16 bits; a slot of 0 is free. A slot flagged FORWARDED holds the page number
+ * and entry number of the slot its record was moved to, and a slot flagged MOVED holds a record
+ * moved there from another page. Records take at least FORWARD_SIZE bytes, so that any of them can
+ * be replaced by a forward in place.
+ *
+ * Deleting or resizing a record shifts the records stored before it, so the free space of a page is
+ * always contiguous and inserting never needs to compact the page.
+ *
+ * Properties:
+ * `numEntriesPerPage`: the most slots a page can have, were every record as small as possible
+ * `maxRecordSize`: the largest size (in bytes) of a stored record
+ */
+class SlottedPageLayout extends PageLayout {
+  private static final int HEADER_SIZE = 8;
+  private static final int SLOT_SIZE = 4;
+  private static final int FORWARD_SIZE = 8;
+  private static final int FORWARDED = 0x8000;
+  private static final int MOVED = 0x4000;
+  private static final int LENGTH_MASK = 0x0FFF;
+
+  private int numEntriesPerPage;
+  private int maxRecordSize;
+
+  SlottedPageLayout(Schema schema) {
+    super(schema);
+    this.maxRecordSize = Math.max(schema.getMaxCompactSize(), FORWARD_SIZE);
+    this.numEntriesPerPage = (Page.pageSize - HEADER_SIZE) / (SLOT_SIZE + FORWARD_SIZE);
+  }
+
+  int getNumEntriesPerPage() {
+    return this.numEntriesPerPage;
+  }
+
+  int getHeaderSize() {
+    return HEADER_SIZE;
+  }
+
+  boolean isValid(Page page, int entryNum) {
+    if (entryNum >= this.getNumSlots(page)) {
+      return false;
+    }
+    int slot = this.getSlot(page, entryNum);
+    return slot != 0 && (slot & MOVED) == 0;
+  }
+
+  int nextStoredEntry(Page page, int fromEntry) {
+    int numSlots = this.getNumSlots(page);
+    for (int entryNum = fromEntry; entryNum < numSlots; entryNum++) {
+      int slot = this.getSlot(page, entryNum);
+      if (slot != 0 && (slot & FORWARDED) == 0) {
+        return entryNum;
+      }
+    }
+    return -1;
+  }
+
+  int getNumStoredEntries(Page page) {
+    int count = 0;
+    int numSlots = this.getNumSlots(page);
+    for (int entryNum = 0; entryNum < numSlots; entryNum++) {
+      int slot = this.getSlot(page, entryNum);
+      if (slot != 0 && (slot & FORWARDED) == 0) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  Record read(Page page, int entryNum, boolean[] columns) {
+    int slot = this.getSlot(page, entryNum);
+    return this.schema.decodeCompact(page.readBytes(slot >>> 16, slot & LENGTH_MASK), 0, columns);
+  }
+
+  Record read(byte[] image, int entryNum, boolean[] columns) {
+    int slot = ByteBuffer.wrap(image).getInt(HEADER_SIZE + SLOT_SIZE * entryNum);
+    return this.schema.decodeCompact(image, slot >>> 16, columns);
+  }
+
+  int insert(Page page, Record record) {
+    return this.insert(page, this.encode(record), 0);
+  }
+
+  int insertMoved(Page page, Record record) {
+    return this.insert(page, this.encode(record), MOVED);
+  }
+
+  boolean update(Page page, int entryNum, Record record) {
+    int flags = this.getSlot(page, entryNum) & MOVED;
+    return this.replace(page, entryNum, this.encode(record), flags);
+  }
+
+  void delete(Page page, int entryNum) {
+    this.removeRecord(page, entryNum);
+    this.setSlot(page, entryNum, 0);
+
+    int numSlots = this.getNumSlots(page);
+    while (numSlots > 0 && this.getSlot(page, numSlots - 1) == 0) {
+      numSlots--;
+    }
+    page.putInt(0, numSlots);
+  }
+
+  boolean fitsOnEmptyPage() {
+    return this.maxRecordSize <= LENGTH_MASK && HEADER_SIZE + SLOT_SIZE + this.maxRecordSize <= Page.pageSize;
+  }
+
+  boolean hasSpace(Page page) {
+    return this.getFreeSpace(page) >= this.maxRecordSize + SLOT_SIZE;
+  }
+
+  float getFreeFraction(Page page) {
+    return (float) this.getFreeSpace(page) / (Page.pageSize - HEADER_SIZE);
+  }
+
+  RecordID getForward(Page page, int entryNum) {
+    int slot = this.getSlot(page, entryNum);
+    if ((slot & FORWARDED) == 0) {
+      return null;
+    }
+    int offset = slot >>> 16;
+    return new RecordID(page.getInt(offset), page.getInt(offset + 4));
+  }
+
+  boolean supportsForwards() {
+    return true;
+  }
+
+  void setForward(Page page, int entryNum, RecordID target) {
+    byte[] bytes = ByteBuffer.allocate(FORWARD_SIZE).putInt(target.getPageNum())
+        .putInt(target.getEntryNumber()).array();
+    boolean replaced = this.replace(page, entryNum, bytes, FORWARDED);
+    assert(replaced);
+  }
+
+  boolean hasMovedRecords(Page page) {
+    int numSlots = this.getNumSlots(page);
+    for (int entryNum = 0; entryNum < numSlots; entryNum++) {
+      if ((this.getSlot(page, entryNum) & MOVED) != 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private byte[] encode(Record record) {
+    byte[] bytes = this.schema.encodeCompact(record);
+    if (bytes.length < FORWARD_SIZE) {
+      bytes = Arrays.copyOf(bytes, FORWARD_SIZE);
+    }
+    return bytes;
+  }
+
+  /**
+   * Stores encoded bytes in the first free slot of a page, or in a new slot if there is none.
+   */
+  private int insert(Page page, byte[] bytes, int flags) {
+    int numSlots = this.getNumSlots(page);
+    int entryNum = 0;
+    while (entryNum < numSlots && this.getSlot(page, entryNum) != 0) {
+      entryNum++;
+    }
+
+    int needed = bytes.length + (entryNum == numSlots ? SLOT_SIZE : 0);
+    if (needed > this.getFreeSpace(page) || entryNum >= this.numEntriesPerPage) {
+      return -1;
+    }
+    if (entryNum == numSlots) {
+      page.putInt(0, numSlots + 1);
+    }
+
+    this.append(page, entryNum, bytes, flags);
+    return entryNum;
+  }
+
+  /**
+   * Replaces the bytes stored in a slot, moving them to the end of the free space if their length
+   * changes.
+   */
+  private boolean replace(Page page, int entryNum, byte[] bytes, int flags) {
+    int slot = this.getSlot(page, entryNum);
+    int length = slot & LENGTH_MASK;
+    if (bytes.length == length) {
+      page.writeBytes(slot >>> 16, length, bytes);
+      this.setSlot(page, entryNum, (slot & ~(FORWARDED | MOVED)) | flags);
+      return true;
+    }
+    if (bytes.length - length > this.getFreeSpace(page)) {
+      return false;
+    }
+
+    this.removeRecord(page, entryNum);
+    this.append(page, entryNum, bytes, flags);
+    return true;
+  }
+
+  /**
+   * Writes bytes at the end of the free space of a page and points a slot at them.
+   */
+  private void append(Page page, int entryNum, byte[] bytes, int flags) {
+    int offset = this.getFreeEnd(page) - bytes.length;
+    page.writeBytes(offset, bytes.length, bytes);
+    page.putInt(4, offset);
+    this.setSlot(page, entryNum, (offset << 16) | flags | bytes.length);
+  }
+
+  /**
+   * Removes the bytes a slot points to, shifting the bytes stored before them so that the free
+   * space stays contiguous. The slot itself is left unchanged.
+   */
+  private void removeRecord(Page page, int entryNum) {
+    int slot = this.getSlot(page, entryNum);
+    int offset = slot >>> 16;
+    int length = slot & LENGTH_MASK;
+    int freeEnd = this.getFreeEnd(page);
+
+    if (offset > freeEnd) {
+      byte[] shifted = page.readBytes(freeEnd, offset - freeEnd);
+      page.writeBytes(freeEnd + length, shifted.length, shifted);
+
+      int numSlots = this.getNumSlots(page);
+      for (int i = 0; i < numSlots; i++) {
+        int other = this.getSlot(page, i);
+        if (other != 0 && (other >>> 16) < offset) {
+          this.setSlot(page, i, other + (length << 16));
+        }
+      }
+    }
+    page.putInt(4, freeEnd + length);
+  }
+
+  private int getNumSlots(Page page) {
+    return page.getInt(0);
+  }
+
+  private int getFreeEnd(Page page) {
+    int freeEnd = page.getInt(4);
+    return freeEnd == 0 ? Page.pageSize : freeEnd;
+  }
+
+  private int getFreeSpace(Page page) {
+    return this.getFreeEnd(page) - HEADER_SIZE - SLOT_SIZE * this.getNumSlots(page);
+  }
+
+  private int getSlot(Page page, int entryNum) {
+    return page.getInt(HEADER_SIZE + SLOT_SIZE * entryNum);
+  }
+
+  private void setSlot(Page page, int entryNum, int slot) {
+    page.putInt(HEADER_SIZE + SLOT_SIZE * entryNum, slot);
+  }
+}
@@ -3,6 +3,8 @@ package edu.berkeley.cs186.database.table;
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.databox.*;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.io.BufferPool;
+import edu.berkeley.cs186.database.io.IOMetrics;
 import edu.berkeley.cs186.database.io.PageAllocator;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.io.PageException;
@@ -10,62 +12,115 @@ import edu.berkeley.cs186.database.table.stats.TableStats;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
-import java.util.TreeSet;
+import java.util.Map;
+import java.util.zip.CRC32;
 
 import java.util.NoSuchElementException;
 import java.util.Iterator;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 
 /**
  * A database table. Allows the user to add, delete, update, and get records.
  * A table has an associated schema, stats, and page allocator. The first page
- * in the page allocator is a header page that serializes the schema, and each
- * subsequent page is a data page containing the table records.
+ * in the page allocator is a header page that serializes the schema and the
+ * page format, and each subsequent page is a data page containing the table
+ * records, laid out according to the page format.
+ *
+ * When a table is closed, its record count, free-space map and stats are saved to a metadata file next
+ * to the table file, so that reopening the table does not have to read and decode every record.
+ * The metadata file ends with a checksum and records the number of pages in the table, and it is
+ * deleted before the table is first changed after being opened, so a table that was not closed
+ * cleanly is scanned in full when it is next opened.
  *
  * Properties:
  * `schema`: the Schema (column names and column types) for this table
- * `freePages`: a set of page numbers that correspond to allocated pages with free space
+ * `format`: the PageFormat of the data pages of this table
+ * `layout`: reads and writes records within the data pages of this table
+ * `freeSpace`: the allocated pages with room for a record of any size, bucketed by how full they
+ * are
  * `stats`: the TableStats for this table
  * `allocator`: the PageAllocator for this table
  * `tableName`: name of this table
- * `numEntriesPerPage`: number of records a data page of this table can hold
- * `pageHeaderSize`: physical size (in bytes) of a page header slot bitmap
  * `numRecords`: number of records currently contained in this table
+ * `metadataPath`: the path of this table's metadata file
+ * `metadataSaved`: whether the metadata file matches the contents of this table
  */
 public class Table implements Iterable<Record>, Closeable {
   public static final String FILENAME_PREFIX = "db";
   public static final String FILENAME_EXTENSION = ".table";
+  public static final String METADATA_EXTENSION = ".tablemeta";
+
+  private static final int METADATA_MAGIC = 0x54424c4d;
+  private static final int METADATA_VERSION = 2;
+  private static final int COMPACTION_MIN_BUCKET = FreeSpaceMap.NUM_BUCKETS / 2;
 
   private Schema schema;
-  private TreeSet<Integer> freePages;
+  private PageFormat format;
+  private PageLayout layout;
+  private FreeSpaceMap freeSpace;
 
   private TableStats stats;
 
   private PageAllocator allocator;
   private String tableName;
 
-  private int numEntriesPerPage;
-  private int pageHeaderSize;
   private long numRecords;
 
+  private Path metadataPath;
+  private boolean metadataSaved;
+
   public Table(String tableName) {
     this(tableName, FILENAME_PREFIX);
   }
 
   public Table(String tableName, String filenamePrefix) {
+    this(tableName, filenamePrefix, BufferPool.getDefault());
+  }
+
+  /**
+   * This constructor is used for opening an existing table whose pages are cached in the given
+   * buffer pool.
+   *
+   * @param tableName the name of the table
+   * @param filenamePrefix the directory of the table's files
+   * @param bufferPool the buffer pool to cache the table's pages in
+   */
+  public Table(String tableName, String filenamePrefix, BufferPool bufferPool) {
     this.tableName = tableName;
 
     String pathname = Paths.get(filenamePrefix, tableName + FILENAME_EXTENSION).toString();
-    this.allocator = new PageAllocator(pathname, false);
+    this.metadataPath = Paths.get(filenamePrefix, tableName + METADATA_EXTENSION);
+    this.allocator = new PageAllocator(pathname, false, true, bufferPool);
     this.readHeaderPage();
 
     this.stats = new TableStats(this.schema);
 
-    this.freePages = new TreeSet<Integer>();
-    this.setEntryCounts();
+    this.freeSpace = new FreeSpaceMap();
+    this.layout = PageLayout.forFormat(this.format, this.schema);
+
+    this.metadataSaved = this.readMetadata();
+    if (!this.metadataSaved) {
+      this.scanPages();
+    }
+  }
+
+  /**
+   * Rebuild the stats, free-space map and record count of this table by decoding every record.
+   */
+  private void scanPages() {
     Iterator<Page> pIter = this.allocator.iterator();
     pIter.next();
 
@@ -75,32 +130,15 @@ public class Table implements Iterable<Record>, Closeable {
       Page p = pIter.next();
 
       // add all records in this page to TableStats
-      int entryNum = 0;
-      byte[] header = this.readPageHeader(p);
-      while (entryNum < this.getNumEntriesPerPage()) {
-        byte b = header[entryNum/8];
-        int bitOffset = 7 - (entryNum % 8);
-        byte mask = (byte) (1 << bitOffset);
-
-        byte value = (byte) (b & mask);
-        if (value != 0) {
-          int entrySize = this.schema.getEntrySize();
-
-          int offset = this.pageHeaderSize + (entrySize * entryNum);
-          byte[] bytes = p.readBytes(offset, entrySize);
-
-          Record record = this.schema.decode(bytes);
-          this.stats.addRecord(record);
-        }
-
-        entryNum++;
+      int entryNum = this.layout.nextStoredEntry(p, 0);
+      while (entryNum != -1) {
+        this.stats.addRecord(this.layout.read(p, entryNum));
+        entryNum = this.layout.nextStoredEntry(p, entryNum + 1);
       }
 
-      if (spaceOnPage(p)) {
-        this.freePages.add(p.getPageNum());
-      }
+      this.updateFreeSpace(p);
 
-      freshCountRecords += numValidEntries(p);
+      freshCountRecords += this.layout.getNumStoredEntries(p);
     }
 
     this.numRecords = freshCountRecords;
@@ -118,37 +156,117 @@ public class Table implements Iterable<Record>, Closeable {
    * @param filenamePrefix the prefix select the table's files will be created
    */
   public Table(Schema schema, String tableName, String filenamePrefix) {
+    this(schema, tableName, filenamePrefix, PageFormat.FIXED);
+  }
+
+  /**
+   * This constructor is used for creating a table with a given page format in some specified
+   * directory.
+   *
+   * @param schema the schema for this table
+   * @param tableName the name of the table
+   * @param filenamePrefix the prefix select the table's files will be created
+   * @param format the layout of the table's data pages
+   */
+  public Table(Schema schema, String tableName, String filenamePrefix, PageFormat format) {
+    this(schema, tableName, filenamePrefix, format, BufferPool.getDefault());
+  }
+
+  /**
+   * This constructor is used for creating a table with a given page format in some specified
+   * directory, whose pages are cached in the given buffer pool.
+   *
+   * @param schema the schema for this table
+   * @param tableName the name of the table
+   * @param filenamePrefix the prefix select the table's files will be created
+   * @param format the layout of the table's data pages
+   * @param bufferPool the buffer pool to cache the table's pages in
+   */
+  public Table(Schema schema, String tableName, String filenamePrefix, PageFormat format,
+               BufferPool bufferPool) {
     this.schema = schema;
+    this.format = format;
+    this.layout = PageLayout.forFormat(format, schema);
+    if (!this.layout.fitsOnEmptyPage()) {
+      throw new IllegalArgumentException("Records of the schema of table " + tableName
+          + " do not fit on an empty " + format + " page.");
+    }
     this.tableName = tableName;
     this.stats = new TableStats(this.schema);
 
-    this.freePages = new TreeSet<Integer>();
+    this.freeSpace = new FreeSpaceMap();
     String pathname = Paths.get(filenamePrefix, tableName + FILENAME_EXTENSION).toString();
-    this.allocator = new PageAllocator(pathname, true);
-
-    this.setEntryCounts();
+    this.metadataPath = Paths.get(filenamePrefix, tableName + METADATA_EXTENSION);
+    this.allocator = new PageAllocator(pathname, true, true, bufferPool);
+    this.metadataSaved = true;
+    this.invalidateMetadata();
 
     this.writeHeaderPage();
   }
 
   public void close() {
-    allocator.close();
+    int numPages = this.allocator.getNumPages();
+    this.allocator.close();
+    if (!this.metadataSaved) {
+      this.writeMetadata(numPages);
+    }
   }
 
   public Iterator<Record> iterator() {
-      return new TableIterator();
+      return new TableIterator(null);
+  }
+
+  /**
+   * Returns an iterator over all of the records in this table that only decodes some of their
+   * columns. The values of the other columns may be null, so the records are only fit for reading
+   * the given columns. Records of SLOTTED and COMPRESSED tables skip the other columns when they are
+   * decoded; records of FIXED and PAX tables decode every column lazily anyway.
+   *
+   * @param columns the indices of the columns to decode
+   * @return an iterator over the partially decoded records
+   */
+  public Iterator<Record> iterator(Collection<Integer> columns) {
+    boolean[] decoded = new boolean[this.schema.getFieldTypes().size()];
+    for (int column : columns) {
+      decoded[column] = true;
+    }
+    return new TableIterator(decoded);
   }
 
   public Iterator<Page> pageIterator() {
     return this.allocator.iterator();
   }
 
+  /**
+   * Returns an iterator over the RecordIDs of all of the records in this table, in page order.
+   * Records moved off their page by an update are yielded under the RecordID they were added
+   * with, like getRecord expects.
+   *
+   * @return an iterator over the RecordIDs of this table
+   */
+  public Iterator<RecordID> recordIDIterator() {
+    return new RecordIDIterator();
+  }
+
+  /**
+   * Returns an iterator over the (key, page number, entry number) rows of all of the records in this
+   * table, in page order, where key is the value of one column and the page and entry numbers form
+   * the RecordID the record is fetched with. Each page is read once, and only the key column of its
+   * records is decoded.
+   *
+   * @param column the index of the key column
+   * @return an iterator over the rows of this table
+   */
+  public Iterator<List<DataBox>> keyIterator(int column) {
+    return new KeyIterator(column);
+  }
+
   /**
    * Adds a new record to this table. The record should be added to the first
-   * free slot of the first free page if one exists, otherwise a new page should
-   * be allocated and the record should be placed in the first slot of that
+   * free slot of the fullest page with room for it if one exists, as chosen by
+   * this.freeSpace, otherwise a new page should be allocated and the record should be placed in the first slot of that
    * page. Recall that a free slot in the slot bitmap means the bit is set to 0.
-   * Make sure to update this.stats, this.freePages, and this.numRecords as
+   * Make sure to update this.stats, this.freeSpace, and this.numRecords as
    * necessary.
    *
    * @param values the values of the record being added
@@ -157,6 +275,22 @@ public class Table implements Iterable<Record>, Closeable {
    *         correspond to the schema of this table
    */
   public RecordID addRecord(List<DataBox> values) throws DatabaseException {
+    return this.addRecord(values, null);
+  }
+
+  /**
+   * Adds a new record to this table, as close as possible to another record: on the page of near
+   * if it has room, otherwise on the page with room closest to it, and only on a new page if no
+   * page has room.
+   *
+   * @param values the values of the record being added
+   * @param near the RecordID of a record to store the new record close to, or null to store it on
+   *        the fullest page with room for it
+   * @return the RecordID of the added record
+   * @throws DatabaseException if the values passed in to this method do not
+   *         correspond to the schema of this table
+   */
+  public RecordID addRecord(List<DataBox> values, RecordID near) throws DatabaseException {
     Record record;
     try {
       record = this.schema.verify(values);
@@ -164,60 +298,104 @@ public class Table implements Iterable<Record>, Closeable {
       throw new DatabaseException(se.getMessage());
     }
 
-    boolean found = false;
-    Page page = null;
-    int entryNum = 0;
+    this.invalidateMetadata();
 
-    while (!found) {
-      if (!this.freePages.isEmpty()) {
-        page = this.allocator.fetchPage(this.freePages.first());
-      } else {
-        int pageNum = this.allocator.allocPage();
-        page = this.allocator.fetchPage(pageNum);
-        this.freePages.add(page.getPageNum());
-      }
-      entryNum = 0;
-      byte[] header = this.readPageHeader(page);
-
-      for (byte b : header) {
-        if (b != (byte) 0xFF) {
-          for (int j = 7; j >= 0; j--) {
-            byte mask = (byte) (1 << j);
-            if ((b & mask) == (byte) 0) {
-              found = true;
-              break;
-            }
-            entryNum++;
-          }
-        } else {
-          entryNum += 8;
-        }
+    RecordID rid = this.storeRecord(record, false, near);
+    this.numRecords++;
+    this.stats.addRecord(record);
 
-        if (found) {
-          break;
-        }
-      }
+    return rid;
+  }
 
-      if (!found) {
-        this.freePages.pollFirst();
+  /**
+   * Adds many records to this table at once. Each page is filled by the page layout in one go,
+   * starting with the pages that have free space, and the stats are updated once per page. For
+   * FIXED tables, the header and records of each page are written back with a single write.
+   *
+   * If some values do not correspond to the schema of this table, the records before them are
+   * still added.
+   *
+   * @param rows the values of the records to add
+   * @return the RecordIDs of the added records, in the order of rows
+   * @throws DatabaseException if some values do not correspond to the schema of this table
+   */
+  public List<RecordID> addRecords(Iterator<List<DataBox>> rows) throws DatabaseException {
+    List<RecordID> rids = new ArrayList<RecordID>();
+    List<Record> pending = new ArrayList<Record>();
+    while (rows.hasNext()) {
+      try {
+        pending.add(this.schema.verify(rows.next()));
+      } catch (SchemaException se) {
+        this.storeRecords(pending, rids);
+        throw new DatabaseException(se.getMessage());
+      }
+      if (pending.size() == this.layout.getNumEntriesPerPage()) {
+        this.storeRecords(pending, rids);
+        pending.clear();
       }
     }
+    this.storeRecords(pending, rids);
+    return rids;
+  }
 
-    this.writeBitToHeader(page, entryNum, (byte) 1);
-
-    int offset = this.pageHeaderSize + (entryNum * this.schema.getEntrySize());
-    byte[] bytes = this.schema.encode(record);
+  /**
+   * Adds many records that have already been verified against the schema of this table, as
+   * addRecords does.
+   *
+   * @param records the records to add, as returned by Schema#verify
+   * @return the RecordIDs of the added records, in the order of records
+   * @throws DatabaseException if a record does not fit even on a new page
+   */
+  public List<RecordID> addVerifiedRecords(List<Record> records) throws DatabaseException {
+    List<RecordID> rids = new ArrayList<RecordID>(records.size());
+    this.storeRecords(records, rids);
+    return rids;
+  }
 
-    page.writeBytes(offset, bytes.length, bytes);
-    this.numRecords++;
-    this.stats.addRecord(record);
+  /**
+   * Stores records a page at a time, allocating new pages once no page has room.
+   *
+   * @param records the records to store
+   * @param rids the list to add the RecordIDs of the stored records to
+   * @throws DatabaseException if a record does not fit even on a new page
+   */
+  private void storeRecords(List<Record> records, List<RecordID> rids) throws DatabaseException {
+    if (records.isEmpty()) {
+      return;
+    }
+    this.invalidateMetadata();
+
+    int numStored = 0;
+    while (numStored < records.size()) {
+      List<Record> pending = records.subList(numStored, records.size());
+      Page page = this.findPageWithSpace(null);
+      boolean allocated = page == null;
+      if (allocated) {
+        page = this.allocateDataPage();
+      }
+      List<Integer> entries = this.layout.insertAll(page, pending);
+      if (entries.isEmpty()) {
+        if (allocated) {
+          throw new DatabaseException("Record does not fit on an empty page of table " + this.tableName + ".");
+        }
+        this.freeSpace.remove(page.getPageNum());
+        continue;
+      }
+      this.updateFreeSpace(page);
 
-    return new RecordID(page.getPageNum(), entryNum);
+      for (int entryNum : entries) {
+        rids.add(new RecordID(page.getPageNum(), entryNum));
+      }
+      List<Record> added = pending.subList(0, entries.size());
+      this.numRecords += added.size();
+      this.stats.addRecords(added);
+      numStored += entries.size();
+    }
   }
 
   /**
    * Deletes the record specified by rid from the table. Make sure to update
-   * this.stats, this.freePages, and this.numRecords as necessary.
+   * this.stats, this.freeSpace, and this.numRecords as necessary.
    *
    * @param rid the RecordID of the record to delete
    * @return the Record referenced by rid that was removed
@@ -228,15 +406,24 @@ public class Table implements Iterable<Record>, Closeable {
       throw new DatabaseException("Invalid RecordID " + rid + ".");
     }
 
+    this.invalidateMetadata();
+
     Page page = this.allocator.fetchPage(rid.getPageNum());
-    int entrySize = this.schema.getEntrySize();
     int entryNum = rid.getEntryNumber();
+    RecordID target = this.layout.getForward(page, entryNum);
 
-    int offset = this.pageHeaderSize + (entrySize * entryNum);
-    Record oldRecord = this.schema.decode(page.readBytes(offset, entrySize));
+    Record oldRecord;
+    if (target == null) {
+      oldRecord = this.layout.read(page, entryNum);
+    } else {
+      Page targetPage = this.allocator.fetchPage(target.getPageNum());
+      oldRecord = this.layout.read(targetPage, target.getEntryNumber());
+      this.layout.delete(targetPage, target.getEntryNumber());
+      this.updateFreeSpace(targetPage);
+    }
 
-    this.writeBitToHeader(page, entryNum, (byte) 0);
-    this.freePages.add(page.getPageNum());
+    this.layout.delete(page, entryNum);
+    this.updateFreeSpace(page);
     this.numRecords--;
 
     this.stats.removeRecord(oldRecord);
@@ -257,23 +444,29 @@ public class Table implements Iterable<Record>, Closeable {
     }
 
     Page page = this.allocator.fetchPage(rid.getPageNum());
-    int entrySize = this.schema.getEntrySize();
-
-    int offset = this.pageHeaderSize + (entrySize * rid.getEntryNumber());
-    byte[] bytes = page.readBytes(offset, entrySize);
+    RecordID target = this.layout.getForward(page, rid.getEntryNumber());
+    if (target != null) {
+      return this.layout.read(this.allocator.fetchPage(target.getPageNum()), target.getEntryNumber());
+    }
 
-    return this.schema.decode(bytes);
+    return this.layout.read(page, rid.getEntryNumber());
   }
 
   /**
    * Updates an existing record with new values and returns the old version of the record.
    * Make sure to update this.stats as necessary.
    *
+   * If the new record no longer fits on its page, which can only happen for SLOTTED and COMPRESSED
+   * tables, a record of a SLOTTED table is moved to another page and a forward to it is left in its
+   * place, so that rid stays valid. A moved record is moved back to its own page as soon as it fits
+   * there again. The update of a record of a COMPRESSED table fails instead.
+   *
    * @param values the new values of the record
    * @param rid the RecordID of the record to update
    * @return the old version of the record
-   * @throws DatabaseException if rid does not correspond to a valid record or
-   *         if the values do not correspond to the schema of this table
+   * @throws DatabaseException if rid does not correspond to a valid record,
+   *         if the values do not correspond to the schema of this table or
+   *         if the new record does not fit on the page of a COMPRESSED table
    */
   public Record updateRecord(List<DataBox> values, RecordID rid) throws DatabaseException {
     if (!this.checkRecordIDValidity(rid)) {
@@ -287,15 +480,33 @@ public class Table implements Iterable<Record>, Closeable {
       throw new DatabaseException(se.getMessage());
     }
 
-    Page page = this.allocator.fetchPage(rid.getPageNum());
-    int entrySize = this.schema.getEntrySize();
-
-    int offset = this.pageHeaderSize + (entrySize * rid.getEntryNumber());
-
-    Record oldRecord = this.schema.decode(page.readBytes(offset, entrySize));
+    this.invalidateMetadata();
 
-    byte[] bytes = this.schema.encode(record);
-    page.writeBytes(offset, bytes.length, bytes);
+    Page page = this.allocator.fetchPage(rid.getPageNum());
+    int entryNum = rid.getEntryNumber();
+    RecordID target = this.layout.getForward(page, entryNum);
+
+    Record oldRecord;
+    if (target == null) {
+      oldRecord = this.layout.read(page, entryNum);
+      if (!this.layout.update(page, entryNum, record)) {
+        if (!this.layout.supportsForwards()) {
+          throw new DatabaseException("Record " + rid + " no longer fits on its page.");
+        }
+        this.layout.setForward(page, entryNum, this.storeRecord(record, true, rid));
+      }
+    } else {
+      Page targetPage = this.allocator.fetchPage(target.getPageNum());
+      oldRecord = this.layout.read(targetPage, target.getEntryNumber());
+      if (this.layout.update(page, entryNum, record)) {
+        this.layout.delete(targetPage, target.getEntryNumber());
+      } else if (!this.layout.update(targetPage, target.getEntryNumber(), record)) {
+        this.layout.delete(targetPage, target.getEntryNumber());
+        this.layout.setForward(page, entryNum, this.storeRecord(record, true, rid));
+      }
+      this.updateFreeSpace(targetPage);
+    }
+    this.updateFreeSpace(page);
 
     this.stats.removeRecord(oldRecord);
     this.stats.addRecord(record);
@@ -303,8 +514,104 @@ public class Table implements Iterable<Record>, Closeable {
     return oldRecord;
   }
 
+  /**
+   * Moves the records of sparse pages onto fuller pages and frees the emptied pages, so that scans
+   * no longer read them. A page is sparse if at least half of it is free. At most maxPages pages
+   * are freed per call, highest page numbers first, so that a table can be compacted a few pages
+   * at a time between other operations; a call that frees no page means there is nothing left to
+   * compact.
+   *
+   * Records are only moved onto pages that already have room, never onto new pages. Pages of
+   * SLOTTED tables that store records moved there by an update are skipped, as the forwards to
+   * those records cannot be found from the records themselves.
+   *
+   * @param maxPages the most pages to free
+   * @param moved the map to add the old and new RecordID of every record moved to; a record moved
+   *        more than once is only mapped from its first RecordID to its last
+   * @return the number of pages freed
+   */
+  public int compact(int maxPages, Map<RecordID, RecordID> moved) {
+    Map<RecordID, RecordID> origins = new HashMap<RecordID, RecordID>();
+    int numFreed = 0;
+    for (int pageNum : this.freeSpace.getPagesFrom(COMPACTION_MIN_BUCKET)) {
+      if (numFreed >= maxPages) {
+        break;
+      }
+      // the page may have been filled by the records of a page emptied before it
+      if (this.freeSpace.getBucket(pageNum) < COMPACTION_MIN_BUCKET) {
+        continue;
+      }
+      Page page = this.allocator.fetchPage(pageNum);
+      if (this.layout.hasMovedRecords(page)) {
+        continue;
+      }
+
+      this.invalidateMetadata();
+      if (!this.emptyPage(page, moved, origins)) {
+        break;
+      }
+      this.allocator.freePage(pageNum);
+      numFreed++;
+    }
+    return numFreed;
+  }
+
+  /**
+   * Moves every record of a page onto other pages with room for it.
+   *
+   * @param page the page to empty
+   * @param moved the map to add the old and new RecordID of every record moved to
+   * @param origins the first RecordID of every record moved so far, by its current RecordID
+   * @return false if the other pages ran out of room before the page was empty
+   */
+  private boolean emptyPage(Page page, Map<RecordID, RecordID> moved, Map<RecordID, RecordID> origins) {
+    this.freeSpace.remove(page.getPageNum());
+    for (int entryNum = 0; entryNum < this.layout.getNumEntriesPerPage(); entryNum++) {
+      if (!this.layout.isValid(page, entryNum)) {
+        continue;
+      }
+
+      RecordID target = this.layout.getForward(page, entryNum);
+      Page targetPage = target == null ? page : this.allocator.fetchPage(target.getPageNum());
+      int targetEntryNum = target == null ? entryNum : target.getEntryNumber();
+      Record record = this.layout.read(targetPage, targetEntryNum);
+
+      Page destPage = null;
+      int destEntryNum = -1;
+      while (destEntryNum == -1) {
+        int destPageNum = this.freeSpace.findPage();
+        if (destPageNum == -1) {
+          this.updateFreeSpace(page);
+          return false;
+        }
+        destPage = this.allocator.fetchPage(destPageNum);
+        destEntryNum = this.layout.insert(destPage, record);
+        if (destEntryNum == -1) {
+          this.freeSpace.remove(destPageNum);
+        }
+      }
+      this.updateFreeSpace(destPage);
+
+      if (target != null) {
+        this.layout.delete(targetPage, targetEntryNum);
+        this.updateFreeSpace(targetPage);
+      }
+      this.layout.delete(page, entryNum);
+
+      RecordID rid = new RecordID(page.getPageNum(), entryNum);
+      RecordID origin = origins.remove(rid);
+      if (origin == null) {
+        origin = rid;
+      }
+      RecordID newRid = new RecordID(destPage.getPageNum(), destEntryNum);
+      moved.put(origin, newRid);
+      origins.put(newRid, origin);
+    }
+    return true;
+  }
+
   public int getNumEntriesPerPage() {
-    return this.numEntriesPerPage;
+    return this.layout.getNumEntriesPerPage();
   }
 
   public int getNumDataPages() {
@@ -321,6 +628,13 @@ public class Table implements Iterable<Record>, Closeable {
 
   public TableStats getStats() { return this.stats; }
 
+  public PageFormat getPageFormat() { return this.format; }
+
+  /**
+   * @return the I/O and cache metrics of this table's page allocator
+   */
+  public IOMetrics getMetrics() { return this.allocator.getMetrics(); }
+
   /**
    * Checks whether a RecordID is valid or not. That is, check to see if the slot
    * in the page specified by the RecordID contains a valid record (i.e. whether
@@ -342,78 +656,83 @@ public class Table implements Iterable<Record>, Closeable {
       throw new DatabaseException("Page " + rid.getPageNum() + " is not valid in Table " + this.tableName + ".");
     }
 
-    byte[] header = this.readPageHeader(page);
     int entryNum = rid.getEntryNumber();
 
     if (entryNum >= this.getNumEntriesPerPage()) {
       throw new DatabaseException("Entry Number is out of bounds of Page. Number of Entries per Page: " + this.getNumEntriesPerPage() + " Requested: " + entryNum);
     }
 
-    int byteOffset = entryNum / 8;
-    int bitOffset = 7 - (entryNum % 8);
-    byte mask = (byte) (1 << bitOffset);
-
-    byte value = (byte) (header[byteOffset] & mask);
-
-    return value != 0;
+    return this.layout.isValid(page, entryNum);
   }
 
   /**
-   * Based on the Schema known to this table, calculates the number of record
-   * entries a data page can hold and the size (in bytes) of the page header.
-   * The page header only contains the slot bitmap and takes up no other space.
-   * For ease of calculations and to prevent header byte splitting, ensure that
-   * `numEntriesPerPage` is a multiple of 8 (this may waste some space).
+   * Finds a page with room for a record of any size.
    *
-   * Should set this.pageHeaderSize and this.numEntriesPerPage.
+   * @param near the RecordID of a record to find a page close to, or null to find the fullest page
+   * @return a page from freeSpace, or null if there is none
    */
-  private void setEntryCounts() {
-    this.pageHeaderSize = ((Page.pageSize * 8) / (1 + 8 * this.schema.getEntrySize())) / 8;
-    this.numEntriesPerPage = this.pageHeaderSize * 8;
+  private Page findPageWithSpace(RecordID near) {
+    int pageNum = near == null ? this.freeSpace.findPage() : this.freeSpace.findPageNear(near.getPageNum());
+    return pageNum == -1 ? null : this.allocator.fetchPage(pageNum);
   }
 
   /**
-   * Checks if there is any free space on the given page.
+   * Allocates a new data page and adds it to freeSpace.
    *
-   * @param p the page to check
-   * @return true if there exists free space, otherwise false
+   * @return the new page
    */
-  private boolean spaceOnPage(Page p) {
-    byte[] header = this.readPageHeader(p);
-
-    for (byte b : header) {
-      if (b != (byte) 0xFF) {
-        return true;
-      }
-    }
-
-    return false;
+  private Page allocateDataPage() {
+    Page page = this.allocator.fetchPage(this.allocator.allocPage());
+    this.updateFreeSpace(page);
+    return page;
   }
 
   /**
-   * Checks how many valid record entries are in the given page.
+   * Stores a record on a page with room for it, allocating a new page if no page has room.
    *
-   * @param p the page to check
-   * @return number of record entries in p
+   * @param record the record to store
+   * @param moved whether the record is moved off its own page, and only reachable by a forward
+   * @param near the RecordID of a record to store the record close to, or null
+   * @return where the record was stored
+   * @throws DatabaseException if the record does not fit even on a new page
    */
-  private int numValidEntries(Page p) {
-    byte[] header = this.readPageHeader(p);
-    int count = 0;
-
-    for (byte b : header) {
-      for (int mask = 0x01; mask != 0x100; mask <<= 1) {
-        if ((b & (byte) mask) != 0) {
-          count++;
+  private RecordID storeRecord(Record record, boolean moved, RecordID near) throws DatabaseException {
+    while (true) {
+      Page page = this.findPageWithSpace(near);
+      boolean allocated = page == null;
+      if (allocated) {
+        page = this.allocateDataPage();
+      }
+      int entryNum = moved ? this.layout.insertMoved(page, record) : this.layout.insert(page, record);
+      if (entryNum == -1) {
+        if (allocated) {
+          throw new DatabaseException("Record does not fit on an empty page of table " + this.tableName + ".");
         }
+        this.freeSpace.remove(page.getPageNum());
+        continue;
       }
+      this.updateFreeSpace(page);
+      return new RecordID(page.getPageNum(), entryNum);
     }
+  }
 
-    return count;
+  /**
+   * Moves a page to the bucket of freeSpace that matches how full it is, or removes it from
+   * freeSpace if it does not have room for a record of any size.
+   *
+   * @param page the page that changed
+   */
+  private void updateFreeSpace(Page page) {
+    if (this.layout.hasSpace(page)) {
+      this.freeSpace.put(page.getPageNum(), FreeSpaceMap.getBucketFor(this.layout.getFreeFraction(page)));
+    } else {
+      this.freeSpace.remove(page.getPageNum());
+    }
   }
 
   /**
    * Utility method to write the header page of the table. The only information written into
-   * the header page is the table's schema.
+   * the header page is the table's schema and page format.
    */
   private void writeHeaderPage() {
     int numBytesWritten = 0;
@@ -422,11 +741,11 @@ public class Table implements Iterable<Record>, Closeable {
     assert(0 == headerPage.getPageNum());
 
     List<String> fieldNames = this.schema.getFieldNames();
-    headerPage.writeBytes(numBytesWritten, 4, ByteBuffer.allocate(4).putInt(fieldNames.size()).array());
+    headerPage.putInt(numBytesWritten, fieldNames.size());
     numBytesWritten += 4;
 
     for (String fieldName : fieldNames) {
-      headerPage.writeBytes(numBytesWritten, 4, ByteBuffer.allocate(4).putInt(fieldName.length()).array());
+      headerPage.putInt(numBytesWritten, fieldName.length());
       numBytesWritten += 4;
     }
 
@@ -436,14 +755,16 @@ public class Table implements Iterable<Record>, Closeable {
     }
 
     for (DataBox field : this.schema.getFieldTypes()) {
-      headerPage.writeBytes(numBytesWritten, 4, ByteBuffer.allocate(4).putInt(field.type().ordinal()).array());
+      headerPage.putInt(numBytesWritten, field.type().ordinal());
       numBytesWritten += 4;
 
       if (field.type().equals(DataBox.Types.STRING)) {
-        headerPage.writeBytes(numBytesWritten, 4, ByteBuffer.allocate(4).putInt(field.getSize()).array());
+        headerPage.putInt(numBytesWritten, field.getSize());
         numBytesWritten += 4;
       }
     }
+
+    headerPage.putInt(numBytesWritten, this.format.ordinal());
   }
 
   /**
@@ -453,12 +774,12 @@ public class Table implements Iterable<Record>, Closeable {
     int numBytesRead = 0;
     Page headerPage = this.allocator.fetchPage(0);
 
-    int numFields = ByteBuffer.wrap(headerPage.readBytes(numBytesRead, 4)).getInt();
+    int numFields = headerPage.getInt(numBytesRead);
     numBytesRead += 4;
 
     List<Integer> fieldNameLengths = new ArrayList<Integer>();
     for (int i = 0; i < numFields; i++) {
-      fieldNameLengths.add(ByteBuffer.wrap(headerPage.readBytes(numBytesRead, 4)).getInt());
+      fieldNameLengths.add(headerPage.getInt(numBytesRead));
       numBytesRead += 4;
     }
 
@@ -472,7 +793,7 @@ public class Table implements Iterable<Record>, Closeable {
 
     List<DataBox> fieldTypes = new ArrayList<DataBox>();
     for (int i = 0; i < numFields; i++) {
-      int ordinal = ByteBuffer.wrap(headerPage.readBytes(numBytesRead, 4)).getInt();
+      int ordinal = headerPage.getInt(numBytesRead);
       DataBox.Types type = DataBox.Types.values()[ordinal];
       numBytesRead += 4;
 
@@ -481,7 +802,7 @@ public class Table implements Iterable<Record>, Closeable {
           fieldTypes.add(new IntDataBox());
           break;
         case STRING:
-          int len = ByteBuffer.wrap(headerPage.readBytes(numBytesRead, 4)).getInt();
+          int len = headerPage.getInt(numBytesRead);
           numBytesRead += 4;
 
           fieldTypes.add(new StringDataBox(len));
@@ -497,32 +818,104 @@ public class Table implements Iterable<Record>, Closeable {
 
     this.schema = new Schema(fieldNames, fieldTypes);
 
+    // tables written before page formats existed have zeroes here, which is FIXED
+    this.format = PageFormat.values()[headerPage.getInt(numBytesRead)];
   }
 
   /**
-   * Utility method to write a particular bit into the header of a particular page.
+   * Delete the metadata file of this table, if it has one, before the table is changed.
+   */
+  private void invalidateMetadata() {
+    if (!this.metadataSaved) {
+      return;
+    }
+    try {
+      Files.deleteIfExists(this.metadataPath);
+    } catch (IOException e) {
+      throw new PageException("Could not delete table metadata: " + e.getMessage());
+    }
+    this.metadataSaved = false;
+  }
+
+  /**
+   * Read the record count, free-space map and stats of this table from its metadata file.
    *
-   * @param page the page to modify
-   * @param entryNum the header slot to modify
-   * @param value the value of the bit to write (should either be 0 or 1)
+   * @return false if there is no metadata file, or it is corrupt or out of date, in which case
+   * nothing is changed
    */
-  private void writeBitToHeader(Page page, int entryNum, byte value) {
-    byte[] header = this.readPageHeader(page);
-    int byteOffset = entryNum / 8;
-    int bitOffset = 7 - (entryNum % 8);
+  private boolean readMetadata() {
+    byte[] bytes;
+    try {
+      bytes = Files.readAllBytes(this.metadataPath);
+    } catch (IOException e) {
+      return false;
+    }
+    if (bytes.length < 8) {
+      return false;
+    }
 
-    if (value == 0) {
-      byte mask = (byte) ~((1 << bitOffset));
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length - 8);
+    if (ByteBuffer.wrap(bytes, bytes.length - 8, 8).getLong() != crc.getValue()) {
+      return false;
+    }
 
-      header[byteOffset] = (byte) (header[byteOffset] & mask);
-      page.writeBytes(0, this.pageHeaderSize, header);
-    } else {
-      byte mask = (byte) (1 << bitOffset);
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+    try {
+      if (in.readInt() != METADATA_MAGIC || in.readInt() != METADATA_VERSION
+          || in.readInt() != this.allocator.getNumPages()) {
+        return false;
+      }
+
+      long numRecords = in.readLong();
+      FreeSpaceMap freeSpace = FreeSpaceMap.readFrom(in);
+
+      TableStats stats = new TableStats(this.schema);
+      stats.readFrom(in);
 
-      header[byteOffset] = (byte) (header[byteOffset] | mask);
+      this.numRecords = numRecords;
+      this.freeSpace = freeSpace;
+      this.stats = stats;
+      return true;
+    } catch (IOException e) {
+      return false;
     }
+  }
 
-    page.writeBytes(0, this.pageHeaderSize, header);
+  /**
+   * Save the record count, free-space map and stats of this table to its metadata file. The file is
+   * written under a temporary name and then renamed, so it is never seen half written. Failing to
+   * write it only means the next open scans the table.
+   *
+   * @param numPages the number of pages in this table
+   */
+  private void writeMetadata(int numPages) {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(bytes);
+    Path tempPath = Paths.get(this.metadataPath.toString() + ".tmp");
+    try {
+      out.writeInt(METADATA_MAGIC);
+      out.writeInt(METADATA_VERSION);
+      out.writeInt(numPages);
+      out.writeLong(this.numRecords);
+      this.freeSpace.writeTo(out);
+      this.stats.writeTo(out);
+
+      CRC32 crc = new CRC32();
+      crc.update(bytes.toByteArray());
+      out.writeLong(crc.getValue());
+      out.flush();
+
+      Files.write(tempPath, bytes.toByteArray());
+      Files.move(tempPath, this.metadataPath, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      this.metadataSaved = true;
+    } catch (IOException e) {
+      try {
+        Files.deleteIfExists(tempPath);
+      } catch (IOException ignored) {
+      }
+    }
   }
 
   /**
@@ -532,11 +925,11 @@ public class Table implements Iterable<Record>, Closeable {
    * @return a byte[] with the slot header
    */
   public byte[] readPageHeader(Page page) {
-    return page.readBytes(0, this.pageHeaderSize);
+    return page.readBytes(0, this.layout.getHeaderSize());
   }
 
   public int getPageHeaderSize() {
-    return this.pageHeaderSize;
+    return this.layout.getHeaderSize();
   }
 
   public int getEntrySize()  {
@@ -553,17 +946,20 @@ public class Table implements Iterable<Record>, Closeable {
 
     private Iterator<Page> pageIter;
     private Page currPage = null;
-    private byte[] currHeader;
+    private byte[] currImage;
     private int entryNum;
     private long recordCount;
+    private boolean[] columns;
 
-    public TableIterator() {
+    public TableIterator(boolean[] columns) {
+      this.columns = columns;
       this.entryNum = 0;
       this.pageIter = Table.this.allocator.iterator();
-      assert(this.pageIter.next().getPageNum() == 0);
+      Page headerPage = this.pageIter.next();
+      assert(headerPage.getPageNum() == 0);
       if (this.pageIter.hasNext()) {
         this.currPage = this.pageIter.next();
-        currHeader = Table.this.readPageHeader(this.currPage);
+        this.currImage = null;
       }
     }
 
@@ -584,32 +980,21 @@ public class Table implements Iterable<Record>, Closeable {
      */
     public Record next() {
       while (this.hasNext()) {
-        while (this.entryNum < Table.this.getNumEntriesPerPage()) {
-          byte b = currHeader[this.entryNum/8];
-          int bitOffset = 7 - (this.entryNum % 8);
-          byte mask = (byte) (1 << bitOffset);
-
-          byte value = (byte) (b & mask);
-          if (value != 0) {
-            int entrySize = Table.this.schema.getEntrySize();
-
-            int offset = Table.this.pageHeaderSize + (entrySize * entryNum);
-            byte[] bytes = this.currPage.readBytes(offset, entrySize);
-
-            Record toRtn = Table.this.schema.decode(bytes);
-            this.recordCount++;
-            this.entryNum++;
-            return toRtn;
+        this.entryNum = Table.this.layout.nextStoredEntry(this.currPage, this.entryNum);
+        if (this.entryNum != -1) {
+          // copy the page once, and let its records decode their fields from the copy
+          if (this.currImage == null) {
+            this.currImage = this.currPage.readBytes();
           }
-
+          Record toRtn = Table.this.layout.read(this.currImage, this.entryNum, this.columns);
+          this.recordCount++;
           this.entryNum++;
+          return toRtn;
         }
 
-        if (this.hasNext()) {
-          this.entryNum = 0;
-          this.currPage = this.pageIter.next();
-          currHeader = Table.this.readPageHeader(this.currPage);
-        }
+        this.entryNum = 0;
+        this.currPage = this.pageIter.next();
+        this.currImage = null;
       }
 
       throw new NoSuchElementException();
@@ -619,4 +1004,121 @@ public class Table implements Iterable<Record>, Closeable {
       throw new UnsupportedOperationException();
     }
   }
+
+  /**
+   * An implementation of Iterator over the RecordIDs of the valid entries of this table.
+   */
+  private class RecordIDIterator implements Iterator<RecordID> {
+    private Iterator<Page> pageIter;
+    private Page currPage;
+    private int entryNum;
+
+    public RecordIDIterator() {
+      this.pageIter = Table.this.allocator.iterator();
+      Page headerPage = this.pageIter.next();
+      assert(headerPage.getPageNum() == 0);
+      this.currPage = this.pageIter.hasNext() ? this.pageIter.next() : null;
+      this.entryNum = 0;
+    }
+
+    public boolean hasNext() {
+      while (this.currPage != null) {
+        int numEntries = Table.this.layout.getNumEntriesPerPage();
+        while (this.entryNum < numEntries) {
+          if (Table.this.layout.isValid(this.currPage, this.entryNum)) {
+            return true;
+          }
+          this.entryNum++;
+        }
+        this.currPage = this.pageIter.hasNext() ? this.pageIter.next() : null;
+        this.entryNum = 0;
+      }
+      return false;
+    }
+
+    public RecordID next() {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      RecordID rid = new RecordID(this.currPage.getPageNum(), this.entryNum);
+      this.entryNum++;
+      return rid;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * An implementation of Iterator over the (key, page number, entry number) rows of the valid entries
+   * of this table, decoding the rows of one page at a time from a copy of the page.
+   */
+  private class KeyIterator implements Iterator<List<DataBox>> {
+    private Iterator<Page> pageIter;
+    private int column;
+    private boolean[] columns;
+    private List<List<DataBox>> pageRows;
+    private int rowNum;
+
+    public KeyIterator(int column) {
+      this.column = column;
+      this.columns = new boolean[Table.this.schema.getFieldTypes().size()];
+      this.columns[column] = true;
+      this.pageIter = Table.this.allocator.iterator();
+      Page headerPage = this.pageIter.next();
+      assert(headerPage.getPageNum() == 0);
+      this.pageRows = new ArrayList<List<DataBox>>();
+      this.rowNum = 0;
+    }
+
+    public boolean hasNext() {
+      while (this.rowNum >= this.pageRows.size() && this.pageIter.hasNext()) {
+        readPage(this.pageIter.next());
+      }
+      return this.rowNum < this.pageRows.size();
+    }
+
+    public List<DataBox> next() {
+      if (!this.hasNext()) {
+        throw new NoSuchElementException();
+      }
+      return this.pageRows.get(this.rowNum++);
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+
+    private void readPage(Page page) {
+      this.pageRows.clear();
+      this.rowNum = 0;
+      byte[] image = null;
+      int numEntries = Table.this.layout.getNumEntriesPerPage();
+      for (int entryNum = 0; entryNum < numEntries; entryNum++) {
+        if (!Table.this.layout.isValid(page, entryNum)) {
+          continue;
+        }
+
+        Record record;
+        RecordID target = Table.this.layout.getForward(page, entryNum);
+        if (target != null) {
+          Page targetPage = Table.this.allocator.fetchPage(target.getPageNum());
+          record = Table.this.layout.read(targetPage, target.getEntryNumber(), this.columns);
+        } else {
+          // copy the page once, and decode the keys of its records from the copy
+          if (image == null) {
+            image = page.readBytes();
+          }
+          record = Table.this.layout.read(image, entryNum, this.columns);
+        }
+
+        List<DataBox> row = new ArrayList<DataBox>(3);
+        row.add(record.getValue(this.column));
+        row.add(new IntDataBox(page.getPageNum()));
+        row.add(new IntDataBox(entryNum));
+        this.pageRows.add(row);
+      }
+    }
+  }
 }
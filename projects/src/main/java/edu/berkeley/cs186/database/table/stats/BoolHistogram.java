@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.table.stats;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -158,6 +161,19 @@ public class BoolHistogram implements Histogram<Boolean> {
     throw new UnsupportedOperationException();
   }
 
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeInt(this.buckets.get(0).getCount());
+    out.writeInt(this.buckets.get(1).getCount());
+  }
+
+  public void readFrom(DataInput in) throws IOException {
+    this.buckets = new ArrayList<Bucket<Boolean>>();
+    this.buckets.add(new Bucket<Boolean>(true));
+    this.buckets.get(0).increment(in.readInt());
+    this.buckets.add(new Bucket<Boolean>(false));
+    this.buckets.get(1).increment(in.readInt());
+  }
+
   public int getNumDistinct() {
     int numDistinct = 0;
 
@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.table.stats;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -69,4 +72,12 @@ public class FloatHistogram implements Histogram<Float> {
   public int getNumDistinct() {
     return this.histogram.getNumDistinct();
   }
+
+  public void writeTo(DataOutput out) throws IOException {
+    this.histogram.writeTo(out);
+  }
+
+  public void readFrom(DataInput in) throws IOException {
+    this.histogram.readFrom(in);
+  }
 }
\ No newline at end of file
@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.table.stats;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.List;
 
 import edu.berkeley.cs186.database.databox.DataBox;
@@ -47,4 +50,20 @@ public interface Histogram<T> {
 
   Histogram<T> copyWithPredicate(PredicateOperator predicate,
                                  DataBox value);
+
+  /**
+   * Write the buckets and distinct values of this histogram to out.
+   *
+   * @param out the output to write to
+   * @throws IOException if out can not be written to
+   */
+  void writeTo(DataOutput out) throws IOException;
+
+  /**
+   * Replace the buckets and distinct values of this histogram with ones written by writeTo.
+   *
+   * @param in the input to read from
+   * @throws IOException if in can not be read or ends early
+   */
+  void readFrom(DataInput in) throws IOException;
 }
\ No newline at end of file
@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.table.stats;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -321,6 +324,42 @@ public class IntHistogram implements Histogram<Integer>{
    *
    * @param value the value to refactor the buckets with
    */
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeInt(this.rangeMin);
+    out.writeInt(this.rangeMax);
+
+    out.writeInt(this.buckets.size());
+    for (Bucket<Integer> bucket : this.buckets) {
+      out.writeInt(bucket.getStart());
+      out.writeInt(bucket.getEnd());
+      out.writeInt(bucket.getCount());
+    }
+
+    out.writeInt(this.entrySet.size());
+    for (int value : this.entrySet) {
+      out.writeInt(value);
+    }
+  }
+
+  public void readFrom(DataInput in) throws IOException {
+    this.rangeMin = in.readInt();
+    this.rangeMax = in.readInt();
+
+    int numBuckets = in.readInt();
+    this.buckets = new ArrayList<Bucket<Integer>>(numBuckets);
+    for (int i = 0; i < numBuckets; i++) {
+      Bucket<Integer> bucket = new Bucket<Integer>(in.readInt(), in.readInt());
+      bucket.increment(in.readInt());
+      this.buckets.add(bucket);
+    }
+
+    int numEntries = in.readInt();
+    this.entrySet = new HashSet<Integer>();
+    for (int i = 0; i < numEntries; i++) {
+      this.entrySet.add(in.readInt());
+    }
+  }
+
   private void refactorBuckets(int value) {
     while (value < this.rangeMin || value >= this.rangeMax) {
       int newRangeMin = this.rangeMin * 2;
@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.table.stats;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -178,6 +181,32 @@ public class StringHistogram implements Histogram<String> {
     return maxValue;
   }
 
+  public void writeTo(DataOutput out) throws IOException {
+    for (Bucket<String> bucket : this.buckets) {
+      out.writeInt(bucket.getCount());
+    }
+
+    out.writeInt(this.entrySet.size());
+    for (String value : this.entrySet) {
+      out.writeUTF(value);
+    }
+  }
+
+  public void readFrom(DataInput in) throws IOException {
+    this.buckets = new ArrayList<Bucket<String>>();
+    for (int i = 0; i < alphaNumeric.length(); i++) {
+      Bucket<String> bucket = new Bucket<String>(alphaNumeric.substring(i, i + 1));
+      bucket.increment(in.readInt());
+      this.buckets.add(bucket);
+    }
+
+    int numEntries = in.readInt();
+    this.entrySet = new HashSet<String>();
+    for (int i = 0; i < numEntries; i++) {
+      this.entrySet.add(in.readUTF());
+    }
+  }
+
   public int getNumDistinct() {
     if (this.estimate) {
       return this.numDistinct;
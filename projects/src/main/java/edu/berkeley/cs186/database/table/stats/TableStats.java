@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.table.stats;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -85,7 +88,8 @@ public class TableStats {
    */
   private int calculateNumPages() {
     int pageHeaderSize = ((Page.pageSize * 8) / (1 + 8 * this.tableSchema.getEntrySize())) / 8;
-    int numEntriesPerPage = pageHeaderSize * 8;
+    // Records wider than an eighth of a page still take a page each
+    int numEntriesPerPage = Math.max(1, pageHeaderSize * 8);
     int numPages = (this.numRecords + numEntriesPerPage - 1) / numEntriesPerPage;
 
     return numPages;
@@ -99,27 +103,41 @@ public class TableStats {
   public void addRecord(Record record) {
     this.numRecords++;
     this.numPages = this.calculateNumPages();
+    this.addValues(record);
+  }
 
-    int count = 0;
-    for (DataBox value : record.getValues()) {
-      switch(value.type()) {
+  /**
+   * Adds the stats for several new records at once.
+   *
+   * @param records the new records
+   */
+  public void addRecords(List<Record> records) {
+    for (Record record : records) {
+      this.addValues(record);
+    }
+    this.numRecords += records.size();
+    this.numPages = this.calculateNumPages();
+  }
+
+  private void addValues(Record record) {
+    List<DataBox> fieldTypes = this.tableSchema.getFieldTypes();
+    for (int i = 0; i < fieldTypes.size(); i++) {
+      switch(fieldTypes.get(i).type()) {
         case INT:
-          this.histograms.get(count).addValue(value.getInt());
+          this.histograms.get(i).addValue(record.getInt(i));
           break;
         case STRING:
-          this.histograms.get(count).addValue(value.getString());
+          this.histograms.get(i).addValue(record.getValue(i).getString());
           break;
         case BOOL:
-          this.histograms.get(count).addValue(value.getBool());
+          this.histograms.get(i).addValue(record.getBool(i));
           break;
         case FLOAT:
-          this.histograms.get(count).addValue(value.getFloat());
+          this.histograms.get(i).addValue(record.getFloat(i));
           break;
         default:
           break;
       }
-
-      count++;
     }
   }
 
@@ -155,6 +173,45 @@ public class TableStats {
     }
   }
 
+  /**
+   * Write the record count and histograms of these stats to out. Only the stats of an actual
+   * table, not estimates derived from them, can be written.
+   *
+   * @param out the output to write to
+   * @throws IOException if out can not be written to
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    if (this.estimate) {
+      throw new IllegalStateException("Estimated stats can not be written");
+    }
+
+    out.writeInt(this.numRecords);
+    out.writeInt(this.histograms.size());
+    for (Histogram histogram : this.histograms) {
+      histogram.writeTo(out);
+    }
+  }
+
+  /**
+   * Replace the record count and histograms of these stats, which must have been created from
+   * the same schema, with ones written by writeTo.
+   *
+   * @param in the input to read from
+   * @throws IOException if in can not be read, ends early, or was written for another schema
+   */
+  public void readFrom(DataInput in) throws IOException {
+    int numRecords = in.readInt();
+    if (in.readInt() != this.histograms.size()) {
+      throw new IOException("Stats were written for a different schema");
+    }
+    for (Histogram histogram : this.histograms) {
+      histogram.readFrom(in);
+    }
+
+    this.numRecords = numRecords;
+    this.numPages = this.calculateNumPages();
+  }
+
   /**
    * Gets the number of records the target table contains.
    *
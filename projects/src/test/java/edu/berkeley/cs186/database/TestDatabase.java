@@ -3,6 +3,9 @@ package edu.berkeley.cs186.database;
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.TestUtils;
 import edu.berkeley.cs186.database.StudentTest;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.io.BufferPool;
 import edu.berkeley.cs186.database.table.*;
 
 import org.junit.After;
@@ -132,4 +135,195 @@ public class TestDatabase {
     assertEquals(input, rec);
     t1.end();
   }
+
+  @Test
+  public void testTableMetricsRegistered() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    Record input = TestUtils.createRecordWithAllTypes();
+
+    db.createTable(s, "testTable1");
+    db.createTable(s, "testTable2");
+    assertNotNull(db.getMetricsRegistry().get("table:testTable1"));
+    assertNotNull(db.getMetricsRegistry().get("table:testTable2"));
+
+    Database.Transaction t1 = db.beginTransaction();
+    long readsBefore = db.getMetricsRegistry().get("table:testTable1").getLogicalReads();
+    RecordID rid = t1.addRecord("testTable1", input.getValues());
+    t1.getRecord("testTable1", rid);
+    t1.end();
+
+    assertTrue(db.getMetricsRegistry().get("table:testTable1").getLogicalReads() > readsBefore);
+    assertEquals(1, db.getMetricsRegistry().get("table:testTable2").getAllocs());
+
+    db.deleteTable("testTable2");
+    assertNull(db.getMetricsRegistry().get("table:testTable2"));
+  }
+
+  @Test
+  public void testTablesOpenLazily() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    Record input = TestUtils.createRecordWithAllTypes();
+
+    List<RecordID> rids = new ArrayList<RecordID>();
+    Database.Transaction t1 = db.beginTransaction();
+    for (int i = 0; i < 4; i++) {
+      db.createTable(s, "lazyTable" + i);
+      rids.add(t1.addRecord("lazyTable" + i, input.getValues()));
+    }
+    t1.end();
+    db.close();
+
+    db = new Database(this.filename);
+    for (int i = 0; i < 4; i++) {
+      assertFalse(db.isTableOpen("lazyTable" + i));
+    }
+
+    t1 = db.beginTransaction();
+    assertEquals(input, t1.getRecord("lazyTable2", rids.get(2)));
+    t1.end();
+    assertTrue(db.isTableOpen("lazyTable2"));
+    assertFalse(db.isTableOpen("lazyTable0"));
+    assertNull(db.getMetricsRegistry().get("table:lazyTable0"));
+
+    db.openAll();
+    t1 = db.beginTransaction();
+    for (int i = 0; i < 4; i++) {
+      assertTrue(db.isTableOpen("lazyTable" + i));
+      assertNotNull(db.getMetricsRegistry().get("table:lazyTable" + i));
+      assertEquals(input, t1.getRecord("lazyTable" + i, rids.get(i)));
+    }
+    t1.end();
+  }
+
+  @Test
+  public void testBulkLoadMaintainsIndices() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    List<String> indexColumns = new ArrayList<String>();
+    indexColumns.add("int");
+    db.createTableWithIndices(s, "bulkTable", indexColumns);
+
+    List<List<DataBox>> rows = new ArrayList<List<DataBox>>();
+    for (int i = 0; i < 5000; i++) {
+      rows.add(TestUtils.createRecordWithAllTypesWithValue((i * 7919) % 5000).getValues());
+    }
+
+    Database.Transaction t1 = db.beginTransaction();
+    assertEquals(5000, t1.bulkLoad("bulkTable", rows.iterator()));
+
+    Iterator<Record> sorted = t1.sortedScan("bulkTable", "int");
+    for (int i = 0; i < 5000; i++) {
+      assertTrue(sorted.hasNext());
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), sorted.next());
+    }
+    assertFalse(sorted.hasNext());
+
+    Iterator<Record> found = t1.lookupKey("bulkTable", "int", new IntDataBox(1234));
+    assertEquals(TestUtils.createRecordWithAllTypesWithValue(1234), found.next());
+    assertFalse(found.hasNext());
+    t1.end();
+  }
+
+  @Test
+  public void testCreateIndexOnExistingTable() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    db.createTable(s, "indexedLater");
+
+    List<List<DataBox>> rows = new ArrayList<List<DataBox>>();
+    for (int i = 0; i < 5000; i++) {
+      rows.add(TestUtils.createRecordWithAllTypesWithValue((i * 7919) % 1000).getValues());
+    }
+    Database.Transaction t1 = db.beginTransaction();
+    t1.bulkLoad("indexedLater", rows.iterator());
+    assertFalse(t1.indexExists("indexedLater", "int"));
+    t1.end();
+
+    // The rows do not fit in the memory pages of the database, so they are sorted in several runs
+    db.createIndex("indexedLater", "int");
+    try {
+      db.createIndex("indexedLater", "int");
+      fail();
+    } catch (DatabaseException e) {
+      // The index already exists
+    }
+
+    Database.Transaction t2 = db.beginTransaction();
+    assertTrue(t2.indexExists("indexedLater", "int"));
+    Iterator<Record> sorted = t2.sortedScan("indexedLater", "int");
+    for (int i = 0; i < 5000; i++) {
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(i / 5), sorted.next());
+    }
+    assertFalse(sorted.hasNext());
+
+    // The index is maintained like any other
+    t2.addRecord("indexedLater", TestUtils.createRecordWithAllTypesWithValue(5000).getValues());
+    Iterator<Record> found = t2.lookupKey("indexedLater", "int", new IntDataBox(5000));
+    assertEquals(TestUtils.createRecordWithAllTypesWithValue(5000), found.next());
+    assertFalse(found.hasNext());
+    t2.end();
+  }
+
+  @Test
+  public void testDeleteAndUpdateMaintainIndices() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    List<String> indexColumns = new ArrayList<String>();
+    indexColumns.add("int");
+    db.createTableWithIndices(s, "mutableTable", indexColumns);
+
+    Database.Transaction t1 = db.beginTransaction();
+    List<RecordID> rids = new ArrayList<RecordID>();
+    for (int i = 0; i < 2000; i++) {
+      rids.add(t1.addRecord("mutableTable", TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+    }
+    for (int i = 0; i < 2000; i += 2) {
+      t1.deleteRecord("mutableTable", rids.get(i));
+    }
+    for (int i = 1; i < 2000; i += 4) {
+      t1.updateRecord("mutableTable", TestUtils.createRecordWithAllTypesWithValue(i + 10000).getValues(), rids.get(i));
+    }
+
+    assertFalse(t1.lookupKey("mutableTable", "int", new IntDataBox(2)).hasNext());
+    assertFalse(t1.lookupKey("mutableTable", "int", new IntDataBox(1)).hasNext());
+    assertEquals(TestUtils.createRecordWithAllTypesWithValue(10001),
+        t1.lookupKey("mutableTable", "int", new IntDataBox(10001)).next());
+    assertEquals(TestUtils.createRecordWithAllTypesWithValue(3),
+        t1.lookupKey("mutableTable", "int", new IntDataBox(3)).next());
+
+    int count = 0;
+    int previous = Integer.MIN_VALUE;
+    Iterator<Record> sorted = t1.sortedScan("mutableTable", "int");
+    while (sorted.hasNext()) {
+      int value = sorted.next().getValues().get(1).getInt();
+      assertTrue(value > previous);
+      assertTrue(value % 4 == 3 || value > 10000);
+      previous = value;
+      count++;
+    }
+    assertEquals(1000, count);
+    t1.end();
+  }
+
+  @Test
+  public void testDatabaseHasOwnBufferPool() throws Exception {
+    Database other = new Database(tempFolder.newFolder("otherDatabase").getAbsolutePath(), 8, 64);
+    assertEquals(64, other.getBufferPool().getNumFrames());
+    assertNotSame(db.getBufferPool(), other.getBufferPool());
+    assertNotSame(BufferPool.getDefault(), db.getBufferPool());
+
+    other.createTable(TestUtils.createSchemaWithAllTypes(), "pooledTable");
+    Database.Transaction t = other.beginTransaction();
+    for (int i = 0; i < 1000; i++) {
+      t.addRecord("pooledTable", TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+    t.end();
+    assertTrue(other.getBufferPool().getNumCachedPages() > 0);
+    assertTrue(other.getBufferPool().getNumCachedPages() <= 64);
+    other.close();
+
+    try {
+      new Database(tempFolder.newFolder("smallPool").getAbsolutePath(), 8, 4);
+      fail();
+    } catch (DatabaseException e) {
+      // The pool must hold every page a query may pin
+    }
+  }
 }
@@ -14,14 +14,19 @@ import org.junit.rules.Timeout;
 import org.junit.runners.MethodSorters;
 import org.junit.experimental.categories.Category;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
 import static org.junit.Assert.*;
 
 public class TestLargeBPlusTree {
     public static final String testFile = "BPlusTreeTest";
     private BPlusTree bp;
-    public static final int intLeafPageSize = 400;
-    public static final int intInnPageSize = 496;
+    public static final int intLeafPageSize = 408;
+    public static final int intInnPageSize = 510;
 
     @Rule
     public TemporaryFolder tempFolder = new TemporaryFolder();
@@ -52,4 +57,350 @@ public class TestLargeBPlusTree {
         }
         assertEquals(1, this.bp.getNumNodes());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBPlusTreeUpdateRecordID() {
+        /** Duplicate keys span several leaves. */
+        for (int i = 0; i < 2000; i++) {
+            bp.insertKey(new IntDataBox(i % 4), new RecordID(i, 0));
+        }
+
+        for (int i = 0; i < 2000; i += 7) {
+            assertTrue(bp.updateRecordID(new IntDataBox(i % 4), new RecordID(i, 0), new RecordID(i, 1)));
+        }
+        assertFalse(bp.updateRecordID(new IntDataBox(1), new RecordID(0, 0), new RecordID(0, 1)));
+
+        for (int key = 0; key < 4; key++) {
+            Iterator<RecordID> rids = bp.lookupKey(new IntDataBox(key));
+            int count = 0;
+            while (rids.hasNext()) {
+                RecordID rid = rids.next();
+                assertEquals(key, rid.getPageNum() % 4);
+                assertEquals(rid.getPageNum() % 7 == 0 ? 1 : 0, rid.getEntryNumber());
+                count++;
+            }
+            assertEquals(500, count);
+        }
+    }
+
+    @Test
+    public void testBPlusTreeStringKeys() {
+        String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+        BPlusTree stringTree = new BPlusTree(new StringDataBox(8), "StringTree", tempFolderPath);
+        /** Keys are inserted out of order, each three times, across many leaves. */
+        for (int i = 0; i < 3000; i++) {
+            int key = (i * 7) % 1000;
+            stringTree.insertKey(new StringDataBox(String.format("k%04d", key), 8), new RecordID(key, i / 1000));
+        }
+
+        for (int key = 0; key < 1000; key += 37) {
+            Iterator<RecordID> rids = stringTree.lookupKey(new StringDataBox(String.format("k%04d", key), 8));
+            for (int i = 0; i < 3; i++) {
+                assertEquals(new RecordID(key, i), rids.next());
+            }
+            assertFalse(rids.hasNext());
+        }
+        assertFalse(stringTree.containsKey(new StringDataBox("k1000", 8)));
+        assertFalse(stringTree.containsKey(new StringDataBox("a", 8)));
+
+        Iterator<RecordID> rids = stringTree.sortedScanFrom(new StringDataBox("k0500", 8));
+        for (int key = 500; key < 1000; key++) {
+            for (int i = 0; i < 3; i++) {
+                assertEquals(new RecordID(key, i), rids.next());
+            }
+        }
+        assertFalse(rids.hasNext());
+    }
+
+    @Test
+    public void testBPlusTreeInsertKeepsEntriesSorted() {
+        /** Keys are inserted in decreasing order, and their duplicates in decreasing RecordID order. */
+        for (int i = 5999; i >= 0; i--) {
+            bp.insertKey(new IntDataBox(i % 2000), new RecordID(i, 0));
+        }
+
+        Iterator<RecordID> rids = bp.sortedScan();
+        for (int key = 0; key < 2000; key++) {
+            int pageNums = 0;
+            for (int i = 0; i < 3; i++) {
+                int pageNum = rids.next().getPageNum();
+                assertEquals(key, pageNum % 2000);
+                pageNums |= 1 << (pageNum / 2000);
+            }
+            assertEquals(7, pageNums);
+        }
+        assertFalse(rids.hasNext());
+
+        /** Duplicates within a leaf are ordered by RecordID. */
+        Iterator<RecordID> smallRids = bp.lookupKey(new IntDataBox(1));
+        assertEquals(new RecordID(1, 0), smallRids.next());
+        assertEquals(new RecordID(2001, 0), smallRids.next());
+        assertEquals(new RecordID(4001, 0), smallRids.next());
+    }
+
+    @Test
+    public void testBPlusTreeSortedScanRange() {
+        for (int i = 0; i < 10000; i++) {
+            bp.insertKey(new IntDataBox(i), new RecordID(i, 0));
+        }
+
+        bp.getMetrics().reset();
+        Iterator<RecordID> rids = bp.sortedScanRange(new IntDataBox(5000), new IntDataBox(5100));
+        for (int i = 5000; i < 5100; i++) {
+            assertEquals(new RecordID(i, 0), rids.next());
+        }
+        assertFalse(rids.hasNext());
+        /** Only the inner nodes on the way down and the two leaves holding the range are read. */
+        assertTrue(bp.getMetrics().getLogicalReads() < 30);
+
+        rids = bp.sortedScanRange(null, new IntDataBox(3));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(new RecordID(i, 0), rids.next());
+        }
+        assertFalse(rids.hasNext());
+        assertFalse(bp.sortedScanRange(new IntDataBox(20000), null).hasNext());
+        assertFalse(bp.sortedScanRange(new IntDataBox(7), new IntDataBox(7)).hasNext());
+
+        rids = bp.sortedScanFrom(new IntDataBox(9990));
+        for (int i = 9990; i < 10000; i++) {
+            assertEquals(new RecordID(i, 0), rids.next());
+        }
+        assertFalse(rids.hasNext());
+    }
+
+    @Test
+    public void testBPlusTreeDuplicateKeysAcrossLeaves() {
+        /**
+         * Few keys spread over many leaves, which split, merge and reuse the
+         * pages of each other as entries are inserted and deleted.
+         */
+        Random random = new Random(186);
+        List<LeafEntry> entries = new ArrayList<LeafEntry>();
+        for (int i = 0; i < 20000; i++) {
+            if (entries.isEmpty() || random.nextInt(10) < 7) {
+                int key = random.nextInt(4);
+                LeafEntry entry = new LeafEntry(new IntDataBox(key), new RecordID(key * 100000 + i, 0));
+                bp.insertKey(entry.getKey(), entry.getRecordID());
+                entries.add(entry);
+            } else {
+                LeafEntry entry = entries.remove(random.nextInt(entries.size()));
+                assertTrue(bp.deleteKey(entry.getKey(), entry.getRecordID()));
+            }
+        }
+
+        int[] counts = new int[4];
+        for (LeafEntry entry : entries) {
+            counts[entry.getKey().getInt()]++;
+        }
+        for (int key = 0; key < 4; key++) {
+            Iterator<RecordID> rids = bp.lookupKey(new IntDataBox(key));
+            int count = 0;
+            while (rids.hasNext()) {
+                assertEquals(key, rids.next().getPageNum() / 100000);
+                count++;
+            }
+            assertEquals(counts[key], count);
+        }
+
+        Iterator<RecordID> rids = bp.sortedScan();
+        int previousKey = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            int key = rids.next().getPageNum() / 100000;
+            assertTrue(key >= previousKey);
+            previousKey = key;
+        }
+        assertFalse(rids.hasNext());
+    }
+
+    @Test
+    public void testBPlusTreeBulkLoad() {
+        List<LeafEntry> entries = new ArrayList<LeafEntry>();
+        for (int i = 0; i < 30000; i++) {
+            entries.add(new LeafEntry(new IntDataBox(i / 3), new RecordID(i, 0)));
+        }
+        bp.bulkLoad(entries.iterator(), 0.5f);
+
+        /** Half-full leaves, plus the inner nodes over them. */
+        int numLeaves = (30000 + intLeafPageSize / 2 - 1) / (intLeafPageSize / 2);
+        assertTrue(bp.getNumNodes() > numLeaves);
+        assertTrue(bp.getNumNodes() < numLeaves + numLeaves / 100 + 3);
+
+        Iterator<RecordID> rids = bp.sortedScan();
+        for (int i = 0; i < 30000; i++) {
+            assertEquals(new RecordID(i, 0), rids.next());
+        }
+        assertFalse(rids.hasNext());
+        for (int key = 0; key < 10000; key += 97) {
+            rids = bp.lookupKey(new IntDataBox(key));
+            for (int i = 0; i < 3; i++) {
+                assertEquals(new RecordID(3 * key + i, 0), rids.next());
+            }
+            assertFalse(rids.hasNext());
+        }
+
+        /** Inserts go into the room left in the leaves. */
+        int numNodes = bp.getNumNodes();
+        for (int i = 0; i < 100; i++) {
+            bp.insertKey(new IntDataBox(5000), new RecordID(30000 + i, 0));
+        }
+        assertEquals(numNodes, bp.getNumNodes());
+        rids = bp.lookupKey(new IntDataBox(5000));
+        int count = 0;
+        while (rids.hasNext()) {
+            rids.next();
+            count++;
+        }
+        assertEquals(103, count);
+
+        try {
+            bp.bulkLoad(entries.iterator());
+            fail();
+        } catch (BPlusTreeException e) {
+            /** The tree is not empty. */
+        }
+    }
+
+    @Test
+    public void testBPlusTreeBulkLoadDuplicateKeys() {
+        /**
+         * Bulk loaded leaves full of key 5 are separated by keys of 5, and
+         * the first of them splits as smaller keys are inserted into it.
+         */
+        List<LeafEntry> entries = new ArrayList<LeafEntry>();
+        for (int i = 0; i < 1000; i++) {
+            entries.add(new LeafEntry(new IntDataBox(5), new RecordID(5000 + i, 0)));
+        }
+        bp.bulkLoad(entries.iterator());
+        for (int i = 0; i < 60; i++) {
+            bp.insertKey(new IntDataBox(4), new RecordID(4000 + i, 0));
+        }
+        bp.insertKey(new IntDataBox(6), new RecordID(6000, 0));
+        assertDuplicateKeysFound(60, 1000);
+    }
+
+    @Test
+    public void testBPlusTreeDeleteKeyUnorderedRecordIDs() {
+        /**
+         * RecordIDs of reused slots and pages arrive in no particular order,
+         * so entries of equal keys in sibling leaves interleave by RecordID.
+         */
+        Random random = new Random(61);
+        Set<Integer> pageNums = new HashSet<Integer>();
+        List<LeafEntry> entries = new ArrayList<LeafEntry>();
+        for (int i = 0; i < 20000; i++) {
+            if (entries.isEmpty() || random.nextInt(10) < 7) {
+                int pageNum = random.nextInt(1000000);
+                if (pageNums.add(pageNum)) {
+                    LeafEntry entry = new LeafEntry(new IntDataBox(pageNum % 3), new RecordID(pageNum, 0));
+                    bp.insertKey(entry.getKey(), entry.getRecordID());
+                    entries.add(entry);
+                }
+            } else {
+                LeafEntry entry = entries.remove(random.nextInt(entries.size()));
+                assertTrue(bp.deleteKey(entry.getKey(), entry.getRecordID()));
+            }
+        }
+
+        int count = 0;
+        for (int key = 0; key < 3; key++) {
+            Iterator<RecordID> rids = bp.lookupKey(new IntDataBox(key));
+            while (rids.hasNext()) {
+                assertEquals(key, rids.next().getPageNum() % 3);
+                count++;
+            }
+        }
+        assertEquals(entries.size(), count);
+
+        for (LeafEntry entry : entries) {
+            assertTrue(bp.deleteKey(entry.getKey(), entry.getRecordID()));
+        }
+        assertFalse(bp.sortedScan().hasNext());
+    }
+
+    /**
+     * Checks a tree holding, in RecordIDs numbered after their keys, a number
+     * of entries of key 4, a number of entries of key 5 and one of key 6.
+     */
+    private void assertDuplicateKeysFound(int numFours, int numFives) {
+        Iterator<RecordID> rids = bp.lookupKey(new IntDataBox(6));
+        assertEquals(new RecordID(6000, 0), rids.next());
+        assertFalse(rids.hasNext());
+
+        int[] counts = new int[7];
+        for (int key = 4; key <= 5; key++) {
+            rids = bp.lookupKey(new IntDataBox(key));
+            while (rids.hasNext()) {
+                assertEquals(key, rids.next().getPageNum() / 1000);
+                counts[key]++;
+            }
+        }
+        assertEquals(numFours, counts[4]);
+        assertEquals(numFives, counts[5]);
+
+        rids = bp.sortedScan();
+        int previousKey = 0;
+        int count = 0;
+        while (rids.hasNext()) {
+            int key = rids.next().getPageNum() / 1000;
+            assertTrue(key >= previousKey);
+            previousKey = key;
+            count++;
+        }
+        assertEquals(6, previousKey);
+        assertEquals(numFours + numFives + 1, count);
+    }
+
+    @Test(expected = BPlusTreeException.class)
+    public void testBPlusTreeBulkLoadRejectsUnsortedEntries() {
+        List<LeafEntry> entries = new ArrayList<LeafEntry>();
+        entries.add(new LeafEntry(new IntDataBox(2), new RecordID(0, 0)));
+        entries.add(new LeafEntry(new IntDataBox(1), new RecordID(1, 0)));
+        bp.bulkLoad(entries.iterator());
+    }
+
+    @Test
+    public void testBPlusTreeDeleteKey() {
+        for (int i = 0; i < 20000; i++) {
+            bp.insertKey(new IntDataBox(i % 5000), new RecordID(i, 0));
+        }
+        int numNodes = bp.getNumNodes();
+
+        assertFalse(bp.deleteKey(new IntDataBox(1), new RecordID(2, 0)));
+        assertFalse(bp.deleteKey(new IntDataBox(5000), new RecordID(5000, 0)));
+
+        /** Every RecordID not divisible by 10 is deleted, in an order unrelated to the keys. */
+        for (int i = 0; i < 20000; i++) {
+            int j = (int) ((i * 7919L) % 20000);
+            if (j % 10 != 0) {
+                assertTrue(bp.deleteKey(new IntDataBox(j % 5000), new RecordID(j, 0)));
+            }
+        }
+        assertFalse(bp.deleteKey(new IntDataBox(1), new RecordID(1, 0)));
+        /** Nodes left less than half full were merged. */
+        assertTrue(bp.getNumNodes() < numNodes / 4);
+
+        Iterator<RecordID> rids = bp.sortedScan();
+        for (int key = 0; key < 5000; key += 10) {
+            int pageNums = 0;
+            for (int i = 0; i < 4; i++) {
+                RecordID rid = rids.next();
+                assertEquals(key, rid.getPageNum() % 5000);
+                pageNums |= 1 << (rid.getPageNum() / 5000);
+            }
+            assertEquals(15, pageNums);
+        }
+        assertFalse(rids.hasNext());
+        assertFalse(bp.containsKey(new IntDataBox(15)));
+        assertTrue(bp.containsKey(new IntDataBox(4990)));
+
+        /** Deleting everything collapses the tree into its root leaf. */
+        for (int i = 0; i < 20000; i += 10) {
+            assertTrue(bp.deleteKey(new IntDataBox(i % 5000), new RecordID(i, 0)));
+        }
+        assertEquals(1, bp.getNumNodes());
+        assertFalse(bp.sortedScan().hasNext());
+
+        bp.insertKey(new IntDataBox(7), new RecordID(7, 0));
+        assertEquals(new RecordID(7, 0), bp.lookupKey(new IntDataBox(7)).next());
+    }
+}
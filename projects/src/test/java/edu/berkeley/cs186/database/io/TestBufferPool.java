@@ -0,0 +1,176 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+* Tests BufferPool.java and the pin/unpin API of PageAllocator.java
+*/
+
+public class TestBufferPool {
+  private final String fName = "TestBufferPool.temp";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private PageAllocator newAllocator(BufferPool pool, int numPages) throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+    for (int i = 0; i < numPages; i++) {
+      assertEquals(i, pA.allocPage());
+    }
+    return pA;
+  }
+
+  @Test
+  public void TestBufferPoolCapacity() throws IOException {
+    BufferPool pool = new BufferPool(8);
+    PageAllocator pA = newAllocator(pool, 20);
+
+    for (int i = 0; i < 20; i++) {
+      pA.fetchPage(i);
+      assertTrue(pool.getNumCachedPages() <= 8);
+    }
+    assertEquals(8, pool.getNumCachedPages());
+    pA.close();
+    assertEquals(0, pool.getNumCachedPages());
+  }
+
+  @Test
+  public void TestBufferPoolPinnedNotEvicted() throws IOException {
+    BufferPool pool = new BufferPool(4);
+    PageAllocator pA = newAllocator(pool, 20);
+
+    Page pinned = pA.pinPage(0);
+    pinned.writeByte(0, (byte) 42);
+
+    for (int i = 1; i < 20; i++) {
+      pA.fetchPage(i);
+    }
+
+    assertSame(pinned, pA.fetchPage(0));
+    assertEquals(1, pool.getNumPinnedFrames());
+    assertTrue(pA.unpinPage(pinned));
+    assertFalse(pA.unpinPage(pinned));
+    assertEquals(0, pool.getNumPinnedFrames());
+
+    for (int i = 1; i < 20; i++) {
+      pA.fetchPage(i);
+    }
+    assertNotSame(pinned, pA.fetchPage(0));
+    assertEquals((byte) 42, pA.fetchPage(0).readByte(0));
+    pA.close();
+  }
+
+  @Test
+  public void TestBufferPoolAllPinned() throws IOException {
+    BufferPool pool = new BufferPool(2);
+    PageAllocator pA = newAllocator(pool, 4);
+
+    pA.pinPage(0);
+    pA.pinPage(1);
+
+    Page unpinned = pA.fetchPage(2);
+    assertEquals(2, unpinned.getPageNum());
+    assertEquals(2, pool.getNumCachedPages());
+
+    boolean thrown = false;
+    try {
+      pA.pinPage(3);
+    } catch (PageException e) {
+      thrown = true;
+    }
+    assertTrue(thrown);
+
+    pA.unpinPage(0);
+    assertEquals(3, pA.pinPage(3).getPageNum());
+    pA.close();
+    assertEquals(0, pool.getNumPinnedFrames());
+  }
+
+  @Test
+  public void TestBufferPoolDirtyTracking() throws IOException {
+    BufferPool pool = new BufferPool(2);
+    PageAllocator pA = newAllocator(pool, 4);
+
+    Page p = pA.fetchPage(0);
+    assertFalse(p.isDirty());
+    p.writeInt(0, 7);
+    assertTrue(p.isDirty());
+
+    for (int i = 1; i < 4; i++) {
+      pA.fetchPage(i);
+    }
+    assertFalse(p.isDirty());
+    assertEquals(7, pA.fetchPage(0).readInt(0));
+    pA.close();
+  }
+
+  @Test
+  public void TestBufferPoolFreePinnedPage() throws IOException {
+    BufferPool pool = new BufferPool(4);
+    PageAllocator pA = newAllocator(pool, 4);
+
+    pA.pinPage(1);
+    assertTrue(pA.freePage(1));
+    assertEquals(0, pool.getNumPinnedFrames());
+    assertFalse(pA.unpinPage(1));
+    assertEquals(1, pA.allocPage());
+    pA.close();
+  }
+
+  @Test(timeout = 10000)
+  public void TestBufferPoolFlushesVictimOutsideLock() throws Exception {
+    final CountDownLatch flushing = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final AtomicBoolean block = new AtomicBoolean(false);
+    PageStore store = new PositionalPageStore(tempFolder.newFile(fName).getAbsolutePath()) {
+      @Override
+      void flush(Page page) {
+        if (block.getAndSet(false)) {
+          flushing.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        }
+        super.flush(page);
+      }
+    };
+    final BufferPool pool = new BufferPool(2);
+    final PageAllocator pA = new PageAllocator(store, true, false, pool);
+    for (int i = 0; i < 3; i++) {
+      assertEquals(i, pA.allocPage());
+    }
+    pA.fetchPage(0).writeByte(0, (byte) 1);
+    pA.fetchPage(1).writeByte(0, (byte) 2);
+
+    block.set(true);
+    Thread loader = new Thread(new Runnable() {
+      public void run() {
+        pA.fetchPage(2);
+      }
+    });
+    loader.start();
+    flushing.await();
+
+    // The pool is not locked while the victim is written, and its page is still cached
+    assertEquals(2, pool.getNumCachedPages());
+    assertEquals((byte) 1, pA.fetchPage(0).readByte(0));
+    assertEquals((byte) 2, pA.fetchPage(1).readByte(0));
+
+    release.countDown();
+    loader.join();
+    assertEquals(2, pool.getNumCachedPages());
+    assertEquals((byte) 1, pA.fetchPage(0).readByte(0));
+    assertEquals((byte) 2, pA.fetchPage(1).readByte(0));
+    pA.close();
+  }
+}
@@ -0,0 +1,134 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+* Tests the per-allocator metrics in IOMetrics.java and MetricsRegistry.java
+*/
+
+public class TestIOMetrics {
+  private final String fName = "TestIOMetrics.temp";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void TestLatencyHistogram() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getPercentileNanos(99));
+
+    for (int i = 0; i < 98; i++) {
+      histogram.record(100);
+    }
+    histogram.record(5000);
+    histogram.record(1L << 40);
+
+    assertEquals(100, histogram.getCount());
+    assertEquals(127, histogram.getPercentileNanos(50));
+    assertEquals(8191, histogram.getPercentileNanos(99));
+    assertTrue(histogram.getPercentileNanos(100) > 1000000000L);
+    assertEquals((98 * 100 + 5000 + (1L << 40)) / 100, histogram.getMeanNanos());
+
+    histogram.reset();
+    assertEquals(0, histogram.getCount());
+    assertEquals(0, histogram.getTotalNanos());
+  }
+
+  @Test
+  public void TestMetricsAreSeparatePerAllocator() throws IOException {
+    BufferPool pool = new BufferPool(4);
+    File file1 = tempFolder.newFile(fName + 1);
+    File file2 = tempFolder.newFile(fName + 2);
+    PageAllocator pA1 = new PageAllocator(file1.getAbsolutePath(), true, false, pool);
+    PageAllocator pA2 = new PageAllocator(file2.getAbsolutePath(), true, false, pool);
+
+    for (int i = 0; i < 8; i++) {
+      pA1.allocPage();
+    }
+    pA2.allocPage();
+    pA1.freePage(7);
+
+    IOMetrics m1 = pA1.getMetrics();
+    IOMetrics m2 = pA2.getMetrics();
+    assertEquals(8, m1.getAllocs());
+    assertEquals(1, m1.getFrees());
+    // Pages 0 to 3 were evicted by pA1 itself, page 4 by pA2; every one of them was dirty
+    assertEquals(5, m1.getEvictions());
+    assertEquals(5, m1.getWritebacks());
+    assertEquals(1, m2.getAllocs());
+    assertEquals(0, m2.getFrees());
+    assertEquals(0, m2.getEvictions());
+
+    m1.reset();
+    m2.reset();
+    pA1.fetchPage(0);
+    pA1.fetchPage(0);
+    pA2.fetchPage(0);
+
+    assertEquals(2, m1.getLogicalReads());
+    assertEquals(1, m1.getHits());
+    assertEquals(1, m1.getMisses());
+    assertEquals(1, m1.getPhysicalReads());
+    assertEquals(0.5f, m1.getHitRatio(), 0);
+    assertEquals(2, m1.getFetchLatency().getCount());
+    assertEquals(1, m1.getReadLatency().getCount());
+    // Freeing page 7 left a frame empty, so nothing had to be evicted
+    assertEquals(0, m1.getEvictions());
+    assertEquals(0, m1.getWritebacks());
+    assertEquals(0, m1.getSyncs());
+
+    assertEquals(1, m2.getLogicalReads());
+    assertEquals(1, m2.getHits());
+    assertEquals(0, m2.getPhysicalReads());
+
+    pA1.close();
+    pA2.close();
+  }
+
+  @Test
+  public void TestDurableAllocatorCountsSyncs() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, true);
+    IOMetrics metrics = pA.getMetrics();
+    long syncsBefore = metrics.getSyncs();
+
+    pA.allocPage();
+    // The header page, then the master page
+    assertEquals(syncsBefore + 2, metrics.getSyncs());
+    assertEquals(2, metrics.getSyncLatency().getCount() - syncsBefore);
+    pA.close();
+  }
+
+  @Test
+  public void TestRegistryExposesMetricsViaJmx() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+    pA.fetchPage(pA.allocPage());
+
+    MetricsRegistry registry = new MetricsRegistry();
+    registry.register("table:a,b", pA.getMetrics());
+    assertSame(pA.getMetrics(), registry.get("table:a,b"));
+    assertEquals(1, registry.getAll().size());
+
+    registry.exposeViaJmx();
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = registry.getObjectName("table:a,b");
+    assertTrue(server.isRegistered(name));
+    assertEquals(pA.getMetrics().getLogicalReads(), server.getAttribute(name, "LogicalReads"));
+    assertEquals(1L, server.getAttribute(name, "Allocs"));
+
+    registry.clear();
+    assertFalse(server.isRegistered(name));
+    assertNull(registry.get("table:a,b"));
+    pA.close();
+  }
+}
@@ -274,6 +274,26 @@ public class TestPageAllocator {
     pA.close();
   }
   @Test
+  public void TestPageAllocatorFreePageReAllocAcrossHeaders() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+
+    for (int i = 0; i < Page.pageSize + 10; i++) {
+      assertEquals(i,pA.allocPage());
+    }
+    assertTrue(pA.freePage(Page.pageSize + 3));
+    assertTrue(pA.freePage(100));
+    assertFalse(pA.freePage(100));
+    pA.close();
+
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false);
+    assertEquals(Page.pageSize + 8, pA.getNumPages());
+    assertEquals(100, pA.allocPage());
+    assertEquals(Page.pageSize + 3, pA.allocPage());
+    assertEquals(Page.pageSize + 10, pA.allocPage());
+    pA.close();
+  }
+  @Test
   public void TestPageAllocatorFreePageReAlloc2() throws IOException, FileNotFoundException {
     File tempFile = tempFolder.newFile(fName);
     PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
@@ -440,5 +460,267 @@ public class TestPageAllocator {
     }
   }
 
+  @Test
+  public void TestPageAllocatorSegmentedMapping() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    int segmentSize = 16 * Page.pageSize;
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, BufferPool.getDefault(), segmentSize);
+    assertEquals(segmentSize, pA.getSegmentSize());
+
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, pA.allocPage());
+      pA.fetchPage(i).writeInt(0, i);
+    }
+    assertTrue(pA.freePage(50));
+    pA.close();
+
+    FileChannel fc = new RandomAccessFile(tempFile, "r").getChannel();
+    assertEquals(0, fc.size() % segmentSize);
+    assertTrue(fc.size() >= byteEstimate(99));
+    fc.close();
+
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false);
+    assertEquals(0, pA.getSegmentSize());
+    assertEquals(99, pA.getNumPages());
+    for (int i = 0; i < 100; i++) {
+      if (i != 50) {
+        assertEquals(i, pA.fetchPage(i).readInt(0));
+      }
+    }
+    assertEquals(50, pA.allocPage());
+    pA.close();
+  }
+
+  @Test
+  public void TestPageAllocatorCommitWindow() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, true);
+
+    pA.allocPage();
+    assertEquals(0, pA.getNumPendingChanges());
+
+    pA.setCommitWindow(10, 0);
+    for (int i = 1; i < 10; i++) {
+      pA.allocPage();
+      assertEquals(i, pA.getNumPendingChanges());
+    }
+    pA.allocPage();
+    assertEquals(0, pA.getNumPendingChanges());
+
+    assertTrue(pA.freePage(3));
+    pA.allocPage();
+    assertEquals(2, pA.getNumPendingChanges());
+    pA.sync();
+    assertEquals(0, pA.getNumPendingChanges());
+
+    pA.allocPage();
+    pA.close();
+
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, true);
+    assertEquals(12, pA.getNumPages());
+    pA.close();
+  }
+
+  @Test
+  public void TestPageAllocatorRecoverCounts() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+    for (int i = 0; i < 10; i++) {
+      pA.allocPage();
+    }
+    pA.close();
+
+    // Simulate a crash that forced the header page but not the master page
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    fc.write(ByteBuffer.allocate(4).putInt(0, 3), 0);
+    fc.close();
 
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false);
+    assertEquals(10, pA.getNumPages());
+    assertEquals(9, pA.fetchPage(9).getPageNum());
+    assertEquals(10, pA.allocPage());
+    pA.close();
+
+    fc = new RandomAccessFile(tempFile, "r").getChannel();
+    ByteBuffer bb = ByteBuffer.allocate(4);
+    fc.read(bb, 0);
+    assertEquals(11, bb.getInt(0));
+    fc.close();
+  }
+
+  @Test
+  public void TestPageAllocatorIteratorReadAhead() throws IOException, InterruptedException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+    for (int i = 0; i < 100; i++) {
+      pA.allocPage();
+    }
+    for (int i = 10; i < 20; i++) {
+      assertTrue(pA.freePage(i));
+    }
+    pA.close();
+
+    BufferPool pool = new BufferPool(200);
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false, pool);
+    assertEquals(PageAllocator.DEFAULT_READ_AHEAD, pA.getReadAhead());
+
+    Iterator<Page> iter = pA.iterator();
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, iter.next().getPageNum());
+    }
+    for (int i = 0; i < 100 && pool.getNumCachedPages() < 10 + PageAllocator.DEFAULT_READ_AHEAD / 2; i++) {
+      Thread.sleep(10);
+    }
+    assertTrue(pool.getNumCachedPages() > 10);
+
+    assertEquals(20, iter.next().getPageNum());
+    assertTrue(pA.freePage(21));
+    assertEquals(22, iter.next().getPageNum());
+    int count = 2;
+    while (iter.hasNext()) {
+      iter.next();
+      count++;
+    }
+    assertEquals(79, count);
+
+    boolean thrown = false;
+    try {
+      pA.fetchPage(21);
+    } catch (PageException e) {
+      thrown = true;
+    }
+    assertTrue(thrown);
+    pA.close();
+    assertEquals(0, pool.getNumCachedPages());
+  }
+
+  @Test
+  public void TestPagePrimitiveAccessors() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+    Page p = pA.fetchPage(pA.allocPage());
+
+    p.putInt(0, -7);
+    p.putLong(4, 1L << 40);
+    p.putFloat(12, 2.5f);
+    p.putByte(Page.pageSize - 1, (byte) 9);
+    p.putBytes(16, new byte[] {1, 2, 3, 4}, 1, 3);
+
+    assertEquals(-7, p.getInt(0));
+    assertEquals(-7, p.readInt(0));
+    assertEquals(1L << 40, p.getLong(4));
+    assertEquals(2.5f, p.getFloat(12), 0);
+    assertEquals((byte) 9, p.getByte(Page.pageSize - 1));
+    assertEquals(ByteBuffer.allocate(4).putInt(-7).array()[0], p.getByte(0));
+
+    byte[] copy = new byte[5];
+    p.getBytes(16, copy, 1, 3);
+    assertArrayEquals(new byte[] {0, 2, 3, 4, 0}, copy);
+
+    boolean thrown = false;
+    try {
+      p.getInt(Page.pageSize - 2);
+    } catch (PageException e) {
+      thrown = true;
+    }
+    assertTrue(thrown);
+
+    thrown = false;
+    try {
+      p.putLong(-1, 0);
+    } catch (PageException e) {
+      thrown = true;
+    }
+    assertTrue(thrown);
+
+    p.wipe();
+    assertEquals(0, p.getLong(4));
+    pA.close();
+  }
+
+  @Test
+  public void TestPageConcurrentReaders() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    final PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, new BufferPool(16));
+    final int numPages = 32;
+    for (int i = 0; i < numPages; i++) {
+      Page p = pA.fetchPage(pA.allocPage());
+      for (int j = 0; j < Page.pageSize; j++) {
+        p.writeByte(j, (byte) (i + j));
+      }
+    }
+
+    final List<Throwable> failures = new ArrayList<Throwable>();
+    Thread[] readers = new Thread[4];
+    for (int t = 0; t < readers.length; t++) {
+      final int offset = t * 7;
+      readers[t] = new Thread(new Runnable() {
+        public void run() {
+          try {
+            byte[] buf = new byte[64];
+            for (int round = 0; round < 200; round++) {
+              int pageNum = (round + offset) % numPages;
+              int position = (round * 61 + offset) % (Page.pageSize - buf.length);
+              pA.fetchPage(pageNum).readBytes(position, buf.length, buf);
+              for (int j = 0; j < buf.length; j++) {
+                assertEquals((byte) (pageNum + position + j), buf[j]);
+              }
+            }
+          } catch (Throwable e) {
+            synchronized (failures) {
+              failures.add(e);
+            }
+          }
+        }
+      });
+      readers[t].start();
+    }
+    for (Thread reader : readers) {
+      reader.join();
+    }
+    assertTrue(failures.toString(), failures.isEmpty());
+    pA.close();
+  }
+
+  @Test
+  public void TestPageLatch() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+    final Page p = pA.pinPage(pA.allocPage());
+
+    final boolean[] acquired = new boolean[2];
+    Runnable tryBoth = new Runnable() {
+      public void run() {
+        acquired[0] = p.tryLatchShared();
+        if (acquired[0]) {
+          p.unlatchShared();
+        }
+        acquired[1] = p.tryLatchExclusive();
+        if (acquired[1]) {
+          p.unlatchExclusive();
+        }
+      }
+    };
+
+    p.latchShared();
+    Thread other = new Thread(tryBoth);
+    other.start();
+    other.join();
+    assertTrue(acquired[0]);
+    assertFalse(acquired[1]);
+    p.unlatchShared();
+
+    p.latchExclusive();
+    assertTrue(p.isLatchedExclusive());
+    other = new Thread(tryBoth);
+    other.start();
+    other.join();
+    assertFalse(acquired[0]);
+    assertFalse(acquired[1]);
+    p.unlatchExclusive();
+
+    assertSame(p, pA.fetchPage(p.getPageNum()));
+    assertTrue(pA.unpinPage(p));
+    pA.close();
+  }
 }
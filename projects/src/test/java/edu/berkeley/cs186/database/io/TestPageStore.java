@@ -0,0 +1,183 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+* Tests the PageStore implementations used by PageAllocator.java
+*/
+
+public class TestPageStore {
+  private final String fName = "TestPageStore.temp";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private PageStore newStore(String path, int kind) {
+    switch (kind) {
+      case 0:
+        return new MappedPageStore(path);
+      case 1:
+        return new SegmentedPageStore(path, 16 * Page.pageSize);
+      default:
+        return new PositionalPageStore(path);
+    }
+  }
+
+  /**
+   * Writes pages through a small buffer pool with one kind of store and reads them back with every
+   * kind of store.
+   */
+  private void writeAndReadBack(int writeKind) throws IOException {
+    File tempFile = tempFolder.newFile(fName + writeKind);
+    String path = tempFile.getAbsolutePath();
+
+    PageAllocator pA = new PageAllocator(newStore(path, writeKind), true, false, new BufferPool(16));
+    for (int i = 0; i < 300; i++) {
+      assertEquals(i, pA.allocPage());
+      pA.fetchPage(i).writeInt(100, i * 7);
+    }
+    for (int i = 0; i < 300; i += 10) {
+      assertTrue(pA.freePage(i));
+    }
+    pA.close();
+
+    for (int readKind = 0; readKind < 3; readKind++) {
+      pA = new PageAllocator(newStore(path, readKind), false, false, new BufferPool(16));
+      assertEquals(270, pA.getNumPages());
+
+      Iterator<Page> iter = pA.iterator();
+      int count = 0;
+      while (iter.hasNext()) {
+        Page p = iter.next();
+        assertTrue(p.getPageNum() % 10 != 0);
+        assertEquals(p.getPageNum() * 7, p.readInt(100));
+        count++;
+      }
+      assertEquals(270, count);
+      pA.close();
+    }
+  }
+
+  @Test
+  public void TestPageStoresInterchangeable() throws IOException {
+    for (int kind = 0; kind < 3; kind++) {
+      writeAndReadBack(kind);
+    }
+  }
+
+  @Test
+  public void TestPositionalEvictedPageWritesThrough() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    String path = tempFile.getAbsolutePath();
+    PageAllocator pA = new PageAllocator(new PositionalPageStore(path), true, false, new BufferPool(4));
+    for (int i = 0; i < 10; i++) {
+      pA.allocPage();
+    }
+
+    Page stale = pA.fetchPage(0);
+    for (int i = 1; i < 10; i++) {
+      pA.fetchPage(i);
+    }
+    stale.writeInt(0, 99);
+    assertFalse(stale.isDirty());
+
+    Page reloaded = pA.fetchPage(0);
+    assertSame(stale, reloaded);
+    assertEquals(99, reloaded.readInt(0));
+    pA.close();
+
+    pA = new PageAllocator(new PositionalPageStore(path), false, false, new BufferPool(4));
+    assertEquals(99, pA.fetchPage(0).readInt(0));
+    pA.close();
+  }
+
+  @Test
+  public void TestPositionalWritesBackOnEvictionAndClose() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PositionalPageStore store = new PositionalPageStore(tempFile.getAbsolutePath());
+    PageAllocator pA = new PageAllocator(store, true, false, new BufferPool(8));
+    for (int i = 0; i < 8; i++) {
+      pA.allocPage();
+    }
+    // Nothing has been written yet: every page is dirty in the buffer pool
+    assertEquals(0, store.getNumWrites());
+
+    pA.allocPage();
+    assertEquals(1, store.getNumWrites());
+
+    long readsBefore = store.getNumReads();
+    pA.fetchPage(8);
+    assertEquals(readsBefore, store.getNumReads());
+
+    pA.close();
+    // The 8 cached data pages, the header page and the master page
+    assertEquals(11, store.getNumWrites());
+  }
+
+  @Test
+  public void TestPositionalDurableFlushesForceOnce() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PositionalPageStore store = new PositionalPageStore(tempFile.getAbsolutePath());
+    PageAllocator pA = new PageAllocator(store, true, true, new BufferPool(4));
+    pA.setCommitWindow(1000, 0);
+    long syncsBefore = pA.getMetrics().getSyncs();
+    for (int i = 0; i < 20; i++) {
+      pA.allocPage();
+    }
+    // Evicted durable pages were written but not forced
+    assertTrue(store.getNumWrites() >= 16);
+    assertEquals(syncsBefore, pA.getMetrics().getSyncs());
+
+    // One force for the data and header pages, then one for the master page
+    pA.sync();
+    assertEquals(syncsBefore + 2, pA.getMetrics().getSyncs());
+    pA.sync();
+    assertEquals(syncsBefore + 2, pA.getMetrics().getSyncs());
+    pA.close();
+  }
+
+  @Test
+  public void TestPositionalEvictionGivesPageBuffersBack() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    // The master and header pages, one page per frame and the page being loaded
+    BufferPool pool = new BufferPool(4, new ClockPolicy(), 7);
+    PageAllocator pA = new PageAllocator(new PositionalPageStore(tempFile.getAbsolutePath()), true, false, pool);
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, pA.allocPage());
+      pA.fetchPage(i).writeInt(0, i);
+    }
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, pA.fetchPage(i).readInt(0));
+    }
+    assertTrue(pool.getPageBuffers().getNumLent() <= 7);
+    pA.close();
+    assertEquals(0, pool.getPageBuffers().getNumLent());
+  }
+
+  @Test
+  public void TestPositionalFailsWhenPageBuffersRunOut() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    BufferPool pool = new BufferPool(4, new ClockPolicy(), 6);
+    PageAllocator pA = new PageAllocator(new PositionalPageStore(tempFile.getAbsolutePath()), true, false, pool);
+    for (int i = 0; i < 4; i++) {
+      pA.allocPage();
+    }
+    assertEquals(6, pool.getPageBuffers().getNumLent());
+
+    // A fifth page needs a buffer before a frame can be freed
+    try {
+      pA.allocPage();
+      fail("Expected the page buffers to run out");
+    } catch (PageException e) {
+      // expected
+    }
+    assertEquals(6, pool.getPageBuffers().getNumLent());
+    pA.close();
+  }
+}
@@ -0,0 +1,141 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+* Tests the ReplacementPolicy implementations used by BufferPool.java
+*/
+
+public class TestReplacementPolicy {
+  private final String fName = "TestReplacementPolicy.temp";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  private static int[] noPins(int numFrames) {
+    return new int[numFrames];
+  }
+
+  @Test
+  public void TestLRUEvictsLeastRecentlyUsed() {
+    ReplacementPolicy policy = new LRUPolicy();
+    policy.init(3);
+    policy.recordLoad(0, 10);
+    policy.recordLoad(1, 11);
+    policy.recordLoad(2, 12);
+    policy.recordAccess(0);
+
+    assertEquals(1, policy.chooseVictim(noPins(3)));
+    assertEquals(2, policy.chooseVictim(noPins(3)));
+    assertEquals(0, policy.chooseVictim(noPins(3)));
+    assertEquals(-1, policy.chooseVictim(noPins(3)));
+  }
+
+  @Test
+  public void TestClockSkipsPinned() {
+    ReplacementPolicy policy = new ClockPolicy();
+    policy.init(3);
+    policy.recordLoad(0, 10);
+    policy.recordLoad(1, 11);
+    policy.recordLoad(2, 12);
+
+    int[] pins = new int[] {1, 1, 0};
+    assertEquals(2, policy.chooseVictim(pins));
+    assertEquals(-1, policy.chooseVictim(pins));
+    pins[0] = 0;
+    assertEquals(0, policy.chooseVictim(pins));
+  }
+
+  @Test
+  public void TestTwoQueuePromotesOnlyRememberedPages() {
+    ReplacementPolicy policy = new TwoQueuePolicy(0.25f, 0.5f);
+    policy.init(4);
+    policy.recordLoad(0, 10);
+    policy.recordLoad(1, 11);
+    policy.recordLoad(2, 12);
+    policy.recordLoad(3, 13);
+
+    // Every page is in A1in, so the oldest one goes first and is remembered in A1out.
+    assertEquals(0, policy.chooseVictim(noPins(4)));
+    policy.recordLoad(0, 10);
+    assertEquals(1, policy.chooseVictim(noPins(4)));
+    policy.recordLoad(1, 14);
+
+    // Page 10 was promoted to Am, so A1in is drained down to its target size first.
+    assertEquals(2, policy.chooseVictim(noPins(4)));
+    assertEquals(3, policy.chooseVictim(noPins(4)));
+    assertEquals(0, policy.chooseVictim(noPins(4)));
+    assertEquals(1, policy.chooseVictim(noPins(4)));
+  }
+
+  @Test
+  public void TestTwoQueueSkipsPinned() {
+    ReplacementPolicy policy = new TwoQueuePolicy();
+    policy.init(4);
+    for (int i = 0; i < 4; i++) {
+      policy.recordLoad(i, 20 + i);
+    }
+
+    assertEquals(3, policy.chooseVictim(new int[] {1, 1, 1, 0}));
+    assertEquals(-1, policy.chooseVictim(new int[] {1, 1, 1, 0}));
+  }
+
+  /**
+   * Runs point lookups over a small hot set while a sequential scan larger than the pool walks the
+   * same file, and returns the hit ratio of the point lookups alone.
+   */
+  private float hotHitRatioDuringScan(ReplacementPolicy policy) throws IOException {
+    final int numFrames = 64;
+    final int numHotPages = 24;
+    final int numScanPages = 1000;
+
+    File tempFile = tempFolder.newFile(fName + policy.getClass().getSimpleName());
+    BufferPool pool = new BufferPool(numFrames, policy);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+    pA.setReadAhead(0);
+    for (int i = 0; i < numHotPages + numScanPages; i++) {
+      pA.allocPage();
+    }
+
+    Random random = new Random(186);
+    for (int i = 0; i < 4 * numHotPages; i++) {
+      pA.fetchPage(random.nextInt(numHotPages));
+    }
+
+    long hotHits = 0;
+    long hotLookups = 0;
+    Iterator<Page> scan = pA.iterator();
+    while (scan.hasNext()) {
+      scan.next();
+      if (scan.hasNext()) {
+        scan.next();
+      }
+
+      long hitsBefore = pool.getNumHits();
+      pA.fetchPage(random.nextInt(numHotPages));
+      hotHits += pool.getNumHits() - hitsBefore;
+      hotLookups++;
+    }
+    pA.close();
+
+    return (float) hotHits / hotLookups;
+  }
+
+  @Test
+  public void TestTwoQueueScanResistance() throws IOException {
+    float lruRatio = hotHitRatioDuringScan(new LRUPolicy());
+    float clockRatio = hotHitRatioDuringScan(new ClockPolicy());
+    float twoQueueRatio = hotHitRatioDuringScan(new TwoQueuePolicy());
+
+    assertTrue(twoQueueRatio > 0.8f);
+    assertTrue(twoQueueRatio > lruRatio + 0.1f);
+    assertTrue(twoQueueRatio > clockRatio + 0.1f);
+  }
+}
@@ -17,6 +17,7 @@ import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.FloatDataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.databox.StringDataBox;
+import edu.berkeley.cs186.database.table.PageFormat;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 import org.junit.rules.TemporaryFolder;
@@ -443,4 +444,29 @@ public class TestJoinOperator {
 
   }
 
-}
\ No newline at end of file
+  @Test(timeout=5000)
+  public void testPNLJOverSlottedTables() throws QueryPlanException, DatabaseException, IOException {
+    File tempDir = tempFolder.newFolder("joinTest");
+    Database d = new Database(tempDir.getAbsolutePath(), 4);
+    Database.Transaction transaction = d.beginTransaction();
+    d.createTable(TestUtils.createSchemaWithAllTypes(), "leftTable", PageFormat.SLOTTED);
+    d.createTable(TestUtils.createSchemaWithAllTypes(), "rightTable");
+    for (int i = 0; i < 500; i++) {
+      transaction.addRecord("leftTable", TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+      transaction.addRecord("rightTable", TestUtils.createRecordWithAllTypesWithValue(i % 100).getValues());
+    }
+
+    QueryOperator s1 = new SequentialScanOperator(transaction, "leftTable");
+    QueryOperator s2 = new SequentialScanOperator(transaction, "rightTable");
+    QueryOperator joinOperator = new PNLJOperator(s1, s2, "int", "int", transaction);
+    Iterator<Record> outputIterator = joinOperator.iterator();
+    int count = 0;
+    while (outputIterator.hasNext()) {
+      Record r = outputIterator.next();
+      assertEquals(r.getValues().get(1), r.getValues().get(5));
+      assertTrue(r.getValues().get(1).getInt() < 100);
+      count++;
+    }
+    assertEquals(500, count);
+  }
+}
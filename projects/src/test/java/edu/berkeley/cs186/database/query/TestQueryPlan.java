@@ -23,6 +23,7 @@ import edu.berkeley.cs186.database.databox.FloatDataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.table.MarkerRecord;
+import edu.berkeley.cs186.database.table.PageFormat;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.StringHistogram;
@@ -625,4 +626,31 @@ public class TestQueryPlan {
 
     transaction.end();
   }
+
+  @Test
+  public void testProjectSelectOverPaxTable() throws DatabaseException, QueryPlanException {
+    this.database.createTable(TestUtils.createSchemaWithAllTypes(), "paxTable", PageFormat.PAX);
+    Database.Transaction transaction = this.database.beginTransaction();
+    for (int i = 0; i < 1000; i++) {
+      transaction.addRecord("paxTable", TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+
+    QueryPlan queryPlan = transaction.query("paxTable");
+    queryPlan.select("int", QueryPlan.PredicateOperator.LESS_THAN, new IntDataBox(500));
+    List<String> columnNames = new ArrayList<String>();
+    columnNames.add("string");
+    queryPlan.project(columnNames);
+
+    Iterator<Record> recordIterator = queryPlan.execute();
+    int count = 0;
+    while (recordIterator.hasNext()) {
+      List<DataBox> values = recordIterator.next().getValues();
+      assertEquals(1, values.size());
+      assertEquals(new StringDataBox(String.format("%05d", count), 5), values.get(0));
+      count++;
+    }
+    assertEquals(500, count);
+
+    transaction.end();
+  }
 }
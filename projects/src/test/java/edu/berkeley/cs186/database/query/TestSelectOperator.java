@@ -15,8 +15,11 @@ import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.TestUtils;
 import edu.berkeley.cs186.database.StudentTest;
 import edu.berkeley.cs186.database.StudentTestP2;
+import edu.berkeley.cs186.database.databox.BoolDataBox;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.table.Record;
 
 import static org.junit.Assert.*;
@@ -258,4 +261,36 @@ public class TestSelectOperator {
 
     assertEquals(0, keptValues.size());
   }
+
+  @Test
+  public void testSelectOnIntAndBoolColumns() throws QueryPlanException, DatabaseException {
+    List<Record> records = new ArrayList<Record>();
+    for (int i = 0; i < 10; i++) {
+      List<DataBox> values = new ArrayList<DataBox>();
+      values.add(new BoolDataBox(i % 2 == 0));
+      values.add(new IntDataBox(i));
+      values.add(new StringDataBox("abcde", 5));
+      values.add(new FloatDataBox(i / 2.0f));
+      records.add(new Record(values));
+    }
+    TestSourceOperator sourceOperator = new TestSourceOperator(records,
+        TestUtils.createSchemaWithAllTypes());
+
+    SelectOperator intSelect = new SelectOperator(sourceOperator, "int",
+            QueryPlan.PredicateOperator.LESS_THAN_EQUALS, new IntDataBox(4));
+    SelectOperator boolSelect = new SelectOperator(intSelect, "bool",
+            QueryPlan.PredicateOperator.EQUALS, new BoolDataBox(true));
+
+    Iterator<Record> output = boolSelect.execute();
+    List<Integer> kept = new ArrayList<Integer>();
+    while (output.hasNext()) {
+      kept.add(output.next().getInt(1));
+    }
+
+    List<Integer> expected = new ArrayList<Integer>();
+    expected.add(0);
+    expected.add(2);
+    expected.add(4);
+    assertEquals(expected, kept);
+  }
 }
@@ -54,4 +54,24 @@ public class TestSchema {
     schema.verify(values);
   }
 
+  @Test
+  public void testCompactEncoding() {
+    List<String> fieldNames = new ArrayList<String>();
+    List<DataBox> fieldTypes = new ArrayList<DataBox>();
+    fieldNames.add("int");
+    fieldTypes.add(new IntDataBox());
+    fieldNames.add("string");
+    fieldTypes.add(new StringDataBox(100));
+    Schema schema = new Schema(fieldNames, fieldTypes);
+
+    List<DataBox> values = new ArrayList<DataBox>();
+    values.add(new IntDataBox(7));
+    values.add(new StringDataBox("abc", 100));
+    Record input = new Record(values);
+
+    byte[] encoded = schema.encodeCompact(input);
+    assertEquals(4 + 2 + 3, encoded.length);
+    assertEquals(4 + 2 + 100, schema.getMaxCompactSize());
+    assertEquals(input, schema.decodeCompact(encoded, 0));
+  }
 }
@@ -15,9 +15,14 @@ import org.junit.rules.TemporaryFolder;
 import org.junit.experimental.categories.Category;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Iterator;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 
 import static org.junit.Assert.*;
 
@@ -391,4 +396,578 @@ public class TestTable {
     assertFalse(iRec.hasNext());
   }
 
+  private File metadataFile() {
+    return new File(tempFolder.getRoot(), TABLENAME + Table.METADATA_EXTENSION);
+  }
+
+  private void fillForMetadata() throws DatabaseException {
+    Record input = TestUtils.createRecordWithAllTypes();
+    RecordID[] recordIds = new RecordID[600];
+    for (int i = 0; i < recordIds.length; i++) {
+      input.getValues().get(1).setInt(i % 97);
+      recordIds[i] = table.addRecord(input.getValues());
+    }
+    for (int i = 0; i < recordIds.length; i += 3) {
+      table.deleteRecord(recordIds[i]);
+    }
+  }
+
+  @Test
+  public void testTableMetadataFastPath() throws Exception {
+    fillForMetadata();
+    long numRecords = table.getNumRecords();
+    int numDistinct = table.getStats().getNumDistinct(1);
+    int numPages = table.getNumPages();
+    assertFalse(metadataFile().exists());
+
+    table.close();
+    assertTrue(metadataFile().exists());
+
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    this.table = new Table(TABLENAME, tempFolderPath);
+    // Only the header page is read; the records are not scanned
+    assertEquals(1, table.getMetrics().getLogicalReads());
+    assertEquals(numRecords, table.getNumRecords());
+    assertEquals(numRecords, table.getStats().getNumRecords());
+    assertEquals(numDistinct, table.getStats().getNumDistinct(1));
+
+    // Deleted slots are reused before any new page is allocated
+    Record input = TestUtils.createRecordWithAllTypes();
+    RecordID rid = table.addRecord(input.getValues());
+    assertEquals(1, rid.getPageNum());
+    assertEquals(0, rid.getEntryNumber());
+    assertEquals(numPages, table.getNumPages());
+  }
+
+  @Test
+  public void testTableMetadataInvalidatedOnChange() throws Exception {
+    fillForMetadata();
+    table.close();
+
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    this.table = new Table(TABLENAME, tempFolderPath);
+    assertTrue(metadataFile().exists());
+    table.getRecord(new RecordID(1, 1));
+    assertTrue(metadataFile().exists());
+
+    table.addRecord(TestUtils.createRecordWithAllTypes().getValues());
+    assertFalse(metadataFile().exists());
+    long numRecords = table.getNumRecords();
+
+    // Reopening without closing, as after a crash, falls back to scanning the records
+    Table reopened = new Table(TABLENAME, tempFolderPath);
+    assertEquals(numRecords, reopened.getNumRecords());
+    assertTrue(reopened.getMetrics().getLogicalReads() > 1);
+    reopened.close();
+  }
+
+  @Test
+  public void testTableMetadataCorruptFallsBack() throws Exception {
+    fillForMetadata();
+    long numRecords = table.getNumRecords();
+    int numDistinct = table.getStats().getNumDistinct(1);
+    table.close();
+
+    byte[] bytes = Files.readAllBytes(metadataFile().toPath());
+    bytes[20] ^= 0x01;
+    Files.write(metadataFile().toPath(), bytes);
+
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    this.table = new Table(TABLENAME, tempFolderPath);
+    assertTrue(table.getMetrics().getLogicalReads() > 1);
+    assertEquals(numRecords, table.getNumRecords());
+    assertEquals(numDistinct, table.getStats().getNumDistinct(1));
+  }
+
+  @Test
+  public void testTableAddRecords() throws DatabaseException {
+    Record input = TestUtils.createRecordWithAllTypes();
+    RecordID[] first = new RecordID[100];
+    for (int i = 0; i < first.length; i++) {
+      input.getValues().get(1).setInt(i);
+      first[i] = table.addRecord(input.getValues());
+    }
+    for (int i = 0; i < first.length; i += 2) {
+      table.deleteRecord(first[i]);
+    }
+
+    List<List<DataBox>> rows = new ArrayList<List<DataBox>>();
+    for (int i = 0; i < 1000; i++) {
+      rows.add(TestUtils.createRecordWithAllTypesWithValue(1000 + i).getValues());
+    }
+    List<RecordID> rids = table.addRecords(rows.iterator());
+
+    assertEquals(1000, rids.size());
+    assertEquals(1050, table.getNumRecords());
+    assertEquals(1050, table.getStats().getNumRecords());
+    // The slots freed on the first page are filled before any new page
+    assertEquals(new RecordID(1, 0), rids.get(0));
+    assertEquals(new RecordID(1, 2), rids.get(1));
+    for (int i = 0; i < rids.size(); i++) {
+      assertEquals(new Record(rows.get(i)), table.getRecord(rids.get(i)));
+    }
+    for (int i = 1; i < first.length; i += 2) {
+      input.getValues().get(1).setInt(i);
+      assertEquals(input, table.getRecord(first[i]));
+    }
+
+    // Single inserts continue after the bulk-loaded records
+    RecordID next = table.addRecord(input.getValues());
+    assertEquals(rids.get(rids.size() - 1).getPageNum(), next.getPageNum());
+    assertEquals(rids.get(rids.size() - 1).getEntryNumber() + 1, next.getEntryNumber());
+  }
+
+  @Test
+  public void testTableAddRecordsStopsAtInvalidRow() throws DatabaseException {
+    List<List<DataBox>> rows = new ArrayList<List<DataBox>>();
+    for (int i = 0; i < 10; i++) {
+      rows.add(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+    rows.add(TestUtils.createRecordWithAllTypes().getValues().subList(0, 2));
+    rows.add(TestUtils.createRecordWithAllTypesWithValue(11).getValues());
+
+    boolean thrown = false;
+    try {
+      table.addRecords(rows.iterator());
+    } catch (DatabaseException e) {
+      thrown = true;
+    }
+    assertTrue(thrown);
+    assertEquals(10, table.getNumRecords());
+
+    Iterator<Record> iRec = table.iterator();
+    for (int i = 0; i < 10; i++) {
+      assertEquals(new Record(rows.get(i)), iRec.next());
+    }
+    assertFalse(iRec.hasNext());
+  }
+
+  private Schema createVarcharSchema() {
+    List<String> fieldNames = new ArrayList<String>();
+    List<DataBox> fieldTypes = new ArrayList<DataBox>();
+    fieldNames.add("id");
+    fieldTypes.add(new IntDataBox());
+    fieldNames.add("name");
+    fieldTypes.add(new StringDataBox(256));
+    return new Schema(fieldNames, fieldTypes);
+  }
+
+  private List<DataBox> createVarcharRow(int id, String name) {
+    List<DataBox> values = new ArrayList<DataBox>();
+    values.add(new IntDataBox(id));
+    values.add(new StringDataBox(name, 256));
+    return values;
+  }
+
+  @Test
+  public void testSlottedTableStoresShortStringsCompactly() throws DatabaseException {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    Table fixedTable = new Table(createVarcharSchema(), "fixedTable", tempFolderPath);
+    Table slottedTable = new Table(createVarcharSchema(), "slottedTable", tempFolderPath, PageFormat.SLOTTED);
+
+    List<RecordID> rids = new ArrayList<RecordID>();
+    for (int i = 0; i < 1000; i++) {
+      fixedTable.addRecord(createVarcharRow(i, "name " + i));
+      rids.add(slottedTable.addRecord(createVarcharRow(i, "name " + i)));
+    }
+
+    assertEquals(PageFormat.SLOTTED, slottedTable.getPageFormat());
+    assertTrue(slottedTable.getNumDataPages() * 10 < fixedTable.getNumDataPages());
+    for (int i = 0; i < rids.size(); i++) {
+      assertEquals(new Record(createVarcharRow(i, "name " + i)), slottedTable.getRecord(rids.get(i)));
+    }
+    Iterator<Record> iRec = slottedTable.iterator();
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(new Record(createVarcharRow(i, "name " + i)), iRec.next());
+    }
+    assertFalse(iRec.hasNext());
+
+    // Deleting compacts the page, so the freed space can hold a record of any size
+    int numPages = slottedTable.getNumPages();
+    for (int i = 0; i < 20; i++) {
+      slottedTable.deleteRecord(rids.get(i));
+    }
+    char[] longName = new char[256];
+    Arrays.fill(longName, 'x');
+    RecordID rid = slottedTable.addRecord(createVarcharRow(-1, new String(longName)));
+    assertEquals(1, rid.getPageNum());
+    assertEquals(numPages, slottedTable.getNumPages());
+    assertEquals(new Record(createVarcharRow(-1, new String(longName))), slottedTable.getRecord(rid));
+    assertEquals(new Record(createVarcharRow(20, "name 20")), slottedTable.getRecord(rids.get(20)));
+
+    fixedTable.close();
+    slottedTable.close();
+  }
+
+  @Test
+  public void testSlottedTableForwardsGrownRecords() throws DatabaseException {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    Table slottedTable = new Table(createVarcharSchema(), "slottedTable", tempFolderPath, PageFormat.SLOTTED);
+
+    List<RecordID> rids = new ArrayList<RecordID>();
+    do {
+      rids.add(slottedTable.addRecord(createVarcharRow(rids.size(), "short")));
+    } while (rids.get(rids.size() - 1).getPageNum() == 1);
+
+    // Records on the first, full page grow until they no longer fit on it
+    char[] longName = new char[200];
+    Arrays.fill(longName, 'y');
+    for (int i = 0; i < 5; i++) {
+      slottedTable.updateRecord(createVarcharRow(i, new String(longName)), rids.get(i));
+    }
+    assertTrue(slottedTable.getNumDataPages() >= 2);
+    for (int i = 0; i < rids.size(); i++) {
+      String name = i < 5 ? new String(longName) : "short";
+      assertEquals(new Record(createVarcharRow(i, name)), slottedTable.getRecord(rids.get(i)));
+    }
+
+    // Every record is scanned exactly once, wherever it is stored
+    boolean[] seen = new boolean[rids.size()];
+    for (Record record : slottedTable) {
+      int id = record.getValues().get(0).getInt();
+      assertFalse(seen[id]);
+      seen[id] = true;
+    }
+    for (boolean s : seen) {
+      assertTrue(s);
+    }
+
+    // Key rows carry the RecordID a record was added with, even when it has been moved
+    Iterator<List<DataBox>> rows = slottedTable.keyIterator(0);
+    for (int i = 0; i < rids.size(); i++) {
+      assertTrue(rows.hasNext());
+      List<DataBox> row = rows.next();
+      assertEquals(new IntDataBox(i), row.get(0));
+      assertEquals(rids.get(i), new RecordID(row.get(1).getInt(), row.get(2).getInt()));
+    }
+    assertFalse(rows.hasNext());
+
+    // Reopening without the metadata file scans the pages, skipping the forwards
+    Table reopened = new Table("slottedTable", tempFolderPath);
+    assertEquals(PageFormat.SLOTTED, reopened.getPageFormat());
+    assertEquals(rids.size(), reopened.getNumRecords());
+    reopened.close();
+
+    // Shrinking and deleting forwarded records removes the records they were moved to
+    slottedTable.updateRecord(createVarcharRow(0, "short again"), rids.get(0));
+    assertEquals(new Record(createVarcharRow(0, "short again")), slottedTable.getRecord(rids.get(0)));
+    for (int i = 1; i < 5; i++) {
+      assertEquals(new Record(createVarcharRow(i, new String(longName))), slottedTable.deleteRecord(rids.get(i)));
+    }
+    int count = 0;
+    for (Record record : slottedTable) {
+      assertTrue(record.getValues().get(1).getString().startsWith("short"));
+      count++;
+    }
+    assertEquals(rids.size() - 4, count);
+    slottedTable.close();
+  }
+
+  @Test
+  public void testPaxTable() throws DatabaseException {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    Table paxTable = new Table(this.schema, "paxTable", tempFolderPath, PageFormat.PAX);
+    assertEquals(table.getNumEntriesPerPage(), paxTable.getNumEntriesPerPage());
+
+    List<RecordID> rids = new ArrayList<RecordID>();
+    for (int i = 0; i < 1000; i++) {
+      table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+      rids.add(paxTable.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+    }
+    assertEquals(table.getNumDataPages(), paxTable.getNumDataPages());
+
+    for (int i = 0; i < 1000; i += 2) {
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), paxTable.deleteRecord(rids.get(i)));
+    }
+    for (int i = 1; i < 1000; i += 4) {
+      paxTable.updateRecord(TestUtils.createRecordWithAllTypesWithValue(10000 + i).getValues(), rids.get(i));
+    }
+    for (int i = 1; i < 1000; i += 2) {
+      int value = i % 4 == 1 ? 10000 + i : i;
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(value), paxTable.getRecord(rids.get(i)));
+    }
+
+    Iterator<Record> iRec = paxTable.iterator();
+    for (int i = 1; i < 1000; i += 2) {
+      int value = i % 4 == 1 ? 10000 + i : i;
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(value), iRec.next());
+    }
+    assertFalse(iRec.hasNext());
+    paxTable.close();
+
+    // Scans of some columns decode them from the page directly
+    Table reopened = new Table("paxTable", tempFolderPath);
+    assertEquals(PageFormat.PAX, reopened.getPageFormat());
+    List<Integer> columns = new ArrayList<Integer>();
+    columns.add(1);
+    iRec = reopened.iterator(columns);
+    for (int i = 1; i < 1000; i += 2) {
+      assertEquals(new IntDataBox(i % 4 == 1 ? 10000 + i : i), iRec.next().getValue(1));
+    }
+    assertFalse(iRec.hasNext());
+    reopened.close();
+  }
+
+  @Test
+  public void testCompressedTable() throws DatabaseException {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    Table fixedTable = new Table(createVarcharSchema(), "fixedTable", tempFolderPath);
+    Table compressedTable = new Table(createVarcharSchema(), "compressedTable", tempFolderPath,
+        PageFormat.COMPRESSED);
+
+    List<RecordID> rids = new ArrayList<RecordID>();
+    for (int i = 0; i < 1000; i++) {
+      fixedTable.addRecord(createVarcharRow(i, "name " + i % 10));
+      rids.add(compressedTable.addRecord(createVarcharRow(i, "name " + i % 10)));
+    }
+    assertEquals(PageFormat.COMPRESSED, compressedTable.getPageFormat());
+    assertTrue(compressedTable.getNumDataPages() * 50 < fixedTable.getNumDataPages());
+
+    for (int i = 0; i < 1000; i += 2) {
+      compressedTable.deleteRecord(rids.get(i));
+    }
+    for (int i = 1; i < 1000; i += 4) {
+      compressedTable.updateRecord(createVarcharRow(-i, "updated"), rids.get(i));
+    }
+    // Deleted entries are reused first
+    assertEquals(rids.get(0), compressedTable.addRecord(createVarcharRow(0, "name 0")));
+    assertEquals(new Record(createVarcharRow(0, "name 0")), compressedTable.getRecord(rids.get(0)));
+
+    Iterator<Record> iRec = compressedTable.iterator();
+    assertEquals(new Record(createVarcharRow(0, "name 0")), iRec.next());
+    for (int i = 1; i < 1000; i += 2) {
+      Record expected = i % 4 == 1 ? new Record(createVarcharRow(-i, "updated"))
+          : new Record(createVarcharRow(i, "name " + i % 10));
+      assertEquals(expected, compressedTable.getRecord(rids.get(i)));
+      assertEquals(expected, iRec.next());
+    }
+    assertFalse(iRec.hasNext());
+    fixedTable.close();
+    compressedTable.close();
+
+    Table reopened = new Table("compressedTable", tempFolderPath);
+    assertEquals(PageFormat.COMPRESSED, reopened.getPageFormat());
+    assertEquals(501, reopened.getNumRecords());
+    List<Integer> columns = new ArrayList<Integer>();
+    columns.add(0);
+    iRec = reopened.iterator(columns);
+    assertEquals(new IntDataBox(0), iRec.next().getValue(0));
+    for (int i = 1; i < 1000; i += 2) {
+      Record record = iRec.next();
+      assertEquals(new IntDataBox(i % 4 == 1 ? -i : i), record.getValue(0));
+      assertNull(record.getValue(1));
+    }
+    assertFalse(iRec.hasNext());
+    reopened.close();
+  }
+
+  @Test
+  public void testCompressedTableAllTypes() throws DatabaseException {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    Table compressedTable = new Table(this.schema, "compressedTable", tempFolderPath, PageFormat.COMPRESSED);
+    for (int i = 0; i < 1000; i++) {
+      compressedTable.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+    int i = 0;
+    for (Record record : compressedTable) {
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), record);
+      i++;
+    }
+    assertEquals(1000, i);
+    compressedTable.close();
+  }
+
+  @Test
+  public void testCompressedTableRejectsUpdatesThatNoLongerFit() throws DatabaseException {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    Table compressedTable = new Table(createVarcharSchema(), "compressedTable", tempFolderPath,
+        PageFormat.COMPRESSED);
+    char[] prefix = new char[200];
+    Arrays.fill(prefix, 'x');
+
+    // Every name is shared by two records, so that updating one of them takes more space
+    List<RecordID> rids = new ArrayList<RecordID>();
+    do {
+      int id = rids.size();
+      rids.add(compressedTable.addRecord(createVarcharRow(id, new String(prefix) + id / 2)));
+    } while (rids.get(rids.size() - 1).getPageNum() == 1);
+
+    boolean failed = false;
+    for (int i = 0; i < rids.size() - 1 && !failed; i += 2) {
+      char[] longName = new char[256];
+      Arrays.fill(longName, (char) ('a' + i));
+      try {
+        compressedTable.updateRecord(createVarcharRow(i, new String(longName)), rids.get(i));
+      } catch (DatabaseException e) {
+        failed = true;
+        assertEquals(new Record(createVarcharRow(i, new String(prefix) + i / 2)),
+            compressedTable.getRecord(rids.get(i)));
+      }
+    }
+    assertTrue(failed);
+    compressedTable.close();
+  }
+
+  @Test
+  public void testCompressedTableRejectsRecordsWiderThanAPage() throws DatabaseException {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    try {
+      new Table(createWideSchema(4085), "wideTable", tempFolderPath, PageFormat.COMPRESSED);
+      fail();
+    } catch (IllegalArgumentException e) {
+      // The compact size of the record fits, but not with the overhead of a compressed page
+    }
+
+    Table compressedTable = new Table(createWideSchema(4070), "compressedTable", tempFolderPath,
+        PageFormat.COMPRESSED);
+    char[] name = new char[4070];
+    Arrays.fill(name, 'x');
+    List<DataBox> row = new ArrayList<DataBox>();
+    row.add(new StringDataBox(new String(name), 4070));
+    assertEquals(new RecordID(1, 0), compressedTable.addRecord(row));
+    assertEquals(new RecordID(2, 0), compressedTable.addRecord(row));
+    compressedTable.close();
+  }
+
+  private Schema createWideSchema(int width) {
+    List<String> fieldNames = new ArrayList<String>();
+    List<DataBox> fieldTypes = new ArrayList<DataBox>();
+    fieldNames.add("name");
+    fieldTypes.add(new StringDataBox(width));
+    return new Schema(fieldNames, fieldTypes);
+  }
+
+  @Test
+  public void testScanYieldsLazyRecords() throws DatabaseException {
+    List<RecordID> rids = new ArrayList<RecordID>();
+    for (int i = 0; i < 10; i++) {
+      rids.add(table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+    }
+
+    Iterator<Record> iRec = table.iterator();
+    Record first = iRec.next();
+    assertTrue(first instanceof LazyRecord);
+    assertEquals(new IntDataBox(0), first.getValue(1));
+
+    // Records read the copy of the page taken by the scan, not the page itself
+    table.updateRecord(TestUtils.createRecordWithAllTypesWithValue(99).getValues(), rids.get(1));
+    Record second = iRec.next();
+    assertEquals(new IntDataBox(1), second.getValue(1));
+    assertEquals(TestUtils.createRecordWithAllTypesWithValue(1), second);
+    assertEquals(TestUtils.createRecordWithAllTypesWithValue(0), first);
+    assertEquals(TestUtils.createRecordWithAllTypesWithValue(99), table.getRecord(rids.get(1)));
+  }
+
+  @Test
+  public void testLazyRecordPrimitiveAccessors() throws DatabaseException {
+    for (int i = 0; i < 10; i++) {
+      table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+
+    Iterator<Record> iRec = table.iterator();
+    for (int i = 0; i < 10; i++) {
+      Record record = iRec.next();
+      assertTrue(record.getBool(0));
+      assertEquals(i, record.getInt(1));
+      assertEquals((float) i, record.getFloat(3), 0);
+      // The accessors agree with the decoded values, before and after decoding the whole record
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), record);
+      assertEquals(i, record.getInt(1));
+    }
+  }
+
+  @Test(expected = DataBoxException.class)
+  public void testLazyRecordRejectsWrongAccessor() throws DatabaseException {
+    table.addRecord(TestUtils.createRecordWithAllTypes().getValues());
+    table.iterator().next().getInt(3);
+  }
+
+  private List<RecordID> fillPages(int numPages) throws DatabaseException {
+    List<RecordID> rids = new ArrayList<RecordID>();
+    int numRecords = numPages * table.getNumEntriesPerPage();
+    for (int i = 0; i < numRecords; i++) {
+      rids.add(table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+    }
+    assertEquals(numPages + 1, table.getNumPages());
+    return rids;
+  }
+
+  @Test
+  public void testInsertsFillFullestPageFirst() throws Exception {
+    List<RecordID> rids = fillPages(3);
+    int numEntries = table.getNumEntriesPerPage();
+    // Page 2 is left half empty and page 3 nearly full
+    for (int i = numEntries; i < 2 * numEntries; i += 2) {
+      table.deleteRecord(rids.get(i));
+    }
+    table.deleteRecord(rids.get(2 * numEntries + 5));
+
+    List<DataBox> values = TestUtils.createRecordWithAllTypes().getValues();
+    assertEquals(new RecordID(3, 5), table.addRecord(values));
+    assertEquals(2, table.addRecord(values).getPageNum());
+
+    // The free-space map is saved with the table
+    table.deleteRecord(rids.get(7));
+    table.close();
+    this.table = new Table(TABLENAME, tempFolder.getRoot().getAbsolutePath());
+    assertEquals(new RecordID(1, 7), table.addRecord(values));
+    assertEquals(2, table.addRecord(values).getPageNum());
+    assertEquals(4, table.getNumPages());
+  }
+
+  @Test
+  public void testAddRecordNear() throws DatabaseException {
+    List<RecordID> rids = fillPages(3);
+    int numEntries = table.getNumEntriesPerPage();
+    table.deleteRecord(rids.get(3));
+    table.deleteRecord(rids.get(2 * numEntries + 3));
+
+    List<DataBox> values = TestUtils.createRecordWithAllTypes().getValues();
+    assertEquals(new RecordID(3, 3), table.addRecord(values, rids.get(2 * numEntries)));
+    // Page 2 is full, so the closest page with room is used
+    assertEquals(new RecordID(1, 3), table.addRecord(values, rids.get(numEntries)));
+    assertEquals(new RecordID(4, 0), table.addRecord(values, rids.get(numEntries)));
+    assertEquals(new RecordID(4, 1), table.addRecord(values, rids.get(0)));
+  }
+
+  @Test
+  public void testCompactFreesSparsePages() throws DatabaseException {
+    List<RecordID> rids = fillPages(4);
+    int numEntries = table.getNumEntriesPerPage();
+    // Only every fourth record of pages 2 and 4 is kept
+    for (int i = 0; i < rids.size(); i++) {
+      int pageNum = rids.get(i).getPageNum();
+      if ((pageNum == 2 || pageNum == 4) && i % 4 != 0) {
+        table.deleteRecord(rids.get(i));
+      }
+    }
+
+    Map<RecordID, RecordID> moved = new HashMap<RecordID, RecordID>();
+    // The records of page 4 fit on page 2, but page 2 is then too full to be emptied
+    assertEquals(1, table.compact(10, moved));
+    assertEquals(0, table.compact(10, new HashMap<RecordID, RecordID>()));
+    assertEquals(3, table.getNumDataPages());
+    assertEquals(numEntries / 4, moved.size());
+
+    for (int i = 0; i < rids.size(); i++) {
+      RecordID rid = rids.get(i);
+      if ((rid.getPageNum() == 2 || rid.getPageNum() == 4) && i % 4 != 0) {
+        continue;
+      }
+      if (rid.getPageNum() == 4) {
+        rid = moved.get(rid);
+        assertEquals(2, rid.getPageNum());
+      }
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), table.getRecord(rid));
+    }
+
+    int numScanned = 0;
+    Iterator<Record> iRec = table.iterator();
+    while (iRec.hasNext()) {
+      iRec.next();
+      numScanned++;
+    }
+    assertEquals(table.getNumRecords(), numScanned);
+    assertEquals(2 * numEntries + numEntries / 2, numScanned);
+  }
 }